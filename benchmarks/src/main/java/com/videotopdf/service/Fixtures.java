@@ -0,0 +1,97 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.util.SplittableRandom;
+
+// Deterministic inputs and Spring-free service wiring shared by the
+// benchmarks. Extra fonts can be supplied with -Dbench.fonts.fallback
+// and -Dbench.fonts.scripts (same format as pdf.fonts.*).
+final class Fixtures {
+
+    private static final String[] ASCII_WORDS = {
+        "the", "video", "transcript", "and", "so", "we", "are",
+        "going", "to", "talk", "about", "performance", "of", "this",
+        "system", "which", "really", "matters", "when", "you",
+        "render", "documents", "with", "thousands", "pages",
+        "okay", "right", "let's", "continue", "now"
+    };
+
+    private static final String[] OTHER_WORDS = {
+        "déjà", "français", "über", "niño",
+        "مرحبا", "شكرا", "کتاب", "پاکستان",
+        "नमस्ते", "धन्यवाद",
+        "你好", "谢谢", "こんにちは",
+        "привет", "спасибо"
+    };
+
+    private Fixtures() {}
+
+    // A transcript of the given length: ~12 words a line, an
+    // occasional [mm:ss] stamp, and one in five words from other
+    // scripts when multiScript is set
+    static String transcript(int words, boolean multiScript) {
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder sb = new StringBuilder(words * 7);
+        int seconds = 0;
+        for (int i = 0; i < words; i++) {
+            if (i % 12 == 0) {
+                if (i > 0) sb.append('\n');
+                if (i % 60 == 0) {
+                    sb.append(String.format("[%02d:%02d] ",
+                        seconds / 60 % 60, seconds % 60));
+                    seconds += 7;
+                }
+            } else {
+                sb.append(' ');
+            }
+            String[] pool = multiScript && random.nextInt(5) == 0
+                ? OTHER_WORDS : ASCII_WORDS;
+            sb.append(pool[random.nextInt(pool.length)]);
+        }
+        return sb.toString();
+    }
+
+    static PdfFonts fonts() throws Exception {
+        PdfFonts fonts = new PdfFonts();
+        ReflectionTestUtils.setField(fonts, "fallbackPaths",
+            System.getProperty("bench.fonts.fallback", ""));
+        ReflectionTestUtils.setField(fonts, "scriptPaths",
+            System.getProperty("bench.fonts.scripts", ""));
+        fonts.load();
+        return fonts;
+    }
+
+    static PdfService pdfService(PdfFonts fonts, int parallelPages) {
+        ConversionMetrics metrics =
+            new ConversionMetrics(new SimpleMeterRegistry());
+        PdfService service = new PdfService();
+        ReflectionTestUtils.setField(service, "pdfFonts", fonts);
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "stages", stages(metrics));
+        ReflectionTestUtils.setField(service, "largeDocumentPages", 500);
+        ReflectionTestUtils.setField(service, "largeDocumentHeapBudget",
+            DataSize.ofMegabytes(16));
+        ReflectionTestUtils.setField(service, "scratchDir", "");
+        ReflectionTestUtils.setField(service, "parallelPages",
+            parallelPages);
+        return service;
+    }
+
+    // Render sized to cores as in the service; the rest are unused
+    static PipelineStages stages(ConversionMetrics metrics) {
+        PipelineStages stages = new PipelineStages();
+        ReflectionTestUtils.setField(stages, "metrics", metrics);
+        for (String stage : new String[] {
+                "fetch", "translate", "captions", "transcribe",
+                "render"}) {
+            ReflectionTestUtils.setField(stages, stage + "Threads",
+                stage.equals("render") ? 0 : 1);
+            ReflectionTestUtils.setField(stages, stage + "Queue", 100);
+        }
+        stages.start();
+        return stages;
+    }
+}
@@ -0,0 +1,22 @@
+package com.videotopdf.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Parsing the configured font files: the cost every document would
+// pay without the process-wide PdfFonts. Compare with the per-render
+// figures of PdfBenchmark.generatePdf/generatePdfConcurrent.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FontBenchmark {
+
+    @Benchmark
+    public PdfFonts loadFonts() throws Exception {
+        return Fixtures.fonts();
+    }
+}
@@ -0,0 +1,110 @@
+package com.videotopdf.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Transcript page content: one text object per page with leading
+// (TranscriptPages) against the old BT/rg/Tf/Td/Tj/ET per line.
+// streamBytes reports the compressed content size per document.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageBenchmark {
+
+    private static final float LEFT = 60;
+    private static final float TOP = 727;
+    private static final float LINE_HEIGHT = 18;
+    private static final float PARA_SPACING = 10;
+
+    @Param({"100000", "1000000"})
+    public int words;
+
+    @Param({"ascii", "multi"})
+    public String script;
+
+    private TranscriptText text;
+    private TranscriptLayout layout;
+    private FontChain chain;
+    private Map<FontFace, String> fontNames;
+    private TranscriptPages pages;
+
+    // Last document's size; the same every call
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long streamBytes;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        chain = Fixtures.fonts().regular();
+        text = TranscriptText.parse(
+            Fixtures.transcript(words, script.equals("multi")), chain);
+        layout = TranscriptLayout.paginate(text, chain, 11, 475,
+            TOP, 95, LINE_HEIGHT, PARA_SPACING);
+        fontNames = new IdentityHashMap<>();
+        String used = TranscriptPages.pageLabel(0) + "0123456789";
+        for (int c = text.usedChars().nextSetBit(0); c >= 0;
+                c = text.usedChars().nextSetBit(c + 1)) {
+            used += (char) c;
+        }
+        for (int i = 0; i < used.length(); i++) {
+            fontNames.computeIfAbsent(chain.face(used.charAt(i)),
+                face -> "F" + (fontNames.size() + 1));
+        }
+        pages = new TranscriptPages(text, layout, chain, fontNames,
+            "Fm1", "Fm2", 11, LEFT, TOP, LINE_HEIGHT, PARA_SPACING,
+            false);
+    }
+
+    @Benchmark
+    public long textObjectPerPage(Size size) throws IOException {
+        long bytes = 0;
+        for (int p = 0; p < pages.count(); p++) {
+            bytes += pages.write(p).length;
+        }
+        size.streamBytes = bytes;
+        return bytes;
+    }
+
+    @Benchmark
+    public long textObjectPerLine(Size size) throws IOException {
+        long bytes = 0;
+        StringBuilder line = new StringBuilder(128);
+        for (int p = 0; p < layout.pageCount(); p++) {
+            PageContentWriter w = new PageContentWriter(fontNames);
+            w.drawForm("Fm1");
+            w.drawForm("Fm2");
+            float y = TOP;
+            int first = layout.pageStart(p);
+            for (int l = first; l < layout.pageEnd(p); l++) {
+                if (l > first) {
+                    y -= layout.gapBefore(l)
+                        ? LINE_HEIGHT + PARA_SPACING : LINE_HEIGHT;
+                }
+                line.setLength(0);
+                text.appendWords(line, layout.lineFromWord(l),
+                    layout.lineToWord(l), chain);
+                // beginText forgets the font, so every line gets Tf
+                w.beginText(0f, 0f, 0f, 0);
+                w.moveText(LEFT, y);
+                w.showText(line.toString().trim(), chain, 11);
+                w.endText();
+            }
+            w.beginText(0.4f, 0.4f, 0.4f, 0);
+            w.moveText(LEFT, 20);
+            w.showText(TranscriptPages.pageLabel(p + 1), chain, 9);
+            w.endText();
+            bytes += w.finish().length;
+        }
+        size.streamBytes = bytes;
+        return bytes;
+    }
+}
@@ -0,0 +1,69 @@
+package com.videotopdf.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// End-to-end generatePdf, sequential and parallel page writing,
+// single-threaded and with concurrent renders sharing the
+// process-wide fonts. pdfBytes reports the output size per render.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int words;
+
+    @Param({"ascii", "multi"})
+    public String script;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private String transcript;
+    private PdfService service;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long pdfBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pdfBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        transcript = Fixtures.transcript(words, script.equals("multi"));
+        service = Fixtures.pdfService(Fixtures.fonts(),
+            parallel ? 1 : Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public byte[] generatePdf(Size size) throws Exception {
+        byte[] pdf = render();
+        size.pdfBytes += pdf.length;
+        return pdf;
+    }
+
+    // Per-document cost should stay flat as renders share fonts
+    @Benchmark
+    @Threads(4)
+    public byte[] generatePdfConcurrent(Size size) throws Exception {
+        byte[] pdf = render();
+        size.pdfBytes += pdf.length;
+        return pdf;
+    }
+
+    private byte[] render() throws Exception {
+        return service.generatePdf("Benchmark transcript",
+            "Benchmarks", "2024-01-01T00:00:00Z", null,
+            transcript, "English");
+    }
+}
@@ -0,0 +1,133 @@
+package com.videotopdf.service;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Transcript text hot paths: single-pass normalisation (formerly
+// removeTimestamps/buildParagraphs), line breaking (formerly
+// wrapText), line materialisation with unsupported-character mapping
+// (formerly sanitize) and pagination. breakLinesBaseline is the
+// old wrapText, kept for comparison.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int words;
+
+    @Param({"ascii", "multi"})
+    public String script;
+
+    private String transcript;
+    private FontChain chain;
+    private TranscriptText text;
+    private LineBreaker breaker;
+    private TranscriptLayout layout;
+    private String[] paragraphs;
+    private PDFont helvetica;
+
+    @Setup
+    public void setUp() throws Exception {
+        transcript = Fixtures.transcript(words, script.equals("multi"));
+        chain = Fixtures.fonts().regular();
+        text = TranscriptText.parse(transcript, chain);
+        breaker = new LineBreaker();
+        layout = TranscriptLayout.paginate(text, chain, 11, 475,
+            727, 95, 18, 10);
+        paragraphs = new String[text.paragraphCount()];
+        StringBuilder sb = new StringBuilder();
+        for (int p = 0; p < paragraphs.length; p++) {
+            sb.setLength(0);
+            text.appendWords(sb, text.paragraphStart(p),
+                text.paragraphEnd(p), chain);
+            paragraphs[p] = sb.toString();
+        }
+        helvetica = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+    }
+
+    @Benchmark
+    public TranscriptText parse() {
+        return TranscriptText.parse(transcript, chain);
+    }
+
+    @Benchmark
+    public int breakLines() {
+        int lines = 0;
+        for (int p = 0; p < text.paragraphCount(); p++) {
+            lines += breaker.breakWords(text, text.paragraphStart(p),
+                text.paragraphEnd(p), chain, 11, 475);
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public void materializeLines(Blackhole bh) {
+        StringBuilder line = new StringBuilder(128);
+        for (int page = 0; page < layout.pageCount(); page++) {
+            for (int l = layout.pageStart(page);
+                    l < layout.pageEnd(page); l++) {
+                line.setLength(0);
+                text.appendWords(line, layout.lineFromWord(l),
+                    layout.lineToWord(l), chain);
+                bh.consume(line.toString());
+            }
+        }
+    }
+
+    @Benchmark
+    public TranscriptLayout paginate() {
+        return TranscriptLayout.paginate(text, chain, 11, 475,
+            727, 95, 18, 10);
+    }
+
+    @Benchmark
+    public int breakLinesBaseline() throws Exception {
+        int lines = 0;
+        for (String paragraph : paragraphs) {
+            lines += wrapText(paragraph, helvetica, 11, 475).size();
+        }
+        return lines;
+    }
+
+    // PdfService.wrapText before the LineBreaker
+    private static List<String> wrapText(String text, PDFont font,
+            float fontSize, float maxWidth) throws Exception {
+        List<String> lines = new ArrayList<>();
+        if (text == null || text.isEmpty()) return lines;
+
+        String[] words = text.split(" ");
+        StringBuilder current = new StringBuilder();
+
+        for (String word : words) {
+            String test = current.length() == 0
+                ? word : current + " " + word;
+            float width = font.getStringWidth(sanitize(test))
+                / 1000 * fontSize;
+            if (width > maxWidth && current.length() > 0) {
+                lines.add(current.toString());
+                current = new StringBuilder(word);
+            } else {
+                current = new StringBuilder(test);
+            }
+        }
+        if (current.length() > 0)
+            lines.add(current.toString());
+        return lines;
+    }
+
+    private static String sanitize(String text) {
+        if (text == null) return "";
+        return text.replaceAll("[^\\x20-\\x7E]", " ").trim();
+    }
+}
@@ -0,0 +1,35 @@
+package com.videotopdf.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The chunking half of translateToEnglish; the HTTP calls are left
+// to the load-test harness.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranslationBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int words;
+
+    @Param({"ascii", "multi"})
+    public String script;
+
+    private String transcript;
+
+    @Setup
+    public void setUp() {
+        transcript = Fixtures.transcript(words, script.equals("multi"));
+    }
+
+    @Benchmark
+    public List<String> chunks() {
+        return TranslationService.chunks(transcript);
+    }
+}
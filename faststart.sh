@@ -0,0 +1,53 @@
+#!/bin/sh
+# Fast start: the app unpacked so the JVM can map its classes from
+# a class-data-sharing archive, run with the faststart profile.
+#
+#   faststart.sh extract target/videotopdf-1.0.0-exec.jar
+#   faststart.sh train [java options]  # warm up, exit, write app.jsa
+#   faststart.sh [java options]        # run with the archive
+#
+# The layout lives in $FASTSTART_DIR (default: faststart/ next to
+# this script). The archive only fits the JVM that wrote it, so
+# train on the machine or image that will run the app.
+set -e
+
+DIR=${FASTSTART_DIR:-$(cd "$(dirname "$0")" && pwd)/faststart}
+PROFILES="${SPRING_PROFILES_ACTIVE:+$SPRING_PROFILES_ACTIVE,}faststart"
+MAIN=com.videotopdf.VideoToPdfApplication
+
+# CDS ignores classes from directories, so the application classes
+# go into a jar of their own; the library order must not change
+# between training and running
+classpath() {
+    cp="$DIR/application.jar"
+    for jar in $(ls "$DIR"/lib/*.jar | sort); do
+        cp="$cp:$jar"
+    done
+    echo "$cp"
+}
+
+case "$1" in
+extract)
+    jar=$(cd "$(dirname "$2")" && pwd)/$(basename "$2")
+    rm -rf "$DIR" && mkdir -p "$DIR/unpacked"
+    (cd "$DIR/unpacked" && jar -xf "$jar")
+    jar cf "$DIR/application.jar" -C "$DIR/unpacked/BOOT-INF/classes" .
+    mv "$DIR/unpacked/BOOT-INF/lib" "$DIR/lib"
+    rm -rf "$DIR/unpacked"
+    ;;
+train)
+    shift
+    # Placeholders the app needs to start; nothing is called
+    YOUTUBE_API_KEY=${YOUTUBE_API_KEY:-training} \
+    GMAIL_EMAIL=${GMAIL_EMAIL:-training@localhost} \
+    GMAIL_PASSWORD=${GMAIL_PASSWORD:-training} \
+    exec java -XX:ArchiveClassesAtExit="$DIR/app.jsa" \
+        -Dspring.profiles.active="$PROFILES" -Dwarmup.exit=true \
+        -cp "$(classpath)" "$@" $MAIN
+    ;;
+*)
+    exec java -XX:SharedArchiveFile="$DIR/app.jsa" -Xshare:auto \
+        -Dspring.profiles.active="$PROFILES" \
+        -cp "$(classpath)" "$@" $MAIN
+    ;;
+esac
@@ -1,9 +1,22 @@
 import sys
 import os
 
+# Output: "SEGMENTS", then one line per caption segment,
+# "<start ms>\t<duration ms>\t<text>" with the text on one line.
+# Videos without captions print NO_TRANSCRIPT_AVAILABLE; other
+# failures exit 2 so the caller does not remember them as captionless.
+def print_segments(fetched):
+    lines = ["SEGMENTS"]
+    for s in fetched:
+        text = " ".join(s.text.split())
+        lines.append(f"{round(s.start * 1000)}\t"
+                     f"{round(s.duration * 1000)}\t{text}")
+    print("\n".join(lines))
+
 def get_transcript(video_id):
     try:
         from youtube_transcript_api import YouTubeTranscriptApi
+        from youtube_transcript_api import TranscriptsDisabled, NoTranscriptFound, VideoUnavailable
         
         print(f"Fetching transcript: {video_id}", file=sys.stderr)
         api = YouTubeTranscriptApi()
@@ -11,9 +24,8 @@ def get_transcript(video_id):
         # PRIORITY 1: Try English first
         try:
             transcript = api.fetch(video_id, languages=['en'])
-            text = " ".join([s.text for s in transcript])
-            print(f"Got English transcript: {len(text)} chars", file=sys.stderr)
-            print(text)
+            print(f"Got English transcript: {len(transcript)} segments", file=sys.stderr)
+            print_segments(transcript)
             return
         except Exception as e:
             print(f"English not available: {e}", file=sys.stderr)
@@ -21,27 +33,35 @@ def get_transcript(video_id):
         # PRIORITY 2: Get any available transcript
         try:
             transcript_list = api.list(video_id)
-            
-            for t in transcript_list:
-                try:
-                    fetched = t.fetch()
-                    text = " ".join([s.text for s in fetched])
-                    print(f"Got {t.language} transcript: {len(text)} chars", file=sys.stderr)
-                    print(text)
-                    return
-                except:
-                    continue
-                    
-        except Exception as e:
+        except (TranscriptsDisabled, NoTranscriptFound, VideoUnavailable) as e:
             print(f"No transcripts: {e}", file=sys.stderr)
+            print("NO_TRANSCRIPT_AVAILABLE")
+            return
 
+        failed = False
+        for t in transcript_list:
+            try:
+                fetched = t.fetch()
+                print(f"Got {t.language} transcript: {len(fetched)} segments", file=sys.stderr)
+                print_segments(fetched)
+                return
+            except Exception as e:
+                print(f"{t.language} failed: {e}", file=sys.stderr)
+                failed = True
+
+        if failed:
+            sys.exit(2)
         print("NO_TRANSCRIPT_AVAILABLE")
 
     except Exception as e:
         print(f"Error: {e}", file=sys.stderr)
-        print("NO_TRANSCRIPT_AVAILABLE")
+        sys.exit(2)
 
 if __name__ == '__main__':
     if len(sys.argv) < 2:
         sys.exit(1)
+    if sys.argv[1] == '--warmup':
+        # Startup warm-up: load the interpreter and library only
+        from youtube_transcript_api import YouTubeTranscriptApi
+        sys.exit(0)
     get_transcript(sys.argv[1])
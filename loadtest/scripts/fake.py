@@ -0,0 +1,45 @@
+import os
+import random
+import sys
+import time
+
+# Shared by the fake get_transcript.py and transcribe.py: sleeps,
+# fails or prints synthetic words as configured by FAKE_<NAME>_*
+
+WORDS = ("the of and to in is that it for was on are as with "
+         "video transcript language model people time data "
+         "system world research question answer example "
+         "important different process because however").split()
+
+
+def setting(name, key, default):
+    return type(default)(os.environ.get(f"FAKE_{name}_{key}", default))
+
+
+def run(name, ok_output):
+    start = time.monotonic()
+    latency = setting(name, "LATENCY_MS", 500)
+    failure = setting(name, "FAILURE_RATE", 0.0)
+    words = setting(name, "WORDS", 3000)
+
+    time.sleep(latency * (0.5 + random.random()) / 1000)
+    ok = random.random() >= failure
+    if ok:
+        out = []
+        for i in range(words):
+            out.append(random.choice(WORDS))
+            if i % 12 == 11:
+                out.append("\n")
+        ok_output(" ".join(out).replace(" \n ", "\n"))
+    log(name, start, ok)
+    return ok
+
+
+# Appends "<stage> <micros> <ok>" for the harness report
+def log(name, start, ok):
+    path = os.environ.get("FAKE_STAGE_LOG")
+    if not path:
+        return
+    micros = int((time.monotonic() - start) * 1_000_000)
+    with open(path, "a") as f:
+        f.write(f"script.{name.lower()} {micros} {int(ok)}\n")
@@ -0,0 +1,204 @@
+package com.videotopdf.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Stands in for the YouTube Data API (videos.list), the
+// MyMemory translation endpoint and the thumbnail CDN
+final class ApiStub {
+
+    private final HttpServer server;
+    private final Stages stages;
+    private final Fault youtube;
+    private final Fault translate;
+    private final byte[] thumbnail;
+    private final ExecutorService executor =
+        Executors.newCachedThreadPool();
+
+    ApiStub(int port, Stages stages, Fault youtube, Fault translate)
+            throws IOException {
+        this.stages = stages;
+        this.youtube = youtube;
+        this.translate = translate;
+        this.thumbnail = thumbnail();
+        server = HttpServer.create(
+            new InetSocketAddress("127.0.0.1", port), 256);
+        server.createContext("/youtube/v3/videos", this::videos);
+        server.createContext("/translate", this::translate);
+        server.createContext("/thumb.jpg", this::thumb);
+        server.setExecutor(executor);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:"
+            + server.getAddress().getPort();
+    }
+
+    // Ids are "<lang>_<n>"; ids starting with "missing" are
+    // left out, as private or deleted videos are
+    private void videos(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            youtube.delay();
+            if (youtube.fails()) {
+                send(ex, 503, "{\"error\":{\"code\":503}}");
+                return;
+            }
+            String ids = query(ex).getOrDefault("id", "");
+            StringBuilder json = new StringBuilder("{\"items\":[");
+            boolean first = true;
+            for (String id : ids.split(",")) {
+                if (id.isEmpty() || id.startsWith("missing"))
+                    continue;
+                if (!first) json.append(',');
+                first = false;
+                json.append(video(id));
+            }
+            json.append("]}");
+            send(ex, 200, json.toString());
+            ok = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stages.record("stub.youtube.videos", start, ok);
+            ex.close();
+        }
+    }
+
+    private String video(String id) {
+        int sep = id.indexOf('_');
+        String lang = sep > 0 ? id.substring(0, sep) : "en";
+        return "{\"id\":\"" + id + "\",\"snippet\":{"
+            + "\"title\":\"Load test video " + id + "\","
+            + "\"channelTitle\":\"Load Test\","
+            + "\"description\":\"Synthetic video for load tests.\","
+            + "\"publishedAt\":\"2024-01-01T00:00:00Z\","
+            + "\"defaultAudioLanguage\":\"" + lang + "\","
+            + "\"thumbnails\":{\"high\":{\"url\":\""
+            + baseUrl() + "/thumb.jpg\"}}}}";
+    }
+
+    // Echoes the text back, as an identity translation;
+    // failures answer like MyMemory's quota errors
+    private void translate(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            translate.delay();
+            String q = query(ex).getOrDefault("q", "");
+            if (translate.fails()) {
+                send(ex, 200, "{\"responseStatus\":429,"
+                    + "\"responseDetails\":\"QUOTA EXCEEDED\"}");
+                return;
+            }
+            send(ex, 200, "{\"responseStatus\":200,"
+                + "\"responseData\":{\"translatedText\":"
+                + quote(q) + "}}");
+            ok = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stages.record("stub.translate", start, ok);
+            ex.close();
+        }
+    }
+
+    private void thumb(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ex.getResponseHeaders().set("Content-Type", "image/jpeg");
+            ex.sendResponseHeaders(200, thumbnail.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(thumbnail);
+            }
+        } finally {
+            stages.record("stub.thumbnail", start, true);
+            ex.close();
+        }
+    }
+
+    private static void send(HttpExchange ex, int status,
+            String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set(
+            "Content-Type", "application/json; charset=UTF-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> params = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(pair.substring(0, eq), URLDecoder.decode(
+                pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // 480x360, the size of a real "high" thumbnail
+    private static byte[] thumbnail() throws IOException {
+        BufferedImage img = new BufferedImage(
+            480, 360, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(13, 27, 75),
+            480, 360, new Color(212, 175, 55)));
+        g.fillRect(0, 0, 480, 360);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", out);
+        return out.toByteArray();
+    }
+}
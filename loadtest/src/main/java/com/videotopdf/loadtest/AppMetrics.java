@@ -0,0 +1,111 @@
+package com.videotopdf.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// In-app stage latencies from the app's Prometheus histograms,
+// as the difference between scrapes at the start and end of the
+// measured window. Percentiles are bucket upper bounds; with
+// several instances their buckets are summed.
+final class AppMetrics {
+
+    private final HttpClient client;
+    private final List<String> urls;
+
+    AppMetrics(HttpClient client, List<String> urls) {
+        this.client = client;
+        this.urls = urls;
+    }
+
+    // series -> (le -> cumulative count); empty when unavailable
+    Map<String, TreeMap<Double, Double>> scrape() {
+        Map<String, TreeMap<Double, Double>> series = new TreeMap<>();
+        for (String url : urls) scrape(url, series);
+        return series;
+    }
+
+    private void scrape(String url,
+            Map<String, TreeMap<Double, Double>> series) {
+        try {
+            HttpResponse<String> res = client.send(
+                HttpRequest.newBuilder(URI.create(url)).build(),
+                HttpResponse.BodyHandlers.ofString());
+            if (res.statusCode() != 200) return;
+            for (String line : res.body().split("\n")) {
+                if (!line.startsWith("videotopdf_")
+                        || !line.contains("_seconds_bucket{"))
+                    continue;
+                int le = line.indexOf("le=\"");
+                int close = line.indexOf('"', le + 4);
+                int space = line.lastIndexOf(' ');
+                if (le < 0 || close < 0 || space < close) continue;
+                String bound = line.substring(le + 4, close);
+                String name = line.substring(0, line.indexOf("_bucket{"))
+                    + labels(line.substring(
+                        line.indexOf('{') + 1, le));
+                series.computeIfAbsent(name, k -> new TreeMap<>()).merge(
+                    bound.equals("+Inf")
+                        ? Double.POSITIVE_INFINITY
+                        : Double.parseDouble(bound),
+                    Double.parseDouble(line.substring(space + 1)),
+                    Double::sum);
+            }
+        } catch (Exception e) {
+            System.out.println("No app metrics from " + url
+                + ": " + e.getMessage());
+        }
+    }
+
+    // Tags other than application, e.g. {script=transcribe}
+    private static String labels(String raw) {
+        StringBuilder sb = new StringBuilder();
+        for (String label : raw.split(",")) {
+            if (label.isEmpty() || label.startsWith("application="))
+                continue;
+            sb.append(sb.length() == 0 ? "{" : ",")
+                .append(label.replace("\"", ""));
+        }
+        return sb.length() == 0 ? "" : sb.append('}').toString();
+    }
+
+    static void print(Map<String, TreeMap<Double, Double>> before,
+            Map<String, TreeMap<Double, Double>> after,
+            double seconds) {
+        if (after.isEmpty()) return;
+        System.out.println(Latencies.header());
+        for (Map.Entry<String, TreeMap<Double, Double>> e
+                : after.entrySet()) {
+            TreeMap<Double, Double> start = before.getOrDefault(
+                e.getKey(), new TreeMap<>());
+            TreeMap<Double, Double> window = new TreeMap<>();
+            e.getValue().forEach((le, n) ->
+                window.put(le, n - start.getOrDefault(le, 0.0)));
+            double count =
+                window.isEmpty() ? 0 : window.lastEntry().getValue();
+            if (count == 0) continue;
+            System.out.println(String.format(
+                "%-34s %8d %7s %9.2f %10s %10s %10s %10s",
+                e.getKey().replace("videotopdf_", "app.")
+                    .replace("_seconds", ""),
+                (long) count, "-", count / seconds,
+                bound(window, count, 0.50), bound(window, count, 0.99),
+                bound(window, count, 0.999), "-"));
+        }
+    }
+
+    private static String bound(TreeMap<Double, Double> window,
+            double count, double p) {
+        for (Map.Entry<Double, Double> b : window.entrySet()) {
+            if (b.getValue() >= p * count) {
+                return b.getKey().isInfinite() ? "inf"
+                    : String.format("%.1f", b.getKey() * 1000);
+            }
+        }
+        return "-";
+    }
+}
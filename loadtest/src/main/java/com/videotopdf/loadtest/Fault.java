@@ -0,0 +1,50 @@
+package com.videotopdf.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Latency and failure rate of one stubbed dependency
+final class Fault {
+
+    private final long latencyMs;
+    private final double failureRate;
+
+    Fault(long latencyMs, double failureRate) {
+        this.latencyMs = latencyMs;
+        this.failureRate = failureRate;
+    }
+
+    static Fault of(String prefix, long latencyMs,
+            double failureRate) {
+        return new Fault(
+            Long.getLong(prefix + ".latency", latencyMs),
+            Double.parseDouble(System.getProperty(
+                prefix + ".failure",
+                String.valueOf(failureRate))));
+    }
+
+    // Sleeps between half and one and a half times the latency
+    void delay() throws InterruptedException {
+        if (latencyMs <= 0) return;
+        double jitter =
+            0.5 + ThreadLocalRandom.current().nextDouble();
+        Thread.sleep((long) (latencyMs * jitter));
+    }
+
+    boolean fails() {
+        return failureRate > 0
+            && ThreadLocalRandom.current().nextDouble() < failureRate;
+    }
+
+    long latencyMs() {
+        return latencyMs;
+    }
+
+    double failureRate() {
+        return failureRate;
+    }
+
+    @Override
+    public String toString() {
+        return latencyMs + "ms, " + (failureRate * 100) + "% failures";
+    }
+}
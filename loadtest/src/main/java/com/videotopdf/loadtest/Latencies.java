@@ -0,0 +1,57 @@
+package com.videotopdf.loadtest;
+
+import java.util.Arrays;
+
+// Every sample of one stage, in microseconds; the run is short
+// enough to keep them all and report exact percentiles
+final class Latencies {
+
+    private final String stage;
+    private long[] samples = new long[1024];
+    private int count;
+    private int errors;
+
+    Latencies(String stage) {
+        this.stage = stage;
+    }
+
+    synchronized void record(long nanos, boolean ok) {
+        if (count == samples.length)
+            samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos / 1000;
+        if (!ok) errors++;
+    }
+
+    synchronized void reset() {
+        count = 0;
+        errors = 0;
+    }
+
+    synchronized String report(double seconds) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return String.format(
+            "%-34s %8d %7d %9.2f %10s %10s %10s %10s",
+            stage, count, errors, count / seconds,
+            millis(sorted, 0.50), millis(sorted, 0.99),
+            millis(sorted, 0.999),
+            count == 0 ? "-" : format(sorted[count - 1]));
+    }
+
+    static String header() {
+        return String.format(
+            "%-34s %8s %7s %9s %10s %10s %10s %10s",
+            "stage", "count", "errors", "per sec",
+            "p50 ms", "p99 ms", "p999 ms", "max ms");
+    }
+
+    private static String millis(long[] sorted, double p) {
+        if (sorted.length == 0) return "-";
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return format(sorted[Math.max(i, 0)]);
+    }
+
+    private static String format(long micros) {
+        return String.format("%.1f", micros / 1000.0);
+    }
+}
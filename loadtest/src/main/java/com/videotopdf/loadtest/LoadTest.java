@@ -0,0 +1,498 @@
+package com.videotopdf.loadtest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Drives /convert/youtube and /convert/file (or the job queue
+// under /convert/jobs) at fixed arrival rates against one or more
+// app instances wired to local stand-ins, then prints throughput
+// and latency percentiles per stage. Settings are system
+// properties, see README.md.
+public final class LoadTest {
+
+    private static final Path SCRIPTS =
+        Paths.get("scripts").toAbsolutePath();
+    private static final Pattern FIELD =
+        Pattern.compile("\"(\\w+)\"\\s*:\\s*\"?([^\",}]*)");
+
+    private final Stages stages = new Stages();
+    private final HttpClient client = HttpClient.newBuilder()
+        .cookieHandler(new CookieManager())
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    private final ExecutorService workers =
+        Executors.newCachedThreadPool();
+    private final AtomicLong pdfBytes = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private final double youtubeRate =
+        rate("load.youtube.rate", 2.0);
+    private final double fileRate = rate("load.file.rate", 0.5);
+    private final long warmupSec = Long.getLong("load.warmup", 15);
+    private final long durationSec =
+        Long.getLong("load.duration", 60);
+    private final double foreignShare = Double.parseDouble(
+        System.getProperty("load.foreign-share", "0.3"));
+    private final boolean compact =
+        Boolean.getBoolean("load.compact");
+    private final Duration timeout = Duration.ofSeconds(
+        Long.getLong("load.timeout", 600));
+    private final int instances =
+        Integer.getInteger("load.app.instances", 1);
+    private final boolean jobs = Boolean.getBoolean("load.jobs");
+    private final long jobPollMs =
+        Long.getLong("load.jobs.poll-ms", 250);
+
+    // Requests are spread round-robin, as a load balancer would
+    private final List<String> appUrls = new ArrayList<>();
+    private String apiKey;
+    private byte[] upload;
+    private String boundary;
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run();
+    }
+
+    private void run() throws Exception {
+        Fault youtube = Fault.of("stub.youtube", 80, 0.0);
+        Fault translate = Fault.of("stub.translate", 150, 0.01);
+        Fault smtp = Fault.of("stub.smtp", 50, 0.0);
+        ApiStub api = new ApiStub(
+            Integer.getInteger("stub.port", 18081),
+            stages, youtube, translate);
+        SmtpSink sink = new SmtpSink(
+            Integer.getInteger("stub.smtp.port", 2525), stages, smtp);
+        api.start();
+        sink.start();
+
+        Path stageLog = Files.createTempFile("loadtest-", ".log");
+        List<Process> apps = new ArrayList<>();
+        try {
+            String running = System.getProperty("load.app.url");
+            if (running == null) {
+                launchAll(api, sink, stageLog, apps);
+            } else {
+                for (String url : running.split(","))
+                    appUrls.add(url.trim());
+                System.out.println("Using running app at " + appUrls
+                    + "; it must be started with:");
+                environment(api, sink, stageLog).forEach((k, v) ->
+                    System.out.println("  " + k + "=" + v));
+                for (String url : appUrls) awaitApp(null, url);
+            }
+            login();
+            prepareUpload();
+
+            System.out.println("youtube: " + youtubeRate + "/s, file: "
+                + fileRate + "/s, warm-up " + warmupSec
+                + "s, measured " + durationSec + "s, "
+                + appUrls.size() + " instance(s)"
+                + (jobs ? ", via job queue" : ""));
+            System.out.println("stub.youtube " + youtube
+                + ", stub.translate " + translate
+                + ", stub.smtp " + smtp);
+
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSec);
+            long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSec);
+            Thread yt = arrivals("convert.youtube", youtubeRate,
+                start, measureFrom, end);
+            Thread file = arrivals("convert.file", fileRate,
+                start, measureFrom, end);
+
+            List<String> metricsUrls = new ArrayList<>();
+            String metricsUrl =
+                System.getProperty("load.app.metrics-url");
+            if (metricsUrl != null) {
+                metricsUrls.add(metricsUrl);
+            } else {
+                for (String url : appUrls)
+                    metricsUrls.add(url + "/actuator/prometheus");
+            }
+            AppMetrics metrics = new AppMetrics(client, metricsUrls);
+            LockSupport.parkNanos(measureFrom - System.nanoTime());
+            stages.reset();
+            Files.write(stageLog, new byte[0]);
+            Map<String, TreeMap<Double, Double>> before =
+                metrics.scrape();
+
+            yt.join();
+            file.join();
+            workers.shutdown();
+            if (!workers.awaitTermination(
+                    timeout.getSeconds(), TimeUnit.SECONDS))
+                System.out.println("Abandoned " + inFlight.get()
+                    + " requests still in flight");
+            readStageLog(stageLog);
+            Map<String, TreeMap<Double, Double>> after =
+                metrics.scrape();
+
+            System.out.println();
+            stages.print(durationSec);
+            System.out.println();
+            AppMetrics.print(before, after, durationSec);
+            System.out.println();
+            System.out.println("PDF bytes received: " + pdfBytes.get()
+                + ", mail bytes accepted: " + sink.bytes());
+        } finally {
+            for (Process app : apps) app.destroy();
+            for (Process app : apps) app.waitFor(30, TimeUnit.SECONDS);
+            api.stop();
+            sink.stop();
+            Files.deleteIfExists(stageLog);
+        }
+    }
+
+    private static double rate(String property, double rate) {
+        return Double.parseDouble(
+            System.getProperty(property, String.valueOf(rate)));
+    }
+
+    // Environment pointing the app at the stubs and fake scripts
+    static Map<String, String> environment(ApiStub api,
+            SmtpSink sink, Path stageLog) {
+        Map<String, String> env = new LinkedHashMap<>();
+        env.put("YOUTUBE_API_URL", api.baseUrl() + "/youtube/v3");
+        env.put("YOUTUBE_API_KEY", "loadtest");
+        env.put("TRANSLATION_API_URL", api.baseUrl() + "/translate");
+        env.put("MAIL_HOST", "127.0.0.1");
+        env.put("MAIL_PORT", String.valueOf(sink.port()));
+        env.put("MAIL_AUTH", "false");
+        env.put("MAIL_STARTTLS", "false");
+        env.put("GMAIL_EMAIL", "loadtest@localhost");
+        env.put("GMAIL_PASSWORD", "loadtest");
+        env.put("PYTHON_PATH",
+            System.getProperty("load.python", "python3"));
+        env.put("SCRIPTS_PATH", SCRIPTS.toString());
+        env.put("FAKE_STAGE_LOG", stageLog.toString());
+        script(env, "TRANSCRIPT", "script.transcript", 500, 0.05, 3000);
+        script(env, "TRANSCRIBE", "script.transcribe", 5000, 0.02, 2000);
+        return env;
+    }
+
+    private static void script(Map<String, String> env, String name,
+            String prefix, long latencyMs, double failureRate,
+            int words) {
+        Fault fault = Fault.of(prefix, latencyMs, failureRate);
+        env.put("FAKE_" + name + "_LATENCY_MS",
+            String.valueOf(fault.latencyMs()));
+        env.put("FAKE_" + name + "_FAILURE_RATE",
+            String.valueOf(fault.failureRate()));
+        env.put("FAKE_" + name + "_WORDS", String.valueOf(
+            Integer.getInteger(prefix + ".words", words)));
+    }
+
+    // Several instances share a fresh file-backed H2 database (the
+    // first one creates the tables) and one job storage directory
+    private void launchAll(ApiStub api, SmtpSink sink, Path stageLog,
+            List<Process> apps) throws Exception {
+        int port = Integer.getInteger("load.app.port", 18080);
+        Map<String, String> shared = new LinkedHashMap<>();
+        if (instances > 1) {
+            Path db = Paths.get("target/loadtest-db").toAbsolutePath();
+            deleteTree(db);
+            shared.put("SPRING_PROFILES_ACTIVE", "h2file");
+            shared.put("H2_PATH", db.resolve("videotopdf").toString());
+        }
+        Path jobsDir = Paths.get("target/loadtest-jobs").toAbsolutePath();
+        deleteTree(jobsDir);
+        shared.put("JOBS_DIR", jobsDir.toString());
+
+        for (int i = 0; i < instances; i++) {
+            Map<String, String> env = new LinkedHashMap<>(shared);
+            env.put("PORT", String.valueOf(port + i));
+            env.put("JOBS_INSTANCE_ID", "app-" + i);
+            apps.add(launch(api, sink, stageLog, env,
+                instances == 1 ? "app" : "app-" + i));
+            appUrls.add("http://127.0.0.1:" + (port + i));
+            if (i == 0) awaitApp(apps.get(0), appUrls.get(0));
+        }
+        for (int i = 1; i < instances; i++)
+            awaitApp(apps.get(i), appUrls.get(i));
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (var paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(
+                    Comparator.reverseOrder()).toList())
+                Files.delete(p);
+        }
+    }
+
+    private Process launch(ApiStub api, SmtpSink sink,
+            Path stageLog, Map<String, String> instanceEnv,
+            String name) throws IOException {
+        String jar = System.getProperty("load.app.jar",
+            "../target/videotopdf-1.0.0-exec.jar");
+        String jvmArgs = System.getProperty("load.app.jvm-args", "");
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"),
+            "bin", "java").toString());
+        for (String arg : jvmArgs.trim().split("\\s+"))
+            if (!arg.isEmpty()) cmd.add(arg);
+        cmd.add("-jar");
+        cmd.add(jar);
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.environment().putAll(environment(api, sink, stageLog));
+        pb.environment().putAll(instanceEnv);
+        File log = new File("target/" + name + ".log");
+        log.getParentFile().mkdirs();
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(log);
+
+        System.out.println("Starting " + jar + " on port "
+            + instanceEnv.get("PORT") + ", log in " + log);
+        return pb.start();
+    }
+
+    private void awaitApp(Process app, String appUrl)
+            throws Exception {
+        long deadline = System.nanoTime()
+            + TimeUnit.SECONDS.toNanos(120);
+        HttpRequest ping = HttpRequest.newBuilder(
+            URI.create(appUrl + "/login")).build();
+        while (System.nanoTime() < deadline) {
+            if (app != null && !app.isAlive())
+                throw new IllegalStateException(
+                    "App exited with " + app.exitValue()
+                    + ", see its log in target/");
+            try {
+                client.send(ping, HttpResponse.BodyHandlers.discarding());
+                return;
+            } catch (IOException notYet) {
+                Thread.sleep(500);
+            }
+        }
+        throw new IllegalStateException("App not up at " + appUrl);
+    }
+
+    // Registers the load-test user (again, harmlessly) and creates
+    // an API key, which every instance accepts; session cookies
+    // would not survive the round-robin across instances
+    private void login() throws Exception {
+        String user = System.getProperty("load.user", "loadtest");
+        String password = System.getProperty(
+            "load.password", "loadtest-password");
+        post("/register", form(
+            "username", user,
+            "email", user + "@localhost",
+            "password", password,
+            "confirmPassword", password));
+        HttpResponse<Void> res = post("/login", form(
+            "username", user, "password", password));
+        String location =
+            res.headers().firstValue("Location").orElse("");
+        if (location.contains("error"))
+            throw new IllegalStateException("Login failed for " + user);
+
+        HttpResponse<String> key = client.send(HttpRequest.newBuilder(
+                URI.create(appUrls.get(0) + "/account/api-keys"))
+            .header("Content-Type",
+                "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(
+                form("name", "loadtest")))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        apiKey = field(key.body(), "key");
+        if (key.statusCode() != 200 || apiKey == null)
+            throw new IllegalStateException(
+                "Could not create an API key: " + key.statusCode());
+    }
+
+    private HttpResponse<Void> post(String path, String body)
+            throws Exception {
+        return client.send(HttpRequest.newBuilder(
+                URI.create(appUrls.get(0) + path))
+            .header("Content-Type",
+                "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    // Top-level value from the app's flat JSON replies
+    private static String field(String json, String name) {
+        Matcher m = FIELD.matcher(json);
+        while (m.find())
+            if (m.group(1).equals(name)) return m.group(2);
+        return null;
+    }
+
+    private String appUrl(long n) {
+        return appUrls.get((int) (n % appUrls.size()));
+    }
+
+    static String form(String... pairs) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) sb.append('&');
+            sb.append(pairs[i]).append('=').append(URLEncoder.encode(
+                pairs[i + 1], StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    // One multipart body reused by every upload; the fake
+    // transcribe.py only checks that the file exists
+    private void prepareUpload() throws IOException {
+        int size = Integer.getInteger("load.file.size", 1 << 20);
+        byte[] audio = new byte[size];
+        ThreadLocalRandom.current().nextBytes(audio);
+        boundary = "----loadtest" + Long.toHexString(System.nanoTime());
+
+        ByteArrayOutputStream body =
+            new ByteArrayOutputStream(size + 512);
+        body.write(("--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"compact\"\r\n\r\n"
+            + compact + "\r\n"
+            + "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; "
+            + "filename=\"loadtest.mp3\"\r\n"
+            + "Content-Type: audio/mpeg\r\n\r\n")
+            .getBytes(StandardCharsets.UTF_8));
+        body.write(audio);
+        body.write(("\r\n--" + boundary + "--\r\n")
+            .getBytes(StandardCharsets.UTF_8));
+        upload = body.toByteArray();
+    }
+
+    // Open model: requests are issued on schedule whether or not
+    // earlier ones finished, and latency counts from the intended
+    // start so a stalled server can't hide its queueing delay
+    private Thread arrivals(String stage, double rate, long start,
+            long measureFrom, long end) {
+        Thread t = new Thread(() -> {
+            if (rate <= 0) return;
+            long interval = (long) (1_000_000_000L / rate);
+            long seq = 0;
+            for (long next = start; next < end; next += interval) {
+                LockSupport.parkNanos(next - System.nanoTime());
+                long intended = next;
+                long n = seq++;
+                inFlight.incrementAndGet();
+                workers.execute(() -> {
+                    try {
+                        boolean ok = fire(stage, n);
+                        if (intended >= measureFrom)
+                            stages.record(stage, intended, ok);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+            }
+        }, stage);
+        t.start();
+        return t;
+    }
+
+    private boolean fire(String stage, long n) {
+        try {
+            String base = appUrl(n) + (jobs ? "/convert/jobs" : "/convert");
+            HttpRequest.Builder req;
+            if (stage.equals("convert.youtube")) {
+                String lang = ThreadLocalRandom.current().nextDouble()
+                    < foreignShare ? "fr" : "en";
+                req = HttpRequest.newBuilder(
+                        URI.create(base + "/youtube"))
+                    .header("Content-Type",
+                        "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form(
+                        "youtubeUrl", "https://www.youtube.com/watch?v="
+                            + lang + "_" + n,
+                        "compact", String.valueOf(compact))));
+            } else {
+                req = HttpRequest.newBuilder(
+                        URI.create(base + "/file"))
+                    .header("Content-Type",
+                        "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(upload));
+            }
+            req.header("X-API-Key", apiKey).timeout(timeout);
+            HttpResponse<byte[]> res = jobs
+                ? awaitJob(req.build(), n)
+                : client.send(req.build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if (res == null) return false;
+            boolean pdf = res.statusCode() == 200
+                && res.headers().firstValue("Content-Type")
+                    .orElse("").startsWith("application/pdf");
+            if (pdf) pdfBytes.addAndGet(res.body().length);
+            return pdf;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // Submits, polls the status on each instance in turn, then
+    // fetches the PDF; null when the job failed or timed out
+    private HttpResponse<byte[]> awaitJob(HttpRequest submit, long n)
+            throws Exception {
+        HttpResponse<String> res = client.send(submit,
+            HttpResponse.BodyHandlers.ofString());
+        if (res.statusCode() != 202) return null;
+        String id = field(res.body(), "id");
+        long deadline = System.nanoTime() + timeout.toNanos();
+        String status = field(res.body(), "status");
+        while ("QUEUED".equals(status) || "RUNNING".equals(status)) {
+            if (System.nanoTime() - deadline > 0) return null;
+            Thread.sleep(jobPollMs);
+            res = client.send(get(appUrl(++n) + "/convert/jobs/" + id),
+                HttpResponse.BodyHandlers.ofString());
+            if (res.statusCode() != 200) return null;
+            status = field(res.body(), "status");
+        }
+        if (!"DONE".equals(status)) return null;
+        return client.send(
+            get(appUrl(++n) + "/convert/jobs/" + id + "/pdf"),
+            HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+            .header("X-API-Key", apiKey)
+            .timeout(timeout)
+            .build();
+    }
+
+    // Samples the fake scripts appended during the measured window
+    private void readStageLog(Path stageLog) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(stageLog)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] f = line.trim().split(" ");
+                if (f.length != 3) continue;
+                stages.get(f[0]).record(
+                    Long.parseLong(f[1]) * 1000, f[2].equals("1"));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.videotopdf.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Accepts and discards mail; enough SMTP for JavaMail without
+// AUTH or STARTTLS (MAIL_AUTH=false, MAIL_STARTTLS=false)
+final class SmtpSink {
+
+    private final ServerSocket socket;
+    private final Stages stages;
+    private final Fault fault;
+    private final ExecutorService executor =
+        Executors.newCachedThreadPool();
+    private final AtomicLong bytes = new AtomicLong();
+
+    SmtpSink(int port, Stages stages, Fault fault)
+            throws IOException {
+        this.stages = stages;
+        this.fault = fault;
+        this.socket = new ServerSocket(
+            port, 128, InetAddress.getLoopbackAddress());
+    }
+
+    void start() {
+        Thread acceptor = new Thread(() -> {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    executor.execute(() -> session(client));
+                } catch (IOException ignored) {}
+            }
+        }, "smtp-sink");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    void stop() throws IOException {
+        socket.close();
+        executor.shutdownNow();
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+
+    private void session(Socket client) {
+        try (client;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(client.getInputStream(),
+                     StandardCharsets.UTF_8));
+             OutputStream out = client.getOutputStream()) {
+            reply(out, "220 sink ESMTP");
+            long start = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String cmd = line.length() >= 4
+                    ? line.substring(0, 4).toUpperCase() : line;
+                switch (cmd) {
+                    case "EHLO":
+                        reply(out, "250-sink\r\n250-8BITMIME\r\n"
+                            + "250 SIZE 104857600");
+                        break;
+                    case "MAIL":
+                        start = System.nanoTime();
+                        reply(out, "250 OK");
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        long size = 0;
+                        while ((line = in.readLine()) != null
+                                && !line.equals("."))
+                            size += line.length() + 2;
+                        bytes.addAndGet(size);
+                        fault.delay();
+                        boolean ok = !fault.fails();
+                        stages.record("stub.smtp", start, ok);
+                        reply(out, ok ? "250 OK queued"
+                            : "451 Try again later");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    case "HELO": case "RCPT": case "RSET": case "NOOP":
+                        reply(out, "250 OK");
+                        break;
+                    default:
+                        reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException ignored) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reply(OutputStream out, String line)
+            throws IOException {
+        out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -0,0 +1,30 @@
+package com.videotopdf.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Latencies by stage name, shared by the driver, stubs and sink
+final class Stages {
+
+    private final Map<String, Latencies> stages =
+        new ConcurrentSkipListMap<>();
+
+    Latencies get(String stage) {
+        return stages.computeIfAbsent(stage, Latencies::new);
+    }
+
+    void record(String stage, long startNanos, boolean ok) {
+        get(stage).record(System.nanoTime() - startNanos, ok);
+    }
+
+    // Drops warm-up samples
+    void reset() {
+        for (Latencies l : stages.values()) l.reset();
+    }
+
+    void print(double seconds) {
+        System.out.println(Latencies.header());
+        for (Latencies l : stages.values())
+            System.out.println(l.report(seconds));
+    }
+}
@@ -0,0 +1,212 @@
+package com.videotopdf.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Starts the app repeatedly in each start mode and times launch to
+// readiness, then the first and second conversion of the fresh
+// instance. Modes: "jar" (plain), "profile" (faststart profile:
+// lazy beans and warm-up) and "cds" (faststart.sh, the profile plus
+// the class-data-sharing archive). Settings are system properties,
+// see README.md.
+public final class StartupBenchmark {
+
+    private final int port = Integer.getInteger("startup.port", 18080);
+    private final String jar = System.getProperty("load.app.jar",
+        "../target/videotopdf-1.0.0-exec.jar");
+    private final String jvmArgs =
+        System.getProperty("load.app.jvm-args", "");
+    private final String faststartDir =
+        System.getProperty("startup.faststart-dir", "../faststart");
+
+    public static void main(String[] args) throws Exception {
+        new StartupBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        // Instant stubs and scripts unless set otherwise, so the
+        // numbers are the app's own
+        for (String prefix : List.of("stub.youtube", "stub.translate",
+                "script.transcript", "script.transcribe"))
+            if (System.getProperty(prefix + ".latency") == null)
+                System.setProperty(prefix + ".latency", "0");
+
+        Stages stages = new Stages();
+        ApiStub api = new ApiStub(
+            Integer.getInteger("stub.port", 18081), stages,
+            Fault.of("stub.youtube", 0, 0.0),
+            Fault.of("stub.translate", 0, 0.0));
+        SmtpSink sink = new SmtpSink(
+            Integer.getInteger("stub.smtp.port", 2525), stages,
+            Fault.of("stub.smtp", 0, 0.0));
+        api.start();
+        sink.start();
+        Path stageLog = Files.createTempFile("startup-", ".log");
+
+        int runs = Integer.getInteger("startup.runs", 5);
+        Map<String, long[][]> results = new LinkedHashMap<>();
+        try {
+            for (String mode : System.getProperty(
+                    "startup.modes", "jar,profile,cds").split(",")) {
+                long[][] samples = new long[3][runs];
+                for (int i = 0; i < runs; i++) {
+                    long[] r = launch(mode.trim(),
+                        LoadTest.environment(api, sink, stageLog));
+                    System.out.println(mode + " #" + (i + 1)
+                        + ": ready " + r[0] + " ms, first "
+                        + r[1] + " ms, second " + r[2] + " ms");
+                    for (int k = 0; k < 3; k++) samples[k][i] = r[k];
+                }
+                results.put(mode.trim(), samples);
+            }
+        } finally {
+            api.stop();
+            sink.stop();
+            Files.deleteIfExists(stageLog);
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-10s %-14s %8s %8s %8s",
+            "mode", "ms", "min", "median", "max"));
+        String[] names = {"ready", "first request", "second request"};
+        for (Map.Entry<String, long[][]> e : results.entrySet()) {
+            for (int k = 0; k < 3; k++) {
+                long[] s = e.getValue()[k].clone();
+                Arrays.sort(s);
+                System.out.println(String.format(
+                    "%-10s %-14s %8d %8d %8d", e.getKey(), names[k],
+                    s[0], s[s.length / 2], s[s.length - 1]));
+            }
+        }
+    }
+
+    // Launch to readiness, first conversion, second conversion (ms)
+    private long[] launch(String mode, Map<String, String> env)
+            throws Exception {
+        List<String> cmd = new ArrayList<>();
+        if (mode.equals("cds")) {
+            cmd.add("sh");
+            cmd.add(Paths.get(faststartDir).toAbsolutePath()
+                .getParent().resolve("faststart.sh").toString());
+        } else {
+            cmd.add(Paths.get(System.getProperty("java.home"),
+                "bin", "java").toString());
+        }
+        for (String arg : jvmArgs.trim().split("\\s+"))
+            if (!arg.isEmpty()) cmd.add(arg);
+        if (mode.equals("profile"))
+            cmd.add("-Dspring.profiles.active=faststart");
+        if (!mode.equals("cds")) {
+            cmd.add("-jar");
+            cmd.add(jar);
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.environment().putAll(env);
+        pb.environment().put("PORT", String.valueOf(port));
+        pb.environment().put("FASTSTART_DIR",
+            Paths.get(faststartDir).toAbsolutePath().toString());
+        File log = new File("target/startup-" + mode + ".log");
+        log.getParentFile().mkdirs();
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(log);
+
+        String url = "http://127.0.0.1:" + port;
+        HttpClient client = HttpClient.newBuilder()
+            .cookieHandler(new CookieManager())
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+        long start = System.nanoTime();
+        Process app = pb.start();
+        try {
+            awaitReady(client, url, app, log);
+            long ready = millisSince(start);
+            login(client, url);
+
+            long t = System.nanoTime();
+            convert(client, url, "en_startup1");
+            long first = millisSince(t);
+            t = System.nanoTime();
+            convert(client, url, "en_startup2");
+            return new long[] {ready, first, millisSince(t)};
+        } finally {
+            app.destroy();
+            if (!app.waitFor(30, TimeUnit.SECONDS))
+                app.destroyForcibly().waitFor();
+        }
+    }
+
+    // Readiness is only reported once startup runners (the
+    // warm-up) are done
+    private static void awaitReady(HttpClient client, String url,
+            Process app, File log) throws Exception {
+        HttpRequest ping = HttpRequest.newBuilder(
+            URI.create(url + "/actuator/health/readiness")).build();
+        long deadline = System.nanoTime()
+            + TimeUnit.SECONDS.toNanos(180);
+        while (System.nanoTime() < deadline) {
+            if (!app.isAlive())
+                throw new IllegalStateException(
+                    "App exited with " + app.exitValue()
+                    + ", see " + log);
+            try {
+                if (client.send(ping, HttpResponse.BodyHandlers
+                        .discarding()).statusCode() == 200)
+                    return;
+            } catch (IOException notYet) {
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException("App not ready at " + url);
+    }
+
+    private static void login(HttpClient client, String url)
+            throws Exception {
+        post(client, url + "/register", LoadTest.form(
+            "username", "startup", "email", "startup@localhost",
+            "password", "startup-password",
+            "confirmPassword", "startup-password"));
+        post(client, url + "/login", LoadTest.form(
+            "username", "startup", "password", "startup-password"));
+    }
+
+    private static void convert(HttpClient client, String url,
+            String videoId) throws Exception {
+        HttpResponse<byte[]> res = post(client, url + "/convert/youtube",
+            LoadTest.form("youtubeUrl",
+                "https://www.youtube.com/watch?v=" + videoId));
+        if (res.statusCode() != 200)
+            throw new IllegalStateException(
+                "Conversion failed: " + res.statusCode());
+    }
+
+    private static HttpResponse<byte[]> post(HttpClient client,
+            String url, String body) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(url))
+            .header("Content-Type",
+                "application/x-www-form-urlencoded")
+            .timeout(Duration.ofSeconds(120))
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static long millisSince(long nanos) {
+        return (System.nanoTime() - nanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,63 @@
+package com.videotopdf.config;
+
+import com.videotopdf.service.ApiKeyService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Authenticates X-API-Key (or "Authorization: Bearer vtp_...")
+// requests. Only runs in the stateless API chain, so nothing is
+// stored in a session. Not a @Component: Boot would otherwise
+// register it for every request as well.
+public class ApiKeyAuthFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-API-Key";
+
+    private final ApiKeyService apiKeyService;
+
+    public ApiKeyAuthFilter(ApiKeyService apiKeyService) {
+        this.apiKeyService = apiKeyService;
+    }
+
+    static boolean hasKey(HttpServletRequest request) {
+        return key(request) != null;
+    }
+
+    private static String key(HttpServletRequest request) {
+        String key = request.getHeader(HEADER);
+        if (key != null) return key;
+        String auth = request.getHeader("Authorization");
+        if (auth != null && auth.startsWith("Bearer "
+                + ApiKeyService.KEY_PREFIX))
+            return auth.substring(7);
+        return null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+            HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Authentication auth = apiKeyService.authenticate(key(request));
+        if (auth == null) {
+            response.sendError(
+                HttpServletResponse.SC_UNAUTHORIZED, "Invalid API key");
+            return;
+        }
+        SecurityContext context =
+            SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(auth);
+        SecurityContextHolder.setContext(context);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
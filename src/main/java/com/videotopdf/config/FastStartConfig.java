@@ -0,0 +1,35 @@
+package com.videotopdf.config;
+
+import com.videotopdf.controller.ConvertController;
+import com.videotopdf.controller.JobController;
+import com.videotopdf.service.ChunkedUploads;
+import com.videotopdf.service.ConversionHistory;
+import com.videotopdf.service.ConversionMetrics;
+import com.videotopdf.service.EmailService;
+import com.videotopdf.service.JobQueue;
+import com.videotopdf.service.JobWorker;
+import com.videotopdf.service.PdfFonts;
+import com.videotopdf.service.TranscriptIndex;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+// The faststart profile initializes beans lazily. These stay
+// eager: background threads that nothing else would start, the
+// fonts, the meters Prometheus should see from the first scrape,
+// and the conversion endpoints themselves.
+@Configuration
+@Profile("faststart")
+public class FastStartConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+            ConversionHistory.class, EmailService.class,
+            JobQueue.class, JobWorker.class, PdfFonts.class,
+            ConversionMetrics.class, ConvertController.class,
+            JobController.class, TranscriptIndex.class,
+            ChunkedUploads.class);
+    }
+}
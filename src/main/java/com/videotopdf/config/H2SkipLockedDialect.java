@@ -0,0 +1,24 @@
+package com.videotopdf.config;
+
+import org.hibernate.dialect.H2Dialect;
+
+// H2 has understood FOR UPDATE SKIP LOCKED since 2.0, but Hibernate's
+// H2 dialect never asks for it, so a second claimer would block on
+// the first one's rows instead of passing over them
+public class H2SkipLockedDialect extends H2Dialect {
+
+    @Override
+    public boolean supportsSkipLocked() {
+        return true;
+    }
+
+    @Override
+    public String getForUpdateSkipLockedString() {
+        return " for update skip locked";
+    }
+
+    @Override
+    public String getForUpdateSkipLockedString(String aliases) {
+        return getForUpdateSkipLockedString();
+    }
+}
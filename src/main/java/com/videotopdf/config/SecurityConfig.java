@@ -1,16 +1,20 @@
 package com.videotopdf.config;
 
+import com.videotopdf.service.ApiKeyService;
 import com.videotopdf.service.CustomUserDetailsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
 
 @Configuration
 @EnableWebSecurity
@@ -19,17 +23,49 @@ public class SecurityConfig {
     @Autowired
     private CustomUserDetailsService userDetailsService;
 
+    @Autowired
+    private ApiKeyService apiKeyService;
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
     }
 
+    // Automated clients: /convert/** with an API key. No session,
+    // no request cache, no BCrypt; the key is checked against a
+    // cache of verified hashes.
+    @Bean
+    @Order(1)
+    public SecurityFilterChain apiKeyFilterChain(HttpSecurity http)
+            throws Exception {
+        http
+            .securityMatcher(request ->
+                request.getServletPath().startsWith("/convert/")
+                && ApiKeyAuthFilter.hasKey(request))
+            .authorizeHttpRequests(auth -> auth
+                .anyRequest().authenticated()
+            )
+            .addFilterBefore(new ApiKeyAuthFilter(apiKeyService),
+                AnonymousAuthenticationFilter.class)
+            .sessionManagement(session -> session
+                .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+            )
+            .requestCache(cache -> cache.disable())
+            .csrf(csrf -> csrf.disable());
+        return http.build();
+    }
+
     @Bean
+    @Order(2)
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers("/", "/register", "/login",
                         "/css/**", "/js/**").permitAll()
+                .requestMatchers("/actuator/health",
+                        "/actuator/health/liveness",
+                        "/actuator/health/readiness",
+                        "/actuator/prometheus").permitAll()
                 .anyRequest().authenticated()
             )
             .formLogin(form -> form
@@ -0,0 +1,60 @@
+package com.videotopdf.controller;
+
+import com.videotopdf.model.ApiKey;
+import com.videotopdf.service.ApiKeyService;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+
+// Key management for the signed-in user. Clients then call
+// /convert/** with an X-API-Key header instead of logging in.
+@Controller
+@RequestMapping("/account/api-keys")
+public class ApiKeyController {
+
+    @Autowired private ApiKeyService apiKeyService;
+
+    @GetMapping
+    public ResponseEntity<String> list(Principal principal) {
+        JSONArray keys = new JSONArray();
+        for (ApiKey key : apiKeyService.list(principal.getName())) {
+            JSONObject json = new JSONObject();
+            json.put("id", key.getId());
+            json.put("name", key.getName());
+            json.put("prefix", key.getKeyPrefix());
+            json.put("createdAt", key.getCreatedAt().toString());
+            json.put("revoked", key.getRevokedAt() != null);
+            keys.put(json);
+        }
+        return json(keys.toString());
+    }
+
+    // The key is only ever returned here
+    @PostMapping
+    public ResponseEntity<String> create(Principal principal,
+            @RequestParam(defaultValue = "") String name) {
+        String key = apiKeyService.create(principal.getName(),
+            name.length() > 100 ? name.substring(0, 100) : name);
+        return json(new JSONObject().put("key", key).toString());
+    }
+
+    @PostMapping("/{id}/revoke")
+    public ResponseEntity<String> revoke(Principal principal,
+            @PathVariable Long id) {
+        if (!apiKeyService.revoke(principal.getName(), id))
+            return ResponseEntity.notFound().build();
+        return json(new JSONObject().put("revoked", id).toString());
+    }
+
+    private static ResponseEntity<String> json(String body) {
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body);
+    }
+}
@@ -0,0 +1,109 @@
+package com.videotopdf.controller;
+
+import com.videotopdf.model.ConversionJob;
+import com.videotopdf.service.ConversionException;
+import com.videotopdf.service.JobQueue;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Principal;
+
+// Queued conversions: submit, poll the status, then fetch the PDF.
+// Any instance can answer, whichever one ran the job. Under
+// /convert/ so API keys work here too.
+@Controller
+@RequestMapping("/convert/jobs")
+public class JobController {
+
+    @Autowired private JobQueue queue;
+
+    @PostMapping("/youtube")
+    public ResponseEntity<String> submitYoutube(
+            @RequestParam String youtubeUrl,
+            @RequestParam(defaultValue = "false") boolean compact,
+            Principal principal) {
+        return accepted(queue.submitYoutube(
+            principal.getName(), youtubeUrl, compact));
+    }
+
+    @PostMapping("/file")
+    public ResponseEntity<String> submitFile(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(defaultValue = "false") boolean compact,
+            Principal principal) throws Exception {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest()
+                .body("Please select a file");
+        }
+        Path upload = Files.createTempFile("vtp_upload_", ".tmp");
+        try {
+            file.transferTo(upload.toFile());
+            return accepted(queue.submitFile(principal.getName(),
+                upload, file.getOriginalFilename(), compact));
+        } catch (ConversionException e) {
+            return ResponseEntity.status(e.getStatus())
+                .body(e.getMessage());
+        } finally {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<String> status(@PathVariable Long id,
+            Principal principal) {
+        return queue.find(principal.getName(), id)
+            .map(job -> json(HttpStatus.OK, describe(job)))
+            .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{id}/pdf")
+    public ResponseEntity<byte[]> pdf(@PathVariable Long id,
+            Principal principal) throws Exception {
+        ConversionJob job = queue.find(principal.getName(), id)
+            .filter(j -> j.getStatus() == ConversionJob.Status.DONE)
+            .orElse(null);
+        if (job == null) return ResponseEntity.notFound().build();
+        Path file = queue.resolve(job.getResultRef());
+        if (!Files.exists(file)) return ResponseEntity.notFound().build();
+        return ConvertController.pdf(
+            Files.readAllBytes(file), job.getResultName());
+    }
+
+    private static ResponseEntity<String> accepted(ConversionJob job) {
+        return json(HttpStatus.ACCEPTED, describe(job));
+    }
+
+    private static JSONObject describe(ConversionJob job) {
+        JSONObject json = new JSONObject();
+        json.put("id", job.getId());
+        json.put("status", job.getStatus().name());
+        json.put("attempts", job.getAttempts());
+        json.put("createdAt", job.getCreatedAt().toString());
+        if (job.getStartedAt() != null)
+            json.put("startedAt", job.getStartedAt().toString());
+        if (job.getFinishedAt() != null)
+            json.put("finishedAt", job.getFinishedAt().toString());
+        // A DONE job's error is a warning about its result
+        if (job.getError() != null)
+            json.put(job.getStatus() == ConversionJob.Status.DONE
+                ? "warning" : "error", job.getError());
+        if (job.getStatus() == ConversionJob.Status.DONE)
+            json.put("pdf", "/convert/jobs/" + job.getId() + "/pdf");
+        return json;
+    }
+
+    private static ResponseEntity<String> json(HttpStatus status,
+            JSONObject body) {
+        return ResponseEntity.status(status)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body.toString());
+    }
+}
@@ -0,0 +1,60 @@
+package com.videotopdf.controller;
+
+import com.videotopdf.service.TranscriptIndex;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+
+// Search the signed-in user's converted transcripts instead of
+// converting a video again to find a passage. "quoted words" match
+// as a phrase; every word or phrase has to occur.
+@Controller
+@RequestMapping("/search")
+public class SearchController {
+
+    @Autowired private TranscriptIndex searchIndex;
+
+    @GetMapping
+    public ResponseEntity<String> search(@RequestParam String q,
+            @RequestParam(defaultValue = "20") int limit,
+            Principal principal) {
+        long started = System.nanoTime();
+        int n = Math.max(1, Math.min(limit, 100));
+        JSONArray hits = new JSONArray();
+        for (TranscriptIndex.Hit hit :
+                searchIndex.search(principal.getName(), q, n)) {
+            JSONArray paragraphs = new JSONArray();
+            for (int i = 0; i < hit.paragraphs.length; i++) {
+                JSONObject p = new JSONObject();
+                p.put("paragraph", hit.paragraphs[i]);
+                if (hit.times[i] >= 0) {
+                    p.put("startMs", hit.times[i]);
+                    if (!hit.videoId.isEmpty()) {
+                        p.put("url", "https://www.youtube.com/watch?v="
+                            + hit.videoId + "&t=" + hit.times[i] / 1000);
+                    }
+                }
+                paragraphs.put(p);
+            }
+            JSONObject json = new JSONObject();
+            if (!hit.videoId.isEmpty()) json.put("videoId", hit.videoId);
+            json.put("title", hit.title);
+            json.put("matches", hit.matches);
+            json.put("paragraphs", paragraphs);
+            hits.put(json);
+        }
+        JSONObject body = new JSONObject();
+        body.put("query", q);
+        body.put("tookMs", (System.nanoTime() - started) / 1_000_000.0);
+        body.put("hits", hits);
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body.toString());
+    }
+}
@@ -0,0 +1,140 @@
+package com.videotopdf.controller;
+
+import com.videotopdf.model.ConversionJob;
+import com.videotopdf.service.ChunkedUploads;
+import com.videotopdf.service.ConversionException;
+import com.videotopdf.service.ConversionService;
+import com.videotopdf.service.JobQueue;
+import jakarta.servlet.http.HttpServletRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.security.Principal;
+
+// Resumable uploads for large media: create a session, PUT the
+// chunks (in parallel, retrying any that fail), check which ones
+// arrived, then complete. Completing returns the PDF like
+// /convert/file, or with queue=true submits a job and returns 202.
+// Under /convert/ so API keys work here too.
+@Controller
+@RequestMapping("/convert/uploads")
+public class UploadController {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(UploadController.class);
+
+    @Autowired private ChunkedUploads uploads;
+    @Autowired private ConversionService conversionService;
+    @Autowired private JobQueue jobQueue;
+
+    @PostMapping
+    public ResponseEntity<?> create(@RequestParam String fileName,
+            @RequestParam long size,
+            @RequestParam(required = false) Long chunkSize,
+            @RequestParam(required = false) String sha256,
+            Principal principal) {
+        try {
+            return json(HttpStatus.CREATED, describe(uploads.create(
+                principal.getName(), fileName, size, chunkSize, sha256)));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> status(@PathVariable String id,
+            Principal principal) {
+        try {
+            return json(HttpStatus.OK,
+                describe(uploads.status(principal.getName(), id)));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    // Raw bytes; X-Chunk-Sha256 is checked when sent
+    @PutMapping("/{id}/chunks/{index}")
+    public ResponseEntity<?> chunk(@PathVariable String id,
+            @PathVariable int index,
+            @RequestHeader(value = "X-Chunk-Sha256", required = false)
+            String sha256,
+            HttpServletRequest request, Principal principal) {
+        try {
+            return json(HttpStatus.OK, describe(uploads.putChunk(
+                principal.getName(), id, index,
+                request.getInputStream(), sha256)));
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<?> complete(@PathVariable String id,
+            @RequestParam(defaultValue = "false") boolean compact,
+            @RequestParam(defaultValue = "false") boolean queue,
+            Principal principal) {
+        String username = principal.getName();
+        try {
+            ChunkedUploads.Assembled upload =
+                uploads.assemble(username, id);
+            if (queue) {
+                ConversionJob job = jobQueue.submitFile(username,
+                    upload.file, upload.fileName, compact);
+                uploads.delete(id);
+                JSONObject json = new JSONObject();
+                json.put("id", job.getId());
+                json.put("status", "/convert/jobs/" + job.getId());
+                return json(HttpStatus.ACCEPTED, json);
+            }
+            ConversionService.Result result = conversionService
+                .convertFile(username, upload.file, upload.fileName,
+                    compact, upload.sha256);
+            uploads.delete(id);
+            return ConvertController.pdf(result);
+        } catch (Exception e) {
+            return error(e);
+        }
+    }
+
+    private static JSONObject describe(ChunkedUploads.Status status) {
+        JSONObject json = new JSONObject();
+        json.put("id", status.id);
+        json.put("fileName", status.fileName);
+        json.put("size", status.size);
+        json.put("chunkSize", status.chunkSize);
+        json.put("chunks", status.chunks);
+        JSONArray missing = new JSONArray();
+        for (int i = status.received.nextClearBit(0);
+                i < status.chunks; i = status.received.nextClearBit(i + 1)) {
+            missing.put(i);
+        }
+        json.put("received", status.received.cardinality());
+        json.put("missing", missing);
+        json.put("complete", status.complete());
+        return json;
+    }
+
+    private static ResponseEntity<String> json(HttpStatus status,
+            JSONObject body) {
+        return ResponseEntity.status(status)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body.toString());
+    }
+
+    private static ResponseEntity<String> error(Exception e) {
+        if (e instanceof ConversionException ce) {
+            return ResponseEntity.status(ce.getStatus())
+                .body(ce.getMessage());
+        }
+        log.error("Upload error: {}", e.getMessage(), e);
+        return ResponseEntity.status(500).body("Error: " + e.getMessage());
+    }
+}
@@ -0,0 +1,57 @@
+package com.videotopdf.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// An API key for automated clients. Only the SHA-256 of the key is
+// stored; keys are 256-bit random, so a slow hash adds nothing.
+@Entity
+@Table(name = "api_keys", indexes = {
+    @Index(name = "idx_api_keys_user", columnList = "user_id")
+})
+public class ApiKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(unique = true, nullable = false, length = 64)
+    private String keyHash;
+
+    // First characters of the key, to tell keys apart in listings
+    @Column(nullable = false, length = 12)
+    private String keyPrefix;
+
+    @Column(length = 100)
+    private String name;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    private Instant revokedAt;
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public String getKeyHash() { return keyHash; }
+    public void setKeyHash(String keyHash) { this.keyHash = keyHash; }
+
+    public String getKeyPrefix() { return keyPrefix; }
+    public void setKeyPrefix(String keyPrefix) { this.keyPrefix = keyPrefix; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+
+    public Instant getRevokedAt() { return revokedAt; }
+    public void setRevokedAt(Instant revokedAt) { this.revokedAt = revokedAt; }
+}
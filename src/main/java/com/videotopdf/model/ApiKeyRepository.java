@@ -0,0 +1,10 @@
+package com.videotopdf.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import java.util.List;
+import java.util.Optional;
+
+public interface ApiKeyRepository extends JpaRepository<ApiKey, Long> {
+    Optional<ApiKey> findByKeyHash(String keyHash);
+    List<ApiKey> findByUserIdOrderByIdDesc(Long userId);
+}
@@ -0,0 +1,129 @@
+package com.videotopdf.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// One conversion request, kept for history and per-stage timings.
+// Ids come from a pooled sequence so inserts can be JDBC-batched
+// (IDENTITY columns force one round trip per row). Each instance
+// takes blocks of 50, so ids are not in time order; history is
+// ordered by (createdAt, id).
+@Entity
+@Table(name = "conversions", indexes = {
+    @Index(name = "idx_conversions_user_created",
+           columnList = "user_id, created_at, id"),
+    @Index(name = "idx_conversions_video", columnList = "video_id"),
+    @Index(name = "idx_conversions_upload",
+           columnList = "upload_hash")
+})
+public class Conversion {
+
+    public enum Source { YOUTUBE, FILE }
+
+    public enum Status { SUCCESS, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+                    generator = "conversion_seq")
+    @SequenceGenerator(name = "conversion_seq",
+                       sequenceName = "conversion_seq",
+                       allocationSize = 50)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Source source;
+
+    @Column(name = "video_id", length = 32)
+    private String videoId;
+
+    // SHA-256 of the uploaded file, hex
+    @Column(name = "upload_hash", length = 64)
+    private String uploadHash;
+
+    @Column(length = 500)
+    private String title;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    @Column(length = 1000)
+    private String error;
+
+    // Where the PDF is kept, when it is kept at all
+    @Column(length = 1000)
+    private String artifactRef;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    // Stage timings in milliseconds; null when not reached
+    private Integer metadataMs;
+    private Integer transcriptMs;
+    private Integer translationMs;
+    private Integer pdfMs;
+    private Integer totalMs;
+
+    private Integer transcriptChars;
+    private Long uploadBytes;
+    private Long pdfBytes;
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public Source getSource() { return source; }
+    public void setSource(Source source) { this.source = source; }
+
+    public String getVideoId() { return videoId; }
+    public void setVideoId(String videoId) { this.videoId = videoId; }
+
+    public String getUploadHash() { return uploadHash; }
+    public void setUploadHash(String uploadHash) { this.uploadHash = uploadHash; }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public String getArtifactRef() { return artifactRef; }
+    public void setArtifactRef(String artifactRef) { this.artifactRef = artifactRef; }
+
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+
+    public Integer getMetadataMs() { return metadataMs; }
+    public void setMetadataMs(Integer metadataMs) { this.metadataMs = metadataMs; }
+
+    public Integer getTranscriptMs() { return transcriptMs; }
+    public void setTranscriptMs(Integer transcriptMs) { this.transcriptMs = transcriptMs; }
+
+    public Integer getTranslationMs() { return translationMs; }
+    public void setTranslationMs(Integer translationMs) { this.translationMs = translationMs; }
+
+    public Integer getPdfMs() { return pdfMs; }
+    public void setPdfMs(Integer pdfMs) { this.pdfMs = pdfMs; }
+
+    public Integer getTotalMs() { return totalMs; }
+    public void setTotalMs(Integer totalMs) { this.totalMs = totalMs; }
+
+    public Integer getTranscriptChars() { return transcriptChars; }
+    public void setTranscriptChars(Integer transcriptChars) { this.transcriptChars = transcriptChars; }
+
+    public Long getUploadBytes() { return uploadBytes; }
+    public void setUploadBytes(Long uploadBytes) { this.uploadBytes = uploadBytes; }
+
+    public Long getPdfBytes() { return pdfBytes; }
+    public void setPdfBytes(Long pdfBytes) { this.pdfBytes = pdfBytes; }
+}
@@ -0,0 +1,135 @@
+package com.videotopdf.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// A queued conversion. Whichever instance holds the lease runs it;
+// input and result files live in the shared jobs directory.
+@Entity
+@Table(name = "conversion_jobs", indexes = {
+    @Index(name = "idx_jobs_claim", columnList = "status, id"),
+    @Index(name = "idx_jobs_user_claim",
+        columnList = "user_id, status, id"),
+    @Index(name = "idx_jobs_owner", columnList = "lease_owner")
+})
+public class ConversionJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Conversion.Source source;
+
+    @Column(length = 1000)
+    private String youtubeUrl;
+
+    // Relative to jobs.storage-dir
+    @Column(length = 200)
+    private String inputRef;
+
+    @Column(length = 500)
+    private String origName;
+
+    @Column(nullable = false)
+    private boolean compact;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status = Status.QUEUED;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;
+
+    private Instant leaseExpiresAt;
+
+    // A queued job turned away by a full stage waits until then;
+    // deferrals sets its backoff and does not count as attempts
+    private Instant notBefore;
+
+    @Column(nullable = false)
+    private int deferrals;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    private Instant startedAt;
+
+    private Instant finishedAt;
+
+    @Column(length = 200)
+    private String resultRef;
+
+    @Column(length = 100)
+    private String resultName;
+
+    @Column(length = 1000)
+    private String error;
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public Conversion.Source getSource() { return source; }
+    public void setSource(Conversion.Source source) { this.source = source; }
+
+    public String getYoutubeUrl() { return youtubeUrl; }
+    public void setYoutubeUrl(String youtubeUrl) { this.youtubeUrl = youtubeUrl; }
+
+    public String getInputRef() { return inputRef; }
+    public void setInputRef(String inputRef) { this.inputRef = inputRef; }
+
+    public String getOrigName() { return origName; }
+    public void setOrigName(String origName) { this.origName = origName; }
+
+    public boolean isCompact() { return compact; }
+    public void setCompact(boolean compact) { this.compact = compact; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public String getLeaseOwner() { return leaseOwner; }
+    public void setLeaseOwner(String leaseOwner) { this.leaseOwner = leaseOwner; }
+
+    public Instant getLeaseExpiresAt() { return leaseExpiresAt; }
+    public void setLeaseExpiresAt(Instant leaseExpiresAt) { this.leaseExpiresAt = leaseExpiresAt; }
+
+    public Instant getNotBefore() { return notBefore; }
+    public void setNotBefore(Instant notBefore) { this.notBefore = notBefore; }
+
+    public int getDeferrals() { return deferrals; }
+    public void setDeferrals(int deferrals) { this.deferrals = deferrals; }
+
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+
+    public Instant getStartedAt() { return startedAt; }
+    public void setStartedAt(Instant startedAt) { this.startedAt = startedAt; }
+
+    public Instant getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(Instant finishedAt) { this.finishedAt = finishedAt; }
+
+    public String getResultRef() { return resultRef; }
+    public void setResultRef(String resultRef) { this.resultRef = resultRef; }
+
+    public String getResultName() { return resultName; }
+    public void setResultName(String resultName) { this.resultName = resultName; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
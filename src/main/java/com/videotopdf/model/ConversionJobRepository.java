@@ -0,0 +1,96 @@
+package com.videotopdf.model;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.Instant;
+import java.util.List;
+
+public interface ConversionJobRepository
+        extends JpaRepository<ConversionJob, Long> {
+
+    // Users with queued jobs that are due or running ones whose
+    // lease ran out, so claims can go round them
+    @Query("select distinct j.userId from ConversionJob j"
+         + " where (j.status = com.videotopdf.model.ConversionJob$Status.QUEUED"
+         + " and (j.notBefore is null or j.notBefore <= :now))"
+         + " or (j.status = com.videotopdf.model.ConversionJob$Status.RUNNING"
+         + " and j.leaseExpiresAt < :now)")
+    List<Long> findClaimableUsers(@Param("now") Instant now);
+
+    // One user's claimable jobs. Lock timeout -2 is SKIP LOCKED, so
+    // concurrent claimers take different rows; dialects without it
+    // fall back to a plain FOR UPDATE.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(
+        name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select j from ConversionJob j where j.userId = :userId"
+         + " and ((j.status = com.videotopdf.model.ConversionJob$Status.QUEUED"
+         + " and (j.notBefore is null or j.notBefore <= :now))"
+         + " or (j.status = com.videotopdf.model.ConversionJob$Status.RUNNING"
+         + " and j.leaseExpiresAt < :now)) order by j.id")
+    List<ConversionJob> findClaimableByUser(@Param("userId") Long userId,
+                                            @Param("now") Instant now,
+                                            Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("update ConversionJob j set j.leaseExpiresAt = :until"
+         + " where j.leaseOwner = :owner"
+         + " and j.status = com.videotopdf.model.ConversionJob$Status.RUNNING")
+    int renewLeases(@Param("owner") String owner,
+                    @Param("until") Instant until);
+
+    // 1 if the caller still held the lease
+    @Transactional
+    @Modifying
+    @Query("update ConversionJob j set j.status = :to,"
+         + " j.resultRef = :resultRef, j.resultName = :resultName,"
+         + " j.error = :error, j.finishedAt = :now,"
+         + " j.leaseOwner = null, j.leaseExpiresAt = null"
+         + " where j.id = :id and j.leaseOwner = :owner"
+         + " and j.status = com.videotopdf.model.ConversionJob$Status.RUNNING")
+    int finish(@Param("id") Long id, @Param("owner") String owner,
+               @Param("to") ConversionJob.Status to,
+               @Param("resultRef") String resultRef,
+               @Param("resultName") String resultName,
+               @Param("error") String error,
+               @Param("now") Instant now);
+
+    // Hands a job back to the queue for another attempt
+    @Transactional
+    @Modifying
+    @Query("update ConversionJob j"
+         + " set j.status = com.videotopdf.model.ConversionJob$Status.QUEUED,"
+         + " j.error = :error, j.leaseOwner = null, j.leaseExpiresAt = null"
+         + " where j.id = :id and j.leaseOwner = :owner"
+         + " and j.status = com.videotopdf.model.ConversionJob$Status.RUNNING")
+    int release(@Param("id") Long id, @Param("owner") String owner,
+                @Param("error") String error);
+
+    // Hands a job back to wait until notBefore; the claim that
+    // started it is not counted as an attempt
+    @Transactional
+    @Modifying
+    @Query("update ConversionJob j"
+         + " set j.status = com.videotopdf.model.ConversionJob$Status.QUEUED,"
+         + " j.error = :error, j.leaseOwner = null, j.leaseExpiresAt = null,"
+         + " j.attempts = j.attempts - 1, j.deferrals = j.deferrals + 1,"
+         + " j.notBefore = :notBefore"
+         + " where j.id = :id and j.leaseOwner = :owner"
+         + " and j.status = com.videotopdf.model.ConversionJob$Status.RUNNING")
+    int defer(@Param("id") Long id, @Param("owner") String owner,
+              @Param("error") String error,
+              @Param("notBefore") Instant notBefore);
+
+    List<ConversionJob> findByStatusInAndFinishedAtBefore(
+        List<ConversionJob.Status> statuses, Instant before,
+        Pageable page);
+}
@@ -0,0 +1,32 @@
+package com.videotopdf.model;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import java.time.Instant;
+import java.util.List;
+
+public interface ConversionRepository
+        extends JpaRepository<Conversion, Long> {
+
+    // Keyset pages, newest first by (createdAt, id); the id breaks
+    // ties between records started in the same instant. Served from
+    // idx_conversions_user_created without an offset scan.
+    List<Conversion> findByUserIdOrderByCreatedAtDescIdDesc(
+            Long userId, Limit limit);
+
+    // Strictly older than the (createdAt, id) of the last row shown
+    @Query("select c from Conversion c where c.userId = :userId"
+         + " and (c.createdAt < :createdAt"
+         + " or (c.createdAt = :createdAt and c.id < :id))"
+         + " order by c.createdAt desc, c.id desc")
+    List<Conversion> findPageBefore(@Param("userId") Long userId,
+                                    @Param("createdAt") Instant createdAt,
+                                    @Param("id") Long id, Limit limit);
+
+    // Successful uploads in id order, for rebuilding the search
+    // index from the media cache
+    List<Conversion> findByStatusAndUploadHashNotNullAndIdGreaterThanOrderById(
+            Conversion.Status status, Long id, Limit limit);
+}
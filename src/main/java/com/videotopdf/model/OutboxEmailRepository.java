@@ -0,0 +1,64 @@
+package com.videotopdf.model;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.Instant;
+import java.util.List;
+
+public interface OutboxEmailRepository
+        extends JpaRepository<OutboxEmail, Long> {
+
+    // Pending rows that are due, and rows whose sender's lease ran
+    // out (the instance died or stalled mid-batch)
+    @Query("select e from OutboxEmail e where"
+         + " (e.status = com.videotopdf.model.OutboxEmail$Status.PENDING"
+         + " and e.nextAttemptAt <= :now)"
+         + " or (e.status = com.videotopdf.model.OutboxEmail$Status.SENDING"
+         + " and e.leaseExpiresAt < :now) order by e.nextAttemptAt")
+    List<OutboxEmail> findClaimable(@Param("now") Instant now,
+                                    Pageable page);
+
+    // 1 if the row was still claimable and is now leased to owner
+    @Transactional
+    @Modifying
+    @Query("update OutboxEmail e"
+         + " set e.status = com.videotopdf.model.OutboxEmail$Status.SENDING,"
+         + " e.leaseOwner = :owner, e.leaseExpiresAt = :until"
+         + " where e.id = :id and ((e.status"
+         + " = com.videotopdf.model.OutboxEmail$Status.PENDING"
+         + " and e.nextAttemptAt <= :now)"
+         + " or (e.status = com.videotopdf.model.OutboxEmail$Status.SENDING"
+         + " and e.leaseExpiresAt < :now))")
+    int claim(@Param("id") Long id, @Param("owner") String owner,
+              @Param("now") Instant now, @Param("until") Instant until);
+
+    // Only while owner still holds the lease
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxEmail e where e.id = :id"
+         + " and e.leaseOwner = :owner"
+         + " and e.status = com.videotopdf.model.OutboxEmail$Status.SENDING")
+    int deleteSent(@Param("id") Long id, @Param("owner") String owner);
+
+    @Transactional
+    @Modifying
+    @Query("update OutboxEmail e set e.status = :to,"
+         + " e.attempts = :attempts, e.nextAttemptAt = :next,"
+         + " e.lastError = :error,"
+         + " e.leaseOwner = null, e.leaseExpiresAt = null"
+         + " where e.id = :id and e.leaseOwner = :owner"
+         + " and e.status = com.videotopdf.model.OutboxEmail$Status.SENDING")
+    int release(@Param("id") Long id, @Param("owner") String owner,
+                @Param("to") OutboxEmail.Status to,
+                @Param("attempts") int attempts,
+                @Param("next") Instant next,
+                @Param("error") String error);
+
+    // FAILED rows record when they failed in nextAttemptAt
+    List<OutboxEmail> findByStatusAndNextAttemptAtBefore(
+            OutboxEmail.Status status, Instant before, Pageable page);
+}
@@ -0,0 +1,175 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.ApiKey;
+import com.videotopdf.model.ApiKeyRepository;
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Issues, verifies and revokes API keys. Verified keys are cached
+// by hash for api-keys.cache-ttl, which bounds how long a revocation
+// takes to reach every instance; on the instance that revokes, it
+// takes effect at once. Unknown and revoked keys go in a separate,
+// smaller cache with a shorter TTL, so a stream of made-up keys
+// can't push valid ones out; keys not shaped like ours never reach
+// the database.
+@Service
+public class ApiKeyService {
+
+    public static final String KEY_PREFIX = "vtp_";
+    // Prefix and 32 random bytes, base64url without padding
+    private static final int KEY_LENGTH = KEY_PREFIX.length() + 43;
+
+    @Autowired
+    private ApiKeyRepository apiKeyRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${api-keys.cache-size:10000}")
+    private int cacheSize;
+
+    @Value("${api-keys.cache-ttl:10s}")
+    private Duration cacheTtl;
+
+    @Value("${api-keys.negative-cache-size:1000}")
+    private int negativeCacheSize;
+
+    @Value("${api-keys.negative-cache-ttl:2s}")
+    private Duration negativeCacheTtl;
+
+    private final SecureRandom random = new SecureRandom();
+    private Map<String, Verified> cache;
+    private Map<String, Long> unknown;
+
+    private static final class Verified {
+        final Authentication authentication;
+        final long expiresAt;
+
+        Verified(Authentication authentication, long expiresAt) {
+            this.authentication = authentication;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        cache = lru(cacheSize);
+        unknown = lru(negativeCacheSize);
+    }
+
+    // Access-ordered, so the least recently used key goes first
+    private static <V> Map<String, V> lru(int max) {
+        return Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, V> eldest) {
+                    return size() > max;
+                }
+            });
+    }
+
+    // Returns the key; only its hash is kept, so it can't be shown again
+    public String create(String username, String name) {
+        User user = userRepository.findByUsername(username)
+            .orElseThrow(() ->
+                new IllegalArgumentException("Unknown user " + username));
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        String key = KEY_PREFIX + Base64.getUrlEncoder()
+            .withoutPadding().encodeToString(secret);
+
+        ApiKey apiKey = new ApiKey();
+        apiKey.setUserId(user.getId());
+        apiKey.setKeyHash(hash(key));
+        apiKey.setKeyPrefix(key.substring(0, 12));
+        apiKey.setName(name);
+        apiKey.setCreatedAt(Instant.now());
+        apiKeyRepository.save(apiKey);
+        return key;
+    }
+
+    public List<ApiKey> list(String username) {
+        return userRepository.findByUsername(username)
+            .map(u -> apiKeyRepository.findByUserIdOrderByIdDesc(u.getId()))
+            .orElse(List.of());
+    }
+
+    public boolean revoke(String username, Long id) {
+        Optional<User> user = userRepository.findByUsername(username);
+        Optional<ApiKey> key = apiKeyRepository.findById(id);
+        if (user.isEmpty() || key.isEmpty()
+                || !key.get().getUserId().equals(user.get().getId()))
+            return false;
+        ApiKey apiKey = key.get();
+        if (apiKey.getRevokedAt() == null) {
+            apiKey.setRevokedAt(Instant.now());
+            apiKeyRepository.save(apiKey);
+        }
+        cache.remove(apiKey.getKeyHash());
+        return true;
+    }
+
+    // null when the key is unknown or revoked
+    public Authentication authenticate(String key) {
+        if (key == null || key.length() != KEY_LENGTH
+                || !key.startsWith(KEY_PREFIX))
+            return null;
+        String hash = hash(key);
+        long now = System.nanoTime();
+        Verified verified = cache.get(hash);
+        if (verified != null && now - verified.expiresAt < 0)
+            return verified.authentication;
+        Long unknownUntil = unknown.get(hash);
+        if (unknownUntil != null && now - unknownUntil < 0)
+            return null;
+
+        Authentication auth = apiKeyRepository.findByKeyHash(hash)
+            .filter(k -> k.getRevokedAt() == null)
+            .flatMap(k -> userRepository.findById(k.getUserId()))
+            .map(u -> (Authentication)
+                UsernamePasswordAuthenticationToken.authenticated(
+                    u.getUsername(), null,
+                    List.of(new SimpleGrantedAuthority(
+                        "ROLE_" + u.getRole()))))
+            .orElse(null);
+        if (auth != null) {
+            cache.put(hash, new Verified(auth, now + cacheTtl.toNanos()));
+        } else {
+            cache.remove(hash);
+            unknown.put(hash, now + negativeCacheTtl.toNanos());
+        }
+        return auth;
+    }
+
+    private static String hash(String key) {
+        try {
+            return HexFormat.of().formatHex(
+                MessageDigest.getInstance("SHA-256")
+                    .digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
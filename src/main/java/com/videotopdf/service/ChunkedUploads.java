@@ -0,0 +1,358 @@
+package com.videotopdf.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Resumable uploads: a session fixes the file's size and chunk
+// size, chunks arrive in any order and in parallel, and a retried
+// chunk simply replaces the earlier copy. Each chunk is checked
+// against its length and, when sent, its SHA-256 before it is
+// kept. Sessions are directories under uploads.dir (one file per
+// chunk plus session.json), so any instance sharing the directory
+// can take the next chunk. Sessions idle for uploads.session-ttl
+// are removed, as are old media cache entries.
+@Service
+public class ChunkedUploads {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(ChunkedUploads.class);
+
+    private static final String SESSION = "session.json";
+    private static final int MAX_CHUNKS = 10_000;
+
+    @Autowired
+    private MediaCache mediaCache;
+
+    @Value("${uploads.dir}")
+    private String uploadsDir;
+
+    @Value("${uploads.chunk-size:8MB}")
+    private DataSize defaultChunkSize;
+
+    @Value("${uploads.max-size:2GB}")
+    private DataSize maxSize;
+
+    @Value("${uploads.session-ttl:24h}")
+    private Duration sessionTtl;
+
+    private Path dir;
+    private ScheduledExecutorService cleaner;
+
+    public static final class Status {
+        public final String id;
+        public final String fileName;
+        public final long size;
+        public final long chunkSize;
+        public final int chunks;
+        public final BitSet received;
+
+        Status(String id, JSONObject session, BitSet received) {
+            this.id = id;
+            this.fileName = session.getString("fileName");
+            this.size = session.getLong("size");
+            this.chunkSize = session.getLong("chunkSize");
+            this.chunks = chunks(size, chunkSize);
+            this.received = received;
+        }
+
+        public boolean complete() {
+            return received.cardinality() == chunks;
+        }
+    }
+
+    // An assembled upload; the caller deletes the session once the
+    // upload is converted or queued, and not before
+    public static final class Assembled {
+        public final Path file;
+        public final String fileName;
+        public final String sha256;
+
+        Assembled(Path file, String fileName, String sha256) {
+            this.file = file;
+            this.fileName = fileName;
+            this.sha256 = sha256;
+        }
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        dir = Paths.get(uploadsDir).toAbsolutePath();
+        Files.createDirectories(dir);
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "upload-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        cleaner.scheduleWithFixedDelay(this::cleanUp,
+            1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void stop() {
+        cleaner.shutdownNow();
+    }
+
+    // sha256 of the whole file is optional; when given, assembly
+    // fails if the chunks do not add up to it
+    public Status create(String username, String fileName, long size,
+            Long chunkSize, String sha256) throws Exception {
+        ConversionService.uploadExtension(fileName);
+        if (size <= 0 || size > maxSize.toBytes()) {
+            throw new ConversionException(400,
+                "Upload size must be between 1 byte and " + maxSize);
+        }
+        long chunk = chunkSize != null
+            ? chunkSize : defaultChunkSize.toBytes();
+        if (chunk < 64 * 1024 || chunks(size, chunk) > MAX_CHUNKS) {
+            throw new ConversionException(400, "Chunk size too small");
+        }
+        if (sha256 != null && !sha256.matches("[0-9a-fA-F]{64}")) {
+            throw new ConversionException(400, "Invalid sha256");
+        }
+
+        String id = UUID.randomUUID().toString().replace("-", "");
+        JSONObject session = new JSONObject();
+        session.put("username", username);
+        session.put("fileName", fileName.length() > 500
+            ? fileName.substring(0, 500) : fileName);
+        session.put("size", size);
+        session.put("chunkSize", chunk);
+        if (sha256 != null) session.put("sha256", sha256.toLowerCase());
+        session.put("createdAt", Instant.now().toString());
+
+        Path sessionDir = dir.resolve(id);
+        Files.createDirectories(sessionDir);
+        writeSession(sessionDir, session);
+        log.info("Upload {} started: {} bytes in {} chunks",
+            id, size, chunks(size, chunk));
+        return new Status(id, session, new BitSet());
+    }
+
+    public Status status(String username, String id) throws Exception {
+        JSONObject session = session(username, id);
+        return new Status(id, session, received(id, session));
+    }
+
+    // The body is streamed to disk; the chunk only counts once its
+    // length (and sha256, if sent) check out
+    public Status putChunk(String username, String id, int index,
+            InputStream body, String sha256) throws Exception {
+        JSONObject session = session(username, id);
+        long size = session.getLong("size");
+        long chunkSize = session.getLong("chunkSize");
+        int chunks = chunks(size, chunkSize);
+        if (index < 0 || index >= chunks) {
+            throw new ConversionException(400,
+                "Chunk index out of range 0.." + (chunks - 1));
+        }
+        long expected = Math.min(chunkSize, size - index * chunkSize);
+
+        Path sessionDir = dir.resolve(id);
+        Path tmp = sessionDir.resolve(index + "." + UUID.randomUUID()
+            + ".tmp");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        long written = 0;
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = body.read(buf)) > 0) {
+                    written += n;
+                    if (written > expected) break;
+                    digest.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            }
+            if (written != expected) {
+                throw new ConversionException(400, "Chunk " + index
+                    + " must be " + expected + " bytes");
+            }
+            String actual = HexFormat.of().formatHex(digest.digest());
+            if (sha256 != null && !sha256.equalsIgnoreCase(actual)) {
+                throw new ConversionException(422,
+                    "Chunk " + index + " failed its sha256 check");
+            }
+            Files.move(tmp, sessionDir.resolve(index + ".part"),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        touch(sessionDir);
+        return new Status(id, session, received(id, session));
+    }
+
+    // Joins the chunks into one file, hashing on the way. The
+    // chunks stay until the session is deleted, and the file and
+    // its hash are recorded, so if the conversion after this fails
+    // a retried complete reuses the file, or joins the chunks again
+    // when the file was moved away.
+    public Assembled assemble(String username, String id)
+            throws Exception {
+        JSONObject session = session(username, id);
+        Status status = new Status(id, session, received(id, session));
+        Path sessionDir = dir.resolve(id);
+        String ext = ConversionService.uploadExtension(status.fileName);
+        Path file = sessionDir.resolve("upload." + ext);
+        String assembled = session.optString("assembled", null);
+        if (assembled != null && Files.exists(file)
+                && Files.size(file) == status.size) {
+            return new Assembled(file, status.fileName, assembled);
+        }
+        if (!status.complete()) {
+            throw new ConversionException(409, "Missing "
+                + (status.chunks - status.received.cardinality())
+                + " of " + status.chunks + " chunks");
+        }
+
+        Path tmp = sessionDir.resolve("upload." + UUID.randomUUID()
+            + ".tmp");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                byte[] buf = new byte[64 * 1024];
+                for (int i = 0; i < status.chunks; i++) {
+                    try (InputStream in = Files.newInputStream(
+                            sessionDir.resolve(i + ".part"))) {
+                        int n;
+                        while ((n = in.read(buf)) > 0) {
+                            digest.update(buf, 0, n);
+                            out.write(buf, 0, n);
+                        }
+                    }
+                }
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            String expected = session.optString("sha256", null);
+            if (expected != null && !expected.equals(sha256)) {
+                throw new ConversionException(422,
+                    "Assembled upload failed its sha256 check");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            session.put("assembled", sha256);
+            writeSession(sessionDir, session);
+            return new Assembled(file, status.fileName, sha256);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public void delete(String id) {
+        deleteTree(dir.resolve(id));
+    }
+
+    private JSONObject session(String username, String id)
+            throws Exception {
+        Path file = id.matches("[0-9a-f]{32}")
+            ? dir.resolve(id).resolve(SESSION) : null;
+        if (file == null || !Files.exists(file)) {
+            throw new ConversionException(404, "No such upload");
+        }
+        JSONObject session = new JSONObject(
+            Files.readString(file, StandardCharsets.UTF_8));
+        if (!session.getString("username").equals(username)) {
+            throw new ConversionException(404, "No such upload");
+        }
+        return session;
+    }
+
+    private static void writeSession(Path sessionDir,
+            JSONObject session) throws IOException {
+        Path tmp = sessionDir.resolve(SESSION + "."
+            + UUID.randomUUID() + ".tmp");
+        Files.writeString(tmp, session.toString());
+        Files.move(tmp, sessionDir.resolve(SESSION),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private BitSet received(String id, JSONObject session)
+            throws IOException {
+        BitSet received = new BitSet();
+        int chunks = chunks(session.getLong("size"),
+            session.getLong("chunkSize"));
+        try (DirectoryStream<Path> parts =
+                Files.newDirectoryStream(dir.resolve(id), "*.part")) {
+            for (Path part : parts) {
+                String name = part.getFileName().toString();
+                int index = Integer.parseInt(
+                    name.substring(0, name.length() - 5));
+                if (index < chunks) received.set(index);
+            }
+        }
+        return received;
+    }
+
+    private static int chunks(long size, long chunkSize) {
+        return (int) Math.min(Integer.MAX_VALUE,
+            (size + chunkSize - 1) / chunkSize);
+    }
+
+    private static void touch(Path sessionDir) {
+        try {
+            Files.setLastModifiedTime(sessionDir.resolve(SESSION),
+                FileTime.from(Instant.now()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void cleanUp() {
+        Instant cutoff = Instant.now().minus(sessionTtl);
+        try (DirectoryStream<Path> sessions =
+                Files.newDirectoryStream(dir)) {
+            for (Path session : sessions) {
+                Path meta = session.resolve(SESSION);
+                Path age = Files.exists(meta) ? meta : session;
+                if (Files.getLastModifiedTime(age).toInstant()
+                        .isBefore(cutoff)) {
+                    log.info("Removing idle upload {}",
+                        session.getFileName());
+                    deleteTree(session);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Upload cleanup failed: {}", e.getMessage());
+        }
+        mediaCache.purge();
+    }
+
+    // Session directories are flat
+    private static void deleteTree(Path sessionDir) {
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(sessionDir)) {
+            for (Path file : files) Files.deleteIfExists(file);
+            Files.deleteIfExists(sessionDir);
+        } catch (IOException e) {
+            log.warn("Could not remove upload {}: {}",
+                sessionDir.getFileName(), e.getMessage());
+        }
+    }
+}
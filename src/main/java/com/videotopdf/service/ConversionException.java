@@ -0,0 +1,20 @@
+package com.videotopdf.service;
+
+// A conversion that can't succeed as requested (bad input, no
+// captions, no speech); the message is safe to show the user
+public class ConversionException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public ConversionException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    // HTTP status for the synchronous endpoints
+    public int getStatus() {
+        return status;
+    }
+}
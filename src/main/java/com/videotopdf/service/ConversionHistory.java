@@ -0,0 +1,148 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import com.videotopdf.model.ConversionRepository;
+import com.videotopdf.model.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Conversion records are queued by request threads and written by
+// one thread in batches, so a burst of finished conversions costs
+// a few batched INSERTs instead of a transaction each
+@Service
+public class ConversionHistory {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(ConversionHistory.class);
+
+    @Autowired
+    private ConversionRepository conversions;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${history.page-size:20}")
+    private int pageSize;
+
+    // Keep in step with hibernate.jdbc.batch_size
+    @Value("${history.write-batch-size:50}")
+    private int batchSize;
+
+    @Value("${history.flush-interval:1s}")
+    private Duration flushInterval;
+
+    private final BlockingQueue<Conversion> pending =
+        new LinkedBlockingQueue<>(10_000);
+    private final Map<String, Long> userIds =
+        new ConcurrentHashMap<>();
+    private Thread writer;
+
+    @PostConstruct
+    void start() {
+        writer = new Thread(this::write, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        writer.interrupt();
+        writer.join(5000);
+    }
+
+    public Conversion start(String username,
+            Conversion.Source source) {
+        Conversion c = new Conversion();
+        c.setUserId(userId(username));
+        c.setSource(source);
+        // As stored, so a page cursor compares equal to its row
+        c.setCreatedAt(Instant.now().truncatedTo(ChronoUnit.MICROS));
+        return c;
+    }
+
+    // Records without a user (no session) are not kept
+    public void record(Conversion c) {
+        if (c.getUserId() == null) return;
+        if (!pending.offer(c))
+            log.warn("History queue full, dropped record for user {}",
+                c.getUserId());
+    }
+
+    // Newest first; pass the createdAt and id of the last record
+    // of a page to get the next
+    public List<Conversion> page(String username, Instant before,
+            Long beforeId) {
+        Long userId = userId(username);
+        if (userId == null) return List.of();
+        if (before == null || beforeId == null) {
+            return conversions.findByUserIdOrderByCreatedAtDescIdDesc(
+                userId, Limit.of(pageSize));
+        }
+        return conversions.findPageBefore(userId, before, beforeId,
+            Limit.of(pageSize));
+    }
+
+    // Successful uploads with ids above afterId, lowest first
+    List<Conversion> uploads(long afterId, int limit) {
+        return conversions
+            .findByStatusAndUploadHashNotNullAndIdGreaterThanOrderById(
+                Conversion.Status.SUCCESS, afterId, Limit.of(limit));
+    }
+
+    public int pageSize() {
+        return pageSize;
+    }
+
+    // Ids never change, so they are cached for the process
+    Long userId(String username) {
+        if (username == null) return null;
+        Long id = userIds.get(username);
+        if (id == null) {
+            id = userRepository.findByUsername(username)
+                .map(u -> u.getId()).orElse(null);
+            if (id != null) userIds.put(username, id);
+        }
+        return id;
+    }
+
+    private void write() {
+        List<Conversion> batch = new ArrayList<>(batchSize);
+        boolean running = true;
+        while (running || !pending.isEmpty()) {
+            try {
+                Conversion first = pending.poll(
+                    flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            pending.drainTo(batch, batchSize - batch.size());
+            if (batch.isEmpty()) continue;
+            try {
+                conversions.saveAll(batch);
+            } catch (Exception e) {
+                log.warn("Could not write {} history records: {}",
+                    batch.size(), e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+}
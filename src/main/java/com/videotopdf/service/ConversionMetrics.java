@@ -0,0 +1,244 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Meters for each stage of a conversion, scraped from
+// /actuator/prometheus. Histograms are switched on in
+// application.properties.
+@Component
+public class ConversionMetrics {
+
+    private final MeterRegistry registry;
+    private final AtomicInteger activeConversions = new AtomicInteger();
+    private final AtomicInteger activeProcesses = new AtomicInteger();
+
+    private final Timer metadataFetch;
+    private final DistributionSummary metadataBatchSize;
+    private final Timer translation;
+    private final Timer translationChunk;
+    private final Timer pdfLayout;
+    private final Timer search;
+    private final Counter descriptionFallbacks;
+    private final Counter transcriptHedges;
+    private final Counter untranslatedChunks;
+    private final Counter misalignedChunks;
+    private final DistributionSummary transcriptLength;
+    private final DistributionSummary pdfPages;
+    private final DistributionSummary pdfSize;
+
+    public ConversionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        registry.gauge("videotopdf.conversions.active",
+            activeConversions);
+        registry.gauge("videotopdf.subprocesses.active",
+            activeProcesses);
+
+        metadataFetch = Timer.builder("videotopdf.metadata.fetch")
+            .description("YouTube videos.list lookups")
+            .register(registry);
+        metadataBatchSize =
+            DistributionSummary.builder("videotopdf.metadata.batch.size")
+                .description("Video ids per videos.list call")
+                .baseUnit("ids")
+                .register(registry);
+        translation = Timer.builder("videotopdf.translation")
+            .description("Whole-transcript translation")
+            .register(registry);
+        translationChunk =
+            Timer.builder("videotopdf.translation.chunk")
+                .description("One translation API call")
+                .register(registry);
+        pdfLayout = Timer.builder("videotopdf.pdf.layout")
+            .description("Transcript parsing and pagination")
+            .register(registry);
+        search = Timer.builder("videotopdf.search")
+            .description("Transcript search queries")
+            .register(registry);
+        descriptionFallbacks =
+            Counter.builder("videotopdf.transcript.description.fallbacks")
+                .description("Videos rendered from their description")
+                .register(registry);
+        transcriptHedges =
+            Counter.builder("videotopdf.transcript.hedges")
+                .description("Caption lookups past their p95 that "
+                    + "started the description fallback alongside")
+                .register(registry);
+        untranslatedChunks =
+            Counter.builder("videotopdf.translation.untranslated.chunks")
+                .description("Chunks kept in the source language")
+                .register(registry);
+        misalignedChunks =
+            Counter.builder("videotopdf.translation.misaligned.chunks")
+                .description("Timed chunks translated to a different "
+                    + "line count, spread over segments by length")
+                .register(registry);
+        transcriptLength =
+            DistributionSummary.builder("videotopdf.transcript.length")
+                .baseUnit("characters")
+                .register(registry);
+        pdfPages = DistributionSummary.builder("videotopdf.pdf.pages")
+            .baseUnit("pages")
+            .register(registry);
+        pdfSize = DistributionSummary.builder("videotopdf.pdf.size")
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    // Counts the conversion as active until conversionFinished
+    public Timer.Sample conversionStarted() {
+        activeConversions.incrementAndGet();
+        return Timer.start(registry);
+    }
+
+    public void conversionFinished(Timer.Sample sample,
+            String source, boolean success) {
+        activeConversions.decrementAndGet();
+        sample.stop(Timer.builder("videotopdf.conversion")
+            .tag("source", source)
+            .tag("outcome", success ? "success" : "error")
+            .register(registry));
+    }
+
+    // Counts the child process as live until it exits
+    public Process track(Process proc) {
+        activeProcesses.incrementAndGet();
+        proc.onExit().thenRun(activeProcesses::decrementAndGet);
+        return proc;
+    }
+
+    public Timer subprocess(String script) {
+        return Timer.builder("videotopdf.subprocess")
+            .description("Python script run, start to exit")
+            .tag("script", script)
+            .register(registry);
+    }
+
+    public void subprocessTimedOut(String script) {
+        Counter.builder("videotopdf.subprocess.timeouts")
+            .tag("script", script)
+            .register(registry)
+            .increment();
+    }
+
+    // Uploads whose transcript was already known by content hash
+    public void mediaCache(boolean hit) {
+        Counter.builder("videotopdf.media.cache")
+            .tag("result", hit ? "hit" : "miss")
+            .register(registry)
+            .increment();
+    }
+
+    // found, none, cached-none (negative cache) or failed
+    public void captionsLookup(String result) {
+        Counter.builder("videotopdf.transcript.captions")
+            .tag("result", result)
+            .register(registry)
+            .increment();
+    }
+
+    // Read at scrape time
+    public void gauge(String name, String tag, String value,
+            Supplier<Number> reading) {
+        Gauge.builder(name, reading)
+            .tag(tag, value)
+            .register(registry);
+    }
+
+    // Time a task waits in a pipeline stage's queue
+    public Timer stageWait(String stage) {
+        return Timer.builder("videotopdf.stage.wait")
+            .tag("stage", stage)
+            .register(registry);
+    }
+
+    // Time a task runs on a pipeline stage's thread
+    public Timer stageService(String stage) {
+        return Timer.builder("videotopdf.stage.service")
+            .tag("stage", stage)
+            .register(registry);
+    }
+
+    // Time from asking the scheduler for a slot to getting one
+    public Timer schedulerWait(boolean interactive) {
+        return Timer.builder("videotopdf.scheduler.wait")
+            .tag("lane", interactive ? "interactive" : "bulk")
+            .register(registry);
+    }
+
+    public Timer pdfSave(String level) {
+        return Timer.builder("videotopdf.pdf.save")
+            .description("Writing and compressing the document")
+            .tag("level", level)
+            .register(registry);
+    }
+
+    public Timer emailSend(boolean success) {
+        return Timer.builder("videotopdf.email.send")
+            .tag("outcome", success ? "success" : "error")
+            .register(registry);
+    }
+
+    public Timer metadataFetch() {
+        return metadataFetch;
+    }
+
+    public DistributionSummary metadataBatchSize() {
+        return metadataBatchSize;
+    }
+
+    public Timer translation() {
+        return translation;
+    }
+
+    public Timer translationChunk() {
+        return translationChunk;
+    }
+
+    public Timer pdfLayout() {
+        return pdfLayout;
+    }
+
+    public Timer search() {
+        return search;
+    }
+
+    public Counter descriptionFallbacks() {
+        return descriptionFallbacks;
+    }
+
+    public Counter transcriptHedges() {
+        return transcriptHedges;
+    }
+
+    public Counter untranslatedChunks() {
+        return untranslatedChunks;
+    }
+
+    public Counter misalignedChunks() {
+        return misalignedChunks;
+    }
+
+    public DistributionSummary transcriptLength() {
+        return transcriptLength;
+    }
+
+    public DistributionSummary pdfPages() {
+        return pdfPages;
+    }
+
+    public DistributionSummary pdfSize() {
+        return pdfSize;
+    }
+}
@@ -0,0 +1,422 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import io.micrometer.core.instrument.Timer;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// The conversion pipeline: metadata, transcript, translation, PDF.
+// Used by the synchronous /convert endpoints and by queue workers;
+// each run is timed and recorded in the conversion history.
+@Service
+public class ConversionService {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(ConversionService.class);
+
+    @Autowired private YouTubeService youTubeService;
+    @Autowired private TranslationService translationService;
+    @Autowired private PdfService pdfService;
+    @Autowired private ConversionMetrics metrics;
+    @Autowired private Subprocesses subprocesses;
+    @Autowired private ConversionHistory history;
+    @Autowired private TranscriptIndex searchIndex;
+    @Autowired private MediaCache mediaCache;
+    @Autowired private FairScheduler scheduler;
+    @Autowired private PipelineStages stages;
+
+    // transcribe.py is stopped only when no segment finishes for
+    // this long; finished segments are kept for the next attempt
+    @Value("${transcription.stall-timeout:10m}")
+    private Duration stallTimeout;
+
+    // Byte budget for ?compact=true downloads
+    @Value("${pdf.compact.max-size:10MB}")
+    private DataSize compactMaxSize;
+
+    private static final String PYTHON =
+        System.getenv("PYTHON_PATH") != null
+        ? System.getenv("PYTHON_PATH")
+        : "/usr/local/bin/python3.10";
+    private static final String TRANSCRIBE =
+        System.getenv("SCRIPTS_PATH") != null
+        ? System.getenv("SCRIPTS_PATH") + "/transcribe.py"
+        : System.getProperty("user.home")
+          + "/VideoToPdf/transcribe.py";
+    // transcribe.py: some segments got no answer from the speech
+    // API; the rest are checkpointed
+    private static final int TRANSCRIBE_INCOMPLETE = 3;
+
+    // overBudget: a compact PDF that could not be brought under
+    // pdf.compact.max-size; the smallest one made is returned
+    public static final class Result {
+        public final byte[] pdf;
+        public final String filename;
+        public final boolean overBudget;
+
+        Result(byte[] pdf, String title) {
+            this(pdf, title, false);
+        }
+
+        Result(byte[] pdf, String title, boolean overBudget) {
+            this.pdf = pdf;
+            this.filename = filename(title);
+            this.overBudget = overBudget;
+        }
+
+        public String budgetWarning() {
+            return overBudget
+                ? "Compact PDF is " + pdf.length
+                    + " bytes, over the size budget"
+                : null;
+        }
+    }
+
+    public Result convertYoutube(String username, String youtubeUrl,
+            boolean compact) throws Exception {
+        return convertYoutube(username, youtubeUrl, compact, true);
+    }
+
+    // Queue workers pass interactive=false, so their jobs wait in
+    // the scheduler's bulk round
+    Result convertYoutube(String username, String youtubeUrl,
+            boolean compact, boolean interactive) throws Exception {
+        Timer.Sample sample = metrics.conversionStarted();
+        Conversion record =
+            history.start(username, Conversion.Source.YOUTUBE);
+        long started = System.nanoTime();
+        boolean converted = false;
+        FairScheduler.Slot slot = null;
+        try {
+            String videoId = youTubeService.extractVideoId(youtubeUrl);
+            if (videoId == null || videoId.isEmpty()) {
+                throw new ConversionException(400,
+                    "Invalid YouTube URL");
+            }
+            record.setVideoId(videoId.length() > 32
+                ? videoId.substring(0, 32) : videoId);
+
+            long t = System.nanoTime();
+            JSONObject details = youTubeService.getVideoDetails(videoId);
+            record.setMetadataMs(millisSince(t));
+            String title = details.getString("title");
+            String channel = details.getString("channelTitle");
+            String thumbnail = details.getString("thumbnailUrl");
+            String language = details.optString("language", "en");
+            String publishedAt = details.getString("publishedAt");
+            record.setTitle(truncate(title, 500));
+
+            // Cost: the video's length (10 minutes if unknown)
+            long seconds = details.optLong("durationSeconds", 0);
+            slot = scheduler.acquire(username,
+                seconds > 0 ? seconds : 600, interactive);
+
+            t = System.nanoTime();
+            SegmentTable transcript =
+                youTubeService.getTranscript(videoId, details);
+            record.setTranscriptMs(millisSince(t));
+            if (transcript == null || transcript.isBlank()) {
+                throw new ConversionException(500,
+                    "Could not extract captions. Try a video with captions enabled.");
+            }
+            record.setTranscriptChars(transcript.textLength());
+
+            String langName = translationService.detectLanguage(language);
+            t = System.nanoTime();
+            SegmentTable finalText = language.startsWith("en")
+                ? transcript
+                : translationService.translateToEnglish(
+                    transcript, language);
+            record.setTranslationMs(millisSince(t));
+
+            t = System.nanoTime();
+            byte[] pdf = compact
+                ? pdfService.generatePdf(
+                    title, channel, publishedAt,
+                    thumbnail, finalText, langName,
+                    compactMaxSize.toBytes())
+                : pdfService.generatePdf(
+                    title, channel, publishedAt,
+                    thumbnail, finalText, langName);
+            record.setPdfMs(millisSince(t));
+            record.setPdfBytes((long) pdf.length);
+
+            log.info("PDF generated: {} ({} bytes)", title, pdf.length);
+            searchIndex.add(record.getUserId(), videoId, title, finalText);
+            converted = true;
+            return new Result(pdf, title, overBudget(compact, pdf));
+
+        } catch (Exception e) {
+            record.setError(truncate(String.valueOf(e.getMessage()), 1000));
+            throw e;
+        } finally {
+            if (slot != null) slot.close();
+            metrics.conversionFinished(sample, "youtube", converted);
+            finish(record, started, converted);
+        }
+    }
+
+    private boolean overBudget(boolean compact, byte[] pdf) {
+        return compact && pdf.length > compactMaxSize.toBytes();
+    }
+
+    // MP4/MP3 only; returns the lower-case extension
+    public static String uploadExtension(String origName)
+            throws ConversionException {
+        String ext = (origName != null && origName.contains("."))
+            ? origName.substring(
+                origName.lastIndexOf('.') + 1).toLowerCase()
+            : "";
+        if (!ext.equals("mp4") && !ext.equals("mp3")) {
+            throw new ConversionException(400,
+                "Only MP4 and MP3 files are supported");
+        }
+        return ext;
+    }
+
+    // The caller owns the file and deletes it afterwards
+    public Result convertFile(String username, Path file,
+            String origName, boolean compact) throws Exception {
+        return convertFile(username, file, origName, compact, null);
+    }
+
+    // sha256 may be passed when already known (chunked uploads).
+    // Media seen before skips transcription, and the PDF too when
+    // the title and size class match.
+    public Result convertFile(String username, Path file,
+            String origName, boolean compact, String sha256)
+            throws Exception {
+        return convertFile(username, file, origName, compact, sha256,
+            true);
+    }
+
+    Result convertFile(String username, Path file, String origName,
+            boolean compact, String sha256, boolean interactive)
+            throws Exception {
+        Timer.Sample sample = metrics.conversionStarted();
+        Conversion record =
+            history.start(username, Conversion.Source.FILE);
+        long started = System.nanoTime();
+        boolean converted = false;
+        FairScheduler.Slot slot = null;
+        try {
+            long size = Files.size(file);
+            String hash = sha256 != null ? sha256 : sha256(file);
+            record.setUploadBytes(size);
+            record.setUploadHash(hash);
+            record.setTitle(truncate(origName, 500));
+            String title = origName.substring(
+                0, origName.lastIndexOf('.'));
+
+            String transcript = mediaCache.transcript(hash);
+            metrics.mediaCache(transcript != null);
+            // Dated today, like a fresh conversion
+            String publishedAt =
+                java.time.LocalDate.now() + "T00:00:00Z";
+            byte[] pdf = transcript != null
+                ? mediaCache.pdf(hash, title, compact) : null;
+            if (pdf != null) {
+                log.info("Known media {}, cached PDF", hash);
+                // The cached cover carries the date it was made on
+                pdf = pdfService.replaceCover(pdf, title,
+                    "Uploaded File", publishedAt, "Audio/Video",
+                    compact);
+                record.setTranscriptChars(transcript.length());
+                record.setPdfBytes((long) pdf.length);
+                searchIndex.add(record.getUserId(), "", title, transcript);
+                converted = true;
+                return new Result(pdf, title,
+                    overBudget(compact, pdf));
+            }
+
+            // Cost: seconds of speech in a known transcript, or
+            // of media estimated from its size
+            slot = scheduler.acquire(username, transcript != null
+                ? transcript.length() / 15.0
+                : estimatedSeconds(origName, size), interactive);
+
+            long t = System.nanoTime();
+            if (transcript != null) {
+                log.info("Known media {}, cached transcript", hash);
+            } else {
+                // Run Python transcription, resuming from any
+                // segments an earlier attempt finished
+                Path checkpoints = mediaCache.checkpoints(hash);
+                transcript = stages.transcribe().call(
+                    () -> runScript(file.toString(), checkpoints));
+            }
+            record.setTranscriptMs(millisSince(t));
+
+            if (transcript == null || transcript.isBlank()) {
+                throw new ConversionException(500,
+                    "Could not detect speech. Make sure file has clear spoken audio.");
+            }
+            mediaCache.putTranscript(hash, transcript);
+            mediaCache.dropCheckpoints(hash);
+
+            log.info("Transcript: {} chars", transcript.length());
+            record.setTranscriptChars(transcript.length());
+
+            // Translate to English if needed
+            t = System.nanoTime();
+            String finalText = translationService.translateToEnglish(
+                transcript, "auto");
+            record.setTranslationMs(millisSince(t));
+
+            // Generate PDF
+            t = System.nanoTime();
+            pdf = compact
+                ? pdfService.generatePdf(
+                    title, "Uploaded File", publishedAt,
+                    "", finalText, "Audio/Video",
+                    compactMaxSize.toBytes())
+                : pdfService.generatePdf(
+                    title, "Uploaded File", publishedAt,
+                    "", finalText, "Audio/Video");
+            record.setPdfMs(millisSince(t));
+            record.setPdfBytes((long) pdf.length);
+            mediaCache.putPdf(hash, title, compact, pdf);
+
+            log.info("PDF generated: {} ({} bytes)", origName, pdf.length);
+            searchIndex.add(record.getUserId(), "", title, finalText);
+            converted = true;
+            return new Result(pdf, title, overBudget(compact, pdf));
+
+        } catch (Exception e) {
+            record.setError(truncate(String.valueOf(e.getMessage()), 1000));
+            throw e;
+        } finally {
+            if (slot != null) slot.close();
+            metrics.conversionFinished(sample, "file", converted);
+            finish(record, started, converted);
+        }
+    }
+
+    // Typical bitrates: 128 kbit/s MP3, 1 Mbit/s MP4
+    private static double estimatedSeconds(String origName, long size) {
+        return origName.toLowerCase().endsWith(".mp3")
+            ? size / 16_000.0 : size / 125_000.0;
+    }
+
+    // Create safe filename
+    private static String filename(String title) {
+        String filename = title
+            .replaceAll("[^a-zA-Z0-9-_\\s]", "")
+            .replaceAll("\\s+", "_");
+        if (filename.length() > 50) {
+            filename = filename.substring(0, 50);
+        }
+        return filename + ".pdf";
+    }
+
+    private void finish(Conversion record, long started,
+            boolean converted) {
+        record.setStatus(converted
+            ? Conversion.Status.SUCCESS : Conversion.Status.FAILED);
+        record.setTotalMs(millisSince(started));
+        history.record(record);
+    }
+
+    private static int millisSince(long nanos) {
+        return (int) ((System.nanoTime() - nanos) / 1_000_000);
+    }
+
+    private static String truncate(String s, int max) {
+        return s.length() > max ? s.substring(0, max) : s;
+    }
+
+    private static String sha256(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) digest.update(buf, 0, n);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String runScript(String filePath, Path checkpoints)
+            throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(
+            PYTHON, TRANSCRIBE, filePath, checkpoints.toString());
+        pb.redirectErrorStream(false);
+        pb.environment().put("PATH",
+            "/usr/bin:/usr/local/bin:/bin:"
+            + System.getenv("PATH"));
+        // Transcript goes to a file so the wait below can watch
+        // the checkpoints instead of blocking on stdout
+        Path out = checkpoints.resolve(
+            "transcript." + UUID.randomUUID() + ".out");
+        pb.redirectOutput(out.toFile());
+
+        Timer.Sample sample = metrics.start();
+        // Python logs go to videotopdf.subprocess.transcribe
+        Process proc = subprocesses.start(pb, "transcribe");
+        try {
+            int segments = segments(checkpoints);
+            while (!proc.waitFor(stallTimeout.toMillis(),
+                    TimeUnit.MILLISECONDS)) {
+                int now = segments(checkpoints);
+                if (now == segments) {
+                    sample.stop(metrics.subprocess("transcribe"));
+                    metrics.subprocessTimedOut("transcribe");
+                    throw new ConversionException(504,
+                        "Transcription stalled after " + now
+                        + " segments; retry to resume.");
+                }
+                segments = now;
+            }
+            sample.stop(metrics.subprocess("transcribe"));
+
+            // Output of a failed run may be partial or empty, so it
+            // is never returned and cached; the checkpoints stay for
+            // the next attempt
+            int exit = proc.exitValue();
+            if (exit == TRANSCRIBE_INCOMPLETE) {
+                log.warn("transcribe.py left segments untranscribed");
+                throw new ConversionException(502,
+                    "Speech recognition failed for part of the audio;"
+                    + " retry to resume.");
+            }
+            if (exit != 0) {
+                log.warn("transcribe.py exit code: {}", exit);
+                throw new ConversionException(500,
+                    "Transcription failed (exit code " + exit
+                    + "); retry to resume.");
+            }
+            return String.join(" ",
+                Files.readAllLines(out, StandardCharsets.UTF_8)).trim();
+        } finally {
+            // Also when interrupted by shutdown: the next attempt
+            // resumes from the checkpoints
+            if (proc.isAlive()) proc.destroyForcibly();
+            Files.deleteIfExists(out);
+        }
+    }
+
+    private static int segments(Path checkpoints) throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(checkpoints, "*.txt")) {
+            for (Path ignored : files) n++;
+        }
+        return n;
+    }
+}
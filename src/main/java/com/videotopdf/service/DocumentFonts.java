@@ -0,0 +1,43 @@
+package com.videotopdf.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// The PDFont each shared face resolves to inside one document.
+// Faces are only added to the document once a glyph is drawn.
+final class DocumentFonts {
+
+    private final PDDocument doc;
+    private final Map<FontFace, PDFont> fonts = new IdentityHashMap<>();
+    private final Map<FontFace, BitSet> shown = new IdentityHashMap<>();
+
+    DocumentFonts(PDDocument doc) {
+        this.doc = doc;
+    }
+
+    PDFont get(FontFace face) throws IOException {
+        PDFont font = fonts.get(face);
+        if (font == null) {
+            font = face.forDocument(doc);
+            fonts.put(face, font);
+        }
+        return font;
+    }
+
+    // Font to draw run with; the characters are recorded per face
+    PDFont show(FontFace face, String run) throws IOException {
+        BitSet chars = shown.computeIfAbsent(face, f -> new BitSet());
+        for (int i = 0; i < run.length(); i++) chars.set(run.charAt(i));
+        return get(face);
+    }
+
+    // Characters drawn through show(), by face
+    Map<FontFace, BitSet> shown() {
+        return shown;
+    }
+}
@@ -1,38 +1,379 @@
 package com.videotopdf.service;
 
+import com.videotopdf.model.OutboxEmail;
+import com.videotopdf.model.OutboxEmailRepository;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Address;
 import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
 import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Mail goes through an outbox table: sendPdfEmail only stores the
+// attachment and queues a row. Worker threads claim due rows and
+// send them in batches over SMTP sessions that stay open between
+// batches and are closed after mail.outbox.idle-timeout unused;
+// failures are retried with exponential backoff until
+// mail.outbox.max-attempts. A claimed row is leased for
+// mail.outbox.lease; rows left SENDING by an instance that died
+// are claimed again when it runs out, by any instance, so
+// attachments live in a directory all share. FAILED rows and their
+// attachments are removed after mail.outbox.failed-retention.
 @Service
 public class EmailService {
 
+    private static final Logger log =
+        LoggerFactory.getLogger(EmailService.class);
+
+    // The impl, for its session and server settings
+    @Autowired
+    private JavaMailSenderImpl mailSender;
+
+    @Autowired
+    private OutboxEmailRepository outbox;
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    // Same instance id as job leases
     @Autowired
-    private JavaMailSender mailSender;
+    private JobQueue jobQueue;
 
     @Value("${spring.mail.username}")
     private String fromEmail;
 
+    @Value("${mail.outbox.dir}")
+    private String outboxDir;
+
+    @Value("${mail.outbox.workers:2}")
+    private int workers;
+
+    // Messages claimed at a time
+    @Value("${mail.outbox.batch-size:20}")
+    private int batchSize;
+
+    @Value("${mail.outbox.poll-interval:5s}")
+    private Duration pollInterval;
+
+    @Value("${mail.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${mail.outbox.retry-backoff:30s}")
+    private Duration retryBackoff;
+
+    @Value("${mail.outbox.max-retry-backoff:1h}")
+    private Duration maxRetryBackoff;
+
+    // Longer than a batch takes to send
+    @Value("${mail.outbox.lease:10m}")
+    private Duration lease;
+
+    // SMTP sessions left open longer than this are closed
+    @Value("${mail.outbox.idle-timeout:30s}")
+    private Duration idleTimeout;
+
+    @Value("${mail.outbox.failed-retention:7d}")
+    private Duration failedRetention;
+
+    @Value("${mail.outbox.purge-interval:10m}")
+    private Duration purgeInterval;
+
+    private ExecutorService senders;
+    private Semaphore idleSenders;
+    private final Semaphore wakeup = new Semaphore(0);
+    private volatile boolean running = true;
+    private Thread poller;
+    // Open sessions no sender is using, oldest first
+    private final Deque<Connection> idle = new ArrayDeque<>();
+
+    private static final class Connection {
+        final Transport transport;
+        long lastUsed;
+
+        Connection(Transport transport) {
+            this.transport = transport;
+        }
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        Files.createDirectories(Paths.get(outboxDir));
+        senders = Executors.newFixedThreadPool(workers);
+        idleSenders = new Semaphore(workers);
+        poller = new Thread(this::poll, "mail-outbox");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        poller.interrupt();
+        senders.shutdown();
+        senders.awaitTermination(30, TimeUnit.SECONDS);
+        closeIdle(0);
+    }
+
     public void sendPdfEmail(String toEmail, String videoTitle,
-            byte[] pdfBytes) throws MessagingException {
+            byte[] pdfBytes) throws IOException {
+        Path file = newAttachmentPath();
+        Files.write(file, pdfBytes);
+        enqueue(toEmail, videoTitle, file);
+    }
+
+    // Takes ownership of the file, which is moved into the outbox
+    public void sendPdfEmail(String toEmail, String videoTitle,
+            Path pdf) throws IOException {
+        Path file = newAttachmentPath();
+        Files.move(pdf, file, StandardCopyOption.REPLACE_EXISTING);
+        enqueue(toEmail, videoTitle, file);
+    }
 
+    private Path newAttachmentPath() {
+        return Paths.get(outboxDir, UUID.randomUUID() + ".pdf");
+    }
+
+    // Stored relative, so instances may mount the directory anywhere
+    private Path attachment(OutboxEmail email) {
+        return Paths.get(outboxDir).resolve(email.getAttachmentPath());
+    }
+
+    private void enqueue(String toEmail, String videoTitle,
+            Path file) {
+        OutboxEmail email = new OutboxEmail();
+        email.setRecipient(toEmail);
+        email.setVideoTitle(videoTitle);
+        email.setAttachmentPath(file.getFileName().toString());
+        email.setCreatedAt(Instant.now());
+        email.setNextAttemptAt(email.getCreatedAt());
+        outbox.save(email);
+        wakeup.release();
+    }
+
+    private void poll() {
+        long nextPurge = 0;
+        while (running) {
+            try {
+                if (System.nanoTime() - nextPurge > 0) {
+                    purge();
+                    nextPurge = System.nanoTime()
+                        + purgeInterval.toNanos();
+                }
+                closeIdle(idleTimeout.toNanos());
+                drain();
+                wakeup.tryAcquire(
+                    pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                wakeup.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.warn("Mail outbox poll failed: {}", e.getMessage());
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Claims due rows a batch at a time while senders are free
+    private void drain() throws InterruptedException {
+        while (running) {
+            idleSenders.acquire();
+            List<OutboxEmail> batch = new ArrayList<>(batchSize);
+            Instant now = Instant.now();
+            for (OutboxEmail email : outbox.findClaimable(now,
+                    PageRequest.of(0, batchSize))) {
+                if (email.getStatus() == OutboxEmail.Status.SENDING)
+                    log.info("Reclaiming mail {} from {}",
+                        email.getId(), email.getLeaseOwner());
+                if (outbox.claim(email.getId(), jobQueue.instanceId(),
+                        now, now.plus(lease)) == 1)
+                    batch.add(email);
+            }
+            if (batch.isEmpty()) {
+                idleSenders.release();
+                return;
+            }
+            senders.execute(() -> {
+                try {
+                    send(batch);
+                } finally {
+                    idleSenders.release();
+                }
+            });
+        }
+    }
+
+    // Sends over one open session, which stays open for the next
+    // batch; one the server dropped is replaced
+    private void send(List<OutboxEmail> batch) {
+        // In claim order; MimeMessage keeps identity equality
+        Map<MimeMessage, OutboxEmail> messages = new LinkedHashMap<>();
+        for (OutboxEmail email : batch) {
+            try {
+                messages.put(compose(email), email);
+            } catch (Exception e) {
+                retry(email, e);
+            }
+        }
+        if (messages.isEmpty()) return;
+
+        Timer.Sample sample = metrics.start();
+        Map<MimeMessage, Exception> failed = new IdentityHashMap<>();
+        Connection connection = null;
+        MessagingException down = null;
+        try {
+            for (MimeMessage message : messages.keySet()) {
+                if (down != null) {
+                    failed.put(message, down);
+                    continue;
+                }
+                try {
+                    if (connection == null) connection = connection();
+                    send(connection.transport, message);
+                } catch (MessagingException e) {
+                    failed.put(message, e);
+                    if (connection == null) {
+                        down = e;
+                    } else if (!connection.transport.isConnected()) {
+                        close(connection);
+                        connection = null;
+                    }
+                }
+            }
+        } finally {
+            if (connection != null) release(connection);
+        }
+        sample.stop(metrics.emailSend(failed.isEmpty()));
+
+        for (Map.Entry<MimeMessage, OutboxEmail> m
+                : messages.entrySet()) {
+            Exception error = failed.get(m.getKey());
+            if (error != null) {
+                retry(m.getValue(), error);
+            } else {
+                sent(m.getValue());
+            }
+        }
+    }
+
+    // As JavaMailSenderImpl does it
+    private static void send(Transport transport, MimeMessage message)
+            throws MessagingException {
+        if (message.getSentDate() == null) message.setSentDate(new Date());
+        String messageId = message.getMessageID();
+        message.saveChanges();
+        if (messageId != null) message.setHeader("Message-ID", messageId);
+        Address[] recipients = message.getAllRecipients();
+        transport.sendMessage(message,
+            recipients != null ? recipients : new Address[0]);
+    }
+
+    // The most recently used idle session, if the server still
+    // answers a NOOP, else a new one
+    private Connection connection() throws MessagingException {
+        while (true) {
+            Connection c;
+            synchronized (idle) {
+                c = idle.pollLast();
+            }
+            if (c == null) break;
+            if (c.transport.isConnected()) return c;
+            close(c);
+        }
+        Transport transport = mailSender.getSession().getTransport(
+            mailSender.getProtocol() != null
+                ? mailSender.getProtocol() : "smtp");
+        String username = mailSender.getUsername();
+        String password = mailSender.getPassword();
+        transport.connect(mailSender.getHost(), mailSender.getPort(),
+            username == null || username.isEmpty() ? null : username,
+            password == null || password.isEmpty() ? null : password);
+        return new Connection(transport);
+    }
+
+    private void release(Connection c) {
+        c.lastUsed = System.nanoTime();
+        synchronized (idle) {
+            idle.addLast(c);
+        }
+    }
+
+    // Sessions unused for longer than maxIdle nanoseconds
+    private void closeIdle(long maxIdle) {
+        long now = System.nanoTime();
+        while (true) {
+            Connection c;
+            synchronized (idle) {
+                c = idle.peekFirst();
+                if (c == null || now - c.lastUsed < maxIdle) return;
+                idle.pollFirst();
+            }
+            close(c);
+        }
+    }
+
+    private static void close(Connection c) {
+        try {
+            c.transport.close();
+        } catch (MessagingException e) {
+            log.debug("SMTP close failed: {}", e.getMessage());
+        }
+    }
+
+    private MimeMessage compose(OutboxEmail email)
+            throws MessagingException, IOException {
+        Path file = attachment(email);
+        if (!Files.isReadable(file))
+            throw new IOException("Attachment missing: " + file);
+
+        String videoTitle = email.getVideoTitle();
         MimeMessage message = mailSender.createMimeMessage();
         MimeMessageHelper helper = new MimeMessageHelper(
                 message, true, "UTF-8");
 
         helper.setFrom(fromEmail);
-        helper.setTo(toEmail);
+        helper.setTo(email.getRecipient());
         helper.setSubject("📄 Your PDF is Ready — " + videoTitle);
 
         String html = buildEmailHtml(videoTitle);
         helper.setText(html, true);
 
-        // Attach PDF
+        // Attach PDF, streamed from disk when the message is written
         String fileName = videoTitle
                 .replaceAll("[^a-zA-Z0-9\\s]", "")
                 .replaceAll("\\s+", "_")
@@ -42,10 +383,78 @@ public class EmailService {
                 + ".pdf";
 
         helper.addAttachment(fileName,
-                new ByteArrayResource(pdfBytes),
+                new FileSystemResource(file),
                 "application/pdf");
+        return message;
+    }
+
+    // If the lease ran out meanwhile, another instance may be
+    // sending it too; the row and file are left to that one
+    private void sent(OutboxEmail email) {
+        if (outbox.deleteSent(email.getId(),
+                jobQueue.instanceId()) == 0) {
+            log.warn("Mail {} lost its lease while sending",
+                email.getId());
+            return;
+        }
+        try {
+            Files.deleteIfExists(attachment(email));
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}",
+                email.getAttachmentPath(), e.getMessage());
+        }
+        log.info("Mail sent to {}: {}",
+            email.getRecipient(), email.getVideoTitle());
+    }
+
+    // Backoff doubles per attempt, with up to 20% jitter so a
+    // failed batch doesn't retry in lockstep
+    private void retry(OutboxEmail email, Exception error) {
+        int attempts = email.getAttempts() + 1;
+        String message = String.valueOf(error.getMessage());
+        String lastError = message.length() > 1000
+            ? message.substring(0, 1000) : message;
+
+        if (attempts >= maxAttempts) {
+            // Kept for failed-retention from now
+            if (outbox.release(email.getId(), jobQueue.instanceId(),
+                    OutboxEmail.Status.FAILED, attempts,
+                    Instant.now(), lastError) == 1)
+                log.error("Mail to {} failed after {} attempts: {}",
+                    email.getRecipient(), attempts, message);
+        } else {
+            long backoff = Math.min(maxRetryBackoff.toMillis(),
+                retryBackoff.toMillis() << Math.min(attempts - 1, 20));
+            backoff += (long) (backoff * 0.2
+                * ThreadLocalRandom.current().nextDouble());
+            if (outbox.release(email.getId(), jobQueue.instanceId(),
+                    OutboxEmail.Status.PENDING, attempts,
+                    Instant.now().plusMillis(backoff), lastError) == 1)
+                log.warn("Mail to {} failed (attempt {}), retry in {}s: {}",
+                    email.getRecipient(), attempts, backoff / 1000,
+                    message);
+        }
+    }
 
-        mailSender.send(message);
+    // Mail that gave up is kept for mail.outbox.failed-retention,
+    // with its attachment, in case it is to be sent by hand
+    void purge() {
+        Instant before = Instant.now().minus(failedRetention);
+        List<OutboxEmail> expired;
+        do {
+            expired = outbox.findByStatusAndNextAttemptAtBefore(
+                OutboxEmail.Status.FAILED, before,
+                PageRequest.of(0, 100));
+            for (OutboxEmail email : expired) {
+                try {
+                    Files.deleteIfExists(attachment(email));
+                } catch (IOException e) {
+                    log.warn("Could not delete {}: {}",
+                        email.getAttachmentPath(), e.getMessage());
+                }
+            }
+            outbox.deleteAllInBatch(expired);
+        } while (expired.size() == 100);
     }
 
     private String buildEmailHtml(String videoTitle) {
@@ -0,0 +1,262 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Admission to the conversion pipeline on this node. Each user has
+// a queue, and free slots go round the users by deficit round-robin:
+// every turn adds scheduler.quantum x the weight of the user's role
+// to their credit, which conversions spend by their estimated cost
+// (seconds of media). A user with a large batch gets their share,
+// not the node. Interactive conversions have their own round and go
+// first; queued jobs never take the last interactive-reserve slots.
+@Service
+public class FairScheduler {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(FairScheduler.class);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    // 0 means one per core, at least two
+    @Value("${scheduler.slots:0}")
+    private int slots;
+
+    @Value("${scheduler.interactive-reserve:1}")
+    private int interactiveReserve;
+
+    // Credit per turn and weight unit, in seconds of media
+    @Value("${scheduler.quantum:600}")
+    private double quantum;
+
+    // ROLE:weight pairs; roles not listed weigh 1
+    @Value("${scheduler.weights:ADMIN:4,USER:1}")
+    private String weightList;
+
+    private final Map<String, Integer> weights = new HashMap<>();
+    private final Map<String, Integer> userWeights =
+        new ConcurrentHashMap<>();
+    private final Round interactive = new Round();
+    private final Round bulk = new Round();
+    private int running;
+    private int runningBulk;
+
+    // Held while the conversion runs; closing frees the slot
+    public final class Slot implements AutoCloseable {
+        private final boolean isBulk;
+        private boolean closed;
+
+        Slot(boolean isBulk) {
+            this.isBulk = isBulk;
+        }
+
+        @Override
+        public void close() {
+            synchronized (FairScheduler.this) {
+                if (closed) return;
+                closed = true;
+                running--;
+                if (isBulk) runningBulk--;
+                dispatch();
+            }
+        }
+    }
+
+    private static final class Waiter {
+        final String user;
+        final int weight;
+        final double cost;
+        boolean granted;
+
+        Waiter(String user, int weight, double cost) {
+            this.user = user;
+            this.weight = weight;
+            this.cost = cost;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        metrics.gauge("videotopdf.scheduler.queued", "lane",
+            "interactive", () -> queued(true));
+        metrics.gauge("videotopdf.scheduler.queued", "lane",
+            "bulk", () -> queued(false));
+        metrics.gauge("videotopdf.scheduler.running", "lane",
+            "all", this::running);
+        if (slots <= 0) {
+            slots = Math.max(2, Runtime.getRuntime().availableProcessors());
+        }
+        interactiveReserve = Math.min(interactiveReserve, slots - 1);
+        for (String pair : weightList.split(",")) {
+            if (pair.isBlank()) continue;
+            int colon = pair.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(
+                    "Expected ROLE:weight in scheduler.weights: " + pair);
+            }
+            weights.put(pair.substring(0, colon).trim(), Math.max(1,
+                Integer.parseInt(pair.substring(colon + 1).trim())));
+        }
+        log.info("Scheduler: {} slots ({} kept for interactive), "
+            + "weights {}", slots, interactiveReserve, weights);
+    }
+
+    public int weight(String role) {
+        return weights.getOrDefault(role, 1);
+    }
+
+    // Blocks until the user's turn comes round; cost is seconds of
+    // media, or an estimate of them
+    public Slot acquire(String username, double cost,
+            boolean interactive) throws InterruptedException {
+        String user = username != null ? username : "";
+        int weight = userWeight(user);
+        Waiter waiter = new Waiter(user, weight, Math.max(1, cost));
+        Round round = interactive ? this.interactive : bulk;
+        long started = System.nanoTime();
+        synchronized (this) {
+            round.add(waiter);
+            dispatch();
+            try {
+                while (!waiter.granted) wait();
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    new Slot(!interactive).close();
+                } else {
+                    round.remove(waiter);
+                }
+                throw e;
+            }
+        }
+        metrics.schedulerWait(interactive)
+            .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return new Slot(!interactive);
+    }
+
+    // Roles are set at registration and never change, so a user's
+    // weight is cached for the process
+    private int userWeight(String user) {
+        Integer weight = userWeights.get(user);
+        if (weight == null) {
+            weight = userRepository.findByUsername(user)
+                .map(u -> weight(u.getRole())).orElse(null);
+            if (weight == null) return weight("USER");
+            userWeights.put(user, weight);
+        }
+        return weight;
+    }
+
+    public synchronized int queued(boolean interactive) {
+        return (interactive ? this.interactive : bulk).size;
+    }
+
+    public synchronized int running() {
+        return running;
+    }
+
+    // Interactive first; queued jobs only below the reserve
+    private void dispatch() {
+        boolean granted = false;
+        while (running < slots) {
+            Waiter next = interactive.next();
+            if (next == null) {
+                if (runningBulk >= slots - interactiveReserve) break;
+                next = bulk.next();
+                if (next == null) break;
+                runningBulk++;
+            }
+            running++;
+            next.granted = true;
+            granted = true;
+        }
+        if (granted) notifyAll();
+    }
+
+    // Deficit round-robin over the users with something queued. The
+    // user at the head spends their credit until their next
+    // conversion costs more than is left, then goes to the back;
+    // credit is dropped when their queue empties.
+    private final class Round {
+        private final ArrayDeque<String> users = new ArrayDeque<>();
+        private final Map<String, ArrayDeque<Waiter>> queues =
+            new HashMap<>();
+        private final Map<String, Double> credit = new HashMap<>();
+        private int size;
+
+        // A user arriving at an empty round takes the turn at once,
+        // rather than being passed over by whoever comes next
+        void add(Waiter waiter) {
+            ArrayDeque<Waiter> queue = queues.get(waiter.user);
+            boolean first = queue == null && users.isEmpty();
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(waiter.user, queue);
+                credit.put(waiter.user, 0.0);
+                users.addLast(waiter.user);
+            }
+            queue.addLast(waiter);
+            size++;
+            if (first) startTurn();
+        }
+
+        void remove(Waiter waiter) {
+            ArrayDeque<Waiter> queue = queues.get(waiter.user);
+            if (queue != null && queue.remove(waiter)) {
+                size--;
+                if (queue.isEmpty()) drop(waiter.user);
+            }
+        }
+
+        Waiter next() {
+            if (users.isEmpty()) return null;
+            while (true) {
+                String user = users.peekFirst();
+                ArrayDeque<Waiter> queue = queues.get(user);
+                Waiter head = queue.peekFirst();
+                double left = credit.get(user);
+                if (head.cost <= left) {
+                    queue.pollFirst();
+                    size--;
+                    if (queue.isEmpty()) {
+                        drop(user);
+                    } else {
+                        credit.put(user, left - head.cost);
+                    }
+                    return head;
+                }
+                users.addLast(users.pollFirst());
+                startTurn();
+            }
+        }
+
+        // The user now at the head earns a quantum
+        private void startTurn() {
+            String turn = users.peekFirst();
+            credit.merge(turn, quantum
+                * queues.get(turn).peekFirst().weight, Double::sum);
+        }
+
+        private void drop(String user) {
+            boolean head = user.equals(users.peekFirst());
+            queues.remove(user);
+            credit.remove(user);
+            users.remove(user);
+            if (head && !users.isEmpty()) startTurn();
+        }
+    }
+}
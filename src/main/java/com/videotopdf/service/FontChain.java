@@ -0,0 +1,117 @@
+package com.videotopdf.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.Character.UnicodeScript;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Picks the face that draws each character: the primary face if it
+// can, else the face configured for the character's script, else
+// the first generic fallback that has the glyph. Face choice and
+// advance widths are resolved a 256-char block at a time and shared
+// by every render in the process. Characters no face can draw are
+// drawn as a space.
+final class FontChain {
+
+    private static final byte UNSUPPORTED = -1;
+
+    private final FontFace primary;
+    private final Map<UnicodeScript, FontFace> scripts;
+    private final List<FontFace> fallbacks;
+    private final FontFace[] faces;
+    private final float spaceAdvance;
+
+    private final AtomicReferenceArray<Block> blocks =
+        new AtomicReferenceArray<>(256);
+
+    private static final class Block {
+        final byte[] face = new byte[256];
+        final float[] advance = new float[256];
+    }
+
+    FontChain(FontFace primary, Map<UnicodeScript, FontFace> scripts,
+            List<FontFace> fallbacks) {
+        this.primary = primary;
+        this.scripts = scripts;
+        this.fallbacks = fallbacks;
+
+        this.faces = new FontFace[1 + scripts.size() + fallbacks.size()];
+        int n = 0;
+        faces[n++] = primary;
+        for (FontFace f : scripts.values()) faces[n++] = f;
+        for (FontFace f : fallbacks) faces[n++] = f;
+
+        try {
+            this.spaceAdvance = primary.advance(' ');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    FontFace primary() { return primary; }
+
+    boolean supports(char c) {
+        return block(c).face[c & 0xFF] != UNSUPPORTED;
+    }
+
+    float advance(char c) {
+        return block(c).advance[c & 0xFF];
+    }
+
+    // Face used to draw c; unsupported characters map to primary
+    FontFace face(char c) {
+        byte index = block(c).face[c & 0xFF];
+        return index == UNSUPPORTED ? primary : faces[index];
+    }
+
+    private Block block(char c) {
+        int hi = c >>> 8;
+        Block b = blocks.get(hi);
+        if (b == null) {
+            b = resolve(hi);
+            if (!blocks.compareAndSet(hi, null, b)) b = blocks.get(hi);
+        }
+        return b;
+    }
+
+    private Block resolve(int hi) {
+        Block b = new Block();
+        try {
+            for (int lo = 0; lo < 256; lo++) {
+                char c = (char) (hi << 8 | lo);
+                int index = indexOf(pick(c));
+                b.face[lo] = (byte) index;
+                b.advance[lo] = index == UNSUPPORTED
+                    ? spaceAdvance : faces[index].advance(c);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return b;
+    }
+
+    private FontFace pick(char c) throws IOException {
+        if (Character.isSurrogate(c) || Character.isISOControl(c)) {
+            return null;
+        }
+        if (primary.canDisplay(c)) return primary;
+
+        FontFace byScript = scripts.get(UnicodeScript.of(c));
+        if (byScript != null && byScript.canDisplay(c)) return byScript;
+
+        for (FontFace f : fallbacks) {
+            if (f.canDisplay(c)) return f;
+        }
+        return null;
+    }
+
+    private int indexOf(FontFace face) {
+        if (face == null) return UNSUPPORTED;
+        for (int i = 0; i < faces.length; i++) {
+            if (faces[i] == face) return i;
+        }
+        return UNSUPPORTED;
+    }
+}
@@ -0,0 +1,123 @@
+package com.videotopdf.service;
+
+import org.apache.fontbox.ttf.CmapLookup;
+import org.apache.fontbox.ttf.OTFParser;
+import org.apache.fontbox.ttf.OpenTypeFont;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// One font as parsed once per process: either a Standard 14 font
+// (WinAnsi only, never embedded) or a TrueType/OpenType file whose
+// parsed tables are shared by every document and embedded as a
+// subset on save.
+final class FontFace {
+
+    private final String name;
+    private final PDType1Font standard;
+    private final Map<String, Integer> standardCodes;
+    private final TrueTypeFont ttf;
+    private final CmapLookup cmap;
+    private final float scale;
+
+    private FontFace(String name, PDType1Font standard,
+            Map<String, Integer> standardCodes, TrueTypeFont ttf,
+            CmapLookup cmap, float scale) {
+        this.name = name;
+        this.standard = standard;
+        this.standardCodes = standardCodes;
+        this.ttf = ttf;
+        this.cmap = cmap;
+        this.scale = scale;
+    }
+
+    static FontFace standard(PDType1Font font) {
+        Map<String, Integer> codes = new HashMap<>();
+        for (Map.Entry<Integer, String> e
+                : font.getEncoding().getCodeToNameMap().entrySet()) {
+            codes.putIfAbsent(e.getValue(), e.getKey());
+        }
+        return new FontFace(font.getName(), font, codes,
+            null, null, 1f);
+    }
+
+    static FontFace load(String path) throws IOException {
+        File file = new File(path);
+        TrueTypeFont ttf;
+        if (path.toLowerCase().endsWith(".otf")) {
+            OpenTypeFont otf = new OTFParser().parse(
+                new RandomAccessReadBufferedFile(file));
+            if (otf.isPostScript()) {
+                otf.close();
+                throw new IOException("CFF-based OpenType fonts "
+                    + "cannot be embedded: " + path);
+            }
+            ttf = otf;
+        } else {
+            ttf = new TTFParser().parse(
+                new RandomAccessReadBufferedFile(file));
+        }
+        return new FontFace(file.getName(), null, null, ttf,
+            ttf.getUnicodeCmapLookup(),
+            1000f / ttf.getUnitsPerEm());
+    }
+
+    String name() { return name; }
+
+    // BaseFont of the PDF font, before any subset tag
+    String postScriptName() throws IOException {
+        return standard != null ? standard.getName() : ttf.getName();
+    }
+
+    boolean canDisplay(char c) throws IOException {
+        if (standard != null) {
+            String glyph =
+                GlyphList.getAdobeGlyphList().codePointToName(c);
+            return standard.getEncoding().contains(glyph)
+                && standard.hasGlyph(glyph);
+        }
+        return cmap.getGlyphId(c) != 0;
+    }
+
+    // Advance width in glyph units (1/1000 em)
+    float advance(char c) throws IOException {
+        if (standard != null) {
+            return standard.getStringWidth(String.valueOf(c));
+        }
+        return ttf.getAdvanceWidth(cmap.getGlyphId(c)) * scale;
+    }
+
+    // Code of c in content streams: the WinAnsi byte for Standard
+    // 14 fonts, the glyph id (Identity-H CID) for embedded fonts.
+    // Only reads tables, so it is safe to call from any thread.
+    int code(char c) {
+        if (standard != null) {
+            Integer code = standardCodes.get(
+                GlyphList.getAdobeGlyphList().codePointToName(c));
+            return code != null ? code : standardCodes.get("space");
+        }
+        return cmap.getGlyphId(c);
+    }
+
+    // Bytes per code: 1 for Standard 14 fonts, 2 for embedded ones
+    int codeLength() {
+        return standard != null ? 1 : 2;
+    }
+
+    // Standard 14 fonts are shared as-is; embedded fonts get a
+    // fresh subsetting wrapper per document
+    PDFont forDocument(PDDocument doc) throws IOException {
+        if (standard != null) return standard;
+        return PDType0Font.load(doc, ttf, true);
+    }
+}
@@ -0,0 +1,431 @@
+package com.videotopdf.service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// One immutable segment of the transcript search index, read
+// through a memory mapping. Front to back:
+//
+//   postings    per term, per doc in id order: varint doc delta,
+//               varint freq, then freq varint position deltas
+//   docs        per doc: varint-prefixed UTF-8 video id and title,
+//               varint paragraph count, paragraph start positions
+//               (deltas), paragraph start ms + 1 (0: untimed)
+//   doc table   int offset of each doc entry
+//   users       long user id of each doc
+//   terms       per term: varint-prefixed UTF-8 bytes, varint doc
+//               frequency, varint postings offset
+//   term table  int offset of each term entry, in unsigned byte
+//               order of the terms
+//   footer      the five region offsets, doc and term counts, magic
+//
+// Segments are written once and never changed; merges write a new
+// one. One mapping each, so a segment stays under 2 GB.
+final class IndexSegment {
+
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private static final int MAGIC = 0x56545831; // "VTX1"
+    private static final int FOOTER = 8 * 4;
+
+    private final String name;
+    private final MappedByteBuffer map;
+    private final int docs;
+    private final int docTable;
+    private final int users;
+    private final int terms;
+    private final int termTable;
+    private final int docCount;
+    private final int termCount;
+
+    private IndexSegment(String name, MappedByteBuffer map)
+            throws IOException {
+        this.name = name;
+        this.map = map;
+        int f = map.capacity() - FOOTER;
+        docs = map.getInt(f);
+        docTable = map.getInt(f + 4);
+        users = map.getInt(f + 8);
+        terms = map.getInt(f + 12);
+        termTable = map.getInt(f + 16);
+        docCount = map.getInt(f + 20);
+        termCount = map.getInt(f + 24);
+        if (map.getInt(f + 28) != MAGIC) {
+            throw new IOException("Not an index segment: " + name);
+        }
+    }
+
+    static IndexSegment open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < FOOTER || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad index segment: " + file);
+            }
+            return new IndexSegment(file.getFileName().toString(),
+                ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    String name() { return name; }
+
+    int docCount() { return docCount; }
+
+    int termCount() { return termCount; }
+
+    long user(int doc) {
+        return map.getLong(users + 8 * doc);
+    }
+
+    Doc doc(int doc) {
+        Cursor in = new Cursor(docs + map.getInt(docTable + 4 * doc));
+        String videoId = in.readString();
+        String title = in.readString();
+        int n = in.readVarint();
+        int[] starts = new int[n];
+        int[] times = new int[n];
+        for (int i = 0, pos = 0; i < n; i++) {
+            pos += in.readVarint();
+            starts[i] = pos;
+        }
+        for (int i = 0; i < n; i++) times[i] = in.readVarint() - 1;
+        return new Doc(videoId, title, starts, times);
+    }
+
+    // Ordinal of the term, or -1
+    int find(byte[] term) {
+        int lo = 0;
+        int hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareTerm(mid, term);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    byte[] termBytes(int ord) {
+        return termEntry(ord).readBytes();
+    }
+
+    Postings postings(int ord) {
+        Cursor in = termEntry(ord);
+        in.skip(in.readVarint());
+        int docFreq = in.readVarint();
+        return new Postings(new Cursor(in.readVarint()), docFreq);
+    }
+
+    private Cursor termEntry(int ord) {
+        return new Cursor(terms + map.getInt(termTable + 4 * ord));
+    }
+
+    // Unsigned byte order, no copy of the stored term
+    private int compareTerm(int ord, byte[] term) {
+        Cursor in = termEntry(ord);
+        int n = in.readVarint();
+        for (int i = 0; i < n && i < term.length; i++) {
+            int cmp = Integer.compare(map.get(in.pos + i) & 0xFF,
+                term[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(n, term.length);
+    }
+
+    // Segments in age order into one. An older doc for the same
+    // user and video as a newer one is dropped.
+    static void merge(List<IndexSegment> from, Path to)
+            throws IOException {
+        int n = from.size();
+        int[][] docMap = new int[n][];
+        Set<String> seen = new HashSet<>();
+        for (int s = n - 1; s >= 0; s--) {
+            IndexSegment seg = from.get(s);
+            docMap[s] = new int[seg.docCount];
+            for (int d = seg.docCount - 1; d >= 0; d--) {
+                String videoId = seg.doc(d).videoId;
+                boolean keep = videoId.isEmpty()
+                    || seen.add(seg.user(d) + "/" + videoId);
+                docMap[s][d] = keep ? 0 : -1;
+            }
+        }
+
+        try (Writer w = new Writer(to)) {
+            int next = 0;
+            for (int s = 0; s < n; s++) {
+                IndexSegment seg = from.get(s);
+                for (int d = 0; d < seg.docCount; d++) {
+                    if (docMap[s][d] < 0) continue;
+                    docMap[s][d] = next++;
+                    w.addDoc(seg.user(d), seg.doc(d));
+                }
+            }
+
+            int[] ords = new int[n];
+            byte[][] heads = new byte[n][];
+            for (int s = 0; s < n; s++) {
+                if (from.get(s).termCount > 0) {
+                    heads[s] = from.get(s).termBytes(0);
+                }
+            }
+            VarintBuffer postings = new VarintBuffer(1 << 16);
+            while (true) {
+                byte[] term = null;
+                for (byte[] head : heads) {
+                    if (head != null && (term == null
+                            || Arrays.compareUnsigned(head, term) < 0)) {
+                        term = head;
+                    }
+                }
+                if (term == null) break;
+
+                postings.clear();
+                int docFreq = 0;
+                int last = 0;
+                for (int s = 0; s < n; s++) {
+                    if (heads[s] == null || !Arrays.equals(heads[s], term)) {
+                        continue;
+                    }
+                    IndexSegment seg = from.get(s);
+                    Postings p = seg.postings(ords[s]);
+                    for (int d = p.nextDoc(); d != NO_MORE_DOCS;
+                            d = p.nextDoc()) {
+                        int doc = docMap[s][d];
+                        if (doc < 0) continue;
+                        int freq = p.freq();
+                        int[] positions = p.positions();
+                        postings.writeVarint(doc - last);
+                        postings.writeVarint(freq);
+                        for (int i = 0, prev = 0; i < freq; i++) {
+                            postings.writeVarint(positions[i] - prev);
+                            prev = positions[i];
+                        }
+                        last = doc;
+                        docFreq++;
+                    }
+                    ords[s]++;
+                    heads[s] = ords[s] < seg.termCount
+                        ? seg.termBytes(ords[s]) : null;
+                }
+                if (docFreq > 0) w.addTerm(term, docFreq, postings);
+            }
+            w.finish();
+        }
+    }
+
+    static final class Doc {
+        final String videoId;
+        final String title;
+        // Token position each paragraph starts at, and its start
+        // time in ms (-1 when untimed)
+        final int[] paragraphStarts;
+        final int[] paragraphTimes;
+
+        Doc(String videoId, String title, int[] paragraphStarts,
+                int[] paragraphTimes) {
+            this.videoId = videoId;
+            this.title = title;
+            this.paragraphStarts = paragraphStarts;
+            this.paragraphTimes = paragraphTimes;
+        }
+
+        int paragraphAt(int position) {
+            int i = Arrays.binarySearch(paragraphStarts, position);
+            return i >= 0 ? i : -i - 2;
+        }
+    }
+
+    // A term's docs in id order. Positions are decoded only for
+    // docs that ask for them.
+    final class Postings {
+        private final Cursor in;
+        private final int docFreq;
+        private int read;
+        private int doc = -1;
+        private int freq;
+        private boolean positionsRead = true;
+        private int[] positions = new int[16];
+
+        private Postings(Cursor in, int docFreq) {
+            this.in = in;
+            this.docFreq = docFreq;
+        }
+
+        int nextDoc() {
+            if (!positionsRead) {
+                for (int i = 0; i < freq; i++) in.readVarint();
+            }
+            if (read == docFreq) return doc = NO_MORE_DOCS;
+            doc = (read == 0 ? 0 : doc) + in.readVarint();
+            freq = in.readVarint();
+            read++;
+            positionsRead = false;
+            return doc;
+        }
+
+        // First doc at or after target
+        int advance(int target) {
+            while (doc < target) {
+                if (nextDoc() == NO_MORE_DOCS) break;
+            }
+            return doc;
+        }
+
+        int doc() { return doc; }
+
+        int freq() { return freq; }
+
+        // Positions in the current doc, ascending; the first
+        // freq() entries count
+        int[] positions() {
+            if (!positionsRead) {
+                if (positions.length < freq) {
+                    positions = new int[Math.max(freq,
+                        positions.length * 2)];
+                }
+                for (int i = 0, pos = 0; i < freq; i++) {
+                    pos += in.readVarint();
+                    positions[i] = pos;
+                }
+                positionsRead = true;
+            }
+            return positions;
+        }
+    }
+
+    // Reads from a position in the mapping; absolute gets only, so
+    // any number of threads can read one segment
+    private final class Cursor {
+        private int pos;
+
+        Cursor(int pos) {
+            this.pos = pos;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = map.get(pos++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        byte[] readBytes() {
+            byte[] b = new byte[readVarint()];
+            map.get(pos, b);
+            pos += b.length;
+            return b;
+        }
+
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        void skip(int n) {
+            pos += n;
+        }
+    }
+
+    // Streams postings as terms arrive in order; docs and the term
+    // dictionary are held until finish
+    static final class Writer implements Closeable {
+        private final OutputStream out;
+        private long position;
+        private final VarintBuffer docs = new VarintBuffer(1 << 14);
+        private final VarintBuffer docTable = new VarintBuffer(1024);
+        private final VarintBuffer users = new VarintBuffer(2048);
+        private final VarintBuffer terms = new VarintBuffer(1 << 16);
+        private final VarintBuffer termTable = new VarintBuffer(1 << 12);
+        private int docCount;
+        private int termCount;
+
+        Writer(Path file) throws IOException {
+            out = new BufferedOutputStream(
+                Files.newOutputStream(file), 1 << 16);
+        }
+
+        void addDoc(long userId, Doc doc) {
+            docTable.writeInt(docs.length());
+            users.writeLong(userId);
+            docs.writeBytes(doc.videoId.getBytes(StandardCharsets.UTF_8));
+            docs.writeBytes(doc.title.getBytes(StandardCharsets.UTF_8));
+            int n = doc.paragraphStarts.length;
+            docs.writeVarint(n);
+            for (int i = 0, prev = 0; i < n; i++) {
+                docs.writeVarint(doc.paragraphStarts[i] - prev);
+                prev = doc.paragraphStarts[i];
+            }
+            for (int i = 0; i < n; i++) {
+                docs.writeVarint(doc.paragraphTimes[i] + 1L);
+            }
+            docCount++;
+        }
+
+        void addTerm(byte[] term, int docFreq, VarintBuffer postings)
+                throws IOException {
+            termTable.writeInt(terms.length());
+            terms.writeBytes(term);
+            terms.writeVarint(docFreq);
+            terms.writeVarint(position);
+            write(postings);
+            termCount++;
+        }
+
+        void finish() throws IOException {
+            int docsAt = offset();
+            write(docs);
+            int docTableAt = offset();
+            write(docTable);
+            int usersAt = offset();
+            write(users);
+            int termsAt = offset();
+            write(terms);
+            int termTableAt = offset();
+            write(termTable);
+
+            VarintBuffer footer = new VarintBuffer(FOOTER);
+            for (int v : new int[] {docsAt, docTableAt, usersAt,
+                    termsAt, termTableAt, docCount, termCount, MAGIC}) {
+                footer.writeInt(v);
+            }
+            write(footer);
+            offset();
+            out.flush();
+        }
+
+        private void write(VarintBuffer b) throws IOException {
+            b.writeTo(out);
+            position += b.length();
+        }
+
+        private int offset() throws IOException {
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Index segment over 2 GB");
+            }
+            return (int) position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
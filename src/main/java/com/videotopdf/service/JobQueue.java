@@ -0,0 +1,343 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import com.videotopdf.model.ConversionJob;
+import com.videotopdf.model.ConversionJobRepository;
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Durable conversion queue shared by every instance on the same
+// database. Jobs are claimed under a lease that the owner renews
+// while it works; a job whose lease runs out (the instance died or
+// stalled) is claimed again by someone else. Uploads and PDFs are
+// kept under jobs.storage-dir, which all instances must share.
+@Service
+public class JobQueue {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(JobQueue.class);
+
+    @Autowired
+    private ConversionJobRepository jobs;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FairScheduler scheduler;
+
+    @Value("${jobs.storage-dir}")
+    private String storageDir;
+
+    // Empty means host name and process id
+    @Value("${jobs.instance-id:}")
+    private String instanceId;
+
+    @Value("${jobs.lease:60s}")
+    private Duration lease;
+
+    // Counting claims, so a job that keeps killing its
+    // instance is eventually given up on
+    @Value("${jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${jobs.retention:24h}")
+    private Duration retention;
+
+    // Wait before a job turned away by a full stage is tried again,
+    // doubled each time it is turned away, up to the max
+    @Value("${jobs.busy-backoff:5s}")
+    private Duration busyBackoff;
+
+    @Value("${jobs.busy-backoff-max:5m}")
+    private Duration busyBackoffMax;
+
+    private Path storage;
+    private final Semaphore wakeup = new Semaphore(0);
+    // Read and written once per claim, so concurrent claims at
+    // worst serve the same user first
+    private volatile long lastUser = -1;
+
+    @PostConstruct
+    void init() throws IOException {
+        storage = Paths.get(storageDir).toAbsolutePath();
+        Files.createDirectories(storage.resolve("uploads"));
+        Files.createDirectories(storage.resolve("results"));
+        if (instanceId == null || instanceId.isBlank()) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                host = "localhost";
+            }
+            instanceId = host + ":" + ManagementFactory
+                .getRuntimeMXBean().getPid();
+        }
+        log.info("Job queue instance {} using {}", instanceId, storage);
+    }
+
+    public String instanceId() {
+        return instanceId;
+    }
+
+    public Duration lease() {
+        return lease;
+    }
+
+    public ConversionJob submitYoutube(String username,
+            String youtubeUrl, boolean compact) {
+        ConversionJob job = newJob(username, Conversion.Source.YOUTUBE);
+        job.setYoutubeUrl(youtubeUrl.length() > 1000
+            ? youtubeUrl.substring(0, 1000) : youtubeUrl);
+        job.setCompact(compact);
+        return save(job);
+    }
+
+    // Takes ownership of the upload, which is moved into storage
+    public ConversionJob submitFile(String username, Path upload,
+            String origName, boolean compact) throws Exception {
+        String ext = ConversionService.uploadExtension(origName);
+        String ref = "uploads/" + UUID.randomUUID() + "." + ext;
+        Files.move(upload, storage.resolve(ref),
+            StandardCopyOption.REPLACE_EXISTING);
+
+        ConversionJob job = newJob(username, Conversion.Source.FILE);
+        job.setInputRef(ref);
+        job.setOrigName(origName.length() > 500
+            ? origName.substring(0, 500) : origName);
+        job.setCompact(compact);
+        return save(job);
+    }
+
+    private ConversionJob newJob(String username,
+            Conversion.Source source) {
+        User user = userRepository.findByUsername(username)
+            .orElseThrow(() ->
+                new IllegalArgumentException("Unknown user " + username));
+        ConversionJob job = new ConversionJob();
+        job.setUserId(user.getId());
+        job.setSource(source);
+        job.setCreatedAt(Instant.now());
+        return job;
+    }
+
+    private ConversionJob save(ConversionJob job) {
+        job = jobs.save(job);
+        wakeup.release();
+        return job;
+    }
+
+    // Only the submitting user sees a job
+    public Optional<ConversionJob> find(String username, Long id) {
+        Optional<User> user = userRepository.findByUsername(username);
+        return jobs.findById(id).filter(j -> user.isPresent()
+            && j.getUserId().equals(user.get().getId()));
+    }
+
+    public Path resolve(String ref) {
+        return storage.resolve(ref);
+    }
+
+    // Returns early when a job is submitted on this instance
+    void awaitWork(Duration timeout) throws InterruptedException {
+        wakeup.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        wakeup.drainPermits();
+    }
+
+    // Goes round the users with claimable jobs, up to their role's
+    // weight per pass, so one user's backlog does not hold everyone
+    // else's jobs behind it in id order
+    @Transactional
+    public List<ConversionJob> claim(int max) {
+        Instant now = Instant.now();
+        List<ConversionJob> claimed = new ArrayList<>(max);
+        List<Long> users = new ArrayList<>(jobs.findClaimableUsers(now));
+        if (users.isEmpty()) return claimed;
+
+        // Starting after the user served last
+        Collections.sort(users);
+        long served = lastUser;
+        int first = 0;
+        while (first < users.size() && users.get(first) <= served)
+            first++;
+        Collections.rotate(users, -first);
+        Map<Long, Integer> weights = new HashMap<>();
+        for (User user : userRepository.findAllById(users))
+            weights.put(user.getId(), scheduler.weight(user.getRole()));
+
+        while (claimed.size() < max && !users.isEmpty()) {
+            Iterator<Long> it = users.iterator();
+            while (it.hasNext() && claimed.size() < max) {
+                Long userId = it.next();
+                int take = Math.min(weights.getOrDefault(userId, 1),
+                    max - claimed.size());
+                List<ConversionJob> batch = jobs.findClaimableByUser(
+                    userId, now, PageRequest.of(0, take));
+                if (batch.size() < take) it.remove();
+                for (ConversionJob job : batch) {
+                    if (take(job, now)) {
+                        claimed.add(job);
+                        served = userId;
+                    }
+                }
+            }
+        }
+        lastUser = served;
+        return claimed;
+    }
+
+    private boolean take(ConversionJob job, Instant now) {
+        if (job.getAttempts() >= maxAttempts) {
+            log.warn("Job {} abandoned by {}, giving up",
+                job.getId(), job.getLeaseOwner());
+            job.setStatus(ConversionJob.Status.FAILED);
+            job.setError("Lease expired after "
+                + job.getAttempts() + " attempts");
+            job.setLeaseOwner(null);
+            job.setLeaseExpiresAt(null);
+            job.setFinishedAt(now);
+            deleteInput(job);
+            return false;
+        }
+        if (job.getStatus() == ConversionJob.Status.RUNNING)
+            log.info("Reclaiming job {} from {}",
+                job.getId(), job.getLeaseOwner());
+        job.setStatus(ConversionJob.Status.RUNNING);
+        job.setAttempts(job.getAttempts() + 1);
+        job.setLeaseOwner(instanceId);
+        job.setLeaseExpiresAt(now.plus(lease));
+        job.setStartedAt(now);
+        return true;
+    }
+
+    // Extends every lease this instance holds
+    public int renew() {
+        return jobs.renewLeases(instanceId, Instant.now().plus(lease));
+    }
+
+    // The PDF is written before the row is updated, so a DONE job
+    // always has its result; if the lease was lost meanwhile, the
+    // new owner's run wins and this one is thrown away
+    public void complete(ConversionJob job,
+            ConversionService.Result result) throws IOException {
+        String ref = "results/" + job.getId() + "-"
+            + UUID.randomUUID() + ".pdf";
+        Path file = storage.resolve(ref);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, result.pdf);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+
+        if (jobs.finish(job.getId(), instanceId,
+                ConversionJob.Status.DONE, ref, result.filename,
+                result.budgetWarning(), Instant.now()) == 1) {
+            deleteInput(job);
+            log.info("Job {} done ({} bytes)",
+                job.getId(), result.pdf.length);
+        } else {
+            Files.deleteIfExists(file);
+            log.warn("Job {} lost its lease, result discarded",
+                job.getId());
+        }
+    }
+
+    // Errors in the input itself; retrying would not help
+    public void fail(ConversionJob job, String message) {
+        if (jobs.finish(job.getId(), instanceId,
+                ConversionJob.Status.FAILED, null, null,
+                truncate(message), Instant.now()) == 1) {
+            deleteInput(job);
+            log.info("Job {} failed: {}", job.getId(), message);
+        }
+    }
+
+    public void retry(ConversionJob job, Exception error) {
+        String message = String.valueOf(error.getMessage());
+        if (job.getAttempts() >= maxAttempts) {
+            fail(job, message);
+            return;
+        }
+        if (jobs.release(job.getId(), instanceId,
+                truncate(message)) == 1) {
+            log.warn("Job {} failed (attempt {}), requeued: {}",
+                job.getId(), job.getAttempts(), message);
+            wakeup.release();
+        }
+    }
+
+    // A pipeline stage was full (503): not the job's fault, so it
+    // waits out a backoff, with jitter so deferred jobs don't all
+    // return at once, and keeps its attempts
+    public void defer(ConversionJob job, Exception error) {
+        String message = String.valueOf(error.getMessage());
+        long base = busyBackoff.toMillis()
+            << Math.min(job.getDeferrals(), 20);
+        long wait = Math.min(base, busyBackoffMax.toMillis());
+        wait = wait / 2 + ThreadLocalRandom.current()
+            .nextLong(wait / 2 + 1);
+        if (jobs.defer(job.getId(), instanceId, truncate(message),
+                Instant.now().plusMillis(wait)) == 1) {
+            log.info("Job {} deferred {} ms: {}",
+                job.getId(), wait, message);
+        }
+    }
+
+    // Finished jobs and their files are kept for jobs.retention
+    public void purge() {
+        Instant before = Instant.now().minus(retention);
+        List<ConversionJob> expired =
+            jobs.findByStatusInAndFinishedAtBefore(
+                List.of(ConversionJob.Status.DONE,
+                        ConversionJob.Status.FAILED),
+                before, PageRequest.of(0, 100));
+        for (ConversionJob job : expired) {
+            deleteInput(job);
+            if (job.getResultRef() != null) delete(job.getResultRef());
+        }
+        jobs.deleteAllInBatch(expired);
+    }
+
+    private void deleteInput(ConversionJob job) {
+        if (job.getInputRef() != null) delete(job.getInputRef());
+    }
+
+    private void delete(String ref) {
+        try {
+            Files.deleteIfExists(storage.resolve(ref));
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", ref, e.getMessage());
+        }
+    }
+
+    private static String truncate(String s) {
+        return s != null && s.length() > 1000 ? s.substring(0, 1000) : s;
+    }
+}
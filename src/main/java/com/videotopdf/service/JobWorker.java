@@ -0,0 +1,184 @@
+package com.videotopdf.service;
+
+import com.videotopdf.config.RequestIdFilter;
+import com.videotopdf.model.Conversion;
+import com.videotopdf.model.ConversionJob;
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Pulls jobs from the shared queue while it has idle workers and
+// renews their leases in the background. jobs.workers=0 makes an
+// instance that only accepts jobs and serves results.
+@Component
+public class JobWorker {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(JobWorker.class);
+
+    @Autowired
+    private JobQueue queue;
+
+    @Autowired
+    private ConversionService conversionService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${jobs.workers:2}")
+    private int workers;
+
+    @Value("${jobs.poll-interval:2s}")
+    private Duration pollInterval;
+
+    @Value("${jobs.purge-interval:10m}")
+    private Duration purgeInterval;
+
+    private ExecutorService pool;
+    private Semaphore idleWorkers;
+    private ScheduledExecutorService heartbeat;
+    private volatile boolean running = true;
+    private Thread poller;
+
+    @PostConstruct
+    void start() {
+        if (workers <= 0) return;
+        pool = Executors.newFixedThreadPool(workers);
+        idleWorkers = new Semaphore(workers);
+
+        // Three renewals per lease, so one missed beat is harmless
+        long beat = Math.max(1000, queue.lease().toMillis() / 3);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::renew,
+            beat, beat, TimeUnit.MILLISECONDS);
+
+        poller = new Thread(this::poll, "job-poller");
+        poller.setDaemon(true);
+        poller.start();
+        log.info("Started {} job workers", workers);
+    }
+
+    // Jobs still running stop being renewed and are picked up
+    // elsewhere once their leases expire
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (poller == null) return;
+        running = false;
+        poller.interrupt();
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+        heartbeat.shutdownNow();
+    }
+
+    private void renew() {
+        try {
+            queue.renew();
+        } catch (Exception e) {
+            log.warn("Lease renewal failed: {}", e.getMessage());
+        }
+    }
+
+    private void poll() {
+        long nextPurge = 0;
+        while (running) {
+            try {
+                if (System.nanoTime() - nextPurge > 0) {
+                    queue.purge();
+                    nextPurge = System.nanoTime()
+                        + purgeInterval.toNanos();
+                }
+                drain();
+                queue.awaitWork(pollInterval);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.warn("Job poll failed: {}", e.getMessage());
+                try {
+                    Thread.sleep(pollInterval.toMillis());
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Claims as many jobs as there are idle workers
+    private void drain() throws InterruptedException {
+        while (running) {
+            idleWorkers.acquire();
+            int idle = 1 + idleWorkers.drainPermits();
+            List<ConversionJob> claimed;
+            try {
+                claimed = queue.claim(idle);
+            } catch (RuntimeException e) {
+                idleWorkers.release(idle);
+                throw e;
+            }
+            idleWorkers.release(idle - claimed.size());
+            if (claimed.isEmpty()) return;
+            for (ConversionJob job : claimed) {
+                pool.execute(() -> {
+                    try {
+                        run(job);
+                    } finally {
+                        idleWorkers.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private void run(ConversionJob job) {
+        MDC.put(RequestIdFilter.MDC_KEY, "job-" + job.getId());
+        try {
+            log.info("Running job {} (attempt {})",
+                job.getId(), job.getAttempts());
+            String username = userRepository.findById(job.getUserId())
+                .map(User::getUsername).orElse(null);
+            ConversionService.Result result =
+                job.getSource() == Conversion.Source.YOUTUBE
+                ? conversionService.convertYoutube(username,
+                    job.getYoutubeUrl(), job.isCompact(), false)
+                : conversionService.convertFile(username,
+                    queue.resolve(job.getInputRef()),
+                    job.getOrigName(), job.isCompact(), null, false);
+            queue.complete(job, result);
+        } catch (ConversionException e) {
+            // 503: a pipeline stage was full; try again later
+            // without using up an attempt
+            if (e.getStatus() == 503) {
+                queue.defer(job, e);
+            } else if (e.getStatus() == 502 || e.getStatus() == 504) {
+                // An upstream API failed or a script stalled; a retry
+                // resumes from what was saved, and uses an attempt
+                queue.retry(job, e);
+            } else {
+                queue.fail(job, e.getMessage());
+            }
+        } catch (Exception e) {
+            log.error("Job {} error: {}", job.getId(), e.getMessage(), e);
+            queue.retry(job, e);
+        } finally {
+            MDC.remove(RequestIdFilter.MDC_KEY);
+        }
+    }
+}
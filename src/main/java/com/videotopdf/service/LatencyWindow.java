@@ -0,0 +1,36 @@
+package com.videotopdf.service;
+
+import java.util.Arrays;
+
+// The last few latencies of one source, for percentiles that
+// follow its recent behaviour rather than its whole history
+final class LatencyWindow {
+
+    private final long[] samples;
+    private final int minSamples;
+    private int next;
+    private int count;
+
+    LatencyWindow(int size, int minSamples) {
+        this.samples = new long[size];
+        this.minSamples = minSamples;
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+    }
+
+    // fallback until minSamples have been recorded
+    long percentile(double q, long fallback) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < minSamples) return fallback;
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
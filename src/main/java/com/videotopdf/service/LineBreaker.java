@@ -0,0 +1,103 @@
+package com.videotopdf.service;
+
+import java.util.Arrays;
+
+// Greedy line breaker working on offsets into the source text.
+// Word widths are summed incrementally from cached advances, so no
+// candidate line strings are built. Line bounds are char offsets
+// after breakLines and word indices after breakWords. Not
+// thread-safe: use one instance per render.
+final class LineBreaker {
+
+    private int[] offsets = new int[64];
+    private int count;
+
+    // Breaks text[from, to) into lines no wider than maxWidth and
+    // returns the number of lines. Runs of spaces separate words.
+    int breakLines(CharSequence text, int from, int to,
+            FontChain fonts, float fontSize, float maxWidth) {
+        count = 0;
+        float limit = maxWidth * 1000 / fontSize;
+        float space = fonts.advance(' ');
+
+        int lineStart = -1;
+        int lineEnd = -1;
+        float lineWidth = 0;
+
+        int i = from;
+        while (i < to) {
+            while (i < to && text.charAt(i) == ' ') i++;
+            if (i == to) break;
+
+            int wordStart = i;
+            float wordWidth = 0;
+            while (i < to && text.charAt(i) != ' ') {
+                wordWidth += fonts.advance(text.charAt(i));
+                i++;
+            }
+
+            if (lineStart < 0) {
+                lineStart = wordStart;
+                lineWidth = wordWidth;
+            } else if (lineWidth + space + wordWidth > limit) {
+                add(lineStart, lineEnd);
+                lineStart = wordStart;
+                lineWidth = wordWidth;
+            } else {
+                lineWidth += space + wordWidth;
+            }
+            lineEnd = i;
+        }
+
+        if (lineStart >= 0) add(lineStart, lineEnd);
+        return count;
+    }
+
+    // Breaks words [fromWord, toWord) of a parsed transcript
+    int breakWords(TranscriptText text, int fromWord, int toWord,
+            FontChain fonts, float fontSize, float maxWidth) {
+        count = 0;
+        float limit = maxWidth * 1000 / fontSize;
+        float space = fonts.advance(' ');
+        CharSequence s = text.source();
+
+        int lineStart = fromWord;
+        float lineWidth = 0;
+
+        for (int w = fromWord; w < toWord; w++) {
+            float wordWidth = 0;
+            for (int i = text.wordStart(w), end = text.wordEnd(w);
+                    i < end; i++) {
+                wordWidth += fonts.advance(s.charAt(i));
+            }
+
+            if (w == lineStart) {
+                lineWidth = wordWidth;
+            } else if (lineWidth + space + wordWidth > limit) {
+                add(lineStart, w);
+                lineStart = w;
+                lineWidth = wordWidth;
+            } else {
+                lineWidth += space + wordWidth;
+            }
+        }
+
+        if (toWord > lineStart) add(lineStart, toWord);
+        return count;
+    }
+
+    int lineCount() { return count; }
+
+    int lineStart(int line) { return offsets[2 * line]; }
+
+    int lineEnd(int line) { return offsets[2 * line + 1]; }
+
+    private void add(int start, int end) {
+        if (2 * count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[2 * count] = start;
+        offsets[2 * count + 1] = end;
+        count++;
+    }
+}
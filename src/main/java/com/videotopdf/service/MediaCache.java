@@ -0,0 +1,152 @@
+package com.videotopdf.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.UUID;
+
+// Results of uploaded media by the SHA-256 of its bytes, so the same
+// recording uploaded again is neither decoded nor transcribed. The
+// transcript is kept per hash, PDFs per hash, title and size class.
+// Entries are files under media-cache.dir, which instances sharing
+// jobs.storage-dir share too; reads refresh an entry's age.
+// Transcription in progress checkpoints its segments into a
+// <hash>.parts directory here until the transcript is cached.
+@Service
+public class MediaCache {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(MediaCache.class);
+
+    @Value("${media-cache.dir}")
+    private String cacheDir;
+
+    @Value("${media-cache.max-age:30d}")
+    private Duration maxAge;
+
+    private Path dir;
+
+    @PostConstruct
+    void init() throws IOException {
+        dir = Paths.get(cacheDir).toAbsolutePath();
+        Files.createDirectories(dir);
+    }
+
+    public String transcript(String hash) {
+        byte[] b = read(hash + ".txt");
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+
+    public void putTranscript(String hash, String transcript) {
+        write(hash + ".txt",
+            transcript.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] pdf(String hash, String title, boolean compact) {
+        return read(pdfName(hash, title, compact));
+    }
+
+    public void putPdf(String hash, String title, boolean compact,
+            byte[] pdf) {
+        write(pdfName(hash, title, compact), pdf);
+    }
+
+    // Where transcribe.py keeps finished segments of this media
+    public Path checkpoints(String hash) throws IOException {
+        return Files.createDirectories(dir.resolve(hash + ".parts"));
+    }
+
+    public void dropCheckpoints(String hash) {
+        try {
+            deleteFlat(dir.resolve(hash + ".parts"));
+        } catch (IOException e) {
+            log.warn("Could not remove checkpoints of {}: {}",
+                hash, e.getMessage());
+        }
+    }
+
+    // Entries not read or written within media-cache.max-age
+    public void purge() {
+        Instant cutoff = Instant.now().minus(maxAge);
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toInstant()
+                        .isBefore(cutoff)) {
+                    deleteFlat(file);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Media cache purge failed: {}", e.getMessage());
+        }
+        if (removed > 0) log.info("Purged {} media cache entries", removed);
+    }
+
+    // Checkpoint directories hold files only
+    private static void deleteFlat(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files =
+                    Files.newDirectoryStream(path)) {
+                for (Path file : files) Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    // The title is part of the document, so it is part of the key.
+    // The cover date is not: callers redraw the cover on a hit.
+    private static String pdfName(String hash, String title,
+            boolean compact) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(title.getBytes(StandardCharsets.UTF_8));
+            return hash + "-" + HexFormat.of().formatHex(digest, 0, 8)
+                + (compact ? "-compact" : "") + ".pdf";
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] read(String name) {
+        Path file = dir.resolve(name);
+        try {
+            byte[] b = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return b;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Whole files only: written aside, then moved into place
+    private void write(String name, byte[] content) {
+        Path tmp = dir.resolve(name + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(tmp, content);
+            Files.move(tmp, dir.resolve(name),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Media cache write failed for {}: {}",
+                name, e.getMessage());
+            try { Files.deleteIfExists(tmp); }
+            catch (IOException ignored) {}
+        }
+    }
+}
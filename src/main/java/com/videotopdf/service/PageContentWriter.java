@@ -0,0 +1,132 @@
+package com.videotopdf.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes one page's content stream straight to Flate-compressed
+// bytes. It only reads shared font tables, so pages can be written
+// on any thread and attached to the document afterwards. Text is a
+// single object per call to beginText: colour and leading are set
+// once, lines advance with T* and Tf is only written on change.
+final class PageContentWriter {
+
+    private static final byte[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private final Map<FontFace, String> fontNames;
+    private final ByteArrayOutputStream out =
+        new ByteArrayOutputStream(8192);
+    private final TextRuns.RunSink sink = this::showRun;
+
+    private FontFace font;
+    private float fontSize;
+
+    PageContentWriter(Map<FontFace, String> fontNames) {
+        this.fontNames = fontNames;
+    }
+
+    void drawForm(String name) throws IOException {
+        op("/" + name + " Do");
+    }
+
+    void beginText(float r, float g, float b, float leading)
+            throws IOException {
+        op("BT");
+        number(r); number(g); number(b); op("rg");
+        if (leading != 0) {
+            number(leading); op("TL");
+        }
+        font = null;
+    }
+
+    void moveText(float dx, float dy) throws IOException {
+        number(dx); number(dy); op("Td");
+    }
+
+    void nextLine() throws IOException {
+        op("T*");
+    }
+
+    void showText(String text, FontChain chain, float size)
+            throws IOException {
+        TextRuns.show(sink, text, chain, size);
+    }
+
+    void endText() throws IOException {
+        op("ET");
+    }
+
+    // The finished stream, compressed for /FlateDecode
+    byte[] finish() throws IOException {
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed =
+            new ByteArrayOutputStream(out.size() / 3 + 64);
+        try (DeflaterOutputStream z =
+                new DeflaterOutputStream(compressed, deflater)) {
+            out.writeTo(z);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    private void showRun(FontFace face, float size, String run)
+            throws IOException {
+        if (face != font || size != fontSize) {
+            out.write('/');
+            ascii(fontNames.get(face));
+            out.write(' ');
+            number(size);
+            op("Tf");
+            font = face;
+            fontSize = size;
+        }
+        out.write('<');
+        int width = face.codeLength() * 2;
+        for (int i = 0; i < run.length(); i++) {
+            int code = face.code(run.charAt(i));
+            for (int shift = (width - 1) * 4; shift >= 0; shift -= 4) {
+                out.write(HEX[(code >>> shift) & 0xF]);
+            }
+        }
+        out.write('>');
+        op("Tj");
+    }
+
+    private void op(String operator) throws IOException {
+        ascii(operator);
+        out.write('\n');
+    }
+
+    // Up to 4 decimals, no exponent, no trailing zeros
+    private void number(float value) throws IOException {
+        long scaled = Math.round(value * 10000.0);
+        if (scaled < 0) {
+            out.write('-');
+            scaled = -scaled;
+        }
+        ascii(Long.toString(scaled / 10000));
+        int frac = (int) (scaled % 10000);
+        if (frac != 0) {
+            out.write('.');
+            int digits = 4;
+            while (frac % 10 == 0) {
+                frac /= 10;
+                digits--;
+            }
+            String s = Integer.toString(frac);
+            for (int i = s.length(); i < digits; i++) out.write('0');
+            ascii(s);
+        }
+        out.write(' ');
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) out.write(s.charAt(i));
+    }
+}
@@ -0,0 +1,120 @@
+package com.videotopdf.service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes a document's transcript pages on the render thread that
+// owns the document, with help from render threads that are idle.
+// Pages are taken in order from a shared counter and handed back
+// in page order; only the owner attaches them, as they complete.
+// Helpers stay at most `window` pages ahead of the last attached
+// page, so finished pages never pile up on the heap. The owner
+// never waits for a helper that hasn't started, so a busy render
+// stage just means no help.
+final class ParallelPages {
+
+    interface Source {
+        int count();
+
+        byte[] write(int page) throws IOException;
+    }
+
+    interface Sink {
+        void accept(byte[] content) throws IOException;
+    }
+
+    private final Source pages;
+    private final int count;
+    private final int window;
+    private final Map<Integer, byte[]> ready = new HashMap<>();
+    private int next;
+    private int attached;
+    private Throwable failure;
+
+    ParallelPages(Source pages, int window) {
+        this.pages = pages;
+        this.count = pages.count();
+        this.window = Math.max(1, window);
+    }
+
+    void write(Stage stage, int helpers, Sink sink) throws Exception {
+        stage.help(this::help, helpers);
+        try {
+            while (true) {
+                byte[] content;
+                int page = -1;
+                synchronized (this) {
+                    while (true) {
+                        if (failure != null) throw failure(failure);
+                        content = ready.remove(attached);
+                        if (content != null || attached == count) break;
+                        if (next < count && next - attached < window) {
+                            page = next++;
+                            break;
+                        }
+                        // The next page is being written by a helper
+                        wait();
+                    }
+                }
+                if (content != null) {
+                    sink.accept(content);
+                    synchronized (this) {
+                        attached++;
+                        notifyAll();
+                    }
+                } else if (page >= 0) {
+                    content = pages.write(page);
+                    synchronized (this) {
+                        ready.put(page, content);
+                    }
+                } else {
+                    return;
+                }
+            }
+        } finally {
+            // Helpers stop taking pages
+            synchronized (this) {
+                next = count;
+                ready.clear();
+                notifyAll();
+            }
+        }
+    }
+
+    private void help() {
+        while (true) {
+            int page;
+            synchronized (this) {
+                while (failure == null && next < count
+                        && next - attached >= window) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (failure != null || next >= count) return;
+                page = next++;
+            }
+            try {
+                byte[] content = pages.write(page);
+                synchronized (this) {
+                    ready.put(page, content);
+                    notifyAll();
+                }
+            } catch (Throwable e) {
+                synchronized (this) {
+                    if (failure == null) failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private static Exception failure(Throwable e) {
+        return e instanceof Exception ? (Exception) e
+            : new IOException("Page writer failed", e);
+    }
+}
@@ -0,0 +1,177 @@
+package com.videotopdf.service;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.Character.UnicodeScript;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Process-wide font set. Font files are parsed once at startup and
+// shared by every document; each document only embeds the subset
+// of glyphs it actually uses.
+@Component
+public class PdfFonts {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(PdfFonts.class);
+
+    @Value("${pdf.fonts.regular:}")
+    private String regularPath;
+
+    @Value("${pdf.fonts.bold:}")
+    private String boldPath;
+
+    @Value("${pdf.fonts.oblique:}")
+    private String obliquePath;
+
+    // Comma-separated font files tried in order for any script
+    @Value("${pdf.fonts.fallback:}")
+    private String fallbackPaths;
+
+    // Comma-separated SCRIPT:path pairs, e.g. ARABIC:/fonts/a.ttf
+    @Value("${pdf.fonts.scripts:}")
+    private String scriptPaths;
+
+    private FontChain regular;
+    private FontChain bold;
+    private FontChain oblique;
+    private FontChain standardRegular;
+    private FontChain standardBold;
+    private FontChain standardOblique;
+    private boolean embeddedStyles;
+
+    @PostConstruct
+    void load() throws Exception {
+        Map<String, FontFace> files = new HashMap<>();
+
+        Map<UnicodeScript, FontFace> scripts =
+            new EnumMap<>(UnicodeScript.class);
+        for (String pair : split(scriptPaths)) {
+            int colon = pair.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(
+                    "Expected SCRIPT:path in pdf.fonts.scripts: "
+                    + pair);
+            }
+            scripts.put(
+                UnicodeScript.forName(pair.substring(0, colon).trim()),
+                face(files, pair.substring(colon + 1).trim()));
+        }
+
+        List<FontFace> fallbacks = new ArrayList<>();
+        for (String path : split(fallbackPaths)) {
+            fallbacks.add(face(files, path));
+        }
+
+        FontFace regularFace = primary(files, regularPath,
+            Standard14Fonts.FontName.HELVETICA);
+        // Styled chains fall back to the regular face before the
+        // generic fallbacks
+        List<FontFace> styledFallbacks = new ArrayList<>();
+        styledFallbacks.add(regularFace);
+        styledFallbacks.addAll(fallbacks);
+
+        regular = new FontChain(regularFace, scripts, fallbacks);
+        bold = new FontChain(primary(files, boldPath,
+                Standard14Fonts.FontName.HELVETICA_BOLD),
+            scripts, styledFallbacks);
+        oblique = new FontChain(primary(files, obliquePath,
+                Standard14Fonts.FontName.HELVETICA_OBLIQUE),
+            scripts, styledFallbacks);
+
+        // Standard faces first and the configured ones last, so a
+        // document drawn with these embeds fonts only for the
+        // characters the standard faces lack
+        embeddedStyles = !blank(regularPath) || !blank(boldPath)
+            || !blank(obliquePath);
+        if (embeddedStyles) {
+            standardRegular = standardChain(
+                Standard14Fonts.FontName.HELVETICA, scripts,
+                fallbacks, regular.primary());
+            standardBold = standardChain(
+                Standard14Fonts.FontName.HELVETICA_BOLD, scripts,
+                fallbacks, bold.primary());
+            standardOblique = standardChain(
+                Standard14Fonts.FontName.HELVETICA_OBLIQUE, scripts,
+                fallbacks, oblique.primary());
+        } else {
+            standardRegular = regular;
+            standardBold = bold;
+            standardOblique = oblique;
+        }
+
+        log.info("PDF fonts loaded: {} embedded, {} script fallbacks",
+            files.size(), scripts.size());
+    }
+
+    FontChain regular() { return regular; }
+
+    FontChain bold() { return bold; }
+
+    FontChain oblique() { return oblique; }
+
+    FontChain regular(boolean standard) {
+        return standard ? standardRegular : regular;
+    }
+
+    FontChain bold(boolean standard) {
+        return standard ? standardBold : bold;
+    }
+
+    FontChain oblique(boolean standard) {
+        return standard ? standardOblique : oblique;
+    }
+
+    // True when a pdf.fonts.regular/bold/oblique file is configured
+    boolean embeddedStyles() { return embeddedStyles; }
+
+    private static FontChain standardChain(
+            Standard14Fonts.FontName standard,
+            Map<UnicodeScript, FontFace> scripts,
+            List<FontFace> fallbacks, FontFace configured) {
+        List<FontFace> last = new ArrayList<>(fallbacks);
+        last.add(configured);
+        return new FontChain(FontFace.standard(new PDType1Font(standard)),
+            scripts, last);
+    }
+
+    private static boolean blank(String path) {
+        return path == null || path.isBlank();
+    }
+
+    private static FontFace primary(Map<String, FontFace> files,
+            String path, Standard14Fonts.FontName standard)
+            throws Exception {
+        return blank(path)
+            ? FontFace.standard(new PDType1Font(standard))
+            : face(files, path.trim());
+    }
+
+    private static FontFace face(Map<String, FontFace> files,
+            String path) throws Exception {
+        FontFace face = files.get(path);
+        if (face == null) {
+            face = FontFace.load(path);
+            files.put(path, face);
+        }
+        return face;
+    }
+
+    private static List<String> split(String list) {
+        List<String> items = new ArrayList<>();
+        if (list == null) return items;
+        for (String item : list.split(",")) {
+            if (!item.isBlank()) items.add(item.trim());
+        }
+        return items;
+    }
+}
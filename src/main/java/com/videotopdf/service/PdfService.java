@@ -1,393 +1,865 @@
 package com.videotopdf.service;
 
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.*;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.*;
+import org.apache.pdfbox.pdmodel.font.PDCIDFont;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Service
 public class PdfService {
 
+    private static final Logger log =
+        LoggerFactory.getLogger(PdfService.class);
+
+    // Document info key holding the OutputLevel a PDF was made at
+    private static final String LEVEL_KEY = "VideoToPdfLevel";
+
     private static final float MARGIN = 60;
     private static final float PAGE_WIDTH = PDRectangle.A4.getWidth();
     private static final float PAGE_HEIGHT = PDRectangle.A4.getHeight();
     private static final float CONTENT_WIDTH = PAGE_WIDTH - 2 * MARGIN;
 
-    private static final PDFont FONT_BOLD =
-        new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
-    private static final PDFont FONT_REGULAR =
-        new PDType1Font(Standard14Fonts.FontName.HELVETICA);
-    private static final PDFont FONT_OBLIQUE =
-        new PDType1Font(Standard14Fonts.FontName.HELVETICA_OBLIQUE);
+    private static final float BODY_SIZE = 11f;
+    private static final float LINE_HEIGHT = 18f;
+    private static final float PARA_SPACING = 10f;
+    // Tighter transcript setting of the lighter compact levels
+    private static final float TIGHT_BODY_SIZE = 10f;
+    private static final float TIGHT_LINE_HEIGHT = 14f;
+    private static final float TIGHT_PARA_SPACING = 6f;
+    private static final float HEADER_HEIGHT = 55f;
+    private static final float FOOTER_HEIGHT = 35f;
+    private static final float BODY_TOP =
+        PAGE_HEIGHT - MARGIN - HEADER_HEIGHT;
+
+    // Finished pages that may wait to be attached on the parallel
+    // path; the rest of the document is bounded by the heap budget
+    private static final int PAGE_WINDOW = 16;
+
+    @Autowired
+    private PdfFonts pdfFonts;
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    @Autowired
+    private PipelineStages stages;
+
+    // Documents estimated at this many pages or more keep their
+    // content streams in a scratch file beyond the heap budget
+    @Value("${pdf.large-document.pages:500}")
+    private int largeDocumentPages;
+
+    @Value("${pdf.large-document.heap-budget:16MB}")
+    private DataSize largeDocumentHeapBudget;
+
+    // For the scratch file and the saved PDF; empty for the
+    // system temp directory
+    @Value("${pdf.large-document.scratch-dir:}")
+    private String scratchDir;
+
+    // Transcripts with this many pages or more have their page
+    // content written in parallel, by idle render threads
+    @Value("${pdf.render.parallel-pages:32}")
+    private int parallelPages;
+
+    // Start time beside each paragraph of a timed transcript
+    @Value("${pdf.paragraph-timestamps:true}")
+    private boolean paragraphTimestamps;
+
+    // Output settings, lightest last. FULL keeps the thumbnail as
+    // downloaded; the others re-encode it and write object streams.
+    // SMALL also sets the transcript tighter, on fewer pages. MINIMAL
+    // drops the thumbnail and the margin times, and draws with the
+    // standard fonts wherever they can, so configured fonts are only
+    // embedded for characters the standard ones lack.
+    private enum OutputLevel {
+        FULL(0, 0f, false, true, false),
+        COMPACT(700, 0.75f, false, true, false),
+        SMALL(350, 0.5f, true, true, false),
+        MINIMAL(-1, 0f, true, false, true);
+
+        final int thumbnailWidth;
+        final float jpegQuality;
+        final boolean tight;
+        final boolean timestamps;
+        final boolean standardFonts;
+
+        OutputLevel(int thumbnailWidth, float jpegQuality,
+                boolean tight, boolean timestamps,
+                boolean standardFonts) {
+            this.thumbnailWidth = thumbnailWidth;
+            this.jpegQuality = jpegQuality;
+            this.tight = tight;
+            this.timestamps = timestamps;
+            this.standardFonts = standardFonts;
+        }
+
+        float bodySize() { return tight ? TIGHT_BODY_SIZE : BODY_SIZE; }
 
+        float lineHeight() {
+            return tight ? TIGHT_LINE_HEIGHT : LINE_HEIGHT;
+        }
+
+        float paraSpacing() {
+            return tight ? TIGHT_PARA_SPACING : PARA_SPACING;
+        }
+    }
+
+    // The thumbnail is fetched on the fetch stage, then parsing,
+    // layout and rendering run on the render stage
     public byte[] generatePdf(String title, String channelTitle,
             String publishedAt, String thumbnailUrl,
             String transcript, String sourceLang) throws Exception {
+        byte[] thumbnail = downloadThumbnail(thumbnailUrl);
+        return stages.render().call(() -> {
+            Timer.Sample sample = metrics.start();
+            return full(title, channelTitle, publishedAt, thumbnail,
+                sourceLang, parse(transcript), sample, metrics);
+        });
+    }
 
-        try (PDDocument doc = new PDDocument()) {
-
-            // ── COVER PAGE ──────────────────────────────────────────
-            PDPage coverPage = new PDPage(PDRectangle.A4);
-            doc.addPage(coverPage);
+    // Timed segments get their paragraphs by time, and each
+    // paragraph's start time beside it
+    public byte[] generatePdf(String title, String channelTitle,
+            String publishedAt, String thumbnailUrl,
+            SegmentTable transcript, String sourceLang)
+            throws Exception {
+        byte[] thumbnail = downloadThumbnail(thumbnailUrl);
+        return stages.render().call(() -> {
+            Timer.Sample sample = metrics.start();
+            return full(title, channelTitle, publishedAt, thumbnail,
+                sourceLang, parse(transcript), sample, metrics);
+        });
+    }
 
-            try (PDPageContentStream cs =
-                    new PDPageContentStream(doc, coverPage)) {
-
-                // White background
-                cs.setNonStrokingColor(1f, 1f, 1f);
-                cs.addRect(0, 0, PAGE_WIDTH, PAGE_HEIGHT);
-                cs.fill();
-
-                // Navy top bar
-                cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
-                cs.addRect(0, PAGE_HEIGHT - 100, PAGE_WIDTH, 100);
-                cs.fill();
-
-                // Gold line under navy bar
-                cs.setNonStrokingColor(0.83f, 0.68f, 0.21f);
-                cs.addRect(0, PAGE_HEIGHT - 103, PAGE_WIDTH, 3);
-                cs.fill();
-
-                // App name in white on navy
-                drawCenteredText(cs, "VideoToPdf",
-                        FONT_BOLD, 32,
-                        1f, 1f, 1f,
-                        PAGE_HEIGHT - 55);
-
-                // Tagline
-                drawCenteredText(cs,
-                        "YouTube Video Transcript",
-                        FONT_REGULAR, 13,
-                        0.83f, 0.68f, 0.21f,
-                        PAGE_HEIGHT - 78);
-
-                // Thumbnail
-                float thumbY = PAGE_HEIGHT - 310;
-                try {
-                    if (thumbnailUrl != null
-                            && !thumbnailUrl.isEmpty()) {
-                        byte[] imgBytes =
-                            downloadImage(thumbnailUrl);
-                        PDImageXObject img =
-                            PDImageXObject.createFromByteArray(
-                                doc, imgBytes, "thumb");
-                        float imgW = 350, imgH = 197;
-                        float imgX = (PAGE_WIDTH - imgW) / 2;
-
-                        // Light shadow box
-                        cs.setNonStrokingColor(
-                            0.85f, 0.85f, 0.85f);
-                        cs.addRect(imgX + 4, thumbY - 4,
-                            imgW, imgH);
-                        cs.fill();
-
-                        cs.drawImage(img, imgX, thumbY,
-                            imgW, imgH);
-
-                        // Navy border
-                        cs.setStrokingColor(
-                            0.05f, 0.1f, 0.3f);
-                        cs.setLineWidth(2f);
-                        cs.addRect(imgX, thumbY, imgW, imgH);
-                        cs.stroke();
-                    }
-                } catch (Exception e) {
-                    // skip thumbnail
-                }
+    // Same document, sized for mail attachments and mobile
+    // downloads: lighter settings are tried until it fits maxBytes.
+    // If none does, the smallest is returned; callers compare its
+    // length with maxBytes.
+    public byte[] generatePdf(String title, String channelTitle,
+            String publishedAt, String thumbnailUrl,
+            String transcript, String sourceLang, long maxBytes)
+            throws Exception {
+        byte[] thumbnail = downloadThumbnail(thumbnailUrl);
+        return stages.render().call(() -> {
+            Timer.Sample sample = metrics.start();
+            return compact(title, channelTitle, publishedAt, thumbnail,
+                sourceLang, parse(transcript), sample, maxBytes,
+                metrics);
+        });
+    }
 
-                // Divider line
-                float divY = thumbY - 30;
-                cs.setStrokingColor(0.83f, 0.68f, 0.21f);
-                cs.setLineWidth(1.5f);
-                cs.moveTo(MARGIN, divY);
-                cs.lineTo(PAGE_WIDTH - MARGIN, divY);
-                cs.stroke();
-
-                // Video title - black text
-                float titleY = divY - 30;
-                List<String> titleLines = wrapText(
-                    title, FONT_BOLD, 16, CONTENT_WIDTH);
-                for (String line : titleLines) {
-                    drawCenteredText(cs, line,
-                            FONT_BOLD, 16,
-                            0.05f, 0.1f, 0.3f, titleY);
-                    titleY -= 24;
-                }
+    public byte[] generatePdf(String title, String channelTitle,
+            String publishedAt, String thumbnailUrl,
+            SegmentTable transcript, String sourceLang, long maxBytes)
+            throws Exception {
+        byte[] thumbnail = downloadThumbnail(thumbnailUrl);
+        return stages.render().call(() -> {
+            Timer.Sample sample = metrics.start();
+            return compact(title, channelTitle, publishedAt, thumbnail,
+                sourceLang, parse(transcript), sample, maxBytes,
+                metrics);
+        });
+    }
 
-                // Channel - dark grey
-                drawCenteredText(cs,
-                        "Channel:  " + channelTitle,
-                        FONT_REGULAR, 12,
-                        0.3f, 0.3f, 0.3f,
-                        titleY - 12);
-
-                // Date
-                String date = publishedAt.length() >= 10
-                    ? publishedAt.substring(0, 10)
-                    : publishedAt;
-                drawCenteredText(cs,
-                        "Published:  " + date,
-                        FONT_REGULAR, 11,
-                        0.5f, 0.5f, 0.5f,
-                        titleY - 32);
-
-                // Language
-                if (!sourceLang.equalsIgnoreCase("English")
-                        && !sourceLang.equalsIgnoreCase("en")) {
-                    drawCenteredText(cs,
-                        "Translated from: " + sourceLang
-                        + "  to  English",
-                        FONT_OBLIQUE, 10,
-                        0.4f, 0.4f, 0.7f,
-                        titleY - 50);
-                }
+    // Both render paths once each on the calling thread, into meters
+    // of their own, so warm-up documents stay out of the conversion
+    // and stage metrics
+    void warmUp(SegmentTable transcript, int renders) throws Exception {
+        ConversionMetrics scratch =
+            new ConversionMetrics(new SimpleMeterRegistry());
+        for (int i = 0; i < renders; i++) {
+            full("Warm-up", "VideoToPdf", "2024-01-01T00:00:00Z", null,
+                "English", parse(transcript), scratch.start(), scratch);
+        }
+        compact("Warm-up", "VideoToPdf", "2024-01-01T00:00:00Z", null,
+            "English", parse(transcript), scratch.start(),
+            Long.MAX_VALUE, scratch);
+    }
 
-                // Navy footer bar
-                cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
-                cs.addRect(0, 0, PAGE_WIDTH, 40);
-                cs.fill();
+    private byte[] full(String title, String channelTitle,
+            String publishedAt, byte[] thumbnail, String sourceLang,
+            TranscriptText text, Timer.Sample layoutSample,
+            ConversionMetrics metrics) throws Exception {
+        TranscriptLayout layout = paginate(text, OutputLevel.FULL);
+        layoutSample.stop(metrics.pdfLayout());
+
+        byte[] pdf = render(title, channelTitle, publishedAt,
+            thumbnail, sourceLang, text, layout, OutputLevel.FULL,
+            metrics);
+        record(text, layout, pdf, metrics);
+        return pdf;
+    }
 
-                drawCenteredText(cs,
-                        "Generated by VideoToPdf  |  "
-                        + java.time.LocalDate.now(),
-                        FONT_REGULAR, 9,
-                        0.83f, 0.68f, 0.21f, 14);
+    private byte[] compact(String title, String channelTitle,
+            String publishedAt, byte[] thumbnail, String sourceLang,
+            TranscriptText text, Timer.Sample layoutSample,
+            long maxBytes, ConversionMetrics metrics) throws Exception {
+        TranscriptLayout normal = paginate(text, OutputLevel.COMPACT);
+        layoutSample.stop(metrics.pdfLayout());
+        TranscriptLayout tight = null;
+
+        byte[] best = null;
+        TranscriptLayout bestLayout = null;
+        OutputLevel last = null;
+        for (OutputLevel level : OutputLevel.values()) {
+            if (level == OutputLevel.FULL) continue;
+            TranscriptLayout layout = normal;
+            if (level.tight) {
+                if (tight == null) tight = paginate(text, level);
+                layout = tight;
+            }
+            if (last != null && !lighter(level, last, thumbnail, text,
+                    layout.pageCount() < normal.pageCount())) {
+                log.debug("PDF level {} would not change this "
+                    + "document, skipped", level);
+                continue;
             }
+            byte[] pdf = render(title, channelTitle, publishedAt,
+                thumbnail, sourceLang, text, layout, level, metrics);
+            log.info("PDF size: {} bytes ({}, budget {})",
+                pdf.length, level, maxBytes);
+            if (best == null || pdf.length < best.length) {
+                best = pdf;
+                bestLayout = layout;
+            }
+            last = level;
+            if (pdf.length <= maxBytes) break;
+        }
+        if (best.length > maxBytes) {
+            log.warn("PDF over budget: {} bytes at best, budget {}",
+                best.length, maxBytes);
+        }
+        record(text, bestLayout, best, metrics);
+        return best;
+    }
 
-            // ── TRANSCRIPT PAGES ─────────────────────────────────────
-            // Clean transcript — remove timestamps
-            String cleanTranscript = removeTimestamps(transcript);
-
-            // Split into paragraphs for better readability
-            List<String> paragraphs =
-                buildParagraphs(cleanTranscript);
-
-            float lineHeight = 18f;
-            float paraSpacing = 10f;
-            float headerHeight = 55f;
-            float footerHeight = 35f;
-
-            PDPage page = null;
-            PDPageContentStream cs = null;
-            float y = 0;
-            int pageNum = 1;
-
-            for (String para : paragraphs) {
-                List<String> wrapped = wrapText(
-                    para, FONT_REGULAR, 11, CONTENT_WIDTH);
-
-                // Check if this paragraph fits
-                float neededHeight = wrapped.size() * lineHeight
-                    + paraSpacing;
-
-                if (page == null
-                        || y - neededHeight
-                           < MARGIN + footerHeight) {
-                    if (cs != null) {
-                        drawTranscriptFooter(cs, pageNum);
-                        cs.close();
-                        pageNum++;
-                    }
-                    page = new PDPage(PDRectangle.A4);
-                    doc.addPage(page);
-                    cs = new PDPageContentStream(doc, page);
-
-                    // White background
-                    cs.setNonStrokingColor(1f, 1f, 1f);
-                    cs.addRect(0, 0, PAGE_WIDTH, PAGE_HEIGHT);
-                    cs.fill();
+    // Whether level drops anything from this document that the
+    // last level rendered still had
+    private boolean lighter(OutputLevel level, OutputLevel last,
+            byte[] thumbnail, TranscriptText text,
+            boolean tightSavesPages) {
+        if (thumbnail != null
+                && level.thumbnailWidth != last.thumbnailWidth) {
+            return true;
+        }
+        if (level.tight && !last.tight && tightSavesPages) return true;
+        if (!level.timestamps && last.timestamps
+                && paragraphTimestamps && text.timed()) {
+            return true;
+        }
+        return level.standardFonts && !last.standardFonts
+            && pdfFonts.embeddedStyles();
+    }
 
-                    drawTranscriptHeader(cs, title, pageNum);
-                    y = PAGE_HEIGHT - MARGIN - headerHeight;
-                }
+    // Cover page plus transcript pages
+    private static void record(TranscriptText text,
+            TranscriptLayout layout, byte[] pdf,
+            ConversionMetrics metrics) {
+        metrics.transcriptLength().record(text.source().length());
+        metrics.pdfPages().record(layout.pageCount() + 1);
+        metrics.pdfSize().record(pdf.length);
+    }
+
+    // Clean transcript in one pass — timestamps, whitespace
+    // and paragraph breaks
+    private TranscriptText parse(String transcript) {
+        return logUnsupported(
+            TranscriptText.parse(transcript, pdfFonts.regular()));
+    }
+
+    // Read in place from the table's text buffer
+    private TranscriptText parse(SegmentTable transcript) {
+        return logUnsupported(
+            TranscriptText.parse(transcript, pdfFonts.regular()));
+    }
 
-                // Draw each wrapped line
-                for (String wline : wrapped) {
-                    cs.beginText();
-                    cs.setFont(FONT_REGULAR, 11);
-                    // BLACK text
-                    cs.setNonStrokingColor(0f, 0f, 0f);
-                    cs.newLineAtOffset(MARGIN, y);
-                    cs.showText(sanitize(wline));
-                    cs.endText();
-                    y -= lineHeight;
+    private TranscriptText logUnsupported(TranscriptText text) {
+        if (text.unsupportedChars() > 0) {
+            log.info("Unsupported characters: {}",
+                text.unsupportedChars());
+        }
+        return text;
+    }
+
+    // Pagination is fixed up front so pages can be written
+    // independently
+    private TranscriptLayout paginate(TranscriptText text,
+            OutputLevel level) {
+        return TranscriptLayout.paginate(text,
+            pdfFonts.regular(level.standardFonts), level.bodySize(),
+            CONTENT_WIDTH, BODY_TOP, MARGIN + FOOTER_HEIGHT,
+            level.lineHeight(), level.paraSpacing());
+    }
+
+    private byte[] render(String title, String channelTitle,
+            String publishedAt, byte[] thumbnail, String sourceLang,
+            TranscriptText text, TranscriptLayout layout,
+            OutputLevel level, ConversionMetrics metrics)
+            throws Exception {
+
+        FontChain bold = pdfFonts.bold(level.standardFonts);
+        FontChain regular = pdfFonts.regular(level.standardFonts);
+
+        boolean large = layout.pageCount() + 1 >= largeDocumentPages;
+        // Large documents are saved straight to a file, read back
+        // once the document is closed, so the PDF is never on the
+        // heap twice
+        Path out = large ? (scratchDir.isBlank()
+            ? Files.createTempFile("videotopdf-", ".pdf")
+            : Files.createTempFile(Path.of(scratchDir),
+                "videotopdf-", ".pdf")) : null;
+        try (PDDocument doc = newDocument(large,
+                layout.pageCount() + 1)) {
+            // Seeds the trailer /ID instead of the clock, so the same
+            // input gives the same bytes
+            doc.setDocumentId(((long) Objects.hash(title, channelTitle,
+                publishedAt, sourceLang) << 32)
+                ^ text.source().length() * 31L + layout.pageCount());
+            doc.getDocumentInformation()
+                .setCustomMetadataValue(LEVEL_KEY, level.name());
+            DocumentFonts fonts = new DocumentFonts(doc);
+
+            // ── COVER PAGE ──────────────────────────────────────────
+            PDPage coverPage = new PDPage(PDRectangle.A4);
+            doc.addPage(coverPage);
+            drawCover(doc, fonts, coverPage, title, channelTitle,
+                publishedAt, thumbnail, sourceLang, level);
+
+            // ── TRANSCRIPT PAGES ─────────────────────────────────────
+            // Header and footer chrome are identical on every page,
+            // so they are written once and referenced per page
+            PDResources resources = new PDResources();
+            String header = resources.add(createHeaderForm(doc, fonts,
+                title, bold, regular)).getName();
+            String footer = resources.add(
+                createFooterForm(doc, fonts, regular)).getName();
+
+            TranscriptPages pages = new TranscriptPages(text, layout,
+                regular, bodyFonts(text, regular, fonts, resources),
+                header, footer, level.bodySize(), MARGIN, BODY_TOP,
+                level.lineHeight(), level.paraSpacing(),
+                paragraphTimestamps && level.timestamps);
+
+            if (pages.count() >= parallelPages) {
+                // Runs on the render stage, so helpers come out of
+                // the same per-core threads
+                new ParallelPages(pages, PAGE_WINDOW).write(
+                    stages.render(), pages.count() - 1,
+                    content -> addTranscriptPage(doc, resources, content));
+            } else {
+                for (int p = 0; p < pages.count(); p++) {
+                    addTranscriptPage(doc, resources, pages.write(p));
                 }
-                y -= paraSpacing;
             }
 
-            if (cs != null) {
-                drawTranscriptFooter(cs, pageNum);
-                cs.close();
+            Timer.Sample sample = metrics.start();
+            if (!large) {
+                ByteArrayOutputStream baos =
+                    new ByteArrayOutputStream();
+                save(doc, level, baos);
+                sample.stop(metrics.pdfSave(level.name()));
+                return baos.toByteArray();
             }
+            try (OutputStream file = new BufferedOutputStream(
+                    Files.newOutputStream(out), 64 * 1024)) {
+                save(doc, level, file);
+            }
+            sample.stop(metrics.pdfSave(level.name()));
+        } catch (Exception e) {
+            if (out != null) Files.deleteIfExists(out);
+            throw e;
+        }
+        try {
+            return Files.readAllBytes(out);
+        } finally {
+            Files.deleteIfExists(out);
+        }
+    }
 
-            ByteArrayOutputStream baos =
-                new ByteArrayOutputStream();
-            doc.save(baos);
-            return baos.toByteArray();
+    private static void save(PDDocument doc, OutputLevel level,
+            OutputStream out) throws IOException {
+        if (level == OutputLevel.FULL) {
+            doc.save(out);
+        } else {
+            // Object streams and a compressed xref stream
+            doc.save(out, CompressParameters.DEFAULT_COMPRESSION);
         }
     }
 
-    // Remove all [00:00] timestamps from transcript
-    private String removeTimestamps(String transcript) {
-        if (transcript == null) return "";
-        // Remove patterns like [00:00], [00:00:00]
-        return transcript
-            .replaceAll("\\[\\d{2}:\\d{2}:\\d{2}\\]\\s*", "")
-            .replaceAll("\\[\\d{2}:\\d{2}\\]\\s*", "")
-            .trim();
+    // Registers the faces body text uses in the shared page
+    // resources and marks their glyphs for subsetting up front,
+    // since page content is written without going through PDFont
+    private Map<FontFace, String> bodyFonts(TranscriptText text,
+            FontChain chain, DocumentFonts fonts,
+            PDResources resources) throws IOException {
+        BitSet used = (BitSet) text.usedChars().clone();
+        String label = TranscriptPages.pageLabel(0) + "123456789:";
+        for (int i = 0; i < label.length(); i++) {
+            used.set(label.charAt(i));
+        }
+
+        Map<FontFace, String> names = new IdentityHashMap<>();
+        for (int c = used.nextSetBit(0); c >= 0;
+                c = used.nextSetBit(c + 1)) {
+            FontFace face = chain.face((char) c);
+            PDFont font = fonts.get(face);
+            if (!names.containsKey(face)) {
+                names.put(face, resources.add(font).getName());
+            }
+            if (font.willBeSubset()) font.addToSubset(c);
+        }
+        return names;
     }
 
-    // Group lines into readable paragraphs
-    private List<String> buildParagraphs(String text) {
-        List<String> paragraphs = new ArrayList<>();
-        String[] lines = text.split("\n");
-        StringBuilder current = new StringBuilder();
-        int lineCount = 0;
+    private void addTranscriptPage(PDDocument doc,
+            PDResources resources, byte[] content) throws IOException {
+        PDPage page = new PDPage(PDRectangle.A4);
+        page.setResources(resources);
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(content);
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        page.getCOSObject().setItem(COSName.CONTENTS, stream);
+        doc.addPage(page);
+    }
 
-        for (String line : lines) {
-            String trimmed = line.trim();
-            if (trimmed.isEmpty()) continue;
+    private PDDocument newDocument(boolean large, int estimatedPages) {
+        if (!large) {
+            return new PDDocument();
+        }
+        log.info("Large document (~{} pages), heap budget {}",
+            estimatedPages, largeDocumentHeapBudget);
+        return new PDDocument(largeDocumentMemory().streamCache);
+    }
 
-            current.append(trimmed).append(" ");
-            lineCount++;
+    // Content streams beyond the heap budget go to a scratch file
+    MemoryUsageSetting largeDocumentMemory() {
+        MemoryUsageSetting setting = MemoryUsageSetting
+            .setupMixed(largeDocumentHeapBudget.toBytes());
+        if (!scratchDir.isBlank()) {
+            setting.setTempDir(new File(scratchDir));
+        }
+        return setting;
+    }
+
+    // A PDF from the media cache with today's cover in place of
+    // the one it was made with; the transcript pages are kept as
+    // they are. The cover is drawn and saved at the level the PDF
+    // was made at, and with the document's own font subsets where
+    // they have every glyph it needs. Runs on the render stage.
+    public byte[] replaceCover(byte[] pdf, String title,
+            String channelTitle, String publishedAt, String sourceLang,
+            boolean compact) throws Exception {
+        return stages.render().call(() -> {
+            try (PDDocument doc = Loader.loadPDF(pdf)) {
+                OutputLevel level = level(doc, compact);
+                PDPage old = doc.getPage(0);
+                PDPage cover = new PDPage(PDRectangle.A4);
+                DocumentFonts fonts = new DocumentFonts(doc);
+                drawCover(doc, fonts, cover, title, channelTitle,
+                    publishedAt, null, sourceLang, level);
+                reuseFonts(old.getResources(), cover.getResources(),
+                    fonts);
+                doc.getPages().insertBefore(cover, old);
+                doc.removePage(old);
+                ByteArrayOutputStream out =
+                    new ByteArrayOutputStream(pdf.length);
+                save(doc, level, out);
+                return out.toByteArray();
+            }
+        });
+    }
 
-            // Every 4 lines make a paragraph
-            if (lineCount >= 4) {
-                paragraphs.add(current.toString().trim());
-                current = new StringBuilder();
-                lineCount = 0;
+    // PDFs cached before the level was recorded were made at
+    // COMPACT or FULL
+    private static OutputLevel level(PDDocument doc, boolean compact) {
+        String name = doc.getDocumentInformation()
+            .getCustomMetadataValue(LEVEL_KEY);
+        if (name != null) {
+            try {
+                return OutputLevel.valueOf(name);
+            } catch (IllegalArgumentException ignored) {
             }
         }
+        return compact ? OutputLevel.COMPACT : OutputLevel.FULL;
+    }
 
-        if (current.length() > 0) {
-            paragraphs.add(current.toString().trim());
+    // Points the new cover at the old cover's embedded font where
+    // that subset covers what the new cover drew with the same
+    // face. Codes are glyph ids of the face either way, so the
+    // content stream stays as written; the fresh font is then
+    // unreferenced and not saved.
+    private static void reuseFonts(PDResources cached,
+            PDResources cover, DocumentFonts fonts) throws IOException {
+        Map<String, PDType0Font> embedded = new HashMap<>();
+        for (COSName name : cached.getFontNames()) {
+            if (cached.getFont(name) instanceof PDType0Font font) {
+                embedded.put(font.getName().replaceFirst(
+                    "^[A-Z]{6}\\+", ""), font);
+            }
+        }
+        for (Map.Entry<FontFace, BitSet> e : fonts.shown().entrySet()) {
+            FontFace face = e.getKey();
+            PDFont fresh = fonts.get(face);
+            PDType0Font font = embedded.get(face.postScriptName());
+            if (font == null || !(fresh instanceof PDType0Font)
+                    || !covers(font.getDescendantFont(), face,
+                        e.getValue())) {
+                continue;
+            }
+            for (COSName name : cover.getFontNames()) {
+                if (cover.getFont(name).getCOSObject()
+                        == fresh.getCOSObject()) {
+                    cover.put(name, font);
+                }
+            }
         }
+    }
 
-        return paragraphs;
+    private static boolean covers(PDCIDFont font, FontFace face,
+            BitSet chars) throws IOException {
+        for (int c = chars.nextSetBit(0); c >= 0;
+                c = chars.nextSetBit(c + 1)) {
+            if (font.codeToGID(face.code((char) c)) == 0) return false;
+        }
+        return true;
     }
 
-    private void drawTranscriptHeader(PDPageContentStream cs,
-            String title, int pageNum) throws Exception {
+    private void drawCover(PDDocument doc, DocumentFonts fonts,
+            PDPage coverPage, String title, String channelTitle,
+            String publishedAt, byte[] thumbnail, String sourceLang,
+            OutputLevel level) throws Exception {
+        FontChain bold = pdfFonts.bold(level.standardFonts);
+        FontChain regular = pdfFonts.regular(level.standardFonts);
+        FontChain oblique = pdfFonts.oblique(level.standardFonts);
+
+        try (PDPageContentStream cs =
+                new PDPageContentStream(doc, coverPage)) {
+
+            // Navy top bar
+            cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
+            cs.addRect(0, PAGE_HEIGHT - 100, PAGE_WIDTH, 100);
+            cs.fill();
+
+            // Gold line under navy bar
+            cs.setNonStrokingColor(0.83f, 0.68f, 0.21f);
+            cs.addRect(0, PAGE_HEIGHT - 103, PAGE_WIDTH, 3);
+            cs.fill();
+
+            // App name in white on navy
+            drawCenteredText(cs, fonts, "VideoToPdf",
+                    bold, 32,
+                    1f, 1f, 1f,
+                    PAGE_HEIGHT - 55);
+
+            // Tagline
+            drawCenteredText(cs, fonts,
+                    "YouTube Video Transcript",
+                    regular, 13,
+                    0.83f, 0.68f, 0.21f,
+                    PAGE_HEIGHT - 78);
+
+            // Thumbnail
+            float thumbY = PAGE_HEIGHT - 310;
+            try {
+                if (thumbnail != null
+                        && level.thumbnailWidth >= 0) {
+                    PDImageXObject img =
+                        thumbnailImage(doc, thumbnail, level);
+                    float imgW = 350, imgH = 197;
+                    float imgX = (PAGE_WIDTH - imgW) / 2;
+
+                    // Light shadow box
+                    cs.setNonStrokingColor(
+                        0.85f, 0.85f, 0.85f);
+                    cs.addRect(imgX + 4, thumbY - 4,
+                        imgW, imgH);
+                    cs.fill();
 
-        // Navy header bar
-        cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
-        cs.addRect(0, PAGE_HEIGHT - 50, PAGE_WIDTH, 50);
-        cs.fill();
+                    cs.drawImage(img, imgX, thumbY,
+                        imgW, imgH);
 
-        // Gold accent line
-        cs.setNonStrokingColor(0.83f, 0.68f, 0.21f);
-        cs.addRect(0, PAGE_HEIGHT - 53, PAGE_WIDTH, 3);
-        cs.fill();
+                    // Navy border
+                    cs.setStrokingColor(
+                        0.05f, 0.1f, 0.3f);
+                    cs.setLineWidth(2f);
+                    cs.addRect(imgX, thumbY, imgW, imgH);
+                    cs.stroke();
+                }
+            } catch (Exception e) {
+                // skip thumbnail
+            }
 
-        // App name
-        cs.beginText();
-        cs.setFont(FONT_BOLD, 12);
-        cs.setNonStrokingColor(0.83f, 0.68f, 0.21f);
-        cs.newLineAtOffset(MARGIN, PAGE_HEIGHT - 32);
-        cs.showText("VideoToPdf");
-        cs.endText();
+            // Divider line
+            float divY = thumbY - 30;
+            cs.setStrokingColor(0.83f, 0.68f, 0.21f);
+            cs.setLineWidth(1.5f);
+            cs.moveTo(MARGIN, divY);
+            cs.lineTo(PAGE_WIDTH - MARGIN, divY);
+            cs.stroke();
+
+            // Video title - black text
+            float titleY = divY - 30;
+            List<String> titleLines = wrapText(
+                title, bold, 16, CONTENT_WIDTH);
+            for (String line : titleLines) {
+                drawCenteredText(cs, fonts, line,
+                        bold, 16,
+                        0.05f, 0.1f, 0.3f, titleY);
+                titleY -= 24;
+            }
 
-        // Short title
-        String shortTitle = title.length() > 55
-            ? title.substring(0, 52) + "..." : title;
-        cs.beginText();
-        cs.setFont(FONT_REGULAR, 9);
-        cs.setNonStrokingColor(0.8f, 0.8f, 0.8f);
-        cs.newLineAtOffset(MARGIN + 100, PAGE_HEIGHT - 32);
-        cs.showText(sanitize(shortTitle));
-        cs.endText();
+            // Channel - dark grey
+            drawCenteredText(cs, fonts,
+                    "Channel:  " + channelTitle,
+                    regular, 12,
+                    0.3f, 0.3f, 0.3f,
+                    titleY - 12);
+
+            // Date
+            String date = publishedAt.length() >= 10
+                ? publishedAt.substring(0, 10)
+                : publishedAt;
+            drawCenteredText(cs, fonts,
+                    "Published:  " + date,
+                    regular, 11,
+                    0.5f, 0.5f, 0.5f,
+                    titleY - 32);
+
+            // Language
+            if (!sourceLang.equalsIgnoreCase("English")
+                    && !sourceLang.equalsIgnoreCase("en")) {
+                drawCenteredText(cs, fonts,
+                    "Translated from: " + sourceLang
+                    + "  to  English",
+                    oblique, 10,
+                    0.4f, 0.4f, 0.7f,
+                    titleY - 50);
+            }
 
-        // Transcript label
-        cs.beginText();
-        cs.setFont(FONT_BOLD, 11);
-        cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
-        cs.newLineAtOffset(MARGIN, PAGE_HEIGHT - 75);
-        cs.showText("TRANSCRIPT");
-        cs.endText();
+            // Navy footer bar
+            cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
+            cs.addRect(0, 0, PAGE_WIDTH, 40);
+            cs.fill();
 
-        // Gold underline for TRANSCRIPT
-        cs.setStrokingColor(0.83f, 0.68f, 0.21f);
-        cs.setLineWidth(1f);
-        cs.moveTo(MARGIN, PAGE_HEIGHT - 78);
-        cs.lineTo(MARGIN + 90, PAGE_HEIGHT - 78);
-        cs.stroke();
+            drawCenteredText(cs, fonts,
+                    "Generated by VideoToPdf  |  "
+                    + java.time.LocalDate.now(),
+                    regular, 9,
+                    0.83f, 0.68f, 0.21f, 14);
+        }
     }
 
-    private void drawTranscriptFooter(PDPageContentStream cs,
-            int pageNum) throws Exception {
-
-        // Light separator line
-        cs.setStrokingColor(0.8f, 0.8f, 0.8f);
-        cs.setLineWidth(0.5f);
-        cs.moveTo(MARGIN, 38);
-        cs.lineTo(PAGE_WIDTH - MARGIN, 38);
-        cs.stroke();
+    private PDFormXObject createHeaderForm(PDDocument doc,
+            DocumentFonts fonts, String title, FontChain bold,
+            FontChain regular) throws Exception {
+        PDFormXObject form = newPageForm(doc);
+        try (PDFormContentStream cs = new PDFormContentStream(form)) {
+
+            // Navy header bar
+            cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
+            cs.addRect(0, PAGE_HEIGHT - 50, PAGE_WIDTH, 50);
+            cs.fill();
+
+            // Gold accent line
+            cs.setNonStrokingColor(0.83f, 0.68f, 0.21f);
+            cs.addRect(0, PAGE_HEIGHT - 53, PAGE_WIDTH, 3);
+            cs.fill();
+
+            // App name
+            cs.beginText();
+            cs.setNonStrokingColor(0.83f, 0.68f, 0.21f);
+            cs.newLineAtOffset(MARGIN, PAGE_HEIGHT - 32);
+            showRuns(cs, fonts, "VideoToPdf", bold, 12);
+            cs.endText();
+
+            // Short title
+            String shortTitle = title.length() > 55
+                ? title.substring(0, 52) + "..." : title;
+            cs.beginText();
+            cs.setNonStrokingColor(0.8f, 0.8f, 0.8f);
+            cs.newLineAtOffset(MARGIN + 100, PAGE_HEIGHT - 32);
+            showRuns(cs, fonts, shortTitle, regular, 9);
+            cs.endText();
+
+            // Transcript label
+            cs.beginText();
+            cs.setNonStrokingColor(0.05f, 0.1f, 0.3f);
+            cs.newLineAtOffset(MARGIN, PAGE_HEIGHT - 75);
+            showRuns(cs, fonts, "TRANSCRIPT", bold, 11);
+            cs.endText();
+
+            // Gold underline for TRANSCRIPT
+            cs.setStrokingColor(0.83f, 0.68f, 0.21f);
+            cs.setLineWidth(1f);
+            cs.moveTo(MARGIN, PAGE_HEIGHT - 78);
+            cs.lineTo(MARGIN + 90, PAGE_HEIGHT - 78);
+            cs.stroke();
+        }
+        return form;
+    }
 
-        // Page number - black
-        cs.beginText();
-        cs.setFont(FONT_REGULAR, 9);
-        cs.setNonStrokingColor(0.4f, 0.4f, 0.4f);
-        cs.newLineAtOffset(MARGIN, 20);
-        cs.showText("VideoToPdf  |  Page " + pageNum);
-        cs.endText();
+    private PDFormXObject createFooterForm(PDDocument doc,
+            DocumentFonts fonts, FontChain regular) throws Exception {
+        PDFormXObject form = newPageForm(doc);
+        try (PDFormContentStream cs = new PDFormContentStream(form)) {
+
+            // Light separator line
+            cs.setStrokingColor(0.8f, 0.8f, 0.8f);
+            cs.setLineWidth(0.5f);
+            cs.moveTo(MARGIN, 38);
+            cs.lineTo(PAGE_WIDTH - MARGIN, 38);
+            cs.stroke();
+
+            // Right side
+            cs.beginText();
+            cs.setNonStrokingColor(0.6f, 0.6f, 0.6f);
+            cs.newLineAtOffset(PAGE_WIDTH - MARGIN - 80, 20);
+            showRuns(cs, fonts, "Transcript PDF", regular, 9);
+            cs.endText();
+        }
+        return form;
+    }
 
-        // Right side
-        cs.beginText();
-        cs.setFont(FONT_REGULAR, 9);
-        cs.setNonStrokingColor(0.6f, 0.6f, 0.6f);
-        cs.newLineAtOffset(PAGE_WIDTH - MARGIN - 80, 20);
-        cs.showText("Transcript PDF");
-        cs.endText();
+    private PDFormXObject newPageForm(PDDocument doc) {
+        PDFormXObject form = new PDFormXObject(doc);
+        form.setBBox(new PDRectangle(PAGE_WIDTH, PAGE_HEIGHT));
+        form.setResources(new PDResources());
+        return form;
     }
 
     private void drawCenteredText(PDPageContentStream cs,
-            String text, PDFont font, float fontSize,
-            float r, float g, float b, float y) throws Exception {
-        String safe = sanitize(text);
-        float textWidth = font.getStringWidth(safe) / 1000 * fontSize;
+            DocumentFonts fonts, String text, FontChain chain,
+            float fontSize, float r, float g, float b, float y)
+            throws Exception {
+        String safe = text == null ? "" : text.trim();
+        float textWidth = 0;
+        for (int i = 0; i < safe.length(); i++) {
+            textWidth += chain.advance(safe.charAt(i));
+        }
+        textWidth = textWidth / 1000 * fontSize;
         float x = (PAGE_WIDTH - textWidth) / 2;
         cs.beginText();
-        cs.setFont(font, fontSize);
         cs.setNonStrokingColor(r, g, b);
         cs.newLineAtOffset(x, y);
-        cs.showText(safe);
+        showRuns(cs, fonts, safe, chain, fontSize);
         cs.endText();
     }
 
-    private List<String> wrapText(String text, PDFont font,
-            float fontSize, float maxWidth) throws Exception {
+    private void showRuns(PDPageContentStream cs,
+            DocumentFonts fonts, String text, FontChain chain,
+            float fontSize) throws Exception {
+        TextRuns.show((face, size, run) -> {
+            cs.setFont(fonts.show(face, run), size);
+            cs.showText(run);
+        }, text, chain, fontSize);
+    }
+
+    private void showRuns(PDFormContentStream cs,
+            DocumentFonts fonts, String text, FontChain chain,
+            float fontSize) throws Exception {
+        TextRuns.show((face, size, run) -> {
+            cs.setFont(fonts.get(face), size);
+            cs.showText(run);
+        }, text, chain, fontSize);
+    }
+
+    private List<String> wrapText(String text, FontChain fonts,
+            float fontSize, float maxWidth) {
         List<String> lines = new ArrayList<>();
         if (text == null || text.isEmpty()) return lines;
 
-        String[] words = text.split(" ");
-        StringBuilder current = new StringBuilder();
-
-        for (String word : words) {
-            String test = current.length() == 0
-                ? word : current + " " + word;
-            float width = font.getStringWidth(sanitize(test))
-                / 1000 * fontSize;
-            if (width > maxWidth && current.length() > 0) {
-                lines.add(current.toString());
-                current = new StringBuilder(word);
-            } else {
-                current = new StringBuilder(test);
-            }
+        LineBreaker breaker = new LineBreaker();
+        int count = breaker.breakLines(text, 0, text.length(),
+            fonts, fontSize, maxWidth);
+        for (int i = 0; i < count; i++) {
+            lines.add(text.substring(
+                breaker.lineStart(i), breaker.lineEnd(i)));
         }
-        if (current.length() > 0)
-            lines.add(current.toString());
         return lines;
     }
 
+    private byte[] downloadThumbnail(String thumbnailUrl) {
+        if (thumbnailUrl == null || thumbnailUrl.isEmpty()) return null;
+        try {
+            return stages.fetch().call(() -> downloadImage(thumbnailUrl));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            // skip thumbnail
+            return null;
+        }
+    }
+
+    // The thumbnail as downloaded for FULL output, otherwise scaled
+    // down to the level's width and re-encoded as JPEG
+    private PDImageXObject thumbnailImage(PDDocument doc,
+            byte[] bytes, OutputLevel level) throws IOException {
+        if (level.thumbnailWidth == 0) {
+            return PDImageXObject.createFromByteArray(
+                doc, bytes, "thumb");
+        }
+        BufferedImage src =
+            ImageIO.read(new ByteArrayInputStream(bytes));
+        if (src == null) throw new IOException("Unreadable thumbnail");
+
+        int w = Math.min(level.thumbnailWidth, src.getWidth());
+        int h = Math.max(1, Math.round(
+            src.getHeight() * (float) w / src.getWidth()));
+        BufferedImage scaled =
+            new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, w, h, null);
+        g.dispose();
+        return JPEGFactory.createFromImage(
+            doc, scaled, level.jpegQuality);
+    }
+
     private byte[] downloadImage(String imageUrl) throws Exception {
-        URL url = new URL(imageUrl);
-        try (InputStream in = url.openStream();
+        URLConnection conn = new URL(imageUrl).openConnection();
+        // A stalled image host only holds a fetch thread this long
+        conn.setConnectTimeout(10000);
+        conn.setReadTimeout(10000);
+        try (InputStream in = conn.getInputStream();
              ByteArrayOutputStream baos =
                  new ByteArrayOutputStream()) {
             byte[] buf = new byte[4096];
@@ -397,9 +869,4 @@ public class PdfService {
             return baos.toByteArray();
         }
     }
-
-    private String sanitize(String text) {
-        if (text == null) return "";
-        return text.replaceAll("[^\\x20-\\x7E]", " ").trim();
-    }
 }
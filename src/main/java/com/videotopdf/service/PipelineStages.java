@@ -0,0 +1,105 @@
+package com.videotopdf.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// The conversion pipeline's resource pools, sized for what each
+// stage waits on: many threads for network calls, one per allowed
+// Python process, one per core for PDF rendering. Caption lookups
+// and transcription have separate process slots: a lookup takes
+// seconds on a tight budget, a transcription can take hours. A request thread
+// only coordinates, handing each step to its stage, so a slow
+// provider fills its own stage rather than the render threads.
+@Component
+public class PipelineStages {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(PipelineStages.class);
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    // YouTube API and thumbnail downloads
+    @Value("${stages.fetch.threads:64}")
+    private int fetchThreads;
+
+    @Value("${stages.fetch.queue:1000}")
+    private int fetchQueue;
+
+    @Value("${stages.translate.threads:32}")
+    private int translateThreads;
+
+    @Value("${stages.translate.queue:1000}")
+    private int translateQueue;
+
+    // get_transcript.py processes running at once
+    @Value("${stages.captions.threads:4}")
+    private int captionsThreads;
+
+    @Value("${stages.captions.queue:100}")
+    private int captionsQueue;
+
+    // transcribe.py processes running at once
+    @Value("${stages.transcribe.threads:4}")
+    private int transcribeThreads;
+
+    @Value("${stages.transcribe.queue:100}")
+    private int transcribeQueue;
+
+    // 0 means one per core
+    @Value("${stages.render.threads:0}")
+    private int renderThreads;
+
+    @Value("${stages.render.queue:100}")
+    private int renderQueue;
+
+    private Stage fetch;
+    private Stage translate;
+    private Stage captions;
+    private Stage transcribe;
+    private Stage render;
+
+    @PostConstruct
+    void start() {
+        if (renderThreads <= 0) {
+            renderThreads = Runtime.getRuntime().availableProcessors();
+        }
+        fetch = new Stage("fetch", fetchThreads, fetchQueue, metrics);
+        translate = new Stage("translate", translateThreads,
+            translateQueue, metrics);
+        captions = new Stage("captions", captionsThreads,
+            captionsQueue, metrics);
+        transcribe = new Stage("transcribe", transcribeThreads,
+            transcribeQueue, metrics);
+        render = new Stage("render", renderThreads, renderQueue,
+            metrics);
+        log.info("Stages: fetch {}, translate {}, captions {}, "
+            + "transcribe {}, render {} threads", fetchThreads,
+            translateThreads, captionsThreads, transcribeThreads,
+            renderThreads);
+    }
+
+    @PreDestroy
+    void stop() {
+        fetch.shutdown();
+        translate.shutdown();
+        captions.shutdown();
+        transcribe.shutdown();
+        render.shutdown();
+    }
+
+    Stage fetch() { return fetch; }
+
+    Stage translate() { return translate; }
+
+    Stage captions() { return captions; }
+
+    Stage transcribe() { return transcribe; }
+
+    Stage render() { return render; }
+}
@@ -0,0 +1,145 @@
+package com.videotopdf.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+// A transcript as timed segments, stored column by column: start
+// and duration in milliseconds in int arrays, and all text in one
+// char buffer with a '\n' after each segment. Views over the buffer
+// are handed out instead of strings, so layout and translation read
+// the text where it was parsed. Untimed tables (description
+// fallback, old script output) hold one segment per line.
+public final class SegmentTable {
+
+    // First line of get_transcript.py output; each following line
+    // is "<start ms>\t<duration ms>\t<text>"
+    static final String HEADER = "SEGMENTS";
+
+    private final boolean timed;
+    private int[] starts = new int[64];
+    private int[] durations = new int[64];
+    private int[] ends = new int[64];
+    private int size;
+    private char[] chars = new char[4096];
+    private int length;
+
+    private SegmentTable(boolean timed) {
+        this.timed = timed;
+    }
+
+    // Script output in either form; a stream without the header is
+    // read as untimed lines
+    static SegmentTable read(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) return new SegmentTable(false);
+        if (!line.equals(HEADER)) {
+            SegmentTable t = new SegmentTable(false);
+            do {
+                t.add(-1, -1, line, 0, line.length());
+            } while ((line = in.readLine()) != null);
+            return t;
+        }
+
+        SegmentTable t = new SegmentTable(true);
+        while ((line = in.readLine()) != null) {
+            int tab1 = line.indexOf('\t');
+            int tab2 = tab1 < 0 ? -1 : line.indexOf('\t', tab1 + 1);
+            if (tab2 < 0) continue;
+            try {
+                t.add(Integer.parseInt(line, 0, tab1, 10),
+                    Integer.parseInt(line, tab1 + 1, tab2, 10),
+                    line, tab2 + 1, line.length());
+            } catch (NumberFormatException e) {
+                // A malformed line loses its segment, not the rest
+            }
+        }
+        return t;
+    }
+
+    static SegmentTable untimed(CharSequence text) {
+        SegmentTable t = new SegmentTable(false);
+        int from = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                t.add(-1, -1, text, from, i);
+                from = i + 1;
+            }
+        }
+        return t;
+    }
+
+    static SegmentTable newTimed() {
+        return new SegmentTable(true);
+    }
+
+    // Tabs and line breaks inside text become spaces, so the
+    // buffer keeps exactly one '\n' per segment
+    void add(int startMs, int durationMs, CharSequence text,
+            int from, int to) {
+        if (size + 1 > starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            durations = Arrays.copyOf(durations, durations.length * 2);
+            ends = Arrays.copyOf(ends, ends.length * 2);
+        }
+        if (length + (to - from) + 1 > chars.length) {
+            chars = Arrays.copyOf(chars,
+                Math.max(chars.length * 2, length + (to - from) + 1));
+        }
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            chars[length++] = c == '\n' || c == '\r' || c == '\t'
+                ? ' ' : c;
+        }
+        starts[size] = startMs;
+        durations[size] = durationMs;
+        ends[size] = length;
+        chars[length++] = '\n';
+        size++;
+    }
+
+    boolean timed() { return timed; }
+
+    int size() { return size; }
+
+    int start(int segment) { return starts[segment]; }
+
+    int duration(int segment) { return durations[segment]; }
+
+    int textStart(int segment) {
+        return segment == 0 ? 0 : ends[segment - 1] + 1;
+    }
+
+    int textEnd(int segment) { return ends[segment]; }
+
+    // Text of all segments, '\n' after each
+    CharSequence text() {
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    CharSequence text(int segment) {
+        int from = textStart(segment);
+        return CharBuffer.wrap(chars, from, ends[segment] - from);
+    }
+
+    // Segment whose text contains offset, for offsets into text()
+    int segmentAt(int offset) {
+        int i = Arrays.binarySearch(ends, 0, size, offset);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    // Characters of text, without the separators
+    int textLength() { return length - size; }
+
+    boolean isBlank() {
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(chars[i])) return false;
+        }
+        return true;
+    }
+
+    boolean contentEquals(String s) {
+        return size == 1 && text(0).toString().trim().equals(s);
+    }
+}
@@ -0,0 +1,115 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One stage of the pipeline: a fixed number of threads behind a
+// bounded queue. Tasks are leaves; they never wait on another
+// task of their own stage, so a full stage can't deadlock. When
+// the queue is full the work is turned away with a 503 rather
+// than queued without limit. Tasks keep the caller's request id.
+final class Stage {
+
+    private final String name;
+    private final ThreadPoolExecutor pool;
+    private final Timer wait;
+    private final Timer service;
+
+    Stage(String name, int threads, int queueSize,
+            ConversionMetrics metrics) {
+        this.name = name;
+        AtomicInteger n = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+            r -> {
+                Thread t = new Thread(r,
+                    "stage-" + name + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        // Idle threads go away; I/O stages can be wide for free
+        pool.allowCoreThreadTimeOut(true);
+        wait = metrics.stageWait(name);
+        service = metrics.stageService(name);
+        metrics.gauge("videotopdf.stage.queued", "stage", name,
+            () -> pool.getQueue().size());
+        metrics.gauge("videotopdf.stage.active", "stage", name,
+            pool::getActiveCount);
+    }
+
+    <T> Future<T> submit(Callable<T> task) throws ConversionException {
+        long queued = System.nanoTime();
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        try {
+            return pool.submit(() -> {
+                long started = System.nanoTime();
+                wait.record(started - queued, TimeUnit.NANOSECONDS);
+                if (context != null) MDC.setContextMap(context);
+                try {
+                    return task.call();
+                } finally {
+                    MDC.clear();
+                    service.record(System.nanoTime() - started,
+                        TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ConversionException(503,
+                "Server busy (" + name + "), try again shortly.");
+        }
+    }
+
+    // Runs the task on this stage and waits for it; an interrupted
+    // caller cancels it
+    <T> T call(Callable<T> task) throws Exception {
+        Future<T> future = submit(task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception
+                ? (Exception) e.getCause() : e;
+        } catch (CancellationException e) {
+            throw new InterruptedException(name + " task cancelled");
+        }
+    }
+
+    // Starts up to max copies of a helper, but only as many as there
+    // are idle threads, so helpers never queue behind real work. The
+    // caller must be able to finish without them: returns how many
+    // were started.
+    int help(Runnable helper, int max) {
+        int idle = pool.getMaximumPoolSize() - pool.getActiveCount()
+            - pool.getQueue().size();
+        int started = 0;
+        while (started < Math.min(max, idle)) {
+            try {
+                submit(() -> {
+                    helper.run();
+                    return null;
+                });
+            } catch (ConversionException e) {
+                break;
+            }
+            started++;
+        }
+        return started;
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,91 @@
+package com.videotopdf.service;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+// Pays the first conversion's one-off costs at startup: PDFBox
+// class loading and font metrics, JSON and regex setup, and a
+// cold Python interpreter. Runners finish before readiness is
+// reported, so /actuator/health/readiness stays down until this
+// is done. With warmup.exit the app stops afterwards, which is
+// how the class-data-sharing training run ends (faststart.sh).
+@Component
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(StartupWarmup.class);
+
+    @Autowired private PdfService pdfService;
+    @Autowired private YouTubeService youTubeService;
+    @Autowired private ConfigurableApplicationContext context;
+
+    @Value("${warmup.enabled:false}")
+    private boolean enabled;
+
+    // Renders are small; a few get the layout code past the
+    // interpreter without slowing startup much
+    @Value("${warmup.renders:3}")
+    private int renders;
+
+    @Value("${warmup.exit:false}")
+    private boolean exit;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled && !exit) return;
+        long started = System.nanoTime();
+
+        SegmentTable transcript = transcript();
+        try {
+            // Not counted in the conversion metrics
+            pdfService.warmUp(transcript, renders);
+        } catch (Exception e) {
+            log.warn("Warm-up render failed: {}", e.getMessage());
+        }
+
+        youTubeService.extractVideoId(
+            "https://www.youtube.com/watch?v=warmup&t=1");
+        new JSONObject("{\"items\":[{\"snippet\":{\"title\":\"t\"}}]}")
+            .getJSONArray("items").getJSONObject(0);
+        TranslationService.chunks(transcript.text().toString());
+
+        try {
+            youTubeService.warmUp();
+        } catch (Exception e) {
+            log.warn("Transcript script warm-up failed: {}",
+                e.getMessage());
+        }
+
+        log.info("Warm-up done in {} ms",
+            (System.nanoTime() - started) / 1_000_000);
+        if (exit) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    // A few minutes of timed segments, plain and accented text
+    private static SegmentTable transcript() {
+        String[] words = ("the video transcript language people time "
+            + "research question answer example café naïve über "
+            + "process because however different important").split(" ");
+        SegmentTable table = SegmentTable.newTimed();
+        StringBuilder sb = new StringBuilder();
+        for (int s = 0; s < 200; s++) {
+            sb.setLength(0);
+            for (int w = 0; w < 12; w++) {
+                if (w > 0) sb.append(' ');
+                sb.append(words[(s * 7 + w * 3) % words.length]);
+            }
+            table.add(s * 4000, 4000, sb, 0, sb.length());
+        }
+        return table;
+    }
+}
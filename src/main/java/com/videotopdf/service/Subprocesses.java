@@ -0,0 +1,109 @@
+package com.videotopdf.service;
+
+import com.videotopdf.config.RequestIdFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Starts the Python scripts and logs their stderr under
+// videotopdf.subprocess.<script>, tagged with the request id of
+// the caller. Lines beyond the per-script budget are counted
+// rather than logged.
+@Component
+public class Subprocesses {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(Subprocesses.class);
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    // Across all running copies of a script
+    @Value("${logging.subprocess.lines-per-second:20}")
+    private int linesPerSecond;
+
+    private final Map<String, LineBudget> budgets =
+        new ConcurrentHashMap<>();
+
+    public Process start(ProcessBuilder pb, String script)
+            throws IOException {
+        String requestId = MDC.get(RequestIdFilter.MDC_KEY);
+        if (requestId != null)
+            pb.environment().put("REQUEST_ID", requestId);
+        log.debug("Starting {}", pb.command());
+
+        Process proc = metrics.track(pb.start());
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        Logger out = LoggerFactory.getLogger(
+            "videotopdf.subprocess." + script);
+        LineBudget budget = budgets.computeIfAbsent(
+            script, k -> new LineBudget(linesPerSecond));
+
+        Thread errThread = new Thread(() -> {
+            if (context != null) MDC.setContextMap(context);
+            pump(proc.getErrorStream(), out, budget);
+        }, script + "-stderr");
+        errThread.setDaemon(true);
+        errThread.start();
+        return proc;
+    }
+
+    private static void pump(InputStream err, Logger out,
+            LineBudget budget) {
+        int suppressed = 0;
+        try (BufferedReader r = new BufferedReader(
+                new InputStreamReader(err, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (!out.isInfoEnabled()) continue;
+                if (!budget.tryAcquire()) {
+                    suppressed++;
+                    continue;
+                }
+                if (suppressed > 0) {
+                    out.info("({} lines suppressed)", suppressed);
+                    suppressed = 0;
+                }
+                out.info("{}", line);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (suppressed > 0)
+                out.info("({} lines suppressed)", suppressed);
+        }
+    }
+
+    // Token bucket holding up to one second of lines
+    private static final class LineBudget {
+
+        private final int perSecond;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        LineBudget(int perSecond) {
+            this.perSecond = perSecond;
+            this.tokens = perSecond;
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(perSecond,
+                tokens + (now - last) * perSecond / 1e9);
+            last = now;
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.videotopdf.service;
+
+import java.io.IOException;
+import java.text.Bidi;
+
+// Splits a line of text into runs that share one font face and
+// hands each run to a content stream writer.
+final class TextRuns {
+
+    private TextRuns() {}
+
+    interface RunSink {
+        void show(FontFace face, float fontSize, String text)
+            throws IOException;
+    }
+
+    // Draws text as runs of whichever face can render each
+    // character; must be called between beginText and endText
+    static void show(RunSink sink, String text, FontChain chain,
+            float fontSize) throws IOException {
+        String visual = visualOrder(text);
+        StringBuilder run = new StringBuilder(visual.length());
+        FontFace runFace = null;
+
+        for (int i = 0; i < visual.length(); i++) {
+            char c = visual.charAt(i);
+            FontFace face = chain.face(c);
+            if (face != runFace && run.length() > 0) {
+                sink.show(runFace, fontSize, run.toString());
+                run.setLength(0);
+            }
+            runFace = face;
+            run.append(chain.supports(c) ? c : ' ');
+        }
+        if (run.length() > 0) {
+            sink.show(runFace, fontSize, run.toString());
+        }
+    }
+
+    // PDF text is drawn left to right, so right-to-left runs
+    // (Arabic, Urdu, Hebrew) are reversed into visual order
+    private static String visualOrder(String text) {
+        boolean mayBeRtl = false;
+        for (int i = 0; i < text.length() && !mayBeRtl; i++) {
+            mayBeRtl = text.charAt(i) >= '\u0590';
+        }
+        if (!mayBeRtl) return text;
+
+        Bidi bidi = new Bidi(text, Bidi.DIRECTION_DEFAULT_LEFT_TO_RIGHT);
+        if (bidi.isLeftToRight()) return text;
+
+        int runs = bidi.getRunCount();
+        byte[] levels = new byte[runs];
+        Integer[] order = new Integer[runs];
+        for (int i = 0; i < runs; i++) {
+            levels[i] = (byte) bidi.getRunLevel(i);
+            order[i] = i;
+        }
+        Bidi.reorderVisually(levels, 0, order, 0, runs);
+
+        StringBuilder out = new StringBuilder(text.length());
+        for (int run : order) {
+            int start = bidi.getRunStart(run);
+            int limit = bidi.getRunLimit(run);
+            if ((levels[run] & 1) == 0) {
+                out.append(text, start, limit);
+            } else {
+                for (int i = limit - 1; i >= start; i--) {
+                    out.append(text.charAt(i));
+                }
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,806 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Full-text search over each user's converted transcripts, one
+// index for all instances under search.index-dir, which must be
+// shared like jobs.storage-dir. A finished transcript is inverted
+// on the request thread and written to spool/ as one file, where
+// it stays until a segment holds it, so a crash loses nothing.
+// One instance at a time owns the index by holding a lock on
+// write.lock: it reads the spool and flushes what it read every
+// search.flush-interval (or every search.flush-docs docs) into an
+// immutable segment file; once there are more than
+// search.merge-factor segments, the smallest run of neighbours is
+// merged into one. The "segments" manifest lists the live
+// segments, oldest first, and the spool files of the last flush.
+// Every instance searches the segments the manifest lists through
+// memory mappings, without locking, and reloads it each interval.
+@Service
+public class TranscriptIndex {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(TranscriptIndex.class);
+
+    private static final String MANIFEST = "segments";
+    private static final String LOCK = "write.lock";
+    private static final String SPOOL = "spool";
+    private static final String SUFFIX = ".vtx";
+    private static final String SPOOLED = ".doc";
+    private static final String DONE = "done ";
+    private static final int MAX_CLAUSES = 16;
+    private static final int MAX_PARAGRAPHS_PER_HIT = 10;
+    private static final int REBUILD_BATCH = 100;
+
+    @Autowired private PdfFonts pdfFonts;
+    @Autowired private ConversionMetrics metrics;
+    @Autowired private ConversionHistory history;
+    @Autowired private MediaCache mediaCache;
+
+    @Value("${search.index-dir}")
+    private String indexDir;
+
+    @Value("${search.flush-docs:256}")
+    private int flushDocs;
+
+    @Value("${search.flush-interval:2s}")
+    private Duration flushInterval;
+
+    @Value("${search.merge-factor:8}")
+    private int mergeFactor;
+
+    private Path dir;
+    private Path spool;
+    private volatile List<IndexSegment> segments = List.of();
+    private ScheduledExecutorService indexer;
+    private FileChannel lockFile;
+
+    // Indexer thread only from here on
+    private FileLock lock;
+    private long generation;
+    private final Map<String, PendingTerm> pendingTerms = new HashMap<>();
+    private final List<Pending> pendingDocs = new ArrayList<>();
+    private final Set<String> pendingFiles = new HashSet<>();
+    // Spool files in the segment being published, until deleted
+    private List<String> consumed = List.of();
+
+    public static final class Hit {
+        public final String videoId;
+        public final String title;
+        public final int matches;
+        // Paragraph numbers (from 1) and their start ms, -1 if untimed
+        public final int[] paragraphs;
+        public final int[] times;
+
+        Hit(String videoId, String title, int matches,
+                int[] paragraphs, int[] times) {
+            this.videoId = videoId;
+            this.title = title;
+            this.matches = matches;
+            this.paragraphs = paragraphs;
+            this.times = times;
+        }
+    }
+
+    // One transcript, inverted: its doc entry and each term's
+    // token positions. This is what a spool file holds.
+    static final class Inverted {
+        final long userId;
+        final IndexSegment.Doc doc;
+        final Map<String, Positions> terms;
+
+        Inverted(long userId, IndexSegment.Doc doc,
+                Map<String, Positions> terms) {
+            this.userId = userId;
+            this.doc = doc;
+            this.terms = terms;
+        }
+
+        // userId, video id, title, paragraph starts (deltas) and
+        // times + 1, then per term its UTF-8 bytes and positions
+        // (count, deltas)
+        byte[] encode() {
+            VarintBuffer out = new VarintBuffer(1024);
+            out.writeLong(userId);
+            out.writeBytes(doc.videoId.getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(doc.title.getBytes(StandardCharsets.UTF_8));
+            int n = doc.paragraphStarts.length;
+            out.writeVarint(n);
+            for (int i = 0, prev = 0; i < n; i++) {
+                out.writeVarint(doc.paragraphStarts[i] - prev);
+                prev = doc.paragraphStarts[i];
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeVarint(doc.paragraphTimes[i] + 1L);
+            }
+            out.writeVarint(terms.size());
+            for (Map.Entry<String, Positions> e : terms.entrySet()) {
+                out.writeBytes(e.getKey().getBytes(StandardCharsets.UTF_8));
+                Positions positions = e.getValue();
+                out.writeVarint(positions.count);
+                for (int i = 0, prev = 0; i < positions.count; i++) {
+                    out.writeVarint(positions.values[i] - prev);
+                    prev = positions.values[i];
+                }
+            }
+            return Arrays.copyOf(out.array(), out.length());
+        }
+
+        static Inverted decode(byte[] bytes) {
+            VarintReader in = new VarintReader(bytes);
+            long userId = in.readLong();
+            String videoId = in.readString();
+            String title = in.readString();
+            int n = count(in);
+            int[] starts = new int[n];
+            int[] times = new int[n];
+            for (int i = 0, pos = 0; i < n; i++) {
+                pos += (int) in.readVarint();
+                starts[i] = pos;
+            }
+            for (int i = 0; i < n; i++) {
+                times[i] = (int) in.readVarint() - 1;
+            }
+            int termCount = count(in);
+            Map<String, Positions> terms = new HashMap<>(termCount * 2);
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readString();
+                Positions positions = new Positions();
+                int count = count(in);
+                for (int i = 0, pos = 0; i < count; i++) {
+                    pos += (int) in.readVarint();
+                    positions.add(pos);
+                }
+                terms.put(term, positions);
+            }
+            if (in.hasMore()) {
+                throw new IllegalArgumentException("Trailing bytes");
+            }
+            return new Inverted(userId, new IndexSegment.Doc(videoId,
+                title, starts, times), terms);
+        }
+
+        private static int count(VarintReader in) {
+            long n = in.readVarint();
+            if (n > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Bad count " + n);
+            }
+            return (int) n;
+        }
+    }
+
+    private static final class Pending {
+        final long userId;
+        final IndexSegment.Doc doc;
+        // null when not from the spool (a rebuild)
+        final String file;
+
+        Pending(long userId, IndexSegment.Doc doc, String file) {
+            this.userId = userId;
+            this.doc = doc;
+            this.file = file;
+        }
+    }
+
+    private static final class PendingTerm {
+        final VarintBuffer postings = new VarintBuffer(32);
+        int lastDoc;
+        int docFreq;
+    }
+
+    static final class Positions {
+        int[] values = new int[4];
+        int count;
+
+        void add(int position) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = position;
+        }
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        dir = Paths.get(indexDir).toAbsolutePath();
+        spool = Files.createDirectories(dir.resolve(SPOOL));
+        lockFile = FileChannel.open(dir.resolve(LOCK),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        reload();
+
+        indexer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "search-indexer");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = flushInterval.toMillis();
+        indexer.scheduleWithFixedDelay(this::tick,
+            0, interval, TimeUnit.MILLISECONDS);
+        log.info("Search index: {} segments, {} docs in {}",
+            segments.size(), segments.stream()
+                .mapToInt(IndexSegment::docCount).sum(), dir);
+    }
+
+    @PreDestroy
+    void close() throws Exception {
+        try {
+            indexer.submit(this::release).get(30, TimeUnit.SECONDS);
+        } finally {
+            indexer.shutdown();
+            lockFile.close();
+        }
+    }
+
+    // Indexer thread only: the owner flushes what is spooled and
+    // hands the index on
+    private void release() {
+        if (lock == null) return;
+        try {
+            ingest();
+        } catch (IOException e) {
+            log.warn("Search spool not read: {}", e.getMessage());
+        }
+        flush();
+        try {
+            lock.release();
+        } catch (IOException e) {
+            log.warn("Search index lock not released: {}",
+                e.getMessage());
+        }
+        lock = null;
+    }
+
+    // Runs one round of the indexer now and waits for it
+    void refresh() throws Exception {
+        indexer.submit(this::tick).get(30, TimeUnit.SECONDS);
+    }
+
+    public void add(Long userId, String videoId, String title,
+            SegmentTable transcript) {
+        if (userId == null) return;
+        spool(invert(userId, videoId, title,
+            TranscriptText.parse(transcript, pdfFonts.regular())));
+    }
+
+    public void add(Long userId, String videoId, String title,
+            String transcript) {
+        if (userId == null) return;
+        spool(invert(userId, videoId, title,
+            TranscriptText.parse(transcript, pdfFonts.regular())));
+    }
+
+    // Named by time, so the owner reads them oldest first
+    private void spool(Inverted doc) {
+        if (doc == null) return;
+        String name = String.format("%016x-%s%s",
+            System.currentTimeMillis(), UUID.randomUUID(), SPOOLED);
+        Path tmp = spool.resolve(name + ".tmp");
+        try {
+            Files.write(tmp, doc.encode());
+            Files.move(tmp, spool.resolve(name),
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Transcript not indexed, spool failed: {}",
+                e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Paragraphs are the PDF's, so hits point at what the user saw
+    private static Inverted invert(long userId, String videoId,
+            String title, TranscriptText text) {
+        Map<String, Positions> terms = new HashMap<>();
+        int paragraphs = text.paragraphCount();
+        int[] starts = new int[paragraphs];
+        int[] times = new int[paragraphs];
+        StringBuilder token = new StringBuilder();
+        int position = 0;
+        for (int p = 0; p < paragraphs; p++) {
+            starts[p] = position;
+            times[p] = text.paragraphTime(p);
+            for (int w = text.paragraphStart(p);
+                    w < text.paragraphEnd(p); w++) {
+                int end = text.wordEnd(w);
+                for (int i = text.wordStart(w); i <= end; i++) {
+                    char c = i < end ? text.source().charAt(i) : ' ';
+                    if (Character.isLetterOrDigit(c)) {
+                        token.append(Character.toLowerCase(c));
+                    } else if (token.length() > 0) {
+                        terms.computeIfAbsent(token.toString(),
+                            k -> new Positions()).add(position++);
+                        token.setLength(0);
+                    }
+                }
+            }
+        }
+        if (terms.isEmpty()) return null;
+
+        return new Inverted(userId, new IndexSegment.Doc(
+            videoId == null ? "" : videoId,
+            title == null ? "" : title, starts, times), terms);
+    }
+
+    private void enqueue(Inverted inverted, String file) {
+        int id = pendingDocs.size();
+        pendingDocs.add(new Pending(inverted.userId, inverted.doc, file));
+        if (file != null) pendingFiles.add(file);
+        for (Map.Entry<String, Positions> e
+                : inverted.terms.entrySet()) {
+            PendingTerm t = pendingTerms.computeIfAbsent(
+                e.getKey(), k -> new PendingTerm());
+            Positions positions = e.getValue();
+            t.postings.writeVarint(id - t.lastDoc);
+            t.postings.writeVarint(positions.count);
+            for (int i = 0, prev = 0; i < positions.count; i++) {
+                t.postings.writeVarint(positions.values[i] - prev);
+                prev = positions.values[i];
+            }
+            t.lastDoc = id;
+            t.docFreq++;
+        }
+    }
+
+    // Every clause must match: words on their own, "quoted words"
+    // as a phrase. Newest conversion of a video only.
+    public List<Hit> search(String username, String query,
+            int limit) {
+        Long userId = history.userId(username);
+        List<byte[][]> clauses = clauses(query);
+        if (userId == null || clauses.isEmpty()) return List.of();
+
+        Timer.Sample sample = metrics.start();
+        List<IndexSegment> current = segments;
+        List<long[]> found = new ArrayList<>();
+        List<Hit> hits = new ArrayList<>();
+        for (int s = current.size() - 1; s >= 0; s--) {
+            search(current.get(s), s, userId, clauses, found, hits);
+        }
+
+        // found: {segment, doc, hit index}; newest first wins
+        found.sort(Comparator.<long[]>comparingLong(f -> f[0])
+            .thenComparingLong(f -> f[1]).reversed());
+        Set<String> seen = new HashSet<>();
+        List<Hit> result = new ArrayList<>();
+        for (long[] f : found) {
+            Hit hit = hits.get((int) f[2]);
+            if (hit.videoId.isEmpty() || seen.add(hit.videoId)) {
+                result.add(hit);
+            }
+        }
+        result.sort(Comparator.comparingInt((Hit h) -> -h.matches));
+        sample.stop(metrics.search());
+        return result.size() > limit
+            ? result.subList(0, limit) : result;
+    }
+
+    private static void search(IndexSegment seg, int segIndex,
+            long userId, List<byte[][]> clauses, List<long[]> found,
+            List<Hit> hits) {
+        // A term missing from the segment rules out all its docs
+        IndexSegment.Postings[][] postings =
+            new IndexSegment.Postings[clauses.size()][];
+        List<IndexSegment.Postings> all = new ArrayList<>();
+        for (int c = 0; c < clauses.size(); c++) {
+            byte[][] terms = clauses.get(c);
+            postings[c] = new IndexSegment.Postings[terms.length];
+            for (int t = 0; t < terms.length; t++) {
+                int ord = seg.find(terms[t]);
+                if (ord < 0) return;
+                postings[c][t] = seg.postings(ord);
+                all.add(postings[c][t]);
+            }
+        }
+
+        int doc = 0;
+        while (true) {
+            // Leapfrog until every term is on the same doc
+            boolean agree;
+            do {
+                agree = true;
+                for (IndexSegment.Postings p : all) {
+                    int d = p.advance(doc);
+                    if (d == IndexSegment.NO_MORE_DOCS) return;
+                    if (d > doc) {
+                        doc = d;
+                        agree = false;
+                    }
+                }
+            } while (!agree);
+
+            if (seg.user(doc) == userId) {
+                Hit hit = match(seg, doc, postings);
+                if (hit != null) {
+                    found.add(new long[] {segIndex, doc, hits.size()});
+                    hits.add(hit);
+                }
+            }
+            doc++;
+        }
+    }
+
+    private static Hit match(IndexSegment seg, int doc,
+            IndexSegment.Postings[][] clauses) {
+        Positions matched = new Positions();
+        for (IndexSegment.Postings[] phrase : clauses) {
+            int before = matched.count;
+            int[] first = phrase[0].positions();
+            for (int i = 0; i < phrase[0].freq(); i++) {
+                if (follows(phrase, first[i])) matched.add(first[i]);
+            }
+            if (matched.count == before) return null;
+        }
+
+        IndexSegment.Doc d = seg.doc(doc);
+        int[] paragraphs = new int[MAX_PARAGRAPHS_PER_HIT];
+        int n = 0;
+        int[] sorted = Arrays.copyOf(matched.values, matched.count);
+        Arrays.sort(sorted);
+        for (int position : sorted) {
+            int p = d.paragraphAt(position);
+            if (n > 0 && paragraphs[n - 1] == p) continue;
+            paragraphs[n++] = p;
+            if (n == paragraphs.length) break;
+        }
+        int[] times = new int[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = d.paragraphTimes[paragraphs[i]];
+            paragraphs[i]++;
+        }
+        return new Hit(d.videoId, d.title, matched.count,
+            Arrays.copyOf(paragraphs, n), times);
+    }
+
+    // True when term k of the phrase is at start + k, for every k
+    private static boolean follows(IndexSegment.Postings[] phrase,
+            int start) {
+        for (int k = 1; k < phrase.length; k++) {
+            if (Arrays.binarySearch(phrase[k].positions(), 0,
+                    phrase[k].freq(), start + k) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Tokenized like the transcripts: lower-cased letter and digit
+    // runs. Odd parts between quotes are phrases.
+    static List<byte[][]> clauses(String query) {
+        List<byte[][]> clauses = new ArrayList<>();
+        if (query == null) return clauses;
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> tokens = tokens(parts[i]);
+            if (i % 2 == 1 && !tokens.isEmpty()) {
+                clauses.add(utf8(tokens));
+            } else {
+                for (String token : tokens) {
+                    clauses.add(utf8(List.of(token)));
+                }
+            }
+        }
+        return clauses.size() > MAX_CLAUSES
+            ? clauses.subList(0, MAX_CLAUSES) : clauses;
+    }
+
+    private static List<String> tokens(String s) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= s.length(); i++) {
+            char c = i < s.length() ? s.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static byte[][] utf8(List<String> tokens) {
+        byte[][] terms = new byte[tokens.size()][];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = tokens.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return terms;
+    }
+
+    // Indexer thread only. The owner takes in the spool and
+    // flushes; everyone else follows the manifest.
+    private void tick() {
+        try {
+            if (lock == null && !acquire()) {
+                reload();
+                return;
+            }
+            ingest();
+            flush();
+        } catch (Exception e) {
+            log.warn("Search index update failed: {}", e.getMessage());
+        }
+    }
+
+    // True once this instance owns the index
+    private boolean acquire() throws IOException {
+        try {
+            lock = lockFile.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another index in this process
+            lock = null;
+        }
+        if (lock == null) return false;
+
+        boolean fresh = !Files.exists(dir.resolve(MANIFEST));
+        // A flush that published but did not get to delete its
+        // spool files
+        for (String file : reload()) {
+            Files.deleteIfExists(spool.resolve(file));
+        }
+        Set<String> live = new HashSet<>();
+        for (IndexSegment seg : segments) {
+            live.add(seg.name());
+            generation = Math.max(generation, generation(seg.name()));
+        }
+        // Leftovers of a flush or merge that did not finish
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        log.info("Search index owned by this instance");
+        if (fresh) rebuild();
+        return true;
+    }
+
+    // Opens the segments the manifest lists, keeping those already
+    // open, and returns the spool files it marks done
+    private List<String> reload() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return List.of();
+        List<String> names = new ArrayList<>();
+        List<String> done = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest)) {
+            if (line.startsWith(DONE)) {
+                done.add(line.substring(DONE.length()));
+            } else if (!line.isBlank()) {
+                names.add(line);
+            }
+        }
+        List<IndexSegment> current = segments;
+        if (current.stream().map(IndexSegment::name).toList()
+                .equals(names)) {
+            return done;
+        }
+        Map<String, IndexSegment> open = new HashMap<>();
+        for (IndexSegment seg : current) open.put(seg.name(), seg);
+        List<IndexSegment> next = new ArrayList<>(names.size());
+        for (String name : names) {
+            IndexSegment seg = open.get(name);
+            next.add(seg != null ? seg : IndexSegment.open(dir.resolve(name)));
+        }
+        segments = List.copyOf(next);
+        return done;
+    }
+
+    // Spool files not yet pending, oldest first; an unreadable one
+    // is removed rather than retried forever
+    private void ingest() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds =
+                Files.newDirectoryStream(spool, "*" + SPOOLED)) {
+            for (Path file : ds) files.add(file);
+        }
+        files.sort(Comparator.comparing(Path::getFileName));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (pendingFiles.contains(name)) continue;
+            Inverted doc;
+            try {
+                doc = Inverted.decode(Files.readAllBytes(file));
+            } catch (NoSuchFileException e) {
+                continue;
+            } catch (RuntimeException e) {
+                log.warn("Unreadable search spool file {} removed: {}",
+                    name, e.getMessage());
+                Files.deleteIfExists(file);
+                continue;
+            }
+            enqueue(doc, name);
+            if (pendingDocs.size() >= flushDocs) flush();
+        }
+    }
+
+    // A new or lost index: uploads whose transcript is still in the
+    // media cache are indexed again. YouTube transcripts are not
+    // kept, so those come back when the video is converted again.
+    private void rebuild() throws IOException {
+        int docs = 0;
+        long after = 0;
+        List<Conversion> batch;
+        do {
+            batch = history.uploads(after, REBUILD_BATCH);
+            for (Conversion c : batch) {
+                after = c.getId();
+                String transcript =
+                    mediaCache.transcript(c.getUploadHash());
+                if (transcript == null) continue;
+                String title = c.getTitle() == null ? "" : c.getTitle();
+                int dot = title.lastIndexOf('.');
+                Inverted doc = invert(c.getUserId(), "",
+                    dot > 0 ? title.substring(0, dot) : title,
+                    TranscriptText.parse(transcript, pdfFonts.regular()));
+                if (doc == null) continue;
+                enqueue(doc, null);
+                docs++;
+                if (pendingDocs.size() >= flushDocs) flush();
+            }
+        } while (batch.size() == REBUILD_BATCH);
+        flush();
+        if (!Files.exists(dir.resolve(MANIFEST))) publish(segments);
+        log.info("Search index rebuilt from {} cached uploads", docs);
+    }
+
+    // The spool files go once the segment is published; if it is
+    // not, they stay and are read again on the next round
+    private void flush() {
+        if (pendingDocs.isEmpty()) return;
+        List<Pending> docs = new ArrayList<>(pendingDocs);
+        Map<String, PendingTerm> terms = new HashMap<>(pendingTerms);
+        pendingDocs.clear();
+        pendingTerms.clear();
+        pendingFiles.clear();
+        List<String> files = new ArrayList<>();
+        for (Pending p : docs) {
+            if (p.file != null) files.add(p.file);
+        }
+
+        try {
+            Map<byte[], PendingTerm> sorted =
+                new TreeMap<>(Arrays::compareUnsigned);
+            for (Map.Entry<String, PendingTerm> e : terms.entrySet()) {
+                sorted.put(e.getKey().getBytes(StandardCharsets.UTF_8),
+                    e.getValue());
+            }
+
+            Path file = dir.resolve(nextName());
+            try (IndexSegment.Writer w = new IndexSegment.Writer(file)) {
+                for (Pending p : docs) w.addDoc(p.userId, p.doc);
+                for (Map.Entry<byte[], PendingTerm> e
+                        : sorted.entrySet()) {
+                    w.addTerm(e.getKey(), e.getValue().docFreq,
+                        e.getValue().postings);
+                }
+                w.finish();
+            }
+            List<IndexSegment> next = new ArrayList<>(segments);
+            next.add(IndexSegment.open(file));
+            consumed = files;
+            publish(next);
+            log.debug("Flushed {} docs to {}", docs.size(), file);
+        } catch (Exception e) {
+            consumed = List.of();
+            log.error("Search index flush failed, {} docs stay "
+                + "spooled: {}", docs.size(), e.getMessage());
+            return;
+        }
+        for (String file : files) {
+            try {
+                Files.deleteIfExists(spool.resolve(file));
+            } catch (IOException e) {
+                log.warn("Could not remove search spool file {}: {}",
+                    file, e.getMessage());
+            }
+        }
+        consumed = List.of();
+        try {
+            merge();
+        } catch (IOException e) {
+            log.warn("Search index merge failed: {}", e.getMessage());
+        }
+    }
+
+    // Merges the neighbouring run of merge-factor segments with
+    // the fewest docs until at most merge-factor remain
+    private void merge() throws IOException {
+        while (segments.size() > mergeFactor) {
+            List<IndexSegment> current = segments;
+            int best = 0;
+            long bestDocs = Long.MAX_VALUE;
+            for (int i = 0; i + mergeFactor <= current.size(); i++) {
+                long docs = 0;
+                for (int j = i; j < i + mergeFactor; j++) {
+                    docs += current.get(j).docCount();
+                }
+                if (docs < bestDocs) {
+                    best = i;
+                    bestDocs = docs;
+                }
+            }
+
+            List<IndexSegment> run =
+                current.subList(best, best + mergeFactor);
+            Path file = dir.resolve(nextName());
+            IndexSegment.merge(run, file);
+            List<IndexSegment> next =
+                new ArrayList<>(current.subList(0, best));
+            next.add(IndexSegment.open(file));
+            next.addAll(current.subList(best + mergeFactor,
+                current.size()));
+            publish(next);
+            // Searches still reading them keep their mappings
+            for (IndexSegment seg : run) {
+                Files.deleteIfExists(dir.resolve(seg.name()));
+            }
+            log.info("Merged {} search segments ({} docs) into {}",
+                run.size(), bestDocs, file.getFileName());
+        }
+    }
+
+    private void publish(List<IndexSegment> next) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (IndexSegment seg : next) sb.append(seg.name()).append('\n');
+        for (String file : consumed) {
+            sb.append(DONE).append(file).append('\n');
+        }
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        Files.writeString(tmp, sb);
+        Files.move(tmp, dir.resolve(MANIFEST),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        segments = List.copyOf(next);
+    }
+
+    private String nextName() {
+        return String.format("seg-%08d%s", ++generation, SUFFIX);
+    }
+
+    private static long generation(String name) {
+        try {
+            return Long.parseLong(name.substring(
+                name.indexOf('-') + 1, name.length() - SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.videotopdf.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Pagination of a parsed transcript, fixed before anything is drawn:
+// which word ranges form each line and which lines go on each page.
+// Paragraphs are kept on one page when they fit; a paragraph taller
+// than a whole page continues on the next one.
+final class TranscriptLayout {
+
+    private int[] lines = new int[512];
+    private int lineCount;
+    private final BitSet gapBefore = new BitSet();
+    private final BitSet opensParagraph = new BitSet();
+    private int[] pages = new int[16];
+    private int pageCount;
+
+    private TranscriptLayout() {}
+
+    static TranscriptLayout paginate(TranscriptText text,
+            FontChain chain, float fontSize, float maxWidth,
+            float top, float bottom, float lineHeight,
+            float paraSpacing) {
+        TranscriptLayout layout = new TranscriptLayout();
+        LineBreaker breaker = new LineBreaker();
+        float y = 0;
+
+        for (int p = 0; p < text.paragraphCount(); p++) {
+            int n = breaker.breakWords(text,
+                text.paragraphStart(p), text.paragraphEnd(p),
+                chain, fontSize, maxWidth);
+
+            // Check if this paragraph fits
+            float needed = n * lineHeight + paraSpacing;
+            boolean newPage = layout.pageCount == 0
+                || y - needed < bottom;
+            if (newPage) {
+                layout.addPage();
+                y = top;
+            }
+
+            for (int i = 0; i < n; i++) {
+                boolean gap = i == 0 && !newPage;
+                if (i > 0 && y - lineHeight - paraSpacing < bottom) {
+                    layout.addPage();
+                    y = top;
+                }
+                layout.addLine(breaker.lineStart(i),
+                    breaker.lineEnd(i), gap, i == 0);
+                y -= lineHeight;
+            }
+            y -= paraSpacing;
+        }
+        return layout;
+    }
+
+    private void addPage() {
+        if (pageCount + 1 > pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        }
+        pages[pageCount++] = lineCount;
+    }
+
+    private void addLine(int fromWord, int toWord, boolean gap,
+            boolean first) {
+        if (2 * lineCount + 2 > lines.length) {
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        lines[2 * lineCount] = fromWord;
+        lines[2 * lineCount + 1] = toWord;
+        if (gap) gapBefore.set(lineCount);
+        if (first) opensParagraph.set(lineCount);
+        lineCount++;
+    }
+
+    int pageCount() { return pageCount; }
+
+    int pageStart(int page) { return pages[page]; }
+
+    int pageEnd(int page) {
+        return page + 1 < pageCount ? pages[page + 1] : lineCount;
+    }
+
+    int lineFromWord(int line) { return lines[2 * line]; }
+
+    int lineToWord(int line) { return lines[2 * line + 1]; }
+
+    // True when paragraph spacing precedes the line on its page
+    boolean gapBefore(int line) { return gapBefore.get(line); }
+
+    // True for the first line of a paragraph
+    boolean opensParagraph(int line) {
+        return opensParagraph.get(line);
+    }
+}
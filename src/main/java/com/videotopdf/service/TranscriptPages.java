@@ -0,0 +1,125 @@
+package com.videotopdf.service;
+
+import java.io.IOException;
+import java.util.Map;
+
+// Writes the content stream of one paginated transcript page. All
+// state is read-only once constructed, so pages can be written on
+// any thread and in any order; the bytes only depend on the page.
+final class TranscriptPages implements ParallelPages.Source {
+
+    private static final float STAMP_SIZE = 8;
+    // Paragraph times sit this far left of the text, in the margin
+    private static final float STAMP_INDENT = 40;
+
+    private final TranscriptText text;
+    private final TranscriptLayout layout;
+    private final FontChain chain;
+    private final Map<FontFace, String> fontNames;
+    private final String headerForm;
+    private final String footerForm;
+    private final float fontSize;
+    private final float left;
+    private final float top;
+    private final float lineHeight;
+    private final float paraSpacing;
+    private final boolean timestamps;
+
+    TranscriptPages(TranscriptText text, TranscriptLayout layout,
+            FontChain chain, Map<FontFace, String> fontNames,
+            String headerForm, String footerForm, float fontSize,
+            float left, float top, float lineHeight,
+            float paraSpacing, boolean timestamps) {
+        this.text = text;
+        this.layout = layout;
+        this.chain = chain;
+        this.fontNames = fontNames;
+        this.headerForm = headerForm;
+        this.footerForm = footerForm;
+        this.fontSize = fontSize;
+        this.left = left;
+        this.top = top;
+        this.lineHeight = lineHeight;
+        this.paraSpacing = paraSpacing;
+        this.timestamps = timestamps && text.timed();
+    }
+
+    @Override
+    public int count() { return layout.pageCount(); }
+
+    @Override
+    public byte[] write(int page) throws IOException {
+        PageContentWriter w = new PageContentWriter(fontNames);
+        w.drawForm(headerForm);
+        w.drawForm(footerForm);
+
+        // One text object for the body, BLACK text
+        w.beginText(0f, 0f, 0f, lineHeight);
+        w.moveText(left, top);
+        StringBuilder line = new StringBuilder(128);
+        int first = layout.pageStart(page);
+        for (int l = first; l < layout.pageEnd(page); l++) {
+            if (l > first) {
+                if (layout.gapBefore(l)) {
+                    w.moveText(0, -(lineHeight + paraSpacing));
+                } else {
+                    w.nextLine();
+                }
+            }
+            line.setLength(0);
+            text.appendWords(line, layout.lineFromWord(l),
+                layout.lineToWord(l), chain);
+            w.showText(line.toString().trim(), chain, fontSize);
+        }
+        w.endText();
+        if (timestamps) writeTimes(w, page);
+
+        // Page number
+        w.beginText(0.4f, 0.4f, 0.4f, 0);
+        w.moveText(left, 20);
+        w.showText(pageLabel(page + 1), chain, 9);
+        w.endText();
+        return w.finish();
+    }
+
+    // Start time beside each paragraph's first line, GREY text
+    private void writeTimes(PageContentWriter w, int page)
+            throws IOException {
+        float y = top;
+        float drawnAt = 0;
+        boolean begun = false;
+        int first = layout.pageStart(page);
+        for (int l = first; l < layout.pageEnd(page); l++) {
+            if (l > first) {
+                y -= layout.gapBefore(l)
+                    ? lineHeight + paraSpacing : lineHeight;
+            }
+            if (!layout.opensParagraph(l)) continue;
+            int ms = text.paragraphTime(
+                text.paragraphOf(layout.lineFromWord(l)));
+            if (ms < 0) continue;
+            if (!begun) {
+                w.beginText(0.5f, 0.5f, 0.5f, 0);
+                w.moveText(left - STAMP_INDENT, y);
+                begun = true;
+            } else {
+                w.moveText(0, y - drawnAt);
+            }
+            drawnAt = y;
+            w.showText(timestamp(ms), chain, STAMP_SIZE);
+        }
+        if (begun) w.endText();
+    }
+
+    // m:ss, or h:mm:ss from an hour on
+    static String timestamp(int ms) {
+        int s = ms / 1000;
+        return s >= 3600
+            ? String.format("%d:%02d:%02d", s / 3600, s / 60 % 60, s % 60)
+            : String.format("%d:%02d", s / 60, s % 60);
+    }
+
+    static String pageLabel(int pageNum) {
+        return "VideoToPdf  |  Page " + pageNum;
+    }
+}
@@ -0,0 +1,241 @@
+package com.videotopdf.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// A transcript scanned once, char by char: [mm:ss] and [hh:mm:ss]
+// timestamps are skipped, whitespace runs collapse to word breaks
+// and every 4 non-empty lines close a paragraph. Words are kept as
+// offsets into the original text, so nothing is copied until a
+// line is actually drawn. A timed segment table is scanned the same
+// way over its shared buffer, but paragraphs follow the clock: one
+// closes at the first segment PARAGRAPH_MS after its own start.
+// A stamp inside a word is cut out and the word goes on, as the
+// old regex did; only then is the text copied, from that point.
+final class TranscriptText {
+
+    private static final int LINES_PER_PARAGRAPH = 4;
+    private static final int PARAGRAPH_MS = 30_000;
+
+    private CharSequence source;
+    private final SegmentTable segments;
+    private int[] words = new int[256];
+    private int wordCount;
+    private int[] paragraphs = new int[16];
+    private int[] paragraphTimes;
+    private int paragraphCount;
+    private int unsupportedChars;
+    private final BitSet usedChars = new BitSet();
+
+    private TranscriptText(CharSequence source,
+            SegmentTable segments) {
+        this.source = source;
+        this.segments = segments;
+        if (segments != null) paragraphTimes = new int[16];
+    }
+
+    static TranscriptText parse(CharSequence text,
+            FontChain fonts) {
+        TranscriptText t =
+            new TranscriptText(text == null ? "" : text, null);
+        t.scan(fonts);
+        return t;
+    }
+
+    static TranscriptText parse(SegmentTable table,
+            FontChain fonts) {
+        TranscriptText t = new TranscriptText(table.text(),
+            table.timed() ? table : null);
+        t.scan(fonts);
+        return t;
+    }
+
+    private void scan(FontChain fonts) {
+        CharSequence s = source;
+        int len = s.length();
+        int wordStart = -1;
+        int paraFirstWord = 0;
+        int linesInPara = 0;
+        boolean lineHasWord = false;
+        // Timed only: segment at i, start of the open paragraph
+        int segment = 0;
+        int paraStartMs = 0;
+        // The text without glued stamps, once one is found; word
+        // offsets then point into it
+        StringBuilder copy = null;
+
+        int i = 0;
+        while (i < len) {
+            char c = s.charAt(i);
+            int at = copy == null ? i : copy.length();
+
+            int stamp = c == '[' && segments == null
+                ? timestampLength(s, i) : 0;
+            if (stamp > 0) {
+                // Like "\s*" after a timestamp: newlines go too
+                int next = i + stamp;
+                while (next < len && isSpace(s.charAt(next))) next++;
+                if (wordStart >= 0 && next < len) {
+                    if (copy == null) {
+                        copy = new StringBuilder(len).append(s, 0, i);
+                    }
+                } else if (wordStart >= 0) {
+                    addWord(wordStart, at);
+                    wordStart = -1;
+                    lineHasWord = true;
+                }
+                i = next;
+                continue;
+            }
+
+            if (isSpace(c)) {
+                if (wordStart >= 0) {
+                    addWord(wordStart, at);
+                    wordStart = -1;
+                    lineHasWord = true;
+                }
+                if (c == '\n' && segments != null) {
+                    segment++;
+                    if (wordCount > paraFirstWord
+                            && segment < segments.size()
+                            && segments.start(segment) - paraStartMs
+                                >= PARAGRAPH_MS) {
+                        addParagraph(paraFirstWord, paraStartMs);
+                        paraFirstWord = wordCount;
+                    }
+                } else if (c == '\n' && lineHasWord) {
+                    lineHasWord = false;
+                    if (++linesInPara >= LINES_PER_PARAGRAPH) {
+                        addParagraph(paraFirstWord, -1);
+                        paraFirstWord = wordCount;
+                        linesInPara = 0;
+                    }
+                }
+            } else {
+                if (wordStart < 0) {
+                    wordStart = at;
+                    if (segments != null && wordCount == paraFirstWord) {
+                        paraStartMs = segments.start(segment);
+                    }
+                }
+                if (fonts.supports(c)) {
+                    usedChars.set(c);
+                } else {
+                    unsupportedChars++;
+                }
+            }
+            if (copy != null) copy.append(c);
+            i++;
+        }
+
+        if (copy != null) source = copy;
+        if (wordStart >= 0) {
+            addWord(wordStart, copy == null ? len : copy.length());
+        }
+        if (wordCount > paraFirstWord) {
+            addParagraph(paraFirstWord,
+                segments != null ? paraStartMs : -1);
+        }
+    }
+
+    // Length of "[dd:dd]" or "[dd:dd:dd]" starting at i, else 0
+    private static int timestampLength(CharSequence s, int i) {
+        int j = i + 1;
+        for (int group = 0; group < 3; group++) {
+            if (j + 2 > s.length()
+                    || !isDigit(s.charAt(j))
+                    || !isDigit(s.charAt(j + 1))) {
+                return 0;
+            }
+            j += 2;
+            if (j >= s.length()) return 0;
+            char sep = s.charAt(j);
+            if (sep == ']' && group > 0) return j + 1 - i;
+            if (sep != ':' || group == 2) return 0;
+            j++;
+        }
+        return 0;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c)
+            || Character.isISOControl(c);
+    }
+
+    private void addWord(int start, int end) {
+        if (2 * wordCount + 2 > words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        words[2 * wordCount] = start;
+        words[2 * wordCount + 1] = end;
+        wordCount++;
+    }
+
+    private void addParagraph(int firstWord, int startMs) {
+        if (paragraphCount + 1 > paragraphs.length) {
+            paragraphs = Arrays.copyOf(paragraphs,
+                paragraphs.length * 2);
+            if (paragraphTimes != null) {
+                paragraphTimes = Arrays.copyOf(paragraphTimes,
+                    paragraphs.length);
+            }
+        }
+        if (paragraphTimes != null) {
+            paragraphTimes[paragraphCount] = startMs;
+        }
+        paragraphs[paragraphCount++] = firstWord;
+    }
+
+    CharSequence source() { return source; }
+
+    int wordCount() { return wordCount; }
+
+    int wordStart(int word) { return words[2 * word]; }
+
+    int wordEnd(int word) { return words[2 * word + 1]; }
+
+    int paragraphCount() { return paragraphCount; }
+
+    int paragraphStart(int para) { return paragraphs[para]; }
+
+    int paragraphEnd(int para) {
+        return para + 1 < paragraphCount
+            ? paragraphs[para + 1] : wordCount;
+    }
+
+    // True when paragraphs carry start times
+    boolean timed() { return paragraphTimes != null; }
+
+    // Start of the paragraph's first segment in ms, -1 if untimed
+    int paragraphTime(int para) {
+        return paragraphTimes != null ? paragraphTimes[para] : -1;
+    }
+
+    // Paragraph containing the word
+    int paragraphOf(int word) {
+        int i = Arrays.binarySearch(paragraphs, 0, paragraphCount, word);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    // Characters no configured font can draw; they render as spaces
+    int unsupportedChars() { return unsupportedChars; }
+
+    // Every drawable character in the transcript, for font subsets
+    BitSet usedChars() { return usedChars; }
+
+    // Appends words [fromWord, toWord) separated by single spaces
+    void appendWords(StringBuilder out, int fromWord, int toWord,
+            FontChain fonts) {
+        for (int w = fromWord; w < toWord; w++) {
+            if (w > fromWord) out.append(' ');
+            for (int i = wordStart(w), end = wordEnd(w); i < end; i++) {
+                char c = source.charAt(i);
+                out.append(fonts.supports(c) ? c : ' ');
+            }
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.videotopdf.service;
 
+import io.micrometer.core.instrument.Timer;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
@@ -9,46 +14,169 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 public class TranslationService {
 
+    private static final Logger log =
+        LoggerFactory.getLogger(TranslationService.class);
+
     private static final int CHUNK_SIZE = 400;
 
+    @Value("${translation.api.url}")
+    private String apiUrl;
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    @Autowired
+    private PipelineStages stages;
+
     public String translateToEnglish(String text, String sourceLang)
             throws Exception {
         if (sourceLang == null || sourceLang.startsWith("en")) {
             return text;
         }
 
-        // Split into chunks to respect API limits
+        Timer.Sample total = metrics.start();
+        try {
+            StringBuilder result = new StringBuilder();
+            List<String> chunks = chunks(text);
+            for (int i = 0; i < chunks.size(); i++) {
+                if (i > 0) result.append("\n");
+                Timer.Sample chunk = metrics.start();
+                try {
+                    String part = chunks.get(i);
+                    result.append(stages.translate().call(
+                        () -> translateChunk(part, sourceLang)));
+                } finally {
+                    chunk.stop(metrics.translationChunk());
+                }
+            }
+            return result.toString();
+        } finally {
+            total.stop(metrics.translation());
+        }
+    }
+
+    // Segments are sent in runs of up to CHUNK_SIZE chars, one per
+    // line, straight from the table's buffer. Timings carry over.
+    public SegmentTable translateToEnglish(SegmentTable table,
+            String sourceLang) throws Exception {
+        if (sourceLang == null || sourceLang.startsWith("en")) {
+            return table;
+        }
+        if (!table.timed()) {
+            return SegmentTable.untimed(translateToEnglish(
+                table.text().toString(), sourceLang));
+        }
+
+        Timer.Sample total = metrics.start();
+        try {
+            SegmentTable result = SegmentTable.newTimed();
+            StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 64);
+            int from = 0;
+            while (from < table.size()) {
+                int to = from;
+                chunk.setLength(0);
+                do {
+                    chunk.append(table.text(to)).append('\n');
+                    to++;
+                } while (to < table.size() && chunk.length()
+                    + table.textEnd(to) - table.textStart(to)
+                    <= CHUNK_SIZE);
+
+                Timer.Sample sample = metrics.start();
+                String translated;
+                try {
+                    String part = chunk.toString();
+                    translated = stages.translate().call(
+                        () -> translateChunk(part, sourceLang));
+                } finally {
+                    sample.stop(metrics.translationChunk());
+                }
+                addTranslated(result, table, from, to, translated);
+                from = to;
+            }
+            return result;
+        } finally {
+            total.stop(metrics.translation());
+        }
+    }
+
+    // A chunk that comes back with a different line count is spread
+    // over its segments word by word, in proportion to the length
+    // of each segment's source text
+    private void addTranslated(SegmentTable result, SegmentTable table,
+            int from, int to, String translated) {
+        String stripped = translated.strip();
+        String[] lines = stripped.split("\n", -1);
+        if (lines.length == to - from) {
+            for (int i = from; i < to; i++) {
+                String text = lines[i - from];
+                result.add(table.start(i), table.duration(i),
+                    text, 0, text.length());
+            }
+            return;
+        }
+
+        metrics.misalignedChunks().increment();
+        log.warn("Translation of segments {}-{} came back as {} lines;"
+            + " spread by length", from, to - 1, lines.length);
+        String[] words = stripped.isEmpty()
+            ? new String[0] : stripped.split("\\s+");
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += table.textEnd(i) - table.textStart(i);
+        }
+        StringBuilder text = new StringBuilder();
+        long source = 0;
+        int word = 0;
+        for (int i = from; i < to; i++) {
+            source += table.textEnd(i) - table.textStart(i);
+            int end = i == to - 1 || total == 0 ? words.length
+                : (int) Math.round((double) words.length * source / total);
+            text.setLength(0);
+            for (; word < end; word++) {
+                if (text.length() > 0) text.append(' ');
+                text.append(words[word]);
+            }
+            result.add(table.start(i), table.duration(i),
+                text, 0, text.length());
+        }
+    }
+
+    // Split into chunks to respect API limits
+    static List<String> chunks(String text) {
+        List<String> chunks = new ArrayList<>();
         String[] lines = text.split("\n");
-        StringBuilder result = new StringBuilder();
 
         StringBuilder chunk = new StringBuilder();
         for (String line : lines) {
             if (chunk.length() + line.length() > CHUNK_SIZE) {
-                result.append(translateChunk(chunk.toString(), sourceLang));
-                result.append("\n");
+                chunks.add(chunk.toString());
                 chunk = new StringBuilder();
             }
             chunk.append(line).append("\n");
         }
 
         if (chunk.length() > 0) {
-            result.append(translateChunk(chunk.toString(), sourceLang));
+            chunks.add(chunk.toString());
         }
-
-        return result.toString();
+        return chunks;
     }
 
+    // One API call, on the translate stage
     private String translateChunk(String text, String sourceLang)
             throws Exception {
         if (text.trim().isEmpty()) return text;
 
         String encoded = URLEncoder.encode(text, StandardCharsets.UTF_8);
-        String langPair = sourceLang + "|en";
-        String urlStr = "https://api.mymemory.translated.net/get"
+        String langPair = URLEncoder.encode(
+            sourceLang + "|en", StandardCharsets.UTF_8);
+        String urlStr = apiUrl
                 + "?q=" + encoded
                 + "&langpair=" + langPair;
 
@@ -76,6 +204,7 @@ public class TranslationService {
                        .getString("translatedText");
         }
 
+        metrics.untranslatedChunks().increment();
         return text; // Return original if translation fails
     }
 
@@ -0,0 +1,68 @@
+package com.videotopdf.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// A growable byte array written in the index's encodings: unsigned
+// LEB128 varints (7 bits per byte, high bit set on all but the last)
+// and big-endian fixed-width ints and longs.
+final class VarintBuffer {
+
+    private byte[] bytes;
+    private int length;
+
+    VarintBuffer(int capacity) {
+        bytes = new byte[Math.max(16, capacity)];
+    }
+
+    void writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+        ensure(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    // Length-prefixed
+    void writeBytes(byte[] b) {
+        writeVarint(b.length);
+        write(b, 0, b.length);
+    }
+
+    void write(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, bytes, length, len);
+        length += len;
+    }
+
+    int length() { return length; }
+
+    byte[] array() { return bytes; }
+
+    void clear() { length = 0; }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes,
+                Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
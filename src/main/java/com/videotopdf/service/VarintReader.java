@@ -0,0 +1,68 @@
+package com.videotopdf.service;
+
+import java.nio.charset.StandardCharsets;
+
+// Reads back what a VarintBuffer wrote. Running past the end throws
+// IllegalArgumentException.
+final class VarintReader {
+
+    private final byte[] bytes;
+    private final int end;
+    private int pos;
+
+    VarintReader(byte[] bytes) {
+        this(bytes, bytes.length);
+    }
+
+    VarintReader(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.end = length;
+    }
+
+    long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = next();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    int readInt() {
+        int value = 0;
+        for (int i = 0; i < 4; i++) value = value << 8 | (next() & 0xFF);
+        return value;
+    }
+
+    long readLong() {
+        return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+    }
+
+    // Length-prefixed
+    byte[] readBytes() {
+        long n = readVarint();
+        if (n > end - pos) {
+            throw new IllegalArgumentException("Truncated bytes");
+        }
+        byte[] b = new byte[(int) n];
+        System.arraycopy(bytes, pos, b, 0, b.length);
+        pos += b.length;
+        return b;
+    }
+
+    String readString() {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    boolean hasMore() {
+        return pos < end;
+    }
+
+    private byte next() {
+        if (pos >= end) {
+            throw new IllegalArgumentException("Read past the end");
+        }
+        return bytes[pos++];
+    }
+}
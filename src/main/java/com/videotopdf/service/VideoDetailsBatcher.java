@@ -0,0 +1,115 @@
+package com.videotopdf.service;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Collects concurrent videos.list lookups into one call of up to
+// maxIds ids. The first caller of a batch leads it: with no call in
+// flight it goes at once; otherwise it waits until the calls in
+// flight are done, the window is out or the batch is full, so a
+// batch grows only while there is a call to wait for anyway. It
+// makes the call on its own thread and hands every waiter its item.
+// A missing or private video only fails its own callers; a failed
+// call fails the batch.
+final class VideoDetailsBatcher {
+
+    interface Fetcher {
+        // id -> videos.list item; absent ids were not returned
+        Map<String, JSONObject> fetch(List<String> ids)
+            throws Exception;
+    }
+
+    private static final class Batch {
+        final Map<String, CompletableFuture<JSONObject>> waiters =
+            new LinkedHashMap<>();
+    }
+
+    private final Fetcher fetcher;
+    private final long windowNanos;
+    private final int maxIds;
+    private Batch open;
+    // Calls being made; both guarded by this
+    private int inFlight;
+
+    VideoDetailsBatcher(Fetcher fetcher, long windowNanos,
+            int maxIds) {
+        this.fetcher = fetcher;
+        this.windowNanos = windowNanos;
+        this.maxIds = maxIds;
+    }
+
+    // null when the video is missing or private
+    JSONObject load(String id) throws Exception {
+        Batch batch;
+        boolean leader = false;
+        CompletableFuture<JSONObject> result;
+        synchronized (this) {
+            if (open == null) {
+                open = new Batch();
+                leader = true;
+            }
+            batch = open;
+            result = batch.waiters.computeIfAbsent(
+                id, k -> new CompletableFuture<>());
+            if (batch.waiters.size() >= maxIds) {
+                open = null;
+                notifyAll();
+            }
+        }
+        if (leader) lead(batch);
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception
+                ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void lead(Batch batch) {
+        boolean interrupted = false;
+        synchronized (this) {
+            long deadline = System.nanoTime() + windowNanos;
+            long left;
+            while (open == batch && inFlight > 0
+                    && (left = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (open == batch) open = null;
+            inFlight++;
+        }
+
+        // Closed, so the waiters map no longer changes
+        try {
+            Map<String, JSONObject> items = fetcher.fetch(
+                new ArrayList<>(batch.waiters.keySet()));
+            batch.waiters.forEach((id, waiter) ->
+                waiter.complete(items.get(id)));
+        } catch (Exception e) {
+            batch.waiters.values().forEach(waiter ->
+                waiter.completeExceptionally(e));
+        } catch (Throwable t) {
+            batch.waiters.values().forEach(waiter ->
+                waiter.completeExceptionally(t));
+            throw t;
+        } finally {
+            synchronized (this) {
+                inFlight--;
+                notifyAll();
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -1,21 +1,104 @@
 package com.videotopdf.service;
 
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 public class YouTubeService {
 
+    private static final Logger log =
+        LoggerFactory.getLogger(YouTubeService.class);
+
     @Value("${youtube.api.key}")
     private String apiKey;
 
+    @Value("${youtube.api.base-url}")
+    private String apiBaseUrl;
+
+    @Autowired
+    private ConversionMetrics metrics;
+
+    @Autowired
+    private Subprocesses subprocesses;
+
+    @Autowired
+    private PipelineStages stages;
+
+    // How long the first lookup of a batch waits for others while
+    // another call is in flight
+    @Value("${youtube.api.batch.window:20ms}")
+    private Duration batchWindow;
+
+    // videos.list takes at most 50 ids per call
+    @Value("${youtube.api.batch.max-ids:50}")
+    private int batchMaxIds;
+
+    // Videos without captions go straight to the description
+    // for this long, instead of waiting on get_transcript.py
+    @Value("${youtube.transcript.negative-ttl:6h}")
+    private Duration negativeTtl;
+
+    @Value("${youtube.transcript.negative-cache-size:10000}")
+    private int negativeCacheSize;
+
+    // Per-source budgets; a source that overruns counts as failed
+    @Value("${youtube.transcript.captions-budget:60s}")
+    private Duration captionsBudget;
+
+    @Value("${youtube.transcript.description-budget:10s}")
+    private Duration descriptionBudget;
+
+    // Hedge delay until there is a p95 of recent caption lookups
+    @Value("${youtube.transcript.hedge-after:5s}")
+    private Duration hedgeAfter;
+
+    // Description fallbacks running at once, and waiting for a
+    // thread; beyond that a fallback is turned away
+    @Value("${youtube.transcript.fallback-threads:16}")
+    private int fallbackThreads;
+
+    @Value("${youtube.transcript.fallback-queue:100}")
+    private int fallbackQueue;
+
+    private VideoDetailsBatcher batcher;
+    private Map<String, Long> noCaptions;
+    private final LatencyWindow captionsLatency =
+        new LatencyWindow(200, 20);
+
+    // Runs the description fallback, which waits on the fetch
+    // stage and so can't be a fetch task itself
+    private ThreadPoolExecutor sources;
+
+    // get_transcript.py said the video has no captions
+    private static final SegmentTable NO_CAPTIONS =
+        SegmentTable.untimed("");
+
     private static final String PYTHON =
         System.getenv("PYTHON_PATH") != null
         ? System.getenv("PYTHON_PATH")
@@ -26,6 +109,34 @@ public class YouTubeService {
         ? System.getenv("SCRIPTS_PATH") + "/get_transcript.py"
         : System.getProperty("user.home") + "/VideoToPdf/get_transcript.py";
 
+    @PostConstruct
+    void init() {
+        batcher = new VideoDetailsBatcher(this::fetchDetails,
+            batchWindow.toNanos(), Math.min(50, batchMaxIds));
+        int max = negativeCacheSize;
+        noCaptions = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Long> eldest) {
+                    return size() > max;
+                }
+            });
+        sources = new ThreadPoolExecutor(fallbackThreads,
+            fallbackThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(fallbackQueue), r -> {
+                Thread t = new Thread(r, "transcript-source");
+                t.setDaemon(true);
+                return t;
+            });
+        sources.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void stop() {
+        sources.shutdownNow();
+    }
+
     public String extractVideoId(String youtubeUrl) {
         String videoId = null;
         if (youtubeUrl.contains("v=")) {
@@ -44,23 +155,15 @@ public class YouTubeService {
         return videoId != null ? videoId.trim() : null;
     }
 
+    // Concurrent lookups share one videos.list call of up to
+    // youtube.api.batch.max-ids ids
     public JSONObject getVideoDetails(String videoId)
             throws Exception {
-        String urlStr =
-            "https://www.googleapis.com/youtube/v3/videos"
-            + "?id=" + videoId
-            + "&key=" + apiKey
-            + "&part=snippet,contentDetails";
-
-        String response = makeGetRequest(urlStr);
-        JSONObject json = new JSONObject(response);
-        JSONArray items = json.getJSONArray("items");
-
-        if (items.length() == 0)
+        JSONObject item = batcher.load(videoId);
+        if (item == null)
             throw new Exception("Video not found or is private.");
 
-        JSONObject snippet =
-            items.getJSONObject(0).getJSONObject("snippet");
+        JSONObject snippet = item.getJSONObject("snippet");
         JSONObject result = new JSONObject();
         result.put("title", snippet.getString("title"));
         result.put("channelTitle", snippet.getString("channelTitle"));
@@ -73,99 +176,275 @@ public class YouTubeService {
             snippet.optString("defaultAudioLanguage",
                 snippet.optString("defaultLanguage", "en")));
         result.put("publishedAt", snippet.getString("publishedAt"));
+        // ISO 8601, e.g. PT1H2M3S; 0 for live streams and when absent
+        long seconds = 0;
+        JSONObject content = item.optJSONObject("contentDetails");
+        if (content != null) {
+            try {
+                seconds = Duration.parse(
+                    content.optString("duration", "PT0S")).getSeconds();
+            } catch (Exception ignored) {
+            }
+        }
+        result.put("durationSeconds", seconds);
         return result;
     }
 
-    public String getTranscript(String videoId) throws Exception {
-        System.out.println("=== Fetching transcript: " + videoId + " ===");
+    private Map<String, JSONObject> fetchDetails(List<String> ids)
+            throws Exception {
+        StringBuilder idList = new StringBuilder();
+        for (String id : ids) {
+            if (idList.length() > 0) idList.append(',');
+            idList.append(URLEncoder.encode(id, StandardCharsets.UTF_8));
+        }
+        String urlStr =
+            apiBaseUrl + "/videos"
+            + "?id=" + idList
+            + "&key=" + apiKey
+            + "&part=snippet,contentDetails";
+
+        metrics.metadataBatchSize().record(ids.size());
+        Timer.Sample sample = metrics.start();
+        String response;
+        try {
+            response = stages.fetch().call(() -> makeGetRequest(urlStr));
+        } finally {
+            sample.stop(metrics.metadataFetch());
+        }
+        if (response.isEmpty())
+            throw new Exception("YouTube videos.list request failed.");
+
+        JSONArray items = new JSONObject(response).getJSONArray("items");
+        Map<String, JSONObject> byId = new HashMap<>();
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            byId.put(item.getString("id"), item);
+        }
+        return byId;
+    }
+
+    // Timed segments from captions; the description fallback is
+    // untimed. Captions slower than their recent p95 get the
+    // description fetched alongside, so a lookup that then fails
+    // or runs out its budget does not wait for the fallback too.
+    public SegmentTable getTranscript(String videoId)
+            throws Exception {
+        return getTranscript(videoId, null);
+    }
+
+    // With the caller's getVideoDetails result the fallback is built
+    // from it, rather than looking the video up again
+    public SegmentTable getTranscript(String videoId,
+            JSONObject details) throws Exception {
+        log.info("Fetching transcript: {}", videoId);
 
-        String transcript = getTranscriptViaPython(videoId);
-        if (isValid(transcript)) {
-            System.out.println("Got transcript via python API!");
+        Long until = noCaptions.get(videoId);
+        if (until != null && System.nanoTime() - until < 0) {
+            log.info("No captions (cached), using description fallback");
+            metrics.captionsLookup("cached-none");
+            metrics.descriptionFallbacks().increment();
+            return SegmentTable.untimed(
+                description(required(
+                    descriptionFallback(videoId, details))));
+        }
+
+        // The script starts once the captions stage has a slot;
+        // the budget includes the wait for one
+        long started = System.nanoTime();
+        Future<String> description = null;
+        CompletableFuture<Process> proc = new CompletableFuture<>();
+        Future<SegmentTable> captions = stages.captions().submit(() -> {
+            Process p = startCaptions(videoId);
+            proc.complete(p);
+            if (p == null) return null;
+            if (Thread.currentThread().isInterrupted()) {
+                p.destroyForcibly();
+                return null;
+            }
+            return readCaptions(p, videoId);
+        });
+        long budget = captionsBudget.toNanos();
+        long hedge = Math.min(budget, captionsLatency.percentile(
+            0.95, hedgeAfter.toNanos()));
+        SegmentTable transcript = captions(captions, started + hedge);
+        if (transcript == null && !captions.isDone()) {
+            metrics.transcriptHedges().increment();
+            // No hedge when the fallback threads are all taken
+            description = descriptionFallback(videoId, details);
+            transcript = captions(captions, started + budget);
+            if (!captions.isDone()) {
+                metrics.subprocessTimedOut("get_transcript");
+                log.warn("get_transcript.py timed out for {}", videoId);
+                captions.cancel(true);
+                Process p = proc.getNow(null);
+                if (p != null) p.destroyForcibly();
+            }
+        }
+
+        if (transcript == NO_CAPTIONS) {
+            metrics.captionsLookup("none");
+            noCaptions.put(videoId,
+                System.nanoTime() + negativeTtl.toNanos());
+        } else if (isValid(transcript)) {
+            log.info("Got transcript via python API");
+            metrics.captionsLookup("found");
+            if (description != null) description.cancel(true);
             return transcript;
+        } else {
+            metrics.captionsLookup("failed");
+        }
+
+        log.info("No transcript, using description fallback");
+        metrics.descriptionFallbacks().increment();
+        if (description == null) {
+            description = required(
+                descriptionFallback(videoId, details));
+        }
+        return SegmentTable.untimed(description(description));
+    }
+
+    // Done at once when the details are known; otherwise null when
+    // the fallback threads and their queue are full
+    private Future<String> descriptionFallback(String videoId,
+            JSONObject details) {
+        if (details != null) {
+            return CompletableFuture.completedFuture(
+                getDescriptionFallback(details));
+        }
+        try {
+            return sources.submit(() -> getDescriptionFallback(videoId));
+        } catch (RejectedExecutionException e) {
+            return null;
         }
+    }
+
+    private static Future<String> required(Future<String> description)
+            throws ConversionException {
+        if (description == null) {
+            throw new ConversionException(503,
+                "Server busy (transcript sources), try again shortly.");
+        }
+        return description;
+    }
 
-        System.out.println("Using description fallback");
-        return getDescriptionFallback(videoId);
+    // null while the lookup is still running at the deadline
+    private static SegmentTable captions(Future<SegmentTable> captions,
+            long deadline) throws InterruptedException {
+        try {
+            return captions.get(Math.max(0, deadline - System.nanoTime()),
+                TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        }
     }
 
-    private String getTranscriptViaPython(String videoId) {
+    private String description(Future<String> description)
+            throws InterruptedException {
         try {
-            System.out.println("Python path: " + PYTHON);
-            System.out.println("Script path: " + TRANSCRIPT_SCRIPT);
+            return description.get(descriptionBudget.toMillis(),
+                TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            description.cancel(true);
+            log.warn("Description fallback failed: {}", e.toString());
+            return "Subtitles not available for this video.";
+        }
+    }
 
+    private Process startCaptions(String videoId) {
+        try {
             ProcessBuilder pb = new ProcessBuilder(
                 PYTHON, TRANSCRIPT_SCRIPT, videoId);
             pb.redirectErrorStream(false);
             pb.environment().put("PATH",
                 "/usr/bin:/usr/local/bin:/bin:"
                 + System.getenv("PATH"));
+            return subprocesses.start(pb, "get_transcript");
+        } catch (Exception e) {
+            log.warn("Python transcript error: {}", e.getMessage());
+            return null;
+        }
+    }
 
-            Process proc = pb.start();
-
-            Thread errThread = new Thread(() -> {
-                try (BufferedReader r = new BufferedReader(
-                        new InputStreamReader(proc.getErrorStream()))) {
-                    String line;
-                    while ((line = r.readLine()) != null)
-                        System.out.println("[transcript] " + line);
-                } catch (Exception ignored) {}
-            });
-            errThread.setDaemon(true);
-            errThread.start();
-
-            StringBuilder out = new StringBuilder();
+    // NO_CAPTIONS only when the script says so and exits cleanly;
+    // null for errors, which are worth trying again
+    private SegmentTable readCaptions(Process proc, String videoId) {
+        long started = System.nanoTime();
+        try {
+            SegmentTable segments;
             try (BufferedReader r = new BufferedReader(
                     new InputStreamReader(
                         proc.getInputStream(),
                         StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = r.readLine()) != null)
-                    out.append(line).append(" ");
+                segments = SegmentTable.read(r);
             }
-
-            proc.waitFor(60, TimeUnit.SECONDS);
-
-            String result = out.toString().trim();
-            if (result.equals("NO_TRANSCRIPT_AVAILABLE")
-                    || result.isEmpty()) {
+            int exit = proc.waitFor();
+            long took = System.nanoTime() - started;
+            metrics.subprocess("get_transcript")
+                .record(took, TimeUnit.NANOSECONDS);
+            if (exit != 0) {
+                log.warn("get_transcript.py exited with {} for {}",
+                    exit, videoId);
                 return null;
             }
-            return result;
+            captionsLatency.record(took);
+
+            if (segments.contentEquals("NO_TRANSCRIPT_AVAILABLE")) {
+                return NO_CAPTIONS;
+            }
+            return segments.isBlank() ? null : segments;
 
         } catch (Exception e) {
-            System.out.println("Python transcript error: " + e.getMessage());
+            log.warn("Python transcript error: {}", e.getMessage());
             return null;
         }
     }
 
+    // Starts the interpreter and imports the transcript library
+    // once, so the first request finds both compiled and cached
+    public void warmUp() throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(
+            PYTHON, TRANSCRIPT_SCRIPT, "--warmup");
+        pb.environment().put("PATH",
+            "/usr/bin:/usr/local/bin:/bin:"
+            + System.getenv("PATH"));
+        Process proc = subprocesses.start(pb, "get_transcript");
+        proc.getInputStream().transferTo(OutputStream.nullOutputStream());
+        if (!proc.waitFor(60, TimeUnit.SECONDS)) {
+            proc.destroyForcibly();
+            throw new Exception("get_transcript.py --warmup timed out");
+        }
+    }
+
     private String getDescriptionFallback(String videoId) {
         try {
-            JSONObject details = getVideoDetails(videoId);
-            String description = details.optString("description", "");
-            String title = details.optString("title", "");
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("VIDEO TITLE: ").append(title).append("\n\n");
-            sb.append("NOTE: This video does not have captions available.\n");
-            sb.append("The following is the video description:\n\n");
-
-            if (!description.isEmpty()) {
-                for (String line : description.split("\n")) {
-                    if (!line.trim().isEmpty())
-                        sb.append(line.trim()).append("\n");
-                }
-            }
-            return sb.toString();
+            return getDescriptionFallback(getVideoDetails(videoId));
         } catch (Exception e) {
             return "Subtitles not available for this video.";
         }
     }
 
-    private boolean isValid(String transcript) {
+    private static String getDescriptionFallback(JSONObject details) {
+        String description = details.optString("description", "");
+        String title = details.optString("title", "");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("VIDEO TITLE: ").append(title).append("\n\n");
+        sb.append("NOTE: This video does not have captions available.\n");
+        sb.append("The following is the video description:\n\n");
+
+        if (!description.isEmpty()) {
+            for (String line : description.split("\n")) {
+                if (!line.trim().isEmpty())
+                    sb.append(line.trim()).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean isValid(SegmentTable transcript) {
         return transcript != null
-            && !transcript.trim().isEmpty()
-            && transcript.trim().length() > 30;
+            && !transcript.isBlank()
+            && transcript.textLength() > 30;
     }
 
     public String makeGetRequest(String urlStr) throws Exception {
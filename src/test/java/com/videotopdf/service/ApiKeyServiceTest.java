@@ -0,0 +1,97 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.ApiKey;
+import com.videotopdf.model.ApiKeyRepository;
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Made-up keys must not push valid ones out of the cache, nor
+// reach the database when they are not even shaped like a key
+class ApiKeyServiceTest {
+
+    private ApiKeyRepository keys;
+    private ApiKeyService service;
+    private String valid;
+
+    @BeforeEach
+    void setUp() {
+        keys = mock(ApiKeyRepository.class);
+        UserRepository users = mock(UserRepository.class);
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("alice");
+        user.setRole("USER");
+        when(users.findByUsername("alice")).thenReturn(Optional.of(user));
+        when(users.findById(1L)).thenReturn(Optional.of(user));
+        when(keys.findByKeyHash(anyString())).thenReturn(Optional.empty());
+
+        service = new ApiKeyService();
+        ReflectionTestUtils.setField(service, "apiKeyRepository", keys);
+        ReflectionTestUtils.setField(service, "userRepository", users);
+        ReflectionTestUtils.setField(service, "cacheSize", 100);
+        ReflectionTestUtils.setField(service, "cacheTtl",
+            Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(service, "negativeCacheSize", 10);
+        ReflectionTestUtils.setField(service, "negativeCacheTtl",
+            Duration.ofMinutes(1));
+        ReflectionTestUtils.invokeMethod(service, "init");
+
+        valid = service.create("alice", "test");
+        ArgumentCaptor<ApiKey> saved = ArgumentCaptor.forClass(ApiKey.class);
+        verify(keys).save(saved.capture());
+        when(keys.findByKeyHash(saved.getValue().getKeyHash()))
+            .thenReturn(Optional.of(saved.getValue()));
+    }
+
+    @Test
+    void unknownKeysDoNotEvictValidOnes() {
+        assertThat(service.authenticate(valid)).isNotNull();
+        for (int i = 0; i < 1000; i++) {
+            assertThat(service.authenticate(fake(i))).isNull();
+        }
+        clearInvocations(keys);
+
+        assertThat(service.authenticate(valid)).isNotNull();
+        verify(keys, never()).findByKeyHash(any());
+    }
+
+    @Test
+    void repeatedUnknownKeyIsLookedUpOnce() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(service.authenticate(fake(0))).isNull();
+        }
+        verify(keys, times(1)).findByKeyHash(any());
+    }
+
+    @Test
+    void malformedKeysNeverReachTheDatabase() {
+        clearInvocations(keys);
+        assertThat(service.authenticate("vtp_short")).isNull();
+        assertThat(service.authenticate(
+            "xyz_" + valid.substring(4))).isNull();
+        assertThat(service.authenticate(valid + "x")).isNull();
+        verify(keys, never()).findByKeyHash(any());
+    }
+
+    // Right shape, unknown value
+    private static String fake(int i) {
+        return ApiKeyService.KEY_PREFIX + String.format("%043d", i);
+    }
+}
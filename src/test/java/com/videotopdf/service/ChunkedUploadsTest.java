@@ -0,0 +1,195 @@
+package com.videotopdf.service;
+
+import com.videotopdf.controller.UploadController;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Chunks are checked as they arrive, and stay until the upload has
+// been converted, so a complete that failed can be retried
+class ChunkedUploadsTest {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final Principal ALICE = () -> "alice";
+
+    @TempDir
+    Path dir;
+
+    private ChunkedUploads uploads;
+    private ConversionService conversions;
+    private UploadController controller;
+    private byte[] media;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        uploads = new ChunkedUploads();
+        ReflectionTestUtils.setField(uploads, "uploadsDir",
+            dir.toString());
+        ReflectionTestUtils.setField(uploads, "defaultChunkSize",
+            DataSize.ofBytes(CHUNK));
+        ReflectionTestUtils.setField(uploads, "maxSize",
+            DataSize.ofMegabytes(10));
+        ReflectionTestUtils.setField(uploads, "sessionTtl",
+            Duration.ofHours(1));
+        ReflectionTestUtils.invokeMethod(uploads, "start");
+
+        conversions = mock(ConversionService.class);
+        controller = new UploadController();
+        ReflectionTestUtils.setField(controller, "uploads", uploads);
+        ReflectionTestUtils.setField(controller, "conversionService",
+            conversions);
+
+        media = new byte[2 * CHUNK + 1000];
+        new Random(7).nextBytes(media);
+    }
+
+    @Test
+    void chunksAreCheckedBeforeTheyCount() throws Exception {
+        ChunkedUploads.Status s = uploads.create("alice", "talk.mp4",
+            media.length, null, null);
+        assertThat(s.chunks).isEqualTo(3);
+
+        assertThatThrownBy(() -> uploads.putChunk("alice", s.id, 0,
+                new ByteArrayInputStream(media, 0, CHUNK - 1), null))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(400));
+        assertThatThrownBy(() -> uploads.putChunk("alice", s.id, 0,
+                chunk(0), sha256(chunk(1).readAllBytes())))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(422));
+        assertThatThrownBy(() -> uploads.putChunk("alice", s.id, 3,
+                chunk(0), null))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(400));
+        assertThat(uploads.status("alice", s.id).received.isEmpty())
+            .isTrue();
+
+        ChunkedUploads.Status after = uploads.putChunk("alice", s.id, 0,
+            chunk(0), sha256(chunk(0).readAllBytes()));
+        assertThat(after.received.get(0)).isTrue();
+        assertThat(after.received.cardinality()).isEqualTo(1);
+    }
+
+    @Test
+    void statusListsWhatIsMissingForResume() throws Exception {
+        ChunkedUploads.Status s = uploads.create("alice", "talk.mp4",
+            media.length, null, null);
+        uploads.putChunk("alice", s.id, 2, chunk(2), null);
+        // A retried chunk replaces the earlier copy
+        uploads.putChunk("alice", s.id, 2, chunk(2), null);
+
+        ChunkedUploads.Status status = uploads.status("alice", s.id);
+        assertThat(status.received.cardinality()).isEqualTo(1);
+        assertThat(status.received.nextClearBit(0)).isZero();
+        assertThat(status.complete()).isFalse();
+        assertThat(controller.complete(s.id, false, false, ALICE)
+            .getStatusCode().value()).isEqualTo(409);
+
+        // Nobody else sees the session
+        assertThatThrownBy(() -> uploads.status("bob", s.id))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(404));
+    }
+
+    @Test
+    void failedCompleteCanBeRetried() throws Exception {
+        String id = uploaded();
+        byte[] pdf = {'%', 'P', 'D', 'F'};
+        when(conversions.convertFile(eq("alice"), any(),
+                eq("talk.mp4"), anyBoolean(), anyString()))
+            .thenThrow(new ConversionException(503, "Server busy"))
+            .thenReturn(new ConversionService.Result(pdf, "talk"));
+
+        ResponseEntity<?> failed =
+            controller.complete(id, false, false, ALICE);
+        assertThat(failed.getStatusCode().value()).isEqualTo(503);
+        assertThat(uploads.status("alice", id).complete()).isTrue();
+
+        ResponseEntity<?> retried =
+            controller.complete(id, false, false, ALICE);
+        assertThat(retried.getStatusCode().value()).isEqualTo(200);
+        assertThat((byte[]) retried.getBody()).isEqualTo(pdf);
+        verify(conversions, times(2)).convertFile(eq("alice"),
+            any(), eq("talk.mp4"), eq(false), eq(sha256(media)));
+
+        // Converted, so the session is gone
+        assertThatThrownBy(() -> uploads.status("alice", id))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(404));
+    }
+
+    @Test
+    void retriedAssemblyReusesOrRebuildsTheFile() throws Exception {
+        String id = uploaded();
+
+        ChunkedUploads.Assembled first = uploads.assemble("alice", id);
+        assertThat(first.sha256).isEqualTo(sha256(media));
+        assertThat(Files.readAllBytes(first.file)).isEqualTo(media);
+        ChunkedUploads.Assembled again = uploads.assemble("alice", id);
+        assertThat(again.file).isEqualTo(first.file);
+        assertThat(again.sha256).isEqualTo(first.sha256);
+
+        // Queuing moves the file away; the chunks are still there
+        Files.move(first.file, dir.resolve("queued.mp4"));
+        ChunkedUploads.Assembled rebuilt =
+            uploads.assemble("alice", id);
+        assertThat(Files.readAllBytes(rebuilt.file)).isEqualTo(media);
+        assertThat(rebuilt.sha256).isEqualTo(first.sha256);
+    }
+
+    @Test
+    void wholeFileHashIsChecked() throws Exception {
+        ChunkedUploads.Status s = uploads.create("alice", "talk.mp4",
+            media.length, null, sha256(new byte[1]));
+        for (int i = 0; i < s.chunks; i++)
+            uploads.putChunk("alice", s.id, i, chunk(i), null);
+
+        assertThatThrownBy(() -> uploads.assemble("alice", s.id))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(422));
+        assertThat(dir.resolve(s.id).resolve("upload.mp4")).doesNotExist();
+    }
+
+    private String uploaded() throws Exception {
+        ChunkedUploads.Status s = uploads.create("alice", "talk.mp4",
+            media.length, null, null);
+        for (int i = s.chunks - 1; i >= 0; i--)
+            uploads.putChunk("alice", s.id, i, chunk(i), null);
+        return s.id;
+    }
+
+    private ByteArrayInputStream chunk(int index) {
+        int from = index * CHUNK;
+        return new ByteArrayInputStream(Arrays.copyOfRange(media, from,
+            Math.min(media.length, from + CHUNK)));
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(
+            MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
@@ -0,0 +1,71 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import com.videotopdf.model.ConversionRepository;
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two instances take id blocks from the pooled sequence, so newer
+// records can have lower ids; pages must still run newest first
+@DataJpaTest
+class ConversionHistoryTest {
+
+    @Autowired
+    private ConversionRepository conversions;
+
+    @Autowired
+    private UserRepository users;
+
+    @Test
+    void pagesAreNewestFirstWhateverTheIds() {
+        User user = new User();
+        user.setUsername("alice");
+        user.setEmail("alice@example.com");
+        user.setPassword("x");
+        Long userId = users.save(user).getId();
+
+        // Ids rise while start times fall, with some times shared
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        List<Conversion> saved = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            Conversion c = new Conversion();
+            c.setUserId(userId);
+            c.setSource(Conversion.Source.YOUTUBE);
+            c.setStatus(Conversion.Status.SUCCESS);
+            c.setCreatedAt(start.minusSeconds(i / 2));
+            saved.add(conversions.save(c));
+        }
+        conversions.flush();
+
+        ConversionHistory history = new ConversionHistory();
+        ReflectionTestUtils.setField(history, "conversions", conversions);
+        ReflectionTestUtils.setField(history, "userRepository", users);
+        ReflectionTestUtils.setField(history, "pageSize", 5);
+
+        List<Long> paged = new ArrayList<>();
+        List<Conversion> page = history.page("alice", null, null);
+        while (!page.isEmpty()) {
+            page.forEach(c -> paged.add(c.getId()));
+            Conversion last = page.get(page.size() - 1);
+            page = history.page("alice", last.getCreatedAt(),
+                last.getId());
+        }
+
+        assertThat(paged).containsExactlyElementsOf(saved.stream()
+            .sorted(Comparator.comparing(Conversion::getCreatedAt)
+                .thenComparing(Conversion::getId).reversed())
+            .map(Conversion::getId)
+            .toList());
+    }
+}
@@ -0,0 +1,85 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.OutboxEmail;
+import com.videotopdf.model.OutboxEmailRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Mail another instance is still sending stays with it; mail whose
+// sender's lease ran out is claimed again
+@DataJpaTest
+class EmailOutboxTest {
+
+    @Autowired
+    private OutboxEmailRepository outbox;
+
+    @Autowired
+    private TestEntityManager entities;
+
+    @Test
+    void leasedMailIsLeftToItsSender() {
+        Instant now = Instant.now();
+        OutboxEmail live = sending("a:1", now.plusSeconds(300));
+
+        assertThat(outbox.findClaimable(now, PageRequest.of(0, 10)))
+            .isEmpty();
+        assertThat(outbox.claim(live.getId(), "b:2", now,
+            now.plusSeconds(600))).isZero();
+        assertThat(outbox.deleteSent(live.getId(), "b:2")).isZero();
+    }
+
+    @Test
+    void expiredLeaseIsClaimedByAnotherInstance() {
+        Instant now = Instant.now();
+        OutboxEmail dead = sending("a:1", now.minusSeconds(1));
+
+        assertThat(outbox.findClaimable(now, PageRequest.of(0, 10)))
+            .extracting(OutboxEmail::getId)
+            .containsExactly(dead.getId());
+        assertThat(outbox.claim(dead.getId(), "b:2", now,
+            now.plusSeconds(600))).isEqualTo(1);
+        // The first sender can no longer finish it
+        assertThat(outbox.deleteSent(dead.getId(), "a:1")).isZero();
+        assertThat(outbox.deleteSent(dead.getId(), "b:2")).isEqualTo(1);
+    }
+
+    @Test
+    void failedMailExpiresFromWhenItFailed() {
+        Instant now = Instant.now();
+        OutboxEmail old = sending("a:1", now.plusSeconds(300));
+        outbox.release(old.getId(), "a:1", OutboxEmail.Status.FAILED,
+            8, now.minusSeconds(3600), "550");
+        OutboxEmail recent = sending("a:1", now.plusSeconds(300));
+        outbox.release(recent.getId(), "a:1",
+            OutboxEmail.Status.FAILED, 8, now, "550");
+        sending("a:1", now.minusSeconds(1));
+
+        assertThat(outbox.findByStatusAndNextAttemptAtBefore(
+                OutboxEmail.Status.FAILED, now.minusSeconds(60),
+                PageRequest.of(0, 10)))
+            .extracting(OutboxEmail::getId)
+            .containsExactly(old.getId());
+    }
+
+    private OutboxEmail sending(String owner, Instant leaseExpiresAt) {
+        OutboxEmail email = new OutboxEmail();
+        email.setRecipient("user@example.com");
+        email.setVideoTitle("Video");
+        email.setAttachmentPath("mail.pdf");
+        email.setCreatedAt(Instant.now().minusSeconds(60));
+        email.setNextAttemptAt(email.getCreatedAt());
+        email.setStatus(OutboxEmail.Status.SENDING);
+        email.setLeaseOwner(owner);
+        email.setLeaseExpiresAt(leaseExpiresAt);
+        entities.persistAndFlush(email);
+        entities.clear();
+        return email;
+    }
+}
@@ -0,0 +1,219 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.OutboxEmail;
+import com.videotopdf.model.OutboxEmailRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Batches share an SMTP session until it has been idle too long or
+// the server drops it; mail that gave up is removed in the end
+class EmailServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private Session session;
+    private OutboxEmailRepository outbox;
+    private EmailService service;
+    private long nextId;
+
+    @BeforeEach
+    void setUp() {
+        JavaMailSenderImpl sender = mock(JavaMailSenderImpl.class);
+        Session real = Session.getInstance(new Properties());
+        when(sender.createMimeMessage())
+            .thenAnswer(i -> new MimeMessage(real));
+        session = mock(Session.class);
+        when(sender.getSession()).thenReturn(session);
+        when(sender.getProtocol()).thenReturn("smtp");
+        when(sender.getHost()).thenReturn("localhost");
+        when(sender.getPort()).thenReturn(2525);
+
+        outbox = mock(OutboxEmailRepository.class);
+        when(outbox.deleteSent(anyLong(), anyString())).thenReturn(1);
+        when(outbox.release(anyLong(), anyString(), any(), anyInt(),
+            any(), any())).thenReturn(1);
+        JobQueue jobQueue = mock(JobQueue.class);
+        when(jobQueue.instanceId()).thenReturn("a:1");
+
+        service = new EmailService();
+        ReflectionTestUtils.setField(service, "mailSender", sender);
+        ReflectionTestUtils.setField(service, "outbox", outbox);
+        ReflectionTestUtils.setField(service, "metrics",
+            new ConversionMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(service, "jobQueue", jobQueue);
+        ReflectionTestUtils.setField(service, "fromEmail",
+            "pdf@example.com");
+        ReflectionTestUtils.setField(service, "outboxDir",
+            dir.toString());
+        ReflectionTestUtils.setField(service, "maxAttempts", 8);
+        ReflectionTestUtils.setField(service, "retryBackoff",
+            Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(service, "maxRetryBackoff",
+            Duration.ofHours(1));
+        ReflectionTestUtils.setField(service, "failedRetention",
+            Duration.ofDays(7));
+    }
+
+    @Test
+    void batchesShareOneSessionUntilItIdles() throws Exception {
+        Transport transport = transport();
+        when(session.getTransport("smtp")).thenReturn(transport);
+
+        send(mail(), mail());
+        send(mail());
+        verify(session, times(1)).getTransport("smtp");
+        verify(transport, times(1))
+            .connect("localhost", 2525, null, null);
+        verify(transport, times(3))
+            .sendMessage(any(Message.class), any(Address[].class));
+        verify(outbox, times(3)).deleteSent(anyLong(), eq("a:1"));
+
+        // Used just now, so it stays open
+        closeIdle(Duration.ofSeconds(30));
+        verify(transport, never()).close();
+        closeIdle(Duration.ZERO);
+        verify(transport).close();
+
+        send(mail());
+        verify(session, times(2)).getTransport("smtp");
+    }
+
+    @Test
+    void droppedSessionIsReplaced() throws Exception {
+        Transport dropped = transport();
+        doThrow(new MessagingException("421 closing"))
+            .when(dropped).sendMessage(any(), any());
+        when(dropped.isConnected()).thenReturn(false);
+        Transport fresh = transport();
+        when(session.getTransport("smtp"))
+            .thenReturn(dropped, fresh);
+
+        OutboxEmail first = mail();
+        OutboxEmail second = mail();
+        send(first, second);
+
+        verify(outbox).release(eq(first.getId()), eq("a:1"),
+            eq(OutboxEmail.Status.PENDING), eq(1), any(),
+            eq("421 closing"));
+        verify(outbox).deleteSent(second.getId(), "a:1");
+        verify(dropped).close();
+        verify(fresh, never()).close();
+    }
+
+    @Test
+    void unreachableServerFailsTheBatchOnce() throws Exception {
+        Transport transport = transport();
+        doThrow(new MessagingException("Connection refused"))
+            .when(transport).connect(anyString(), anyInt(), any(), any());
+        when(session.getTransport("smtp")).thenReturn(transport);
+
+        send(mail(), mail(), mail());
+
+        verify(transport, times(1))
+            .connect(anyString(), anyInt(), any(), any());
+        verify(outbox, times(3)).release(anyLong(), eq("a:1"),
+            eq(OutboxEmail.Status.PENDING), eq(1), any(),
+            eq("Connection refused"));
+    }
+
+    @Test
+    void lastFailedAttemptStartsTheRetention() throws Exception {
+        Transport transport = transport();
+        doThrow(new MessagingException("550 no such user"))
+            .when(transport).sendMessage(any(), any());
+        when(session.getTransport("smtp")).thenReturn(transport);
+        OutboxEmail email = mail();
+        email.setAttempts(7);
+
+        Instant before = Instant.now();
+        send(email);
+
+        verify(outbox).release(eq(email.getId()), eq("a:1"),
+            eq(OutboxEmail.Status.FAILED), eq(8),
+            argThat(at -> !at.isBefore(before)),
+            eq("550 no such user"));
+    }
+
+    @Test
+    void expiredFailuresGoWithTheirAttachments() throws Exception {
+        OutboxEmail failed = mail();
+        Path file = dir.resolve(failed.getAttachmentPath());
+        when(outbox.findByStatusAndNextAttemptAtBefore(
+                eq(OutboxEmail.Status.FAILED), any(), any()))
+            .thenReturn(List.of(failed));
+
+        Instant now = Instant.now();
+        service.purge();
+
+        verify(outbox).findByStatusAndNextAttemptAtBefore(
+            eq(OutboxEmail.Status.FAILED),
+            argThat(before -> !before.isBefore(
+                now.minus(Duration.ofDays(7)))
+                && before.isBefore(now.minus(Duration.ofDays(6)))),
+            any());
+        verify(outbox).deleteAllInBatch(List.of(failed));
+        assertThat(file).doesNotExist();
+    }
+
+    private Transport transport() {
+        Transport transport = mock(Transport.class);
+        when(transport.isConnected()).thenReturn(true);
+        return transport;
+    }
+
+    private OutboxEmail mail() throws Exception {
+        OutboxEmail email = new OutboxEmail();
+        email.setId(++nextId);
+        email.setRecipient("user" + nextId + "@example.com");
+        email.setVideoTitle("Video " + nextId);
+        email.setAttachmentPath(nextId + ".pdf");
+        Files.write(dir.resolve(email.getAttachmentPath()),
+            new byte[] {'%', 'P', 'D', 'F'});
+        email.setCreatedAt(Instant.now());
+        email.setNextAttemptAt(email.getCreatedAt());
+        email.setStatus(OutboxEmail.Status.SENDING);
+        email.setLeaseOwner("a:1");
+        return email;
+    }
+
+    private void send(OutboxEmail... batch) {
+        ReflectionTestUtils.invokeMethod(service, "send", List.of(batch));
+    }
+
+    private void closeIdle(Duration maxIdle) {
+        ReflectionTestUtils.invokeMethod(service, "closeIdle",
+            maxIdle.toNanos());
+    }
+}
@@ -0,0 +1,209 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Slots go round the users in proportion to their role's weight,
+// and queued jobs leave the interactive reserve alone
+class FairSchedulerTest {
+
+    private UserRepository users;
+    private FairScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        users = mock(UserRepository.class);
+        when(users.findByUsername("alice")).thenReturn(user("ADMIN"));
+        when(users.findByUsername("bob")).thenReturn(user("USER"));
+    }
+
+    @Test
+    void turnsFollowTheRoleWeights() throws Exception {
+        scheduler = scheduler(1, 0);
+        FairScheduler.Slot held = scheduler.acquire("carol", 1, false);
+
+        List<String> names = new ArrayList<>();
+        List<CompletableFuture<FairScheduler.Slot>> queued =
+            new ArrayList<>();
+        for (String name : new String[] {"alice", "alice", "alice",
+                "alice", "alice", "bob", "bob", "bob"}) {
+            names.add(name);
+            queued.add(acquire(name, 600, false));
+            int n = queued.size();
+            await(() -> scheduler.queued(false) == n);
+        }
+
+        // One slot: each close lets exactly one waiter in
+        List<String> order = new ArrayList<>();
+        boolean[] seen = new boolean[queued.size()];
+        FairScheduler.Slot current = held;
+        for (int i = 0; i < queued.size(); i++) {
+            current.close();
+            int granted = awaitGranted(queued, seen);
+            order.add(names.get(granted));
+            current = queued.get(granted).get();
+        }
+        current.close();
+
+        // ADMIN weighs 4: a quantum covers four of alice's jobs
+        assertThat(order).containsExactly("alice", "alice", "alice",
+            "alice", "bob", "alice", "bob", "bob");
+        // Looked up once each, not per acquire
+        verify(users, times(1)).findByUsername("alice");
+        verify(users, times(1)).findByUsername("bob");
+        assertThat(scheduler.running()).isZero();
+    }
+
+    @Test
+    void cheapJobsGoMoreOftenWithinATurn() throws Exception {
+        scheduler = scheduler(1, 0);
+        FairScheduler.Slot held = scheduler.acquire("carol", 1, false);
+        CompletableFuture<FairScheduler.Slot> long1 =
+            acquire("bob", 600, false);
+        await(() -> scheduler.queued(false) == 1);
+        List<CompletableFuture<FairScheduler.Slot>> shorts =
+            new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            shorts.add(acquire("dave", 200, false));
+            int n = i + 2;
+            await(() -> scheduler.queued(false) == n);
+        }
+        CompletableFuture<FairScheduler.Slot> long2 =
+            acquire("bob", 600, false);
+        await(() -> scheduler.queued(false) == 5);
+
+        held.close();
+        // bob was first in, then dave's quantum covers all three
+        // of his 200 second jobs before bob goes again
+        FairScheduler.Slot slot = long1.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<FairScheduler.Slot> f : shorts) {
+            slot.close();
+            slot = f.get(5, TimeUnit.SECONDS);
+            assertThat(long2).isNotDone();
+        }
+        slot.close();
+        long2.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    void queuedJobsLeaveTheReserveToInteractive() throws Exception {
+        scheduler = scheduler(2, 1);
+        FairScheduler.Slot bulk1 = scheduler.acquire("bob", 60, false);
+
+        // A slot is free, but it is the reserve
+        CompletableFuture<FairScheduler.Slot> bulk2 =
+            acquire("bob", 60, false);
+        await(() -> scheduler.queued(false) == 1);
+        FairScheduler.Slot live1 = scheduler.acquire("alice", 60, true);
+        assertThat(scheduler.running()).isEqualTo(2);
+        assertThat(bulk2).isNotDone();
+
+        bulk1.close();
+        FairScheduler.Slot bulk2Slot = bulk2.get(5, TimeUnit.SECONDS);
+
+        // Both waiting: interactive goes first
+        CompletableFuture<FairScheduler.Slot> bulk3 =
+            acquire("bob", 60, false);
+        CompletableFuture<FairScheduler.Slot> live2 =
+            acquire("alice", 60, true);
+        await(() -> scheduler.queued(false) == 1
+            && scheduler.queued(true) == 1);
+        bulk2Slot.close();
+        FairScheduler.Slot live2Slot = live2.get(5, TimeUnit.SECONDS);
+        assertThat(bulk3).isNotDone();
+
+        live1.close();
+        bulk3.get(5, TimeUnit.SECONDS).close();
+        live2Slot.close();
+        assertThat(scheduler.running()).isZero();
+    }
+
+    private FairScheduler scheduler(int slots, int reserve) {
+        FairScheduler s = new FairScheduler();
+        ReflectionTestUtils.setField(s, "userRepository", users);
+        ReflectionTestUtils.setField(s, "metrics",
+            new ConversionMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(s, "slots", slots);
+        ReflectionTestUtils.setField(s, "interactiveReserve", reserve);
+        ReflectionTestUtils.setField(s, "quantum", 600.0);
+        ReflectionTestUtils.setField(s, "weightList", "ADMIN:4,USER:1");
+        ReflectionTestUtils.invokeMethod(s, "init");
+        return s;
+    }
+
+    private static Optional<User> user(String role) {
+        User user = new User();
+        user.setRole(role);
+        return Optional.of(user);
+    }
+
+    // On a thread of its own, since acquire blocks
+    private CompletableFuture<FairScheduler.Slot> acquire(String user,
+            double cost, boolean interactive) {
+        CompletableFuture<FairScheduler.Slot> result =
+            new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                result.complete(
+                    scheduler.acquire(user, cost, interactive));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return result;
+    }
+
+    // Index of the waiter granted since the last call; only one
+    // may have been
+    private static int awaitGranted(
+            List<CompletableFuture<FairScheduler.Slot>> waiters,
+            boolean[] seen) throws InterruptedException {
+        int[] granted = {-1};
+        await(() -> {
+            for (int i = 0; i < waiters.size(); i++) {
+                if (!seen[i] && waiters.get(i).isDone()) {
+                    granted[0] = i;
+                    return true;
+                }
+            }
+            return false;
+        });
+        seen[granted[0]] = true;
+        Thread.sleep(20);
+        for (int i = 0; i < waiters.size(); i++) {
+            assertThat(seen[i] || !waiters.get(i).isDone())
+                .as("waiter %d granted too", i).isTrue();
+        }
+        return granted[0];
+    }
+
+    private static void await(BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import com.videotopdf.model.ConversionJob;
+import com.videotopdf.model.ConversionJobRepository;
+import com.videotopdf.model.User;
+import com.videotopdf.model.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Claims go round the users and take each job once, however many
+// instances share the database; a job whose owner's lease ran out
+// is claimed again. A job turned away by a full stage waits out a
+// growing backoff and keeps its attempts.
+@DataJpaTest
+class JobQueueTest {
+
+    private static final String OWNER = "test:1";
+
+    @Autowired
+    private ConversionJobRepository jobs;
+
+    @Autowired
+    private UserRepository users;
+
+    @Autowired
+    private TestEntityManager entities;
+
+    @Autowired
+    private PlatformTransactionManager transactions;
+
+    private FairScheduler scheduler;
+    private JobQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = mock(FairScheduler.class);
+        when(scheduler.weight(any())).thenReturn(1);
+        queue = queue(OWNER);
+    }
+
+    private JobQueue queue(String instanceId) {
+        JobQueue q = new JobQueue();
+        ReflectionTestUtils.setField(q, "jobs", jobs);
+        ReflectionTestUtils.setField(q, "userRepository", users);
+        ReflectionTestUtils.setField(q, "scheduler", scheduler);
+        ReflectionTestUtils.setField(q, "instanceId", instanceId);
+        ReflectionTestUtils.setField(q, "lease", Duration.ofSeconds(60));
+        ReflectionTestUtils.setField(q, "maxAttempts", 3);
+        ReflectionTestUtils.setField(q, "busyBackoff",
+            Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(q, "busyBackoffMax",
+            Duration.ofSeconds(30));
+        return q;
+    }
+
+    @Test
+    void claimGoesRoundTheUsers() {
+        Long alice = user("alice");
+        Long bob = user("bob");
+        ConversionJob a1 = queued(alice);
+        ConversionJob a2 = queued(alice);
+        ConversionJob a3 = queued(alice);
+        ConversionJob b1 = queued(bob);
+
+        // One each, although alice's jobs are all older
+        assertThat(queue.claim(2)).extracting(ConversionJob::getId)
+            .containsExactly(a1.getId(), b1.getId());
+        entities.flush();
+        entities.clear();
+
+        ConversionJob claimed = jobs.findById(a1.getId()).orElseThrow();
+        assertThat(claimed.getStatus())
+            .isEqualTo(ConversionJob.Status.RUNNING);
+        assertThat(claimed.getLeaseOwner()).isEqualTo(OWNER);
+        assertThat(claimed.getAttempts()).isEqualTo(1);
+        assertThat(claimed.getLeaseExpiresAt())
+            .isAfter(Instant.now().plusSeconds(50));
+
+        assertThat(queue.claim(5)).extracting(ConversionJob::getId)
+            .containsExactly(a2.getId(), a3.getId());
+        entities.flush();
+        assertThat(queue.claim(5)).isEmpty();
+    }
+
+    @Test
+    void expiredLeaseIsReclaimedAndLiveOneIsNot() {
+        Long alice = user("alice");
+        ConversionJob live = running(alice, "other:2", 1,
+            Instant.now().plusSeconds(30));
+        ConversionJob dead = running(alice, "other:2", 1,
+            Instant.now().minusSeconds(1));
+        ConversionJob hopeless = running(alice, "other:2", 3,
+            Instant.now().minusSeconds(1));
+
+        assertThat(queue.claim(5)).extracting(ConversionJob::getId)
+            .containsExactly(dead.getId());
+        entities.flush();
+        entities.clear();
+
+        ConversionJob reclaimed = jobs.findById(dead.getId())
+            .orElseThrow();
+        assertThat(reclaimed.getLeaseOwner()).isEqualTo(OWNER);
+        assertThat(reclaimed.getAttempts()).isEqualTo(2);
+        assertThat(jobs.findById(live.getId()).orElseThrow()
+            .getLeaseOwner()).isEqualTo("other:2");
+        assertThat(jobs.findById(hopeless.getId()).orElseThrow()
+            .getStatus()).isEqualTo(ConversionJob.Status.FAILED);
+
+        // The old owner can no longer finish or renew it
+        assertThat(jobs.finish(dead.getId(), "other:2",
+            ConversionJob.Status.DONE, null, null, null,
+            Instant.now())).isZero();
+        assertThat(jobs.renewLeases("other:2",
+            Instant.now().plusSeconds(60))).isEqualTo(1);
+    }
+
+    // Two processes on one host get distinct ids from their pids,
+    // and each renews and finishes only its own jobs
+    @Test
+    void instancesOnOneMachineKeepTheirOwnJobs(@TempDir Path dir)
+            throws Exception {
+        JobQueue local = queue("");
+        ReflectionTestUtils.setField(local, "storageDir", dir.toString());
+        local.init();
+        assertThat(local.instanceId()).endsWith(":"
+            + ManagementFactory.getRuntimeMXBean().getPid());
+
+        JobQueue first = queue("host:100");
+        JobQueue second = queue("host:200");
+        Long alice = user("alice");
+        ConversionJob mine = running(alice, "host:100", 1,
+            Instant.now().plusSeconds(5));
+        ConversionJob theirs = running(alice, "host:200", 1,
+            Instant.now().plusSeconds(5));
+
+        assertThat(first.renew()).isEqualTo(1);
+        entities.clear();
+        assertThat(jobs.findById(mine.getId()).orElseThrow()
+            .getLeaseExpiresAt()).isAfter(Instant.now().plusSeconds(50));
+        assertThat(jobs.findById(theirs.getId()).orElseThrow()
+            .getLeaseExpiresAt()).isBefore(Instant.now().plusSeconds(10));
+
+        first.fail(theirs, "not mine");
+        second.fail(mine, "not mine either");
+        entities.clear();
+        assertThat(jobs.findAllById(List.of(mine.getId(), theirs.getId())))
+            .extracting(ConversionJob::getStatus)
+            .containsOnly(ConversionJob.Status.RUNNING);
+    }
+
+    // The first claimer holds its row locks until it commits; the
+    // second must pass over those rows rather than wait for them or
+    // take them too. (H2 locks every row its index scan reads, so
+    // there it skips the rest of that user's jobs as well.)
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void concurrentClaimersSkipLockedJobs() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactions);
+        tx.setPropagationBehavior(
+            TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        JobQueue first = queue("host:100");
+        JobQueue second = queue("host:200");
+
+        try {
+            List<Long> all = tx.execute(s -> {
+                Long alice = user("alice");
+                Long bob = user("bob");
+                return List.of(queued(alice).getId(),
+                    queued(alice).getId(), queued(bob).getId(),
+                    queued(bob).getId());
+            });
+
+            CountDownLatch claimed = new CountDownLatch(1);
+            CountDownLatch commit = new CountDownLatch(1);
+            CompletableFuture<List<ConversionJob>> held =
+                CompletableFuture.supplyAsync(() -> tx.execute(s -> {
+                    List<ConversionJob> c = first.claim(1);
+                    jobs.flush();
+                    claimed.countDown();
+                    try {
+                        commit.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return c;
+                }));
+            assertThat(claimed.await(10, TimeUnit.SECONDS)).isTrue();
+
+            long start = System.nanoTime();
+            List<ConversionJob> other = tx.execute(s -> second.claim(4));
+            assertThat(Duration.ofNanos(System.nanoTime() - start))
+                .isLessThan(Duration.ofSeconds(1));
+            commit.countDown();
+            List<ConversionJob> mine = held.get(10, TimeUnit.SECONDS);
+
+            assertThat(mine).extracting(ConversionJob::getId)
+                .containsExactly(all.get(0));
+            assertThat(other).isNotEmpty()
+                .extracting(ConversionJob::getId)
+                .doesNotContain(all.get(0));
+
+            // Whatever was skipped is there for the next claim, and no
+            // job was taken twice
+            List<ConversionJob> rest = tx.execute(s -> second.claim(4));
+            assertThat(jobs.findAllById(all))
+                .allSatisfy(j -> assertThat(j.getAttempts()).isEqualTo(1));
+            assertThat(other.size() + rest.size()).isEqualTo(3);
+        } finally {
+            jobs.deleteAllInBatch();
+            users.deleteAllInBatch();
+        }
+    }
+
+    @Test
+    void busyJobIsDeferredWithoutUsingAnAttempt() {
+        ConversionJob job = running(1, 0);
+        Instant before = Instant.now();
+
+        queue.defer(job, new ConversionException(503, "Server busy"));
+        entities.clear();
+
+        ConversionJob deferred = jobs.findById(job.getId()).orElseThrow();
+        assertThat(deferred.getStatus())
+            .isEqualTo(ConversionJob.Status.QUEUED);
+        assertThat(deferred.getAttempts()).isZero();
+        assertThat(deferred.getDeferrals()).isEqualTo(1);
+        assertThat(deferred.getLeaseOwner()).isNull();
+        assertThat(deferred.getNotBefore())
+            .isBetween(before.plusMillis(2500), before.plusSeconds(6));
+
+        assertThat(jobs.findClaimableUsers(Instant.now())).isEmpty();
+        assertThat(jobs.findClaimableByUser(job.getUserId(),
+            deferred.getNotBefore(), PageRequest.of(0, 1))).hasSize(1);
+    }
+
+    @Test
+    void backoffDoublesUpToTheMax() {
+        ConversionJob second = running(1, 1);
+        ConversionJob capped = running(1, 10);
+        Instant before = Instant.now();
+
+        queue.defer(second, new ConversionException(503, "busy"));
+        queue.defer(capped, new ConversionException(503, "busy"));
+        entities.clear();
+
+        assertThat(jobs.findById(second.getId()).orElseThrow()
+            .getNotBefore())
+            .isBetween(before.plusSeconds(5), before.plusSeconds(11));
+        assertThat(jobs.findById(capped.getId()).orElseThrow()
+            .getNotBefore())
+            .isBetween(before.plusSeconds(15), before.plusSeconds(31));
+    }
+
+    private Long user(String name) {
+        User user = new User();
+        user.setUsername(name);
+        user.setEmail(name + "@example.com");
+        user.setPassword("x");
+        return users.saveAndFlush(user).getId();
+    }
+
+    private ConversionJob queued(Long userId) {
+        ConversionJob job = new ConversionJob();
+        job.setUserId(userId);
+        job.setSource(Conversion.Source.YOUTUBE);
+        job.setYoutubeUrl("https://youtu.be/x");
+        job.setCreatedAt(Instant.now());
+        return jobs.saveAndFlush(job);
+    }
+
+    private ConversionJob running(Long userId, String owner,
+            int attempts, Instant leaseExpiresAt) {
+        ConversionJob job = queued(userId);
+        job.setStatus(ConversionJob.Status.RUNNING);
+        job.setAttempts(attempts);
+        job.setLeaseOwner(owner);
+        job.setLeaseExpiresAt(leaseExpiresAt);
+        return jobs.saveAndFlush(job);
+    }
+
+    private ConversionJob running(int attempts, int deferrals) {
+        ConversionJob job = new ConversionJob();
+        job.setUserId(1L);
+        job.setSource(Conversion.Source.YOUTUBE);
+        job.setYoutubeUrl("https://youtu.be/x");
+        job.setCreatedAt(Instant.now());
+        job.setStatus(ConversionJob.Status.RUNNING);
+        job.setAttempts(attempts);
+        job.setDeferrals(deferrals);
+        job.setLeaseOwner(OWNER);
+        job.setLeaseExpiresAt(Instant.now().plusSeconds(60));
+        return jobs.saveAndFlush(job);
+    }
+}
@@ -0,0 +1,37 @@
+package com.videotopdf.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Percentiles over the most recent samples only
+class LatencyWindowTest {
+
+    @Test
+    void fallbackUntilThereAreEnoughSamples() {
+        LatencyWindow window = new LatencyWindow(10, 3);
+        window.record(100);
+        window.record(200);
+        assertThat(window.percentile(0.95, 7)).isEqualTo(7);
+
+        window.record(300);
+        assertThat(window.percentile(0.95, 7)).isEqualTo(300);
+        assertThat(window.percentile(0.5, 7)).isEqualTo(200);
+        assertThat(window.percentile(0, 7)).isEqualTo(100);
+    }
+
+    @Test
+    void oldSamplesFallOutOfTheWindow() {
+        LatencyWindow window = new LatencyWindow(4, 1);
+        for (long nanos : new long[] {1000, 900, 800, 700}) {
+            window.record(nanos);
+        }
+        assertThat(window.percentile(0.95, 0)).isEqualTo(1000);
+
+        // Overwrites 1000 and then 900
+        window.record(10);
+        window.record(20);
+        assertThat(window.percentile(0.95, 0)).isEqualTo(800);
+        assertThat(window.percentile(0.25, 0)).isEqualTo(10);
+    }
+}
@@ -0,0 +1,119 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelPagesTest {
+
+    private static TranscriptPages pages;
+
+    private Stage render;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        PdfFonts fonts = new PdfFonts();
+        fonts.load();
+        FontChain chain = fonts.regular();
+        TranscriptText text = TranscriptText.parse(
+            PdfTestData.transcript(20000), chain);
+        TranscriptLayout layout = TranscriptLayout.paginate(text, chain,
+            11, 475, 727, 95, 18, 10);
+        Map<FontFace, String> names = new IdentityHashMap<>();
+        names.put(chain.face('a'), "F1");
+        pages = new TranscriptPages(text, layout, chain, names,
+            "Fm1", "Fm2", 11, 60, 727, 18, 10, true);
+    }
+
+    @AfterEach
+    void stop() {
+        if (render != null) render.shutdown();
+    }
+
+    @Test
+    void pagesComeBackInOrderWithHelpers() throws Exception {
+        render = stage(4);
+        List<byte[]> written = new ArrayList<>();
+        render.call(() -> {
+            new ParallelPages(pages, 4).write(render, pages.count(),
+                written::add);
+            return null;
+        });
+        assertThat(written).hasSize(pages.count());
+        for (int p = 0; p < pages.count(); p++) {
+            assertThat(written.get(p)).isEqualTo(pages.write(p));
+        }
+    }
+
+    @Test
+    void ownerFinishesAloneWhenStageIsBusy() throws Exception {
+        render = stage(2);
+        CountDownLatch release = new CountDownLatch(1);
+        render.submit(() -> {
+            release.await();
+            return null;
+        });
+        try {
+            List<byte[]> written = new ArrayList<>();
+            render.call(() -> {
+                new ParallelPages(pages, 4).write(render, pages.count(),
+                    written::add);
+                return null;
+            });
+            assertThat(written).hasSize(pages.count());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    // Helpers never get more than the window ahead of the pages
+    // attached so far, however slow attaching is
+    @Test
+    void finishedPagesWaitingStayWithinWindow() throws Exception {
+        render = stage(4);
+        AtomicInteger written = new AtomicInteger();
+        ParallelPages.Source counted = new ParallelPages.Source() {
+            @Override
+            public int count() { return pages.count(); }
+
+            @Override
+            public byte[] write(int page) throws java.io.IOException {
+                written.incrementAndGet();
+                return pages.write(page);
+            }
+        };
+        int[] attached = {0};
+        int[] mostAhead = {0};
+        render.call(() -> {
+            new ParallelPages(counted, 3).write(render, pages.count(),
+                content -> {
+                    mostAhead[0] = Math.max(mostAhead[0],
+                        written.get() - attached[0]);
+                    attached[0]++;
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            return null;
+        });
+        assertThat(attached[0]).isEqualTo(pages.count());
+        assertThat(mostAhead[0]).isBetween(1, 3);
+    }
+
+    private static Stage stage(int threads) {
+        return new Stage("render", threads, 10,
+            new ConversionMetrics(new SimpleMeterRegistry()));
+    }
+}
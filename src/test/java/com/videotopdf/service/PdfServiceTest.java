@@ -0,0 +1,259 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PdfServiceTest {
+
+    private static final DataSize BUDGET = DataSize.ofMegabytes(16);
+    private static final Path DEJAVU =
+        Path.of("/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf");
+    private static final Path BOLD = DEJAVU.resolveSibling(
+        "DejaVuSans-Bold.ttf");
+
+    private static String tenHours;
+
+    @BeforeAll
+    static void setUp() {
+        tenHours = PdfTestData.spoken(10 * 3600);
+    }
+
+    // Large-document mode spills to a scratch file and saves to a
+    // file; neither may change a byte of the output
+    @Test
+    void largeDocumentModeIsByteIdentical() throws Exception {
+        byte[] inMemory = render(
+            PdfTestData.pdfService(Integer.MAX_VALUE, BUDGET));
+        byte[] spilled = render(
+            PdfTestData.pdfService(1, DataSize.ofKilobytes(64)));
+
+        assertThat(spilled).hasSize(inMemory.length);
+        assertThat(Arrays.mismatch(spilled, inMemory)).isEqualTo(-1);
+    }
+
+    // Beyond the heap budget, content streams go to a scratch file
+    // and the PDF is saved to a file; both are gone afterwards
+    @Test
+    void largeDocumentSpillsToScratchFiles(@TempDir Path scratch)
+            throws Exception {
+        PdfService service = PdfTestData.pdfService(1,
+            DataSize.ofKilobytes(64));
+        ReflectionTestUtils.setField(service, "scratchDir",
+            scratch.toString());
+
+        MemoryUsageSetting setting = service.largeDocumentMemory();
+        assertThat(setting.isMainMemoryRestricted()).isTrue();
+        assertThat(setting.getMaxMainMemoryBytes())
+            .isEqualTo(DataSize.ofKilobytes(64).toBytes());
+        assertThat(setting.useTempFile()).isTrue();
+        assertThat(setting.getTempDir()).isEqualTo(scratch.toFile());
+
+        Set<String> created = new HashSet<>();
+        try (WatchService watch =
+                scratch.getFileSystem().newWatchService()) {
+            scratch.register(watch,
+                StandardWatchEventKinds.ENTRY_CREATE);
+            assertThat(render(service)).isNotEmpty();
+            WatchKey key;
+            while (created.size() < 2
+                    && (key = watch.poll(5, TimeUnit.SECONDS)) != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    created.add(event.context().toString());
+                }
+                key.reset();
+            }
+        }
+        assertThat(created).anyMatch(n -> n.startsWith("PDFBox"))
+            .anyMatch(n -> n.startsWith("videotopdf-"));
+        try (Stream<Path> left = Files.list(scratch)) {
+            assertThat(left).isEmpty();
+        }
+    }
+
+    // Warm-up renders both paths without a sample in the real meters
+    @Test
+    void warmUpIsNotMetered() throws Exception {
+        PdfService service = PdfTestData.pdfService(
+            Integer.MAX_VALUE, BUDGET);
+        MeterRegistry registry = metered(service);
+        SegmentTable transcript = SegmentTable.untimed(
+            PdfTestData.transcript(2000));
+
+        service.warmUp(transcript, 2);
+        assertThat(saves(registry, "FULL")).isZero();
+        assertThat(saves(registry, "COMPACT")).isZero();
+        assertThat(registry.find("videotopdf.pdf.size").summary()
+            .count()).isZero();
+
+        service.generatePdf("Talk", "Channel", "2024-01-01T00:00:00Z",
+            null, transcript, "English");
+        assertThat(saves(registry, "FULL")).isEqualTo(1);
+    }
+
+    // Untimed text, no thumbnail, standard fonts: only the tighter
+    // setting can shrink it, so MINIMAL is never rendered
+    @Test
+    void compactSkipsLevelsThatCannotShrink() throws Exception {
+        PdfService service = PdfTestData.pdfService(
+            Integer.MAX_VALUE, BUDGET);
+        MeterRegistry registry = metered(service);
+        String text = PdfTestData.transcript(20000);
+
+        byte[] roomy = compact(service, text, Long.MAX_VALUE);
+        byte[] smallest = compact(service, text, 1);
+
+        assertThat(saves(registry, "COMPACT")).isEqualTo(2);
+        assertThat(saves(registry, "SMALL")).isEqualTo(1);
+        assertThat(saves(registry, "MINIMAL")).isZero();
+        assertThat(smallest.length).isLessThan(roomy.length);
+    }
+
+    // With an embedded regular face, MINIMAL draws with the standard
+    // fonts and embeds the face only where they lack a character
+    @Test
+    void compactFallsBackToStandardFonts() throws Exception {
+        assumeTrue(Files.isReadable(DEJAVU));
+        PdfService service = PdfTestData.pdfService(
+            Integer.MAX_VALUE, BUDGET);
+        PdfFonts fonts = new PdfFonts();
+        ReflectionTestUtils.setField(fonts, "regularPath",
+            DEJAVU.toString());
+        fonts.load();
+        ReflectionTestUtils.setField(service, "pdfFonts", fonts);
+        MeterRegistry registry = metered(service);
+        String text = PdfTestData.transcript(2000);
+
+        byte[] roomy = compact(service, text, Long.MAX_VALUE);
+        byte[] smallest = compact(service, text, 1);
+
+        assertThat(saves(registry, "MINIMAL")).isEqualTo(1);
+        assertThat(smallest.length).isLessThan(roomy.length / 2);
+    }
+
+    // A cached PDF gets today's cover; its transcript pages stay
+    @Test
+    void replacedCoverHasNewDateAndSameTranscript() throws Exception {
+        PdfService service = PdfTestData.pdfService(
+            Integer.MAX_VALUE, BUDGET);
+        byte[] cached = service.generatePdf("Upload", "Uploaded File",
+            "2020-01-01T00:00:00Z", "", PdfTestData.transcript(3000),
+            "Audio/Video");
+
+        byte[] reused = service.replaceCover(cached, "Upload",
+            "Uploaded File", "2030-06-01T00:00:00Z", "Audio/Video",
+            false);
+
+        try (PDDocument before = Loader.loadPDF(cached);
+                PDDocument after = Loader.loadPDF(reused)) {
+            assertThat(after.getNumberOfPages())
+                .isEqualTo(before.getNumberOfPages());
+            assertThat(text(after, 1, 1))
+                .contains("Published:  2030-06-01")
+                .doesNotContain("2020-01-01");
+            int last = before.getNumberOfPages();
+            assertThat(text(after, 2, last))
+                .isEqualTo(text(before, 2, last));
+        }
+    }
+
+    // The new cover is saved at the level the cached PDF was made
+    // at and draws with its font subsets, so the file does not grow
+    @Test
+    void replacedCoverKeepsLevelAndFonts() throws Exception {
+        assumeTrue(Files.isReadable(DEJAVU) && Files.isReadable(BOLD));
+        PdfService service = PdfTestData.pdfService(
+            Integer.MAX_VALUE, BUDGET);
+        PdfFonts fonts = new PdfFonts();
+        ReflectionTestUtils.setField(fonts, "regularPath",
+            DEJAVU.toString());
+        ReflectionTestUtils.setField(fonts, "boldPath", BOLD.toString());
+        fonts.load();
+        ReflectionTestUtils.setField(service, "pdfFonts", fonts);
+        String transcript = PdfTestData.transcript(3000);
+
+        byte[] full = service.generatePdf("Upload", "Uploaded File",
+            "2020-01-01T00:00:00Z", "", transcript, "Audio/Video");
+        byte[] minimal = service.generatePdf("Upload", "Uploaded File",
+            "2020-01-01T00:00:00Z", null, transcript, "Audio/Video", 1);
+
+        for (byte[] cached : List.of(full, minimal)) {
+            byte[] reused = service.replaceCover(cached, "Upload",
+                "Uploaded File", "2020-01-02T00:00:00Z", "Audio/Video",
+                true);
+            try (PDDocument before = Loader.loadPDF(cached);
+                    PDDocument after = Loader.loadPDF(reused)) {
+                assertThat(after.getDocumentInformation()
+                    .getCustomMetadataValue("VideoToPdfLevel"))
+                    .isEqualTo(before.getDocumentInformation()
+                        .getCustomMetadataValue("VideoToPdfLevel"));
+                assertThat(text(after, 1, 1))
+                    .contains("Published:  2020-01-02");
+                assertThat(after.getDocument().getObjectsByType(
+                    COSName.FONT_DESC)).hasSameSizeAs(before
+                        .getDocument().getObjectsByType(
+                            COSName.FONT_DESC));
+            }
+            assertThat(reused.length)
+                .isLessThan(cached.length + 1024);
+        }
+    }
+
+    private static String text(PDDocument doc, int from, int to)
+            throws Exception {
+        PDFTextStripper stripper = new PDFTextStripper();
+        stripper.setStartPage(from);
+        stripper.setEndPage(to);
+        return stripper.getText(doc);
+    }
+
+    private static byte[] compact(PdfService service, String text,
+            long maxBytes) throws Exception {
+        return service.generatePdf("Compact", "Channel",
+            "2024-01-01T00:00:00Z", null, text, "English", maxBytes);
+    }
+
+    private static MeterRegistry metered(PdfService service) {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(service, "metrics",
+            new ConversionMetrics(registry));
+        return registry;
+    }
+
+    private static long saves(MeterRegistry registry, String level) {
+        Timer timer = registry.find("videotopdf.pdf.save")
+            .tag("level", level).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private static byte[] render(PdfService service) throws Exception {
+        return service.generatePdf("Ten hours", "Channel",
+            "2024-01-01T00:00:00Z", null, tenHours, "English");
+    }
+}
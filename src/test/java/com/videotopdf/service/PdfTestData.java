@@ -0,0 +1,114 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Deterministic transcripts for the PDF tests, and a PdfService
+// wired without Spring
+final class PdfTestData {
+
+    private static final String[] WORDS = {
+        "the", "video", "transcript", "and", "so", "we", "are",
+        "going", "to", "talk", "about", "performance", "of", "this",
+        "system", "which", "really", "matters", "when", "you",
+        "render", "documents", "with", "thousands", "pages"
+    };
+
+    private PdfTestData() {}
+
+    // ~12 words a line and a [mm:ss] stamp every fifth line
+    static String transcript(int words) {
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder sb = new StringBuilder(words * 7);
+        int seconds = 0;
+        for (int i = 0; i < words; i++) {
+            if (i % 12 == 0) {
+                if (i > 0) sb.append('\n');
+                if (i % 60 == 0) {
+                    sb.append(String.format("[%02d:%02d] ",
+                        seconds / 60 % 60, seconds % 60));
+                    seconds += 7;
+                }
+            } else {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // Speech at 150 words a minute, a line of 12 words with its
+    // [hh:mm:ss] start time every 4.8 seconds
+    static String spoken(int seconds) {
+        SplittableRandom random = new SplittableRandom(7);
+        int lines = seconds * 150 / 60 / 12;
+        StringBuilder sb = new StringBuilder(lines * 100);
+        for (int line = 0; line < lines; line++) {
+            int s = line * 48 / 10;
+            sb.append(String.format("[%02d:%02d:%02d]",
+                s / 3600, s / 60 % 60, s % 60));
+            for (int w = 0; w < 12; w++) {
+                sb.append(' ')
+                    .append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Documents of largePages or more spill beyond heapBudget
+    static PdfService pdfService(int largePages, DataSize heapBudget) {
+        ConversionMetrics metrics =
+            new ConversionMetrics(new SimpleMeterRegistry());
+        PdfFonts fonts = new PdfFonts();
+        try {
+            fonts.load();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        PdfService service = new PdfService();
+        ReflectionTestUtils.setField(service, "pdfFonts", fonts);
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "stages", stages(metrics));
+        ReflectionTestUtils.setField(service, "largeDocumentPages",
+            largePages);
+        ReflectionTestUtils.setField(service, "largeDocumentHeapBudget",
+            heapBudget);
+        ReflectionTestUtils.setField(service, "scratchDir", "");
+        ReflectionTestUtils.setField(service, "parallelPages", 32);
+        ReflectionTestUtils.setField(service, "paragraphTimestamps",
+            true);
+        return service;
+    }
+
+    // Render with four threads so parallel pages get helpers
+    static PipelineStages stages(ConversionMetrics metrics) {
+        PipelineStages stages = new PipelineStages();
+        ReflectionTestUtils.setField(stages, "metrics", metrics);
+        for (String stage : new String[] {
+                "fetch", "translate", "captions", "transcribe",
+                "render"}) {
+            ReflectionTestUtils.setField(stages, stage + "Threads",
+                stage.equals("render") ? 4 : 1);
+            ReflectionTestUtils.setField(stages, stage + "Queue", 10);
+        }
+        stages.start();
+        return stages;
+    }
+
+    // The transcript's words without its timestamps
+    static List<String> words(String transcript) {
+        List<String> words = new ArrayList<>();
+        for (String word : transcript.split("\\s+")) {
+            if (!word.isEmpty() && !word.startsWith("[")) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
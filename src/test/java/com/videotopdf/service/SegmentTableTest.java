@@ -0,0 +1,81 @@
+package com.videotopdf.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Script output parses into timed or untimed segments, one '\n'
+// after each in the shared buffer
+class SegmentTableTest {
+
+    @Test
+    void segmentsHeaderGivesTimedRows() throws Exception {
+        SegmentTable t = read("SEGMENTS\n"
+            + "0\t1500\thello there\n"
+            + "1500\t2000\tgeneral\tkenobi\n"
+            + "no tabs at all\n"
+            + "x\t100\tbad start\n"
+            + "3500\t800\t\n");
+
+        assertThat(t.timed()).isTrue();
+        assertThat(t.size()).isEqualTo(3);
+        assertThat(t.start(1)).isEqualTo(1500);
+        assertThat(t.duration(1)).isEqualTo(2000);
+        // A tab inside the text is kept, as a space
+        assertThat(t.text(1).toString()).isEqualTo("general kenobi");
+        assertThat(t.text(2).toString()).isEmpty();
+        assertThat(t.start(2)).isEqualTo(3500);
+        assertThat(t.text().toString())
+            .isEqualTo("hello there\ngeneral kenobi\n\n");
+        assertThat(t.textLength()).isEqualTo(25);
+    }
+
+    @Test
+    void headerlessOutputIsUntimedLines() throws Exception {
+        SegmentTable t = read("[00:01] first line\nsecond\n");
+
+        assertThat(t.timed()).isFalse();
+        assertThat(t.size()).isEqualTo(2);
+        assertThat(t.start(0)).isEqualTo(-1);
+        assertThat(t.text(0).toString()).isEqualTo("[00:01] first line");
+        assertThat(t.text(1).toString()).isEqualTo("second");
+
+        SegmentTable empty = read("");
+        assertThat(empty.timed()).isFalse();
+        assertThat(empty.size()).isZero();
+        assertThat(empty.isBlank()).isTrue();
+    }
+
+    @Test
+    void untimedSplitsOnLineBreaks() {
+        SegmentTable t = SegmentTable.untimed("one\ntwo\r\n\tthree");
+
+        assertThat(t.size()).isEqualTo(3);
+        assertThat(t.text(1).toString()).isEqualTo("two ");
+        assertThat(t.text(2).toString()).isEqualTo(" three");
+        assertThat(t.contentEquals("one")).isFalse();
+        assertThat(SegmentTable.untimed(" only ").contentEquals("only"))
+            .isTrue();
+    }
+
+    @Test
+    void offsetsMapBackToTheirSegment() throws Exception {
+        SegmentTable t = read("SEGMENTS\n0\t10\tab\n10\t10\tcde\n");
+
+        // "ab\ncde\n": the separator belongs to the segment before it
+        assertThat(t.textStart(1)).isEqualTo(3);
+        assertThat(t.textEnd(1)).isEqualTo(6);
+        assertThat(t.segmentAt(0)).isZero();
+        assertThat(t.segmentAt(2)).isZero();
+        assertThat(t.segmentAt(3)).isEqualTo(1);
+        assertThat(t.segmentAt(6)).isEqualTo(1);
+    }
+
+    private static SegmentTable read(String output) throws Exception {
+        return SegmentTable.read(
+            new BufferedReader(new StringReader(output)));
+    }
+}
@@ -0,0 +1,316 @@
+package com.videotopdf.service;
+
+import com.videotopdf.model.Conversion;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// One index shared by every instance: docs wait in the spool until
+// a segment holds them, and searches see only the user's own docs
+class TranscriptIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private PdfFonts fonts;
+    private ConversionHistory history;
+    private MediaCache mediaCache;
+    private final List<TranscriptIndex> open = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fonts = new PdfFonts();
+        fonts.load();
+        history = mock(ConversionHistory.class);
+        when(history.userId("alice")).thenReturn(1L);
+        when(history.userId("bob")).thenReturn(2L);
+        mediaCache = mock(MediaCache.class);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (TranscriptIndex index : open) index.close();
+    }
+
+    @Test
+    void varintsAndSpooledDocsRoundTrip() {
+        VarintBuffer out = new VarintBuffer(4);
+        out.writeVarint(0);
+        out.writeVarint(300);
+        out.writeVarint(Long.MAX_VALUE);
+        out.writeInt(-7);
+        out.writeLong(Long.MIN_VALUE);
+        out.writeBytes("héllo".getBytes(StandardCharsets.UTF_8));
+        VarintReader in = new VarintReader(out.array(), out.length());
+        assertThat(in.readVarint()).isZero();
+        assertThat(in.readVarint()).isEqualTo(300);
+        assertThat(in.readVarint()).isEqualTo(Long.MAX_VALUE);
+        assertThat(in.readInt()).isEqualTo(-7);
+        assertThat(in.readLong()).isEqualTo(Long.MIN_VALUE);
+        assertThat(in.readString()).isEqualTo("héllo");
+        assertThat(in.hasMore()).isFalse();
+        assertThatThrownBy(in::readVarint)
+            .isInstanceOf(IllegalArgumentException.class);
+
+        TranscriptIndex.Positions positions =
+            new TranscriptIndex.Positions();
+        positions.add(1);
+        positions.add(40);
+        TranscriptIndex.Inverted doc = new TranscriptIndex.Inverted(9,
+            new IndexSegment.Doc("v1", "Talk", new int[] {0, 30},
+                new int[] {-1, 61000}),
+            Map.of("naïve", positions));
+        TranscriptIndex.Inverted back =
+            TranscriptIndex.Inverted.decode(doc.encode());
+        assertThat(back.userId).isEqualTo(9);
+        assertThat(back.doc.videoId).isEqualTo("v1");
+        assertThat(back.doc.title).isEqualTo("Talk");
+        assertThat(back.doc.paragraphStarts).containsExactly(0, 30);
+        assertThat(back.doc.paragraphTimes).containsExactly(-1, 61000);
+        assertThat(back.terms).containsOnlyKeys("naïve");
+        assertThat(back.terms.get("naïve").values)
+            .startsWith(1, 40);
+        assertThat(back.terms.get("naïve").count).isEqualTo(2);
+
+        byte[] truncated = doc.encode();
+        assertThatThrownBy(() -> TranscriptIndex.Inverted.decode(
+                Arrays.copyOf(truncated, truncated.length - 1)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void segmentsRoundTripThroughTheFile() throws Exception {
+        VarintBuffer postings = new VarintBuffer(16);
+        // doc 0 at positions 2, 5; doc 1 at position 0
+        postings.writeVarint(0);
+        postings.writeVarint(2);
+        postings.writeVarint(2);
+        postings.writeVarint(3);
+        postings.writeVarint(1);
+        postings.writeVarint(1);
+        postings.writeVarint(0);
+        Path file = dir.resolve("seg-00000001.vtx");
+        try (IndexSegment.Writer w = new IndexSegment.Writer(file)) {
+            w.addDoc(1, new IndexSegment.Doc("v1", "One",
+                new int[] {0}, new int[] {-1}));
+            w.addDoc(2, new IndexSegment.Doc("", "Two",
+                new int[] {0, 4}, new int[] {0, 5000}));
+            w.addTerm(bytes("apple"), 2, postings);
+            w.addTerm(bytes("pear"), 1, postings(0, 3));
+            w.finish();
+        }
+
+        IndexSegment seg = IndexSegment.open(file);
+        assertThat(seg.docCount()).isEqualTo(2);
+        assertThat(seg.termCount()).isEqualTo(2);
+        assertThat(seg.user(1)).isEqualTo(2);
+        assertThat(seg.doc(1).title).isEqualTo("Two");
+        assertThat(seg.doc(1).paragraphTimes).containsExactly(0, 5000);
+        assertThat(seg.find(bytes("banana"))).isNegative();
+
+        IndexSegment.Postings p = seg.postings(seg.find(bytes("apple")));
+        assertThat(p.nextDoc()).isZero();
+        assertThat(p.freq()).isEqualTo(2);
+        assertThat(p.positions()).startsWith(2, 5);
+        assertThat(p.nextDoc()).isEqualTo(1);
+        assertThat(p.positions()[0]).isZero();
+        assertThat(p.nextDoc()).isEqualTo(IndexSegment.NO_MORE_DOCS);
+    }
+
+    @Test
+    void searchesOnlyTheUsersOwnTranscripts() throws Exception {
+        TranscriptIndex index = index();
+        index.add(1L, "v1", "Cooking", "we bake bread every morning");
+        index.add(2L, "v2", "Secrets", "bread is the secret ingredient");
+        index.refresh();
+
+        assertThat(index.search("alice", "bread", 10))
+            .extracting(h -> h.videoId).containsExactly("v1");
+        assertThat(index.search("bob", "bread", 10))
+            .extracting(h -> h.videoId).containsExactly("v2");
+        assertThat(index.search("alice", "secret", 10)).isEmpty();
+        assertThat(index.search("carol", "bread", 10)).isEmpty();
+    }
+
+    @Test
+    void quotedWordsMatchAsAPhrase() throws Exception {
+        TranscriptIndex index = index();
+        index.add(1L, "v1", "Fox", "the quick brown fox jumps over");
+        index.refresh();
+
+        assertThat(index.search("alice", "\"quick brown\"", 10))
+            .hasSize(1);
+        assertThat(index.search("alice", "\"brown quick\"", 10))
+            .isEmpty();
+        // Loose words only have to occur
+        assertThat(index.search("alice", "fox quick", 10)).hasSize(1);
+        assertThat(index.search("alice", "fox cat", 10)).isEmpty();
+        TranscriptIndex.Hit hit =
+            index.search("alice", "jumps \"brown fox\"", 10).get(0);
+        assertThat(hit.matches).isEqualTo(2);
+        assertThat(hit.paragraphs[0]).isEqualTo(1);
+    }
+
+    @Test
+    void mergeKeepsTheNewestConversionOfAVideo() throws Exception {
+        TranscriptIndex index = index();
+        ReflectionTestUtils.setField(index, "mergeFactor", 2);
+        index.add(1L, "v1", "Old", "alpha beta");
+        index.refresh();
+        index.add(1L, "v1", "New", "gamma beta");
+        index.refresh();
+        index.add(1L, "v2", "Other", "beta delta");
+        index.refresh();
+
+        List<IndexSegment> segments = segments(index);
+        assertThat(segments).hasSize(2);
+        assertThat(segments.get(0).docCount()).isEqualTo(1);
+        assertThat(index.search("alice", "alpha", 10)).isEmpty();
+        assertThat(index.search("alice", "beta", 10))
+            .extracting(h -> h.title)
+            .containsExactlyInAnyOrder("New", "Other");
+        try (var files = Files.list(dir)) {
+            assertThat(files.filter(f -> f.toString().endsWith(".vtx")))
+                .hasSize(2);
+        }
+    }
+
+    @Test
+    void spooledDocsSurviveACrash() throws Exception {
+        TranscriptIndex first = index();
+        first.refresh();
+        first.add(1L, "v1", "Talk", "spooled before the crash");
+        crash(first);
+
+        TranscriptIndex second = index();
+        second.refresh();
+        assertThat(second.search("alice", "crash", 10))
+            .extracting(h -> h.videoId).containsExactly("v1");
+        try (var files = Files.list(dir.resolve("spool"))) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void everyInstanceSearchesWhatTheOwnerFlushed() throws Exception {
+        TranscriptIndex owner = index();
+        owner.refresh();
+        TranscriptIndex other = index();
+        other.refresh();
+
+        // Added on the instance that does not own the index
+        other.add(1L, "v1", "Talk", "indexed elsewhere");
+        other.refresh();
+        assertThat(other.search("alice", "elsewhere", 10)).isEmpty();
+
+        owner.refresh();
+        other.refresh();
+        assertThat(other.search("alice", "elsewhere", 10)).hasSize(1);
+        assertThat(owner.search("alice", "elsewhere", 10)).hasSize(1);
+
+        // The owner stops and hands over what it has spooled
+        owner.add(1L, "v2", "Late", "added before shutdown");
+        owner.close();
+        open.remove(owner);
+        other.refresh();
+        assertThat(other.search("alice", "shutdown", 10)).hasSize(1);
+    }
+
+    @Test
+    void lostIndexIsRebuiltFromCachedUploads() throws Exception {
+        Conversion cached = upload(5L, "h1", "lecture.mp4");
+        Conversion gone = upload(6L, "h2", "other.mp4");
+        when(history.uploads(eq(0L), anyInt()))
+            .thenReturn(List.of(cached, gone));
+        when(mediaCache.transcript("h1"))
+            .thenReturn("[00:00] entropy always increases");
+
+        TranscriptIndex index = index();
+        index.refresh();
+
+        List<TranscriptIndex.Hit> hits =
+            index.search("alice", "entropy", 10);
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).title).isEqualTo("lecture");
+        assertThat(hits.get(0).videoId).isEmpty();
+        assertThat(dir.resolve("segments")).exists();
+    }
+
+    private TranscriptIndex index() throws Exception {
+        TranscriptIndex index = new TranscriptIndex();
+        ReflectionTestUtils.setField(index, "pdfFonts", fonts);
+        ReflectionTestUtils.setField(index, "metrics",
+            new ConversionMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(index, "history", history);
+        ReflectionTestUtils.setField(index, "mediaCache", mediaCache);
+        ReflectionTestUtils.setField(index, "indexDir", dir.toString());
+        ReflectionTestUtils.setField(index, "flushDocs", 256);
+        // Only refresh() runs the indexer
+        ReflectionTestUtils.setField(index, "flushInterval",
+            Duration.ofHours(1));
+        ReflectionTestUtils.setField(index, "mergeFactor", 8);
+        index.open();
+        open.add(index);
+        return index;
+    }
+
+    // Stops without flushing; closing the channel drops the lock
+    private void crash(TranscriptIndex index) throws Exception {
+        ((ExecutorService) ReflectionTestUtils.getField(index,
+            "indexer")).shutdownNow();
+        ((FileChannel) ReflectionTestUtils.getField(index,
+            "lockFile")).close();
+        open.remove(index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<IndexSegment> segments(TranscriptIndex index) {
+        return (List<IndexSegment>) ReflectionTestUtils.getField(index,
+            "segments");
+    }
+
+    private static Conversion upload(Long id, String hash,
+            String title) {
+        Conversion c = new Conversion();
+        c.setId(id);
+        c.setUserId(1L);
+        c.setSource(Conversion.Source.FILE);
+        c.setStatus(Conversion.Status.SUCCESS);
+        c.setUploadHash(hash);
+        c.setTitle(title);
+        return c;
+    }
+
+    private static VarintBuffer postings(int doc, int position) {
+        VarintBuffer b = new VarintBuffer(8);
+        b.writeVarint(doc);
+        b.writeVarint(1);
+        b.writeVarint(position);
+        return b;
+    }
+
+    private static byte[] bytes(String term) {
+        return term.getBytes(StandardCharsets.UTF_8);
+    }
+}
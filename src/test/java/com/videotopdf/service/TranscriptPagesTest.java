@@ -0,0 +1,241 @@
+package com.videotopdf.service;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+// One text object per page must read back, glyph for glyph, like
+// the baseline PdfService drew it: PDPageContentStream with
+// BT/Tf/rg/Td/Tj/ET per line in Helvetica
+class TranscriptPagesTest {
+
+    private static final float LEFT = 60;
+    private static final float TOP = 727;
+    private static final float LINE_HEIGHT = 18;
+    private static final float PARA_SPACING = 10;
+    private static final PDFont HELVETICA =
+        new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+
+    private static FontChain chain;
+    private static String transcript;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        PdfFonts fonts = new PdfFonts();
+        fonts.load();
+        chain = fonts.regular();
+        transcript = PdfTestData.transcript(6000);
+    }
+
+    @Test
+    void pageTextObjectReadsLikeTheBaseline() throws Exception {
+        TranscriptText text = TranscriptText.parse(transcript, chain);
+        TranscriptLayout layout = paginate(text);
+        assertThat(layout.pageCount()).isGreaterThan(3);
+
+        try (PDDocument perPage = new PDDocument();
+                PDDocument baseline = new PDDocument()) {
+            Map<FontFace, String> names = new IdentityHashMap<>();
+            PDResources resources = resources(perPage, text, names);
+            TranscriptPages pages = pages(text, layout, names);
+            for (int p = 0; p < layout.pageCount(); p++) {
+                addPage(perPage, resources, pages.write(p));
+                addBaselinePage(baseline, text, layout, p);
+            }
+
+            List<Glyph> drawn = new ArrayList<>();
+            List<Glyph> expected = new ArrayList<>();
+            String extracted = extract(perPage, drawn);
+            assertThat(extracted).isEqualTo(extract(baseline, expected));
+            assertThat(words(extracted)).containsExactlyElementsOf(
+                PdfTestData.words(transcript));
+
+            assertThat(drawn).hasSameSizeAs(expected);
+            for (int i = 0; i < drawn.size(); i++) {
+                Glyph a = drawn.get(i);
+                Glyph b = expected.get(i);
+                assertThat(a.page).as("page of glyph %d", i)
+                    .isEqualTo(b.page);
+                assertThat(a.unicode).as("glyph %d", i)
+                    .isEqualTo(b.unicode);
+                assertThat(a.x).as("x of glyph %d", i)
+                    .isCloseTo(b.x, within(0.01f));
+                assertThat(a.y).as("y of glyph %d", i)
+                    .isCloseTo(b.y, within(0.01f));
+                assertThat(a.width).as("width of glyph %d", i)
+                    .isCloseTo(b.width, within(0.01f));
+                assertThat(a.size).as("size of glyph %d", i)
+                    .isEqualTo(b.size);
+            }
+        }
+    }
+
+    @Test
+    void pageTextObjectIsOneTextObjectPerPage() throws Exception {
+        TranscriptText text = TranscriptText.parse(transcript, chain);
+        TranscriptLayout layout = paginate(text);
+        try (PDDocument doc = new PDDocument()) {
+            Map<FontFace, String> names = new IdentityHashMap<>();
+            PDResources resources = resources(doc, text, names);
+            TranscriptPages pages = pages(text, layout, names);
+            addPage(doc, resources, pages.write(0));
+
+            String content = new String(doc.getPage(0)
+                .getContents().readAllBytes());
+            // Body and page number
+            assertThat(content.split("\nBT\n", -1)).hasSize(3);
+            assertThat(content.split(" Tf\n", -1)).hasSize(3);
+        }
+    }
+
+    private static final class Glyph {
+        int page;
+        String unicode;
+        float x;
+        float y;
+        float width;
+        float size;
+    }
+
+    // Text as PDFTextStripper reads it, and where each glyph landed
+    private static String extract(PDDocument doc, List<Glyph> glyphs)
+            throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            protected void processTextPosition(TextPosition t) {
+                Glyph g = new Glyph();
+                g.page = getCurrentPageNo();
+                g.unicode = t.getUnicode();
+                g.x = t.getXDirAdj();
+                g.y = t.getYDirAdj();
+                g.width = t.getWidthDirAdj();
+                g.size = t.getFontSizeInPt();
+                glyphs.add(g);
+                super.processTextPosition(t);
+            }
+        };
+        return stripper.getText(doc);
+    }
+
+    private static TranscriptLayout paginate(TranscriptText text) {
+        return TranscriptLayout.paginate(text, chain, 11, 475, TOP,
+            95, LINE_HEIGHT, PARA_SPACING);
+    }
+
+    private static TranscriptPages pages(TranscriptText text,
+            TranscriptLayout layout, Map<FontFace, String> names) {
+        return new TranscriptPages(text, layout, chain, names,
+            "Fm1", "Fm2", 11, LEFT, TOP, LINE_HEIGHT, PARA_SPACING,
+            false);
+    }
+
+    // Fonts for every character used, and empty header and footer
+    private static PDResources resources(PDDocument doc,
+            TranscriptText text, Map<FontFace, String> names)
+            throws IOException {
+        PDResources resources = new PDResources();
+        DocumentFonts fonts = new DocumentFonts(doc);
+        StringBuilder used = new StringBuilder(
+            TranscriptPages.pageLabel(0) + "0123456789");
+        for (int c = text.usedChars().nextSetBit(0); c >= 0;
+                c = text.usedChars().nextSetBit(c + 1)) {
+            used.append((char) c);
+        }
+        for (int i = 0; i < used.length(); i++) {
+            FontFace face = chain.face(used.charAt(i));
+            if (!names.containsKey(face)) {
+                names.put(face,
+                    resources.add(fonts.get(face)).getName());
+            }
+        }
+        for (String form : new String[] {"Fm1", "Fm2"}) {
+            PDFormXObject xobject = new PDFormXObject(doc);
+            xobject.setBBox(PDRectangle.A4);
+            resources.put(COSName.getPDFName(form), xobject);
+        }
+        return resources;
+    }
+
+    // The baseline PdfService's transcript loop and page number,
+    // at the same line positions
+    private static void addBaselinePage(PDDocument doc,
+            TranscriptText text, TranscriptLayout layout, int page)
+            throws IOException {
+        PDPage pdPage = new PDPage(PDRectangle.A4);
+        doc.addPage(pdPage);
+        try (PDPageContentStream cs =
+                new PDPageContentStream(doc, pdPage)) {
+            float y = TOP;
+            StringBuilder line = new StringBuilder();
+            int first = layout.pageStart(page);
+            for (int l = first; l < layout.pageEnd(page); l++) {
+                if (l > first) {
+                    y -= layout.gapBefore(l)
+                        ? LINE_HEIGHT + PARA_SPACING : LINE_HEIGHT;
+                }
+                line.setLength(0);
+                text.appendWords(line, layout.lineFromWord(l),
+                    layout.lineToWord(l), chain);
+                cs.beginText();
+                cs.setFont(HELVETICA, 11);
+                cs.setNonStrokingColor(0f, 0f, 0f);
+                cs.newLineAtOffset(LEFT, y);
+                cs.showText(line.toString().trim());
+                cs.endText();
+            }
+            cs.beginText();
+            cs.setFont(HELVETICA, 9);
+            cs.setNonStrokingColor(0.4f, 0.4f, 0.4f);
+            cs.newLineAtOffset(LEFT, 20);
+            cs.showText(TranscriptPages.pageLabel(page + 1));
+            cs.endText();
+        }
+    }
+
+    private static void addPage(PDDocument doc, PDResources resources,
+            byte[] content) throws IOException {
+        PDPage page = new PDPage(PDRectangle.A4);
+        page.setResources(resources);
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(content);
+        }
+        stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        page.getCOSObject().setItem(COSName.CONTENTS, stream);
+        doc.addPage(page);
+    }
+
+    // Words of the body text, without page labels
+    private static List<String> words(String extracted) {
+        List<String> words = new ArrayList<>();
+        for (String line : extracted.split("\\R")) {
+            if (line.startsWith("VideoToPdf")) continue;
+            words.addAll(Arrays.asList(line.trim().split("\\s+")));
+        }
+        words.removeIf(String::isEmpty);
+        return words;
+    }
+}
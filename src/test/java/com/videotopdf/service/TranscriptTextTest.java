@@ -0,0 +1,114 @@
+package com.videotopdf.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Words come out as the old regex path gave them: stamps and the
+// space after them cut out, even from inside a word
+class TranscriptTextTest {
+
+    private static FontChain chain;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        PdfFonts fonts = new PdfFonts();
+        fonts.load();
+        chain = fonts.regular();
+    }
+
+    @Test
+    void stampInsideAWordKeepsItWhole() {
+        assertThat(words("foo[00:12]bar baz"))
+            .containsExactly("foobar", "baz");
+        // The regex took the space after the stamp too
+        assertThat(words("foo[00:12] bar"))
+            .containsExactly("foobar");
+        assertThat(words("foo [00:12]bar"))
+            .containsExactly("foo", "bar");
+        assertThat(words("a [00:01] b c[01:02:03]d e[00:09]"))
+            .containsExactly("a", "b", "cd", "e");
+
+        TranscriptText text =
+            TranscriptText.parse("one tw[00:12]o three", chain);
+        StringBuilder sb = new StringBuilder();
+        text.appendWords(sb, 0, text.wordCount(), chain);
+        assertThat(sb).hasToString("one two three");
+    }
+
+    @Test
+    void matchesTheRegexPath() {
+        SplittableRandom random = new SplittableRandom(3);
+        StringBuilder sb =
+            new StringBuilder(PdfTestData.transcript(3000));
+        // Stamps dropped in anywhere outside another stamp: mid-word,
+        // before spaces and line breaks, and at the end
+        for (int n = 0; n < 200; ) {
+            int at = random.nextInt(sb.length() + 1);
+            if (inStamp(sb, at)) continue;
+            sb.insert(at,
+                random.nextBoolean() ? "[12:34]" : "[01:02:03]");
+            n++;
+        }
+        String transcript = sb.toString();
+
+        TranscriptText text = TranscriptText.parse(transcript, chain);
+        List<String> paragraphs = new ArrayList<>();
+        for (int p = 0; p < text.paragraphCount(); p++) {
+            StringBuilder para = new StringBuilder();
+            text.appendWords(para, text.paragraphStart(p),
+                text.paragraphEnd(p), chain);
+            paragraphs.add(para.toString());
+        }
+        assertThat(paragraphs).isEqualTo(regexParagraphs(transcript));
+    }
+
+    private static boolean inStamp(CharSequence s, int at) {
+        return at > 0 && at < s.length()
+            && !Character.isLetter(s.charAt(at - 1))
+            && !Character.isWhitespace(s.charAt(at - 1));
+    }
+
+    private static List<String> words(String transcript) {
+        TranscriptText text = TranscriptText.parse(transcript, chain);
+        List<String> words = new ArrayList<>();
+        for (int w = 0; w < text.wordCount(); w++) {
+            words.add(text.source().subSequence(
+                text.wordStart(w), text.wordEnd(w)).toString());
+        }
+        return words;
+    }
+
+    // What PdfService did before the single pass: strip the stamps,
+    // then four non-empty lines to a paragraph
+    private static List<String> regexParagraphs(String transcript) {
+        String clean = transcript
+            .replaceAll("\\[\\d{2}:\\d{2}:\\d{2}\\]\\s*", "")
+            .replaceAll("\\[\\d{2}:\\d{2}\\]\\s*", "")
+            .trim();
+        List<String> paragraphs = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int lines = 0;
+        for (String line : clean.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) continue;
+            current.append(trimmed).append(' ');
+            if (++lines >= 4) {
+                paragraphs.add(current.toString().trim()
+                    .replaceAll("\\s+", " "));
+                current.setLength(0);
+                lines = 0;
+            }
+        }
+        if (current.length() > 0) {
+            paragraphs.add(current.toString().trim()
+                .replaceAll("\\s+", " "));
+        }
+        return paragraphs;
+    }
+}
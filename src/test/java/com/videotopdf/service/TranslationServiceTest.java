@@ -0,0 +1,107 @@
+package com.videotopdf.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Timed segments keep their timings through translation, even when
+// the API merges or splits lines
+class TranslationServiceTest {
+
+    private HttpServer server;
+    private volatile String reply;
+    private ConversionMetrics metrics;
+    private TranslationService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(
+            new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/get", exchange -> {
+            byte[] body = new JSONObject()
+                .put("responseStatus", 200)
+                .put("responseData",
+                    new JSONObject().put("translatedText", reply))
+                .toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        metrics = new ConversionMetrics(new SimpleMeterRegistry());
+        service = new TranslationService();
+        ReflectionTestUtils.setField(service, "apiUrl",
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/get");
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "stages",
+            PdfTestData.stages(metrics));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void alignedLinesKeepTheirSegments() throws Exception {
+        reply = "good morning\neverybody\n";
+
+        SegmentTable t = service.translateToEnglish(segments(), "de");
+
+        assertThat(t.size()).isEqualTo(2);
+        assertThat(t.text(0).toString()).isEqualTo("good morning");
+        assertThat(t.start(1)).isEqualTo(2000);
+        assertThat(t.duration(1)).isEqualTo(1000);
+        assertThat(t.text(1).toString()).isEqualTo("everybody");
+        assertThat(metrics.misalignedChunks().count()).isZero();
+    }
+
+    @Test
+    void mergedLinesAreSpreadByLength() throws Exception {
+        reply = "good morning to all of you here";
+
+        SegmentTable t = service.translateToEnglish(segments(), "de");
+
+        // Source lengths 12 and 13: 3 of the 7 words go first
+        assertThat(t.size()).isEqualTo(2);
+        assertThat(t.start(0)).isZero();
+        assertThat(t.text(0).toString()).isEqualTo("good morning to");
+        assertThat(t.start(1)).isEqualTo(2000);
+        assertThat(t.text(1).toString())
+            .isEqualTo("all of you here");
+        assertThat(metrics.misalignedChunks().count()).isEqualTo(1);
+    }
+
+    @Test
+    void emptyTranslationLeavesSegmentsBlank() throws Exception {
+        reply = "";
+
+        SegmentTable t = service.translateToEnglish(segments(), "de");
+
+        assertThat(t.size()).isEqualTo(2);
+        assertThat(t.text(0).toString()).isEmpty();
+        assertThat(t.text(1).toString()).isEmpty();
+        assertThat(t.start(1)).isEqualTo(2000);
+        assertThat(metrics.misalignedChunks().count()).isEqualTo(1);
+    }
+
+    private static SegmentTable segments() throws Exception {
+        return SegmentTable.read(new BufferedReader(new StringReader(
+            "SEGMENTS\n0\t2000\tguten Morgen\n"
+            + "2000\t1000\tihr alle hier\n")));
+    }
+}
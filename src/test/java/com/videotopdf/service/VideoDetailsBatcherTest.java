@@ -0,0 +1,192 @@
+package com.videotopdf.service;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// A lone lookup goes at once; lookups that arrive while a call is
+// in flight share the next one
+class VideoDetailsBatcherTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(10);
+
+    private final List<List<String>> calls = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstCall = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Thread> callers = new CopyOnWriteArrayList<>();
+    private volatile Exception failure;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    void loneLookupDoesNotWaitOutTheWindow() throws Exception {
+        VideoDetailsBatcher batcher = batcher(50, false);
+
+        long start = System.nanoTime();
+        assertThat(batcher.load("a").getString("id")).isEqualTo("a");
+        assertThat(batcher.load("b").getString("id")).isEqualTo("b");
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start))
+            .isLessThan(Duration.ofSeconds(5));
+        assertThat(calls).containsExactly(List.of("a"), List.of("b"));
+    }
+
+    @Test
+    void lookupsDuringACallShareTheNext() throws Exception {
+        VideoDetailsBatcher batcher = batcher(50, true);
+        CompletableFuture<JSONObject> a = load(batcher, "a");
+        assertThat(firstCall.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<CompletableFuture<JSONObject>> waiting = new ArrayList<>();
+        for (String id : new String[] {"b", "c", "b"}) {
+            waiting.add(load(batcher, id));
+        }
+        awaitParked(4);
+        assertThat(calls).hasSize(1);
+
+        release.countDown();
+        assertThat(a.get(5, TimeUnit.SECONDS).getString("id"))
+            .isEqualTo("a");
+        assertThat(waiting.get(0).get(5, TimeUnit.SECONDS)
+            .getString("id")).isEqualTo("b");
+        assertThat(waiting.get(1).get(5, TimeUnit.SECONDS)
+            .getString("id")).isEqualTo("c");
+        assertThat(waiting.get(2).get(5, TimeUnit.SECONDS)
+            .getString("id")).isEqualTo("b");
+        // Woken when the first call ended, not by the window
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1)).containsExactlyInAnyOrder("b", "c");
+    }
+
+    @Test
+    void fullBatchGoesWithoutWaiting() throws Exception {
+        VideoDetailsBatcher batcher = batcher(3, true);
+        CompletableFuture<JSONObject> a = load(batcher, "a");
+        assertThat(firstCall.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<CompletableFuture<JSONObject>> full = new ArrayList<>();
+        for (String id : new String[] {"b", "c", "d"}) {
+            full.add(load(batcher, id));
+        }
+        // Done while the first call is still held up
+        for (CompletableFuture<JSONObject> f : full) {
+            assertThat(f.get(5, TimeUnit.SECONDS)).isNotNull();
+        }
+        assertThat(a).isNotDone();
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(1))
+            .containsExactlyInAnyOrder("b", "c", "d");
+    }
+
+    @Test
+    void missingIdsGetNull() throws Exception {
+        VideoDetailsBatcher batcher = batcher(50, true);
+        CompletableFuture<JSONObject> a = load(batcher, "a");
+        assertThat(firstCall.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<JSONObject> b = load(batcher, "b");
+        CompletableFuture<JSONObject> missing =
+            load(batcher, "missing");
+        awaitParked(3);
+
+        release.countDown();
+        assertThat(a.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(b.get(5, TimeUnit.SECONDS).getString("id"))
+            .isEqualTo("b");
+        assertThat(missing.get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(calls).hasSize(2);
+    }
+
+    @Test
+    void failedCallReachesEveryWaiter() throws Exception {
+        failure = new IOException("quota exceeded");
+        VideoDetailsBatcher batcher = batcher(50, true);
+        CompletableFuture<JSONObject> a = load(batcher, "a");
+        assertThat(firstCall.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<JSONObject> b = load(batcher, "b");
+        CompletableFuture<JSONObject> c = load(batcher, "c");
+        CompletableFuture<JSONObject> c2 = load(batcher, "c");
+        awaitParked(4);
+
+        release.countDown();
+        for (CompletableFuture<JSONObject> f : List.of(a, b, c, c2)) {
+            assertThatThrownBy(() -> f.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseReference(failure);
+        }
+        assertThat(calls).hasSize(2);
+    }
+
+    // Items for every id but "missing"; the first call is held until
+    // release when holdFirst is set
+    private VideoDetailsBatcher batcher(int maxIds, boolean holdFirst) {
+        return new VideoDetailsBatcher(ids -> {
+            calls.add(List.copyOf(ids));
+            if (calls.size() == 1) {
+                firstCall.countDown();
+                if (holdFirst) release.await();
+            }
+            if (failure != null) throw failure;
+            Map<String, JSONObject> items = new HashMap<>();
+            for (String id : ids) {
+                if (!id.equals("missing")) {
+                    items.put(id, new JSONObject().put("id", id));
+                }
+            }
+            return items;
+        }, WINDOW, maxIds);
+    }
+
+    // On a thread of its own
+    private CompletableFuture<JSONObject> load(
+            VideoDetailsBatcher batcher, String id) {
+        CompletableFuture<JSONObject> result = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                result.complete(batcher.load(id));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        t.setDaemon(true);
+        callers.add(t);
+        t.start();
+        return result;
+    }
+
+    // Until that many callers are parked: held in the call, leading
+    // a batch or waiting for one
+    private void awaitParked(int n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            int parked = 0;
+            for (Thread t : callers) {
+                Thread.State state = t.getState();
+                if (state == Thread.State.WAITING
+                        || state == Thread.State.TIMED_WAITING) {
+                    parked++;
+                }
+            }
+            if (parked >= n) return;
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Callers did not park");
+    }
+}
@@ -0,0 +1,271 @@
+package com.videotopdf.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Captionless videos skip the script for a while, slow captions are
+// hedged with the description, and the fallback is built from the
+// details a conversion already has
+class YouTubeServiceTest {
+
+    private static final String CAPTIONS =
+        "SEGMENTS\n0\t4000\tlong enough to count as a real transcript\n";
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SimpleMeterRegistry registry;
+    private ConversionMetrics metrics;
+    private Subprocesses subprocesses;
+    private YouTubeService service;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new ConversionMetrics(registry);
+        subprocesses = mock(Subprocesses.class);
+        service = new YouTubeService();
+        ReflectionTestUtils.setField(service, "metrics", metrics);
+        ReflectionTestUtils.setField(service, "subprocesses",
+            subprocesses);
+        ReflectionTestUtils.setField(service, "stages",
+            PdfTestData.stages(metrics));
+        ReflectionTestUtils.setField(service, "batchWindow",
+            Duration.ofMillis(20));
+        ReflectionTestUtils.setField(service, "batchMaxIds", 50);
+        ReflectionTestUtils.setField(service, "negativeTtl",
+            Duration.ofHours(6));
+        ReflectionTestUtils.setField(service, "negativeCacheSize", 100);
+        ReflectionTestUtils.setField(service, "captionsBudget",
+            Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "descriptionBudget",
+            Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "hedgeAfter",
+            Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "fallbackThreads", 1);
+        ReflectionTestUtils.setField(service, "fallbackQueue", 1);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        ReflectionTestUtils.setField(service, "batcher",
+            new VideoDetailsBatcher(this::fetch,
+                TimeUnit.MILLISECONDS.toNanos(20), 50));
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        ReflectionTestUtils.invokeMethod(service, "stop");
+    }
+
+    @Test
+    void noCaptionsAreRememberedUntilTheTtl() throws Exception {
+        scripts(new Script("NO_TRANSCRIPT_AVAILABLE\n", 0, 0),
+            new Script("NO_TRANSCRIPT_AVAILABLE\n", 0, 0));
+
+        assertThat(transcript(service.getTranscript("v", details())))
+            .contains("The talk, in short");
+        assertThat(transcript(service.getTranscript("v", details())))
+            .contains("The talk, in short");
+        verify(subprocesses, times(1))
+            .start(any(), eq("get_transcript"));
+        assertThat(captions("none")).isEqualTo(1);
+        assertThat(captions("cached-none")).isEqualTo(1);
+
+        // Past its TTL the script runs again
+        noCaptions().put("v", System.nanoTime() - 1);
+        service.getTranscript("v", details());
+        verify(subprocesses, times(2))
+            .start(any(), eq("get_transcript"));
+        assertThat(captions("none")).isEqualTo(2);
+        assertThat(lookups).hasValue(0);
+    }
+
+    @Test
+    void slowCaptionsThatFailFallBackToTheHedge() throws Exception {
+        ReflectionTestUtils.setField(service, "hedgeAfter",
+            Duration.ofMillis(50));
+        scripts(new Script("", 1, 300));
+
+        SegmentTable t = service.getTranscript("v", details());
+
+        assertThat(t.timed()).isFalse();
+        assertThat(transcript(t)).contains("The talk, in short");
+        assertThat(metrics.transcriptHedges().count()).isEqualTo(1);
+        assertThat(captions("failed")).isEqualTo(1);
+        // Built from the details passed in
+        assertThat(lookups).hasValue(0);
+    }
+
+    @Test
+    void hedgedCaptionsStillWinWhenTheyArrive() throws Exception {
+        ReflectionTestUtils.setField(service, "hedgeAfter",
+            Duration.ofMillis(50));
+        scripts(new Script(CAPTIONS, 0, 300));
+
+        SegmentTable t = service.getTranscript("v", details());
+
+        assertThat(t.timed()).isTrue();
+        assertThat(metrics.transcriptHedges().count()).isEqualTo(1);
+        assertThat(metrics.descriptionFallbacks().count()).isZero();
+    }
+
+    @Test
+    void withoutDetailsTheFallbackLooksThemUpOnce() throws Exception {
+        ReflectionTestUtils.setField(service, "hedgeAfter",
+            Duration.ofMillis(50));
+        scripts(new Script("", 1, 300));
+
+        assertThat(transcript(service.getTranscript("v")))
+            .contains("The talk, in short");
+        assertThat(lookups).hasValue(1);
+    }
+
+    @Test
+    void fullFallbackPoolTurnsLookupsAway() throws Exception {
+        ExecutorService sources = (ExecutorService)
+            ReflectionTestUtils.getField(service, "sources");
+        // One running, one queued
+        for (int i = 0; i < 2; i++) {
+            sources.submit(() -> {
+                release.await();
+                return null;
+            });
+        }
+        noCaptions().put("v", System.nanoTime()
+            + TimeUnit.HOURS.toNanos(1));
+
+        assertThatThrownBy(() -> service.getTranscript("v"))
+            .isInstanceOfSatisfying(ConversionException.class,
+                e -> assertThat(e.getStatus()).isEqualTo(503));
+        // Known details need no thread from the pool
+        assertThat(transcript(service.getTranscript("v", details())))
+            .contains("The talk, in short");
+    }
+
+    private Map<String, JSONObject> fetch(List<String> ids) {
+        lookups.incrementAndGet();
+        Map<String, JSONObject> items = new HashMap<>();
+        for (String id : ids) {
+            JSONObject snippet = new JSONObject()
+                .put("title", "Talk")
+                .put("channelTitle", "Channel")
+                .put("description", "The talk, in short\n\nmore")
+                .put("publishedAt", "2024-01-01T00:00:00Z")
+                .put("thumbnails", new JSONObject().put("high",
+                    new JSONObject().put("url", "http://t/hq.jpg")));
+            items.put(id, new JSONObject().put("id", id)
+                .put("snippet", snippet));
+        }
+        return items;
+    }
+
+    private static JSONObject details() {
+        return new JSONObject()
+            .put("title", "Talk")
+            .put("description", "The talk, in short\n\nmore");
+    }
+
+    private void scripts(Script first, Script... rest) throws Exception {
+        when(subprocesses.start(any(), eq("get_transcript")))
+            .thenReturn(first, rest);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> noCaptions() {
+        return (Map<String, Long>)
+            ReflectionTestUtils.getField(service, "noCaptions");
+    }
+
+    private double captions(String result) {
+        return registry.counter("videotopdf.transcript.captions",
+            "result", result).count();
+    }
+
+    private static String transcript(SegmentTable t) {
+        return t.text().toString();
+    }
+
+    // get_transcript.py writing its output after a delay
+    private static final class Script extends Process {
+
+        private final byte[] output;
+        private final int exit;
+        private final long delayMs;
+
+        Script(String output, int exit, long delayMs) {
+            this.output = output.getBytes(StandardCharsets.UTF_8);
+            this.exit = exit;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(output) {
+                private boolean started;
+
+                @Override
+                public synchronized int read(byte[] b, int off,
+                        int len) {
+                    if (!started) {
+                        started = true;
+                        try {
+                            Thread.sleep(delayMs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return -1;
+                        }
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public int waitFor() {
+            return exit;
+        }
+
+        @Override
+        public int exitValue() {
+            return exit;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
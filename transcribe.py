@@ -1,7 +1,11 @@
 import sys
 import os
+import json
 import subprocess
 
+# Some segments failed; the rest are checkpointed for a retry
+EXIT_INCOMPLETE = 3
+
 os.environ["PATH"] = "/usr/bin:/usr/local/bin:/bin:" + os.environ.get("PATH", "")
 
 def find_ffmpeg():
@@ -21,51 +25,95 @@ def convert_to_wav(input_path, ffmpeg_path):
     print("WAV size:", os.path.getsize(wav_path), file=sys.stderr)
     return wav_path
 
-def transcribe_wav(wav_path):
+def plan_segments(audio, checkpoint_dir):
+    # Segment boundaries in ms; saved so a resumed run uses the same ones
+    plan_path = os.path.join(checkpoint_dir, "plan.json") if checkpoint_dir else None
+    if plan_path and os.path.exists(plan_path):
+        with open(plan_path) as f:
+            return [tuple(s) for s in json.load(f)]
+
+    from pydub.silence import detect_nonsilent
+    keep = 300
+    ranges = detect_nonsilent(audio, min_silence_len=600, silence_thresh=audio.dBFS - 14)
+    segments = [(max(0, s - keep), min(len(audio), e + keep)) for s, e in ranges]
+    if not segments:
+        chunk_ms = 20 * 1000
+        segments = [(i, min(len(audio), i + chunk_ms)) for i in range(0, len(audio), chunk_ms)]
+    if plan_path:
+        write_atomic(plan_path, json.dumps(segments))
+    return segments
+
+def write_atomic(path, text):
+    tmp = f"{path}.{os.getpid()}.tmp"
+    with open(tmp, "w", encoding="utf-8") as f:
+        f.write(text)
+    os.replace(tmp, path)
+
+def transcribe_wav(wav_path, checkpoint_dir=None):
     import speech_recognition as sr
     from pydub import AudioSegment
-    from pydub.silence import split_on_silence
 
     recognizer = sr.Recognizer()
     audio = AudioSegment.from_wav(wav_path)
     duration = len(audio) / 1000
     print(f"Duration: {duration:.1f} sec", file=sys.stderr)
 
-    chunks = split_on_silence(audio, min_silence_len=600, silence_thresh=audio.dBFS - 14, keep_silence=300)
-    if not chunks:
-        chunk_ms = 20 * 1000
-        chunks = [audio[i:i+chunk_ms] for i in range(0, len(audio), chunk_ms)]
-
-    print(f"Chunks: {len(chunks)}", file=sys.stderr)
+    segments = plan_segments(audio, checkpoint_dir)
+    print(f"Chunks: {len(segments)}", file=sys.stderr)
     results = []
+    resumed = 0
+    failed = 0
+
+    for i, (start, end) in enumerate(segments):
+        # One file per finished segment, named by its boundaries;
+        # unclear audio is saved empty, API errors are not saved
+        done_path = os.path.join(checkpoint_dir, f"{start:09d}-{end:09d}.txt") if checkpoint_dir else None
+        if done_path and os.path.exists(done_path):
+            with open(done_path, encoding="utf-8") as f:
+                text = f.read()
+            resumed += 1
+            if text:
+                results.append(text)
+            continue
 
-    for i, chunk in enumerate(chunks):
         chunk_path = f"/tmp/chunk_{i}_{os.getpid()}.wav"
+        text = None
         try:
-            padded = AudioSegment.silent(200) + chunk + AudioSegment.silent(200)
+            padded = AudioSegment.silent(200) + audio[start:end] + AudioSegment.silent(200)
             padded.export(chunk_path, format="wav")
             with sr.AudioFile(chunk_path) as source:
                 audio_data = recognizer.record(source)
-            text = recognizer.recognize_google(audio_data, language="en-US")
-            print(f"[{i+1}/{len(chunks)}] {text}", file=sys.stderr)
-            if text.strip():
-                results.append(text.strip())
+            text = recognizer.recognize_google(audio_data, language="en-US").strip()
+            print(f"[{i+1}/{len(segments)}] {text}", file=sys.stderr)
+            if text:
+                results.append(text)
         except sr.UnknownValueError:
-            print(f"[{i+1}/{len(chunks)}] unclear", file=sys.stderr)
+            text = ""
+            print(f"[{i+1}/{len(segments)}] unclear", file=sys.stderr)
         except sr.RequestError as e:
-            print(f"[{i+1}/{len(chunks)}] API error: {e}", file=sys.stderr)
+            print(f"[{i+1}/{len(segments)}] API error: {e}", file=sys.stderr)
         except Exception as e:
-            print(f"[{i+1}/{len(chunks)}] error: {e}", file=sys.stderr)
+            print(f"[{i+1}/{len(segments)}] error: {e}", file=sys.stderr)
         finally:
             if os.path.exists(chunk_path):
                 os.remove(chunk_path)
+        if text is None:
+            failed += 1
+        elif done_path:
+            write_atomic(done_path, text)
 
-    return " ".join(results)
+    if resumed:
+        print(f"Resumed {resumed} of {len(segments)} chunks", file=sys.stderr)
+    if failed:
+        print(f"{failed} of {len(segments)} chunks failed", file=sys.stderr)
+    return " ".join(results), failed
 
 def main():
     if len(sys.argv) < 2:
         sys.exit(1)
     input_file = sys.argv[1]
+    # Optional: directory of finished segments to resume from
+    checkpoint_dir = sys.argv[2] if len(sys.argv) > 2 else None
     print("Input:", input_file, file=sys.stderr)
     if not os.path.exists(input_file):
         print("FILE NOT FOUND", file=sys.stderr)
@@ -77,7 +125,10 @@ def main():
     if not wav_path:
         sys.exit(1)
     try:
-        transcript = transcribe_wav(wav_path)
+        transcript, failed = transcribe_wav(wav_path, checkpoint_dir)
+        if failed:
+            # A transcript with holes is not printed, so it is never cached
+            sys.exit(EXIT_INCOMPLETE)
         if transcript.strip():
             print(transcript)
         else: